@@ -1,136 +1,320 @@
-package server.cli;
-
-import java.io.BufferedReader;
-import java.io.Console;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.net.ConnectException;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.util.Date;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import server.info.ServerInfo;
-
-/**
- * CLI is designed to talk to a MetaServer and ONLY to a MetaServer.
- * @author Plamen Jeliazkov
- *
- */
-public class CommandLineInterface {
-	private final Log LOG = LogFactory.getLog(CommandLineInterface.class);
-	private final int META_PORT = 7400;
-	
-	private final Date START_TIME = new Date();
-	private String IP_ADDRESS = null;
-	private Socket META_SOCKET = null; //socket to connect to metaserver
-	private PrintWriter STREAM_OUT = null;
-	private ServerInfo INFO = null;
-	private boolean SHUTDOWN = false;
-	
-	public CommandLineInterface() throws ConnectException {
-		//get IP address
-		Console c = System.console();
-		if (c == null) {
-			System.err.println("No console.");
-			System.exit(1);
-		}
-		
-		try {
-			IP_ADDRESS = InetAddress.getLocalHost().getHostAddress();
-		} catch (UnknownHostException e) {
-			LOG.error("FATAL: Could not detect IP address:",e);
-			System.exit(1);
-		}
-		
-		//connect server socket
-		try {
-			META_SOCKET = new Socket(IP_ADDRESS,META_PORT);
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not connect socket.",e);
-			System.exit(1);
-		}
-		
-		INFO = new ServerInfo(getAddress(), getPort(), 0L, ServerInfo.TYPES.CLI);
-		
-		//create a reader for the console, a reader for the server response, and an OOS for ServerInfo
-		BufferedReader br_in = null;
-		ObjectOutputStream first = null;
-		
-	    try {
-	    	first = new ObjectOutputStream(META_SOCKET.getOutputStream());
-		    br_in = new BufferedReader(new InputStreamReader(META_SOCKET.getInputStream()));
-			STREAM_OUT = new PrintWriter(META_SOCKET.getOutputStream(),true);
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not get output / input stream from Socket.",e);
-			System.exit(1);
-		}
-
-	    //send the ServerInfo (let them know a CLI is connecting)
-	    try {
-			first.writeObject(getInfo());
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not write ServerInfo from Socket.",e);
-			System.exit(1);
-		}
-
-	    System.out.println("The console has been connected to the local MetaServer.\nWelcome.");
-
-	    while(true) {
-			try {
-				Thread.sleep(1000);
-
-				while(br_in.ready()) {
-					String output = br_in.readLine();
-					System.out.println(output);
-				}
-
-				if(SHUTDOWN == false) {
-					String input = c.readLine("shell> ");
-					if(input.equals("shutdown") || input.equals("logout")) {
-						SHUTDOWN = true;
-						System.out.println("Logging off... Farewell!\n(PRESS CTRL+C TO EXIT)");
-					}
-					STREAM_OUT.println(input);
-				}
-			} catch (IOException e) {
-				LOG.error("FATAL: Could not read from system input.",e);
-				System.exit(1);
-			} catch (InterruptedException e) {
-				LOG.error("Sleep interrupted.");
-			}
-		}
-	}
-	
-	/**
-	 * Always attempts to connect to a local MetaServer on port 7400.
-	 */
-	public static void main(String[] args) {
-		try {
-			new CommandLineInterface();
-		} catch(ConnectException ex) {
-			System.out.println("FATAL: Could not connect socket. No MetaServer to connect to.");
-		}
-	}
-
-	public Date getStartTime() {
-		return START_TIME;
-	}
-	
-	public String getAddress() {
-		return IP_ADDRESS;
-	}
-
-	public int getPort() {
-		return META_PORT;
-	}
-	
-	public ServerInfo getInfo() {
-		return INFO;
-	}
-}
+package server.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Console;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.ServerInfo;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.Opcode;
+
+/**
+ * CLI is designed to talk to a MetaServer. File contents are the exception:
+ * the MetaServer only says which DataServers hold a file, and the CLI moves
+ * the data with them directly.
+ * @author Plamen Jeliazkov
+ *
+ */
+public class CommandLineInterface {
+	private final Log LOG = LogFactory.getLog(CommandLineInterface.class);
+	private final int META_PORT = 7400;
+	
+	private final Date START_TIME = new Date();
+	private String IP_ADDRESS = null;
+	private Socket META_SOCKET = null; //socket to connect to metaserver
+	private DataOutputStream STREAM_OUT = null;
+	private DataInputStream STREAM_IN = null;
+	private long REQUEST_ID = 0;
+	private ServerInfo INFO = null;
+	private boolean SHUTDOWN = false;
+	//one connection per DataServer, opened the first time a file on it is used
+	private final HashMap<String, DataServerLink> DATASERVER_LINKS = new HashMap<String, DataServerLink>();
+	
+	public CommandLineInterface() throws ConnectException {
+		//get IP address
+		Console c = System.console();
+		if (c == null) {
+			System.err.println("No console.");
+			System.exit(1);
+		}
+		
+		try {
+			IP_ADDRESS = InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			LOG.error("FATAL: Could not detect IP address:",e);
+			System.exit(1);
+		}
+		
+		//connect server socket
+		try {
+			META_SOCKET = new Socket(IP_ADDRESS,META_PORT);
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not connect socket.",e);
+			System.exit(1);
+		}
+		
+		INFO = new ServerInfo(getAddress(), getPort(), 0L, ServerInfo.TYPES.CLI);
+		
+		//frames go out and come back over the one socket
+	    try {
+	    	STREAM_OUT = new DataOutputStream(new BufferedOutputStream(META_SOCKET.getOutputStream()));
+	    	STREAM_IN = new DataInputStream(new BufferedInputStream(META_SOCKET.getInputStream()));
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not get output / input stream from Socket.",e);
+			System.exit(1);
+		}
+
+	    //send the ServerInfo (let them know a CLI is connecting)
+	    try {
+	    	send(FrameEncoder.get().begin(Opcode.HELLO, 0).putServerInfo(getInfo()).finish());
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not write ServerInfo from Socket.",e);
+			System.exit(1);
+		}
+
+	    System.out.println("The console has been connected to the local MetaServer.\nWelcome.");
+
+	    while(!SHUTDOWN) {
+			String input = c.readLine("shell> ");
+			if(input == null) {
+				break;
+			}
+			input = input.trim();
+			if(input.length() == 0) {
+				continue;
+			}
+			
+			try {
+				handleCommand(input);
+			} catch (IOException e) {
+				LOG.error("FATAL: Lost the connection to the MetaServer.",e);
+				System.exit(1);
+			}
+		}
+	    
+	    System.out.println("Logging off... Farewell!");
+	    System.exit(0);
+	}
+	
+	/* TURNS ONE CONSOLE LINE INTO ONE REQUEST AND PRINTS THE REPLY UNTIL IT ENDS! */
+	private void handleCommand(String input) throws IOException {
+		String[] parsed = input.split(" ",2);
+		String argument = parsed.length > 1 ? parsed[1].trim() : "";
+		Opcode opcode = Opcode.forCommand(parsed[0]);
+		if(opcode == null) {
+			System.out.println("Received unknown command := "+input+".");
+			return;
+		}
+		
+		long id = ++REQUEST_ID;
+		FrameEncoder encoder = FrameEncoder.get().begin(opcode, id);
+		switch(opcode) {
+		case MKDIR: case MKDIRS: case RMDIR:
+			encoder.putString(argument);
+			break;
+		case LIST:
+			//list [-r] [-n page size] [-c cursor] [path]
+			String[] words = argument.length() == 0 ? new String[0] : argument.split("\\s+");
+			boolean recursive = false;
+			int page = 0;
+			String cursor = "";
+			String listPath = "";
+			try {
+				for(int i = 0; i < words.length; i++) {
+					if(words[i].equals("-r")) {
+						recursive = true;
+					} else if(words[i].equals("-n") && i+1 < words.length) {
+						page = Integer.parseInt(words[++i]);
+					} else if(words[i].equals("-c") && i+1 < words.length) {
+						cursor = words[++i];
+					} else {
+						listPath = words[i];
+					}
+				}
+			} catch (NumberFormatException e) {
+				System.out.println("The page size of a listing must be a number.");
+				return;
+			}
+			encoder.putString(listPath).putByte((byte) (recursive ? 1 : 0)).putInt(page).putString(cursor);
+			break;
+		case CREATE:
+			String[] pathAndReplication = argument.split(" ",2);
+			int replication = 0;
+			if(pathAndReplication.length == 2) {
+				try {
+					replication = Integer.parseInt(pathAndReplication[1].trim());
+				} catch (NumberFormatException e) {
+					System.out.println("The replication of a file must be a number.");
+					return;
+				}
+			}
+			encoder.putString(pathAndReplication[0]).putInt(replication);
+			break;
+		case LOCATE:
+			encoder.putString(argument).putByte((byte) 1);
+			break;
+		case WRITE: case APPEND:
+			String[] pathAndData = argument.split(" ",2);
+			if(pathAndData.length != 2) {
+				System.out.println("Please put a space between the filepath and the data you wish to "+parsed[0]+".");
+				return;
+			}
+			//a typed \n stands for a newline
+			handleData(opcode, pathAndData[0], pathAndData[1].replace("\\n", "\n").getBytes(Frame.UTF8), id);
+			return;
+		case HEAD: case TAIL: case READ:
+			handleData(opcode, argument, null, id);
+			return;
+		default:
+			break;
+		}
+		send(encoder.finish());
+		
+		if(opcode == Opcode.LOGOUT || opcode == Opcode.SHUTDOWN) {
+			SHUTDOWN = true;
+		}
+		
+		if(!printReply(STREAM_IN, id) && !SHUTDOWN) {
+			System.out.println("The MetaServer closed the connection.");
+			System.exit(1);
+		}
+	}
+	
+	/* ASKS THE METASERVER WHERE THE FILE LIVES, THEN MOVES THE DATA WITH THE DATASERVERS DIRECTLY! */
+	private void handleData(Opcode opcode, String path, byte[] data, long id) throws IOException {
+		long locateId = ++REQUEST_ID;
+		send(FrameEncoder.get().begin(Opcode.LOCATE, locateId).putString(path).putByte((byte) 0).finish());
+		
+		List<ServerInfo> locations = new ArrayList<ServerInfo>();
+		Frame reply;
+		while((reply = Frame.read(STREAM_IN)) != null) {
+			if(reply.getOpcode() == Opcode.END && reply.getRequestId() == locateId) {
+				break;
+			}
+			if(reply.getOpcode() == Opcode.INFO) {
+				locations.add(reply.readServerInfo());
+			} else if(reply.getOpcode() == Opcode.LINE || reply.getOpcode() == Opcode.ERROR) {
+				System.out.println(reply.readString());
+			}
+		}
+		if(reply == null) {
+			System.out.println("The MetaServer closed the connection.");
+			System.exit(1);
+		}
+		
+		//reads go to the first DataServer that answers; a write goes to the first,
+		//which passes it down the rest of the chain and answers for all of them
+		for(int i = 0; i < locations.size(); i++) {
+			ServerInfo location = locations.get(i);
+			String key = location.getAddress()+":"+location.getPort();
+			try {
+				DataServerLink link = DATASERVER_LINKS.get(key);
+				if(link == null) {
+					link = new DataServerLink(location);
+					DATASERVER_LINKS.put(key, link);
+				}
+				FrameEncoder request = FrameEncoder.get().begin(opcode, id).putString(path);
+				if(data != null) {
+					List<ServerInfo> chain = locations.subList(i+1, locations.size());
+					request.putBytes(data).putChain(chain.toArray(new ServerInfo[chain.size()]));
+				}
+				link.send(request.finish());
+				if(!printReply(link.getInput(), id)) {
+					throw new IOException("The DataServer closed the connection.");
+				}
+				return;
+			} catch (IOException e) {
+				DataServerLink link = DATASERVER_LINKS.remove(key);
+				if(link != null) {
+					link.close();
+				}
+				System.out.println("Could not reach DataServer "+key+": "+e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Prints the reply to request id as it arrives.
+	 * @return false if the connection closed before the reply ended
+	 */
+	private boolean printReply(DataInputStream in, long id) throws IOException {
+		Frame reply;
+		//file contents come in chunks that are printed as they are, without line breaks between them
+		boolean midData = false;
+		while((reply = Frame.read(in)) != null) {
+			if(reply.getOpcode() == Opcode.DATA) {
+				byte[] data = reply.readBytes();
+				System.out.write(data, 0, data.length);
+				midData = data.length > 0 ? data[data.length-1] != '\n' : midData;
+				continue;
+			}
+			if(midData) {
+				System.out.println();
+				midData = false;
+			}
+			if(reply.getOpcode() == Opcode.END && reply.getRequestId() == id) {
+				System.out.flush();
+				return true;
+			}
+			if(reply.getOpcode() == Opcode.LINE || reply.getOpcode() == Opcode.ERROR) {
+				System.out.println(reply.readString());
+			} else if(reply.getOpcode() == Opcode.INFO) {
+				ServerInfo info = reply.readServerInfo();
+				System.out.println("DataServer "+info.getAddress()+":"+info.getPort());
+			} else if(reply.getOpcode() == Opcode.BLOCK) {
+				long blockId = reply.readLong();
+				long length = reply.readLong();
+				System.out.println("blk_"+blockId+"\t"+length+" bytes"+(reply.readByte() != 0 ? "\tsaturated" : ""));
+			}
+		}
+		return false;
+	}
+	
+	private void send(ByteBuffer frame) throws IOException {
+		STREAM_OUT.write(frame.array(), frame.arrayOffset()+frame.position(), frame.remaining());
+		STREAM_OUT.flush();
+	}
+	
+	/**
+	 * Always attempts to connect to a local MetaServer on port 7400.
+	 */
+	public static void main(String[] args) {
+		try {
+			new CommandLineInterface();
+		} catch(ConnectException ex) {
+			System.out.println("FATAL: Could not connect socket. No MetaServer to connect to.");
+		}
+	}
+
+	public Date getStartTime() {
+		return START_TIME;
+	}
+	
+	public String getAddress() {
+		return IP_ADDRESS;
+	}
+
+	public int getPort() {
+		return META_PORT;
+	}
+	
+	public ServerInfo getInfo() {
+		return INFO;
+	}
+}
@@ -0,0 +1,56 @@
+package server.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import server.info.ServerInfo;
+import server.net.Frame;
+import server.net.Opcode;
+
+/**
+ * A CLI's own connection to one DataServer, so file contents go between the
+ * two directly instead of through the MetaServer.
+ */
+class DataServerLink {
+	private final Socket SOCKET;
+	private final DataOutputStream STREAM_OUT;
+	private final DataInputStream STREAM_IN;
+
+	/**
+	 * Connects and waits for the DataServer to introduce itself.
+	 * @throws IOException if it cannot be reached or is not a DataServer
+	 */
+	DataServerLink(ServerInfo dataServer) throws IOException {
+		SOCKET = new Socket(dataServer.getAddress(), dataServer.getPort());
+		STREAM_OUT = new DataOutputStream(new BufferedOutputStream(SOCKET.getOutputStream()));
+		STREAM_IN = new DataInputStream(new BufferedInputStream(SOCKET.getInputStream()));
+
+		Frame hello = Frame.read(STREAM_IN);
+		if(hello == null || hello.getOpcode() != Opcode.HELLO || hello.readServerInfo().getType() != ServerInfo.TYPES.DATA) {
+			close();
+			throw new IOException("Did not connect to a DataServer!");
+		}
+	}
+
+	void send(ByteBuffer frame) throws IOException {
+		STREAM_OUT.write(frame.array(), frame.arrayOffset()+frame.position(), frame.remaining());
+		STREAM_OUT.flush();
+	}
+
+	DataInputStream getInput() {
+		return STREAM_IN;
+	}
+
+	void close() {
+		try {
+			SOCKET.close();
+		} catch (IOException e) {
+			//nothing left to do with it
+		}
+	}
+}
@@ -1,104 +1,160 @@
-package server.data;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Date;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-public class DataConnectionHandler implements Runnable {
-	private DataServer DATASERVER = null;
-	private Socket SOCKET = null;
-	private boolean THREAD_EXIT = false;
-
-	private final Log LOG = LogFactory.getLog(DataConnectionHandler.class);
-	
-	public DataConnectionHandler(Socket socket, DataServer dataServer) {
-		SOCKET = socket;
-		DATASERVER = dataServer;
-	}
-
-	public void handleConnection() {
-		Thread t = new Thread(this);
-		t.start();
-		LOG.info("SUCCESS: On "+(new Date().toString())+", a DataServer connection has been made.");
-	}
-
-	//THIS HANDLES ONE STATEMENT -- AND ONLY ONE STATEMENT!
-	@Override
-	public void run() {
-		ObjectOutputStream first = null;
-		BufferedReader br_in = null;
-		PrintWriter out = null;
-		try {
-			first = new ObjectOutputStream(SOCKET.getOutputStream());
-			br_in = new BufferedReader(new InputStreamReader(SOCKET.getInputStream()));
-			out = new PrintWriter(SOCKET.getOutputStream(),true);
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not get input stream from Socket.");
-		}
-		String inputLine = null;
-		
-		 //send the ServerInfo (let them know a DataServer is connecting)
-	    try {
-			first.writeObject(DATASERVER.getInfo());
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not write ServerInfo from Socket.",e);
-			System.exit(1);
-		}
-		
-		try {
-			while(!THREAD_EXIT) {
-				while((inputLine = br_in.readLine()) != null) {
-					if(inputLine.startsWith("write")) {
-						DATASERVER.writeBlock(inputLine.substring(5).trim(), out);
-					} else if(inputLine.startsWith("append")) {
-						DATASERVER.appendBlock(inputLine.substring(6).trim(), out);
-					} else if(inputLine.startsWith("create")) {
-						DATASERVER.createFile(inputLine.substring(6).trim(), out);
-					} else if(inputLine.startsWith("remove")) {
-						DATASERVER.removeFile(inputLine.substring(6).trim(), out);
-						THREAD_EXIT = true;
-						stop();
-						break;
-					} else if(inputLine.startsWith("head")) {
-						DATASERVER.readHeadFile(inputLine.substring(4).trim(), out);
-						THREAD_EXIT = true;
-						stop();
-						break;
-					} else if(inputLine.startsWith("tail")) {
-						DATASERVER.readTailFile(inputLine.substring(4).trim(), out);
-						THREAD_EXIT = true;
-						stop();
-						break;
-					} else if(inputLine.startsWith("sysinfo")) {
-						DATASERVER.updateSystemInfo();
-						first.writeObject(DATASERVER.getInfo());
-						THREAD_EXIT = true;
-						stop();
-						break;
-					} else if(inputLine.equals("shutdown")) {
-						THREAD_EXIT = true;
-						DATASERVER.handleShutdown(out);
-						stop();
-						break;
-					} else {
-						LOG.info(inputLine);
-					}
-				}
-			}
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not read from the input stream. (MetaServer disconnect?)");
-			stop();
-		}
-	}
-	
-	public void stop() {
-        LOG.info("SUCCESS: On "+(new Date().toString())+", a DataServer connection has been closed.");
-    }
-}
+package server.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.FrameWriter;
+import server.net.Opcode;
+
+/**
+ * Serves one connection. Requests carry an id and every reply frame repeats
+ * it, so the requests of a pooled connection run side by side on the
+ * DataServer's workers and answer in whatever order they finish.
+ */
+public class DataConnectionHandler implements ConnectionHandler {
+	//requests of one connection running at once; past this the connection handles them itself and stops reading
+	private static final int MAX_IN_FLIGHT = 16;
+	
+	private DataServer DATASERVER = null;
+	private Connection CONNECTION = null;
+	private volatile boolean THREAD_EXIT = false;
+	//the 1 connection this DataServer opened to its MetaServer
+	private final boolean TO_METASERVER;
+	private final AtomicInteger IN_FLIGHT = new AtomicInteger(0);
+
+	private final Log LOG = LogFactory.getLog(DataConnectionHandler.class);
+	
+	public DataConnectionHandler(Connection connection, DataServer dataServer) {
+		this(connection, dataServer, false);
+	}
+	
+	public DataConnectionHandler(Connection connection, DataServer dataServer, boolean toMetaServer) {
+		CONNECTION = connection;
+		DATASERVER = dataServer;
+		TO_METASERVER = toMetaServer;
+	}
+
+	@Override
+	public void connected() {
+		//send the ServerInfo (let them know a DataServer is connecting)
+		CONNECTION.send(FrameEncoder.get().begin(Opcode.HELLO, 0).putServerInfo(DATASERVER.getInfo()).finish());
+		if(TO_METASERVER) {
+			//the MetaServer learns what is stored here before it sends anything our way
+			for(ByteBuffer report : DATASERVER.getBlockReport(true)) {
+				CONNECTION.send(report);
+			}
+		}
+		LOG.info("SUCCESS: On "+(new Date().toString())+", a DataServer connection has been made.");
+	}
+	
+	@Override
+	public Object decode(ByteBuffer in) throws IOException {
+		return Frame.decode(in);
+	}
+
+	/* HANDS EVERY REQUEST TO THE WORKERS SO A SLOW ONE DOES NOT HOLD UP THE REST OF THE CONNECTION! */
+	@Override
+	public void handle(Object object) {
+		if(THREAD_EXIT) {
+			return;
+		}
+		
+		final Frame frame = (Frame) object;
+		if(TO_METASERVER) {
+			//the MetaServer's frames stay in order
+			handle(frame);
+			return;
+		}
+		if(IN_FLIGHT.incrementAndGet() > MAX_IN_FLIGHT) {
+			//a busy connection waits for its own requests, which pauses reading from it
+			IN_FLIGHT.decrementAndGet();
+			handle(frame);
+			return;
+		}
+		try {
+			DATASERVER.getWorkers().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handle(frame);
+					} finally {
+						IN_FLIGHT.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			IN_FLIGHT.decrementAndGet();
+			handle(frame);
+		}
+	}
+	
+	//THIS HANDLES ONE REQUEST -- AND ONLY ONE REQUEST!
+	private void handle(Frame frame) {
+		if(THREAD_EXIT) {
+			return;
+		}
+		
+		FrameWriter out = new FrameWriter(CONNECTION, frame.getRequestId());
+		//the MetaServer's own replies (e.g. to HELLO) need no answer
+		boolean request = frame.getOpcode() != Opcode.LINE && frame.getOpcode() != Opcode.END;
+		if(request) {
+			out.whenEnded(DATASERVER.getMetrics().timer("op."+frame.getOpcode().toString().toLowerCase()));
+		}
+		try {
+			switch(frame.getOpcode()) {
+			case WRITE: DATASERVER.writeBlock(frame.readString(), frame.readBytes(), frame.readChain(), out); break;
+			case APPEND: DATASERVER.appendBlock(frame.readString(), frame.readBytes(), frame.readChain(), out); break;
+			case CREATE: DATASERVER.createFile(frame.readString(), out); break;
+			case REMOVE: DATASERVER.removeFile(frame.readString(), out); break;
+			case HEAD: DATASERVER.readHeadFile(frame.readString(), out); break;
+			case TAIL: DATASERVER.readTailFile(frame.readString(), out); break;
+			case READ: DATASERVER.readFile(frame.readString(), out); break;
+			case BLOCKS: DATASERVER.listBlocks(frame.readString(), out); break;
+			case REPLICATE: DATASERVER.replicateFile(frame.readString(), frame.readChain(), out); break;
+			case SYSINFO:
+				DATASERVER.updateSystemInfo();
+				CONNECTION.send(FrameEncoder.get().begin(Opcode.INFO, frame.getRequestId()).putServerInfo(DATASERVER.getInfo()).finish());
+				break;
+			case SHUTDOWN: DATASERVER.handleShutdown(out); break;
+			case METRICS: DATASERVER.getMetrics().print(out); break;
+			case LINE: LOG.info(frame.readString()); break;
+			case END: break;
+			default:
+				out.println("Received unknown command := "+frame.getOpcode()+".");
+				LOG.error("Received unknown command := "+frame.getOpcode()+".");
+			}
+		} catch (IOException e) {
+			LOG.error("FATAL: Received a malformed "+frame+". Closing connection.",e);
+			stop();
+			return;
+		}
+		
+		if(request) {
+			out.release();
+		}
+	}
+	
+	@Override
+	public void disconnected() {
+		if(!THREAD_EXIT) {
+			THREAD_EXIT = true;
+			LOG.info("SUCCESS: On "+(new Date().toString())+", a DataServer connection has been closed.");
+		}
+	}
+	
+	public void stop() {
+		THREAD_EXIT = true;
+		CONNECTION.close();
+		LOG.info("SUCCESS: On "+(new Date().toString())+", a DataServer connection has been closed.");
+	}
+}
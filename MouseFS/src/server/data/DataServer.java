@@ -1,520 +1,1023 @@
-package server.data;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.net.ConnectException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import server.data.util.Block;
-import server.info.DataServerInfo;
-import server.info.ServerInfo;
-
-
-public class DataServer {
-	public static final Log LOG = LogFactory.getLog(DataServer.class);
-	private final boolean DEBUG = true;
-
-	private ConcurrentHashMap<String, ArrayList<Block>> CACHE = null;
-	private final Date START_TIME = new Date();
-	private String IP_ADDRESS;
-	private String REMOTE_ADDRESS;
-	private static final int  META_PORT = 7400;
-	private int DATA_PORT = 0;
-	private String JOURNAL_PATH;
-	private String IDDIR;
-	private String WORKDIR;
-	private String FINALDIR;
-	private Socket CLIENT = null;
-	private ServerSocket SERVER = null;
-	private DataServerInfo INFO = null;
-	private long ID = 0;
-	
-	//System information fields
-	private int CORES;
-	private long CURR_MEMORY;
-	private long MAX_MEMORY;
-	private long JVM_MEMORY;
-	private long FREE_SPACE;
-	
-	public DataServer(String address, int port, String data_path) throws ConnectException {
-		if(!data_path.endsWith("/")) {
-			LOG.error("FATAL: Data path does not end with a '/'.");
-			System.exit(1);
-		}
-		this.REMOTE_ADDRESS = address;
-		this.DATA_PORT = port;
-		this.JOURNAL_PATH = data_path+"data_journal.ser";
-		this.IDDIR = data_path+"data_server.id";
-		this.WORKDIR = data_path+"tmp/";
-		this.FINALDIR = data_path+"finalized/";
-		start();
-	}
-
-	private void start() {
-		createWorkingDirectory();
-		generateOrLoadID();
-		
-		//get IP address
-		try {
-			IP_ADDRESS = InetAddress.getLocalHost().getHostAddress();
-		} catch (UnknownHostException e) {
-			LOG.error("FATAL: Could not detect IP address:",e);
-			System.exit(1);
-		}
-
-		//connect to local or remote metaserver socket
-		if(REMOTE_ADDRESS != null) {
-			try {
-				CLIENT = new Socket(getRemoteAddress(),META_PORT);
-			} catch (IOException e2) {
-				LOG.error("FATAL: Could not connect socket.",e2);
-				System.exit(1);
-			}
-		} else {
-			try {
-				CLIENT = new Socket(getAddress(),META_PORT);
-			} catch (IOException e1) {
-				
-				LOG.error("FATAL: Could not connect socket.",e1);
-				System.exit(1);
-			}
-		}
-		
-		//try to read cache (or get new)
-		File journal = new File(JOURNAL_PATH);
-		if(journal.exists()) {
-			readJournal();
-			LOG.info("SUCCESS: Cache has been read.");
-		}
-		else {
-			CACHE = new ConcurrentHashMap<String, ArrayList<Block>>(5000);
-			LOG.info("SUCCESS: Cache was newly initialized.");
-		}
-		
-		INFO = new DataServerInfo(getAddress(), getPort(), getID(), ServerInfo.TYPES.DATA);
-		getSystemInfo();
-		
-		//connect server socket
-		try {
-			SERVER = new ServerSocket(getPort());
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not connect ServerSocket.",e);
-			System.exit(1);
-		}
-		
-		LOG.info("SUCCESS: On "+getStartTime()+", "+getInfo()+" is active.");
-		
-		handleConnections();
-	}
-
-	public void handleShutdown(PrintWriter out) {
-		saveJournal(out);
-		
-		LOG.info("SUCCESS: Shutting down DataServer in 1 minute...");
-
-		try {
-			Thread.sleep(60000);
-		} catch (InterruptedException e) {
-			LOG.error("FATAL: Could not sleep for 60 seconds.");
-		}
-		
-		LOG.info("DATASERVER SHUTDOWN!");
-		System.exit(1);
-	}
-
-	private void generateOrLoadID() {
-		File id = new File(IDDIR);
-		if(!id.exists()) {
-			ID = new Random().nextLong();
-			try {
-				id.createNewFile();
-				BufferedWriter bw = new BufferedWriter(new FileWriter(id));
-				bw.write(Long.toString(ID));
-				bw.close();
-				LOG.info("Could not find ID file. New server ID generated @"+id.getAbsolutePath()+".");
-			} catch (IOException e) {
-				LOG.error("Could not create ID file.", e);
-				System.exit(1);
-			}
-			return;
-		}
-		
-		BufferedReader br = null;
-		try {
-			br = new BufferedReader(new FileReader(id));
-			ID = Long.parseLong(br.readLine());
-		} catch (NumberFormatException | IOException e) {
-			LOG.error("Could not open ID file for reading.", e);
-			System.exit(1);
-		}
-	}
-
-	private void createWorkingDirectory() {
-		File workdir = new File(WORKDIR);
-		if(!workdir.exists()) {
-			//make parent directory and file
-			workdir.mkdirs();
-		}
-		
-		File finaldir = new File(FINALDIR);
-		if(!finaldir.exists()) {
-			//make parent directory and file
-			finaldir.mkdirs();
-		}
-	}
-	
-	/* Should only need to handle 1 MetaServer connection at a time. */
-	private void handleConnections() {
-		
-		//spawn 1 connection between DataServer and MetaServer
-		DataConnectionHandler handler = new DataConnectionHandler(CLIENT, this);
-		handler.handleConnection();
-		
-		//continually listen for incoming connections (possibly CLI or DataWriters)
-		while (true) {
-			Socket socket = null; //this socket is a connecting local metaserver
-			try {
-				socket = SERVER.accept(); //blocking call here until connection occurs
-			} catch (IOException e) {
-				LOG.error("FATAL: Could not accept the socket connection.",e);
-				return;
-			}
-			DataConnectionHandler otherHandlers = new DataConnectionHandler(socket, this);
-			otherHandlers.handleConnection();
-		}
-	}
-	
-	//path = FULL PATH aka key, out = output to send back to MetaServer
-	public void createFile(String path, PrintWriter out) {
-		if(CACHE.containsKey(path)) {
-			out.println("Block listing already exists for "+path+".");
-			LOG.error("FATAL: Tried to create new Blocks for "+path+". (MetaServer not synced with others?)");
-		}
-		
-		Block block = new Block();
-		File blockFile = new File(WORKDIR+block.getFileName());
-		try {
-			blockFile.createNewFile();
-		} catch (IOException e) {
-			out.println("Could not create a Block for "+path+".");
-			LOG.error("Could not create a Block for "+path+".", e);
-		}
-		
-		ArrayList<Block> blockList = new ArrayList<Block>(3);
-		blockList.add(block);
-		CACHE.put(path, blockList);
-		
-		LOG.info("SUCCESS: Block listing created for "+path+".");
-		
-		saveJournal(out);
-	}
-	
-	//THIS WILL OVERWRITE DATA IN BLOCK!
-	public void writeBlock(String input, PrintWriter out) {
-		String[] parsed = input.split(" ",2);
-		
-		if(parsed.length != 2) {
-			out.println("Please put a space between the filepath and the data you wish to write.");
-			LOG.error("FATAL: Recieved input was not splittable into a filepath and data.");
-			return;
-		}
-		
-		String path = parsed[0];
-		
-		//need a lot of escaping here
-		String data = parsed[1].replace("\\n", "\n");
-		
-		ArrayList<Block> blocks = CACHE.get(path);
-		
-		if(blocks == null || blocks.size() == 0) {
-			out.println("There are no blocks available for "+path+" (File does not exist?).");
-			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
-			return;
-		}
-		
-		//get the latest block
-		Block block = blocks.get(blocks.size()-1);
-		
-		File rawFile = new File(WORKDIR+block.getFileName());
-		try {
-			FileWriter fw = new FileWriter(rawFile);
-			fw.write(data);
-			fw.flush();
-			fw.close();
-		} catch (IOException e) {
-			out.println("Issue writing into block file "+block+".");
-			LOG.error("FATAL: Issue writing into block file "+block+".");
-		}
-		
-		out.println("Data was successfully written for "+path+" into block file "+block+".");
-		LOG.info("SUCCESS: Data was successfully written for "+path+" into block file "+block+".");
-	}
-	
-	//THIS WILL APPEND DATA IN BLOCK!
-	public void appendBlock(String input, PrintWriter out) {
-		String[] parsed = input.split(" ",2);
-		
-		if(parsed.length != 2) {
-			out.println("Please put a space between the filepath and the data you wish to write.");
-			LOG.error("FATAL: Recieved input was not splittable into a filepath and data.");
-			return;
-		}
-		
-		String path = parsed[0];
-		
-		//need a lot of escaping here
-		String data = parsed[1].replace("\\n", "\n");
-		
-		ArrayList<Block> blocks = CACHE.get(path);
-		
-		if(blocks == null || blocks.size() == 0) {
-			out.println("There are no blocks available for "+path+" (File does not exist?).");
-			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
-			return;
-		}
-		
-		//get the latest block
-		Block block = blocks.get(blocks.size()-1);
-		
-		File rawFile = new File(WORKDIR+block.getFileName());
-		try {
-			FileWriter fw = new FileWriter(rawFile, true);
-			fw.write(data);
-			fw.flush();
-			fw.close();
-		} catch (IOException e) {
-			out.println("Issue writing into block file "+block+".");
-			LOG.error("FATAL: Issue writing into block file "+block+".");
-		}
-		
-		out.println("Data was successfully written for "+path+" into block file "+block+".");
-		LOG.info("SUCCESS: Data was successfully written for "+path+" into block file "+block+".");
-	}
-
-	/**
-	 * Generates an automatic data server using port 7500 and data path "./data".
-	 */
-	public static void main(String[] args) {
-		try {
-			if(args.length > 0) 
-				new DataServer(args[0], 7500, "./data/");
-			else
-				new DataServer(null, 7500, "./data/");
-		} catch(ConnectException ex) {
-			System.out.println("FATAL: Could not connect socket. No MetaServer to connect to.");
-		}
-	}
-	
-	@SuppressWarnings("unchecked")
-	private void readJournal() {
-		File journal = new File(JOURNAL_PATH);
-		try {
-			FileInputStream fis = new FileInputStream(journal);
-			ObjectInputStream obj = new ObjectInputStream(fis);
-			CACHE = (ConcurrentHashMap<String, ArrayList<Block>>) obj.readObject();
-			obj.close();
-			fis.close();
-		} catch (IOException e) {
-			LOG.error("FATAL: We could not read the journal.",e);
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			LOG.error("FATAL: We could not decode the journal.",e);
-			System.exit(1);
-		}
-		
-		LOG.info("SUCCESS: Read in the journal! It has "+CACHE.size()+" entries in it.");
-		if(DEBUG) {
-			System.out.println(CACHE);
-		}
-	}
-	
-	public void saveJournal(PrintWriter out) {
-		File journal = new File(JOURNAL_PATH);
-		
-		if(!journal.exists()) {
-			try {
-				journal.createNewFile();
-			} catch (IOException e) {
-				out.println("FATAL: Could not create the journal file.");
-				LOG.error("FATAL: Could not create the journal file.",e);
-			}
-		}
-		
-		try {
-			FileOutputStream fos = new FileOutputStream(journal, false);
-			ObjectOutputStream outstream = new ObjectOutputStream(fos);
-			outstream.writeObject(CACHE);
-			outstream.flush();
-			outstream.close();
-			fos.close();
-		} catch (IOException e) {
-			out.println("FATAL: Could not write to the journal.");
-			LOG.error("FATAL: Could not write to the journal.",e);
-			System.exit(1);
-		}
-		out.println("The journal was written to disk @"+journal.getAbsolutePath());
-		LOG.info("SUCCESS: The journal was written to disk @"+journal.getAbsolutePath());
-	}
-	
-	private void getSystemInfo() {
-	    CORES = Runtime.getRuntime().availableProcessors();
-	    CURR_MEMORY = Runtime.getRuntime().freeMemory();
-	    MAX_MEMORY = Runtime.getRuntime().maxMemory();
-	    JVM_MEMORY = Runtime.getRuntime().totalMemory();
-	    File root = new File("C:/");
-		FREE_SPACE = root.getFreeSpace();
-
-		//update the DataServerInfo with the new stats
-		INFO.setCores(CORES);
-		INFO.setCurrMemory(CURR_MEMORY);
-		INFO.setFreeSpace(FREE_SPACE);
-		INFO.setJVMMemory(JVM_MEMORY);
-		INFO.setMaxMemory(MAX_MEMORY);
-	}
-	
-	public void updateSystemInfo() {
-		getSystemInfo();
-		LOG.info("System information updated.");
-	}
-	
-	public String getAddress() {
-		return IP_ADDRESS;
-	}
-	
-	public String getRemoteAddress() {
-		return REMOTE_ADDRESS;
-	}
-
-	public int getPort() {
-		return DATA_PORT;
-	}
-
-	public Date getStartTime() {
-		return START_TIME;
-	}
-	
-	public long getID() {
-		return ID;
-	}
-	
-	public ServerInfo getInfo() {
-		return INFO;
-	}
-
-	/**
-	 * Only sends 1 Megabyte (head) of the file asked to read.
-	 * @param path
-	 * @param out
-	 */
-	public void readHeadFile(String path, PrintWriter out) {
-		ArrayList<Block> blocks = CACHE.get(path);
-	
-		if(blocks == null || blocks.size() == 0) {
-			out.println("There are no blocks available for "+path+" (File does not exist?).");
-			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
-			return;
-		}
-		
-		//ONLY READ THE FIRST 1 MB OF THE FILE
-		
-		//READ THE FIRST BLOCK	
-		BufferedReader br = null;
-		int chars_read = 0;
-		try {
-			br = new BufferedReader(new FileReader(WORKDIR+blocks.get(0).toString()));
-			StringBuilder output = new StringBuilder();
-			while(br.ready() && chars_read < 1024) {
-				output.append((char) br.read());
-				chars_read++;
-			}
-			br.close();
-			out.println(output.toString());
-		} catch (IOException e) {
-			out.println("We could not read the Block file.");
-			LOG.error("FATAL: We could not read the Block file.",e);
-		}
-	}
-	
-	/**
-	 * Only sends 1 Megabyte (tail) of the file asked to read.
-	 * @param path
-	 * @param out
-	 */
-	public void readTailFile(String path, PrintWriter out) {
-		ArrayList<Block> blocks = CACHE.get(path);
-	
-		if(blocks == null || blocks.size() == 0) {
-			out.println("There are no blocks available for "+path+" (File does not exist?).");
-			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
-			return;
-		}
-		
-		//ONLY READ THE LAST 1 MB OF THE FILE
-		
-		//READ THE LAST BLOCK	
-		BufferedReader br = null;
-		int chars_read = 0;
-		
-		long filesize = new File(WORKDIR+blocks.get(blocks.size()-1).toString()).length();
-		long skip = 0;
-		if(filesize > 1024) {
-			skip = filesize - 1024;
-		}
-		
-		try {
-			br = new BufferedReader(new FileReader(WORKDIR+blocks.get(blocks.size()-1).toString()));
-			if(skip != 0) {
-				br.skip(skip);
-			}
-			
-			StringBuilder output = new StringBuilder();
-			while(br.ready() && chars_read < 1024) {
-				output.append((char) br.read());
-				chars_read++;
-			}
-			br.close();
-			out.println(output.toString());
-		} catch (IOException e) {
-			out.println("We could not read the Block file.");
-			LOG.error("FATAL: We could not read the Block file.",e);
-		}
-	}
-
-	public void removeFile(String path, PrintWriter out) {
-		ArrayList<Block> blocks = CACHE.get(path);
-		
-		if(blocks == null || blocks.size() == 0) {
-			out.println("There are no blocks available for "+path+" (File does not exist?).");
-			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
-			return;
-		}
-		
-		//DELETE THE BLOCKS
-		for(Block block : blocks) {
-			File file = new File(WORKDIR+block.getFileName());
-			file.delete();
-		}
-		
-		out.println("The file "+path+" was successfully deleted.");
-		LOG.info("SUCCESS: The file "+path+" was successfully deleted.");
-	}
-}
+package server.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.data.journal.BlockLog;
+import server.data.util.Block;
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.metrics.MetricsRegistry;
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.ConnectionHandlerFactory;
+import server.net.DataServerPool;
+import server.net.FrameEncoder;
+import server.net.FrameWriter;
+import server.net.Opcode;
+import server.net.SelectorServer;
+import server.net.TaskExecutor;
+
+
+public class DataServer {
+	public static final Log LOG = LogFactory.getLog(DataServer.class);
+	private final boolean DEBUG = true;
+
+	private ConcurrentHashMap<String, ArrayList<Block>> CACHE = null;
+	private final Date START_TIME = new Date();
+	private String IP_ADDRESS;
+	private String REMOTE_ADDRESS;
+	private static final int  META_PORT = 7400;
+	private int DATA_PORT = 0;
+	private String JOURNAL_PATH;
+	private String BLOCKLOG_PATH;
+	private String BLOCKIMAGE_PATH;
+	private BlockLog BLOCKLOG = null;
+	private String IDDIR;
+	private String WORKDIR;
+	private String FINALDIR;
+	
+	//blocks fill up to BLOCK_SIZE, then move from WORKDIR to FINALDIR
+	public static final long DEFAULT_BLOCK_SIZE = 64L*1024*1024;
+	private final long BLOCK_SIZE;
+	//bytes a head or tail sends back
+	private static final int READ_SIZE = 1024*1024;
+	private SocketChannel CLIENT = null;
+	//the MetaServer connection once the event loops own it; heartbeats go out on it
+	private volatile Connection META_CONNECTION = null;
+	//files gained (true) or dropped (false) since the last block report, sent with the next heartbeat
+	private final LinkedHashMap<String, Boolean> REPORT = new LinkedHashMap<String, Boolean>();
+	//bytes of paths one REPORT frame carries at most, far below Frame.MAX_LENGTH
+	private static final int REPORT_CHUNK = 4*1024*1024;
+	private SelectorServer SERVER = null;
+	private static final int SELECTORS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int WORKERS = 32;
+	//writes passed on to the next replica of a chain
+	private DataServerPool PIPELINE = null;
+	private static final int PIPELINE_THREADS = 8;
+	private static final int TASK_QUEUE = 10000;
+	private DataServerInfo INFO = null;
+	//latencies of every request, in microseconds, and the bytes that went through the blocks
+	private final MetricsRegistry METRICS = new MetricsRegistry();
+	private long ID = 0;
+	
+	//System information fields
+	private int CORES;
+	private long CURR_MEMORY;
+	private long MAX_MEMORY;
+	private long JVM_MEMORY;
+	private long FREE_SPACE;
+	private int IN_FLIGHT;
+	
+	public DataServer(String address, int port, String data_path) throws ConnectException {
+		this(address, port, data_path, DEFAULT_BLOCK_SIZE);
+	}
+	
+	/**
+	 * @param blockSize bytes a block holds before it is saturated and a new one started
+	 */
+	public DataServer(String address, int port, String data_path, long blockSize) throws ConnectException {
+		if(blockSize < 1) {
+			LOG.error("FATAL: Block size must be at least 1 byte.");
+			System.exit(1);
+		}
+		this.BLOCK_SIZE = blockSize;
+		if(!data_path.endsWith("/")) {
+			LOG.error("FATAL: Data path does not end with a '/'.");
+			System.exit(1);
+		}
+		this.REMOTE_ADDRESS = address;
+		this.DATA_PORT = port;
+		this.JOURNAL_PATH = data_path+"data_journal.ser";
+		this.BLOCKLOG_PATH = data_path+"data_blocks.log";
+		this.BLOCKIMAGE_PATH = data_path+"data_blocks.img";
+		this.IDDIR = data_path+"data_server.id";
+		this.WORKDIR = data_path+"tmp/";
+		this.FINALDIR = data_path+"finalized/";
+		start();
+	}
+
+	private void start() {
+		createWorkingDirectory();
+		generateOrLoadID();
+		
+		//get IP address
+		try {
+			IP_ADDRESS = InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			LOG.error("FATAL: Could not detect IP address:",e);
+			System.exit(1);
+		}
+
+		//connect to local or remote metaserver socket
+		if(REMOTE_ADDRESS != null) {
+			try {
+				CLIENT = SocketChannel.open(new InetSocketAddress(getRemoteAddress(),META_PORT));
+			} catch (IOException e2) {
+				LOG.error("FATAL: Could not connect socket.",e2);
+				System.exit(1);
+			}
+		} else {
+			try {
+				CLIENT = SocketChannel.open(new InetSocketAddress(getAddress(),META_PORT));
+			} catch (IOException e1) {
+				
+				LOG.error("FATAL: Could not connect socket.",e1);
+				System.exit(1);
+			}
+		}
+		
+		//try to read cache (or get new)
+		File journal = new File(JOURNAL_PATH);
+		CACHE = new ConcurrentHashMap<String, ArrayList<Block>>(5000);
+		BLOCKLOG = new BlockLog(BLOCKLOG_PATH, BLOCKIMAGE_PATH, CACHE);
+		if(BLOCKLOG.exists()) {
+			openBlockLog();
+			LOG.info("SUCCESS: Cache has been read.");
+		} else if(journal.exists()) {
+			//carry a Java-serialized journal over into the block log
+			readJournal();
+			BLOCKLOG = new BlockLog(BLOCKLOG_PATH, BLOCKIMAGE_PATH, CACHE);
+			openBlockLog();
+			saveJournal(null);
+			journal.delete();
+			LOG.info("SUCCESS: Cache has been read.");
+		}
+		else {
+			openBlockLog();
+			LOG.info("SUCCESS: Cache was newly initialized.");
+		}
+		
+		INFO = new DataServerInfo(getAddress(), getPort(), getID(), ServerInfo.TYPES.DATA);
+		getSystemInfo();
+		
+		LOG.info("SUCCESS: On "+getStartTime()+", "+getInfo()+" is active.");
+		
+		handleConnections();
+	}
+
+	public void handleShutdown(PrintWriter out) {
+		saveJournal(out);
+		
+		LOG.info("SUCCESS: Shutting down DataServer in 1 minute...");
+
+		//exit from another thread so that this request can still be answered
+		Thread exit = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					LOG.error("FATAL: Could not sleep for 60 seconds.");
+				}
+				
+				LOG.info("DATASERVER SHUTDOWN!");
+				System.exit(1);
+			}
+		}, "DataServer-shutdown");
+		exit.start();
+	}
+
+	/**
+	 * Stops serving and closes the block log without exiting the JVM, e.g. to
+	 * run a DataServer inside a test.
+	 */
+	public void stop() {
+		SERVER.shutdown();
+		PIPELINE.shutdown();
+		try {
+			CLIENT.close();
+		} catch (IOException e) {
+			LOG.error("Could not close the MetaServer connection.",e);
+		}
+		try {
+			BLOCKLOG.close();
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not close the block log.",e);
+		}
+		LOG.info("SUCCESS: "+getInfo()+" has stopped.");
+	}
+
+	private void generateOrLoadID() {
+		File id = new File(IDDIR);
+		if(!id.exists()) {
+			ID = new Random().nextLong();
+			try {
+				id.createNewFile();
+				BufferedWriter bw = new BufferedWriter(new FileWriter(id));
+				bw.write(Long.toString(ID));
+				bw.close();
+				LOG.info("Could not find ID file. New server ID generated @"+id.getAbsolutePath()+".");
+			} catch (IOException e) {
+				LOG.error("Could not create ID file.", e);
+				System.exit(1);
+			}
+			return;
+		}
+		
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(id));
+			ID = Long.parseLong(br.readLine());
+		} catch (NumberFormatException | IOException e) {
+			LOG.error("Could not open ID file for reading.", e);
+			System.exit(1);
+		}
+	}
+
+	private void createWorkingDirectory() {
+		File workdir = new File(WORKDIR);
+		if(!workdir.exists()) {
+			//make parent directory and file
+			workdir.mkdirs();
+		}
+		
+		File finaldir = new File(FINALDIR);
+		if(!finaldir.exists()) {
+			//make parent directory and file
+			finaldir.mkdirs();
+		}
+	}
+	
+	/* Should only need to handle 1 MetaServer connection at a time. */
+	private void handleConnections() {
+		final DataServer dataServer = this;
+		ConnectionHandlerFactory factory = new ConnectionHandlerFactory() {
+			@Override
+			public ConnectionHandler newHandler(Connection connection) {
+				return new DataConnectionHandler(connection, dataServer);
+			}
+		};
+		
+		//continually listen for incoming connections (possibly CLI or DataWriters)
+		try {
+			SERVER = new SelectorServer("DataServer", SELECTORS, WORKERS, factory);
+			SERVER.bind(getPort());
+			PIPELINE = new DataServerPool("DataServer-pipeline", new TaskExecutor("DataServer-pipeline", PIPELINE_THREADS, TASK_QUEUE), 1);
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not connect ServerSocket.",e);
+			System.exit(1);
+		}
+		METRICS.gauge("connections", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return SERVER.getConnectionCount();
+			}
+		});
+		METRICS.gauge("inflight", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return SERVER.getWorkers().getInFlight();
+			}
+		});
+		
+		//hand the 1 connection between DataServer and MetaServer to the same loops
+		try {
+			SERVER.register(CLIENT, new ConnectionHandlerFactory() {
+				@Override
+				public ConnectionHandler newHandler(Connection connection) {
+					META_CONNECTION = connection;
+					return new DataConnectionHandler(connection, dataServer, true);
+				}
+			});
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not register the MetaServer connection.",e);
+			System.exit(1);
+		}
+		sendHeartbeats();
+	}
+	
+	/* PUSHES FRESH STATS TO THE METASERVER EVERY HEARTBEAT_INTERVAL -- IT STOPS USING US WITHOUT THEM! */
+	private void sendHeartbeats() {
+		Thread heartbeat = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true) {
+					try {
+						Thread.sleep(DataServerInfo.HEARTBEAT_INTERVAL);
+					} catch (InterruptedException e) {
+						return;
+					}
+					Connection meta = META_CONNECTION;
+					if(meta == null || !meta.isOpen()) {
+						LOG.error("FATAL: Lost the MetaServer connection. No more heartbeats are sent.");
+						return;
+					}
+					getSystemInfo();
+					for(ByteBuffer report : getBlockReport(false)) {
+						meta.send(report);
+					}
+					meta.send(FrameEncoder.get().begin(Opcode.HEARTBEAT, 0).putServerInfo(getInfo()).finish());
+				}
+			}
+		}, "DataServer-heartbeat");
+		heartbeat.setDaemon(true);
+		heartbeat.start();
+	}
+	
+	/**
+	 * A full report lists every file this DataServer holds; the others only
+	 * what changed since the last one.
+	 * @return the REPORT frames, to be sent in order; none if there is nothing to report
+	 */
+	public List<ByteBuffer> getBlockReport(boolean full) {
+		Map<String, Boolean> changes;
+		synchronized(REPORT) {
+			if(!full && REPORT.isEmpty()) {
+				return Collections.emptyList();
+			}
+			changes = new LinkedHashMap<String, Boolean>(REPORT);
+			REPORT.clear();
+		}
+		if(full) {
+			changes.clear();
+			for(String path : CACHE.keySet()) {
+				changes.put(path, true);
+			}
+		}
+		
+		return encodeReport(changes, full, REPORT_CHUNK);
+	}
+	
+	/**
+	 * Splits a report into REPORT frames whose paths take at most chunkBytes
+	 * each (unless a single path is longer). A full report always has at
+	 * least one frame, so a DataServer holding nothing still says so.
+	 */
+	public static List<ByteBuffer> encodeReport(Map<String, Boolean> changes, boolean full, int chunkBytes) {
+		List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+		List<Map.Entry<String, Boolean>> chunk = new ArrayList<Map.Entry<String, Boolean>>();
+		long bytes = 0;
+		for(Map.Entry<String, Boolean> change : changes.entrySet()) {
+			//the most a path can take on the wire, and its held byte
+			long size = 4+3L*change.getKey().length()+1;
+			if(!chunk.isEmpty() && bytes+size > chunkBytes) {
+				frames.add(encodeReport(chunk, full && frames.isEmpty(), false));
+				chunk.clear();
+				bytes = 0;
+			}
+			chunk.add(change);
+			bytes += size;
+		}
+		if(full || !chunk.isEmpty()) {
+			frames.add(encodeReport(chunk, full && frames.isEmpty(), full));
+		}
+		return frames;
+	}
+	
+	private static ByteBuffer encodeReport(List<Map.Entry<String, Boolean>> chunk, boolean first, boolean last) {
+		byte flags = (byte) ((first ? Opcode.REPORT_FIRST : 0) | (last ? Opcode.REPORT_LAST : 0));
+		FrameEncoder encoder = FrameEncoder.get().begin(Opcode.REPORT, 0).putByte(flags).putInt(chunk.size());
+		for(Map.Entry<String, Boolean> change : chunk) {
+			encoder.putString(change.getKey()).putByte((byte) (change.getValue() ? 1 : 0));
+		}
+		return encoder.finish();
+	}
+	
+	private void report(String path, boolean held) {
+		synchronized(REPORT) {
+			REPORT.put(path, held);
+		}
+	}
+	
+	//path = FULL PATH aka key, out = output to send back to MetaServer
+	public void createFile(String path, PrintWriter out) {
+		if(CACHE.containsKey(path)) {
+			out.println("Block listing already exists for "+path+".");
+			LOG.error("FATAL: Tried to create new Blocks for "+path+". (MetaServer not synced with others?)");
+		}
+		
+		Block block = new Block();
+		File blockFile = getBlockFile(block);
+		try {
+			blockFile.createNewFile();
+		} catch (IOException e) {
+			out.println("Could not create a Block for "+path+".");
+			LOG.error("Could not create a Block for "+path+".", e);
+		}
+		
+		ArrayList<Block> blockList = new ArrayList<Block>(3);
+		blockList.add(block);
+		CACHE.put(path, blockList);
+		
+		try {
+			BLOCKLOG.logAddBlock(path, block);
+		} catch (IOException e) {
+			out.println("FATAL: Could not write to the block log.");
+			LOG.error("FATAL: Could not write to the block log.",e);
+			System.exit(1);
+		}
+		
+		report(path, true);
+		out.println("Block listing created for "+path+".");
+		LOG.info("SUCCESS: Block listing created for "+path+".");
+	}
+	
+	//THIS WILL OVERWRITE DATA IN BLOCK!
+	public void writeBlock(String path, byte[] data, ServerInfo[] chain, PrintWriter out) {
+		forward(Opcode.WRITE, path, data, chain, out);
+		ArrayList<Block> blocks = CACHE.get(path);
+		
+		if(blocks == null || blocks.size() == 0) {
+			out.println("There are no blocks available for "+path+" (File does not exist?).");
+			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
+			return;
+		}
+		
+		//overwriting starts the file over with a single empty block
+		Block block;
+		synchronized(blocks) {
+			try {
+				truncate(path, blocks);
+			} catch (IOException e) {
+				out.println("FATAL: Could not write to the block log.");
+				LOG.error("FATAL: Could not write to the block log.",e);
+				System.exit(1);
+			}
+			block = writeData(path, blocks, data, out);
+		}
+		
+		if(block != null) {
+			out.println("Data was successfully written for "+path+" into block file "+block+".");
+			LOG.info("SUCCESS: Data was successfully written for "+path+" into block file "+block+".");
+		}
+	}
+	
+	//THIS WILL APPEND DATA IN BLOCK!
+	public void appendBlock(String path, byte[] data, ServerInfo[] chain, PrintWriter out) {
+		forward(Opcode.APPEND, path, data, chain, out);
+		ArrayList<Block> blocks = CACHE.get(path);
+		
+		if(blocks == null || blocks.size() == 0) {
+			out.println("There are no blocks available for "+path+" (File does not exist?).");
+			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
+			return;
+		}
+		
+		Block block;
+		synchronized(blocks) {
+			block = writeData(path, blocks, data, out);
+		}
+		
+		if(block != null) {
+			out.println("Data was successfully written for "+path+" into block file "+block+".");
+			LOG.info("SUCCESS: Data was successfully written for "+path+" into block file "+block+".");
+		}
+	}
+	
+	/* PASSES A WRITE ON TO THE NEXT REPLICA BEFORE WRITING IT HERE, SO THE COPIES OVERLAP!
+	 * THE NEXT REPLICA'S ACKS COME BACK INTO THIS REPLY, WHICH ENDS ONCE THEY ARE ALL IN.
+	 */
+	private void forward(Opcode opcode, String path, byte[] data, ServerInfo[] chain, final PrintWriter out) {
+		if(chain.length == 0) {
+			return;
+		}
+		final ServerInfo next = chain[0];
+		ServerInfo[] rest = Arrays.copyOfRange(chain, 1, chain.length);
+		
+		FrameWriter.hold(out);
+		PIPELINE.send(next, opcode, path, data, rest, new DataServerPool.Listener() {
+			@Override
+			public void onLine(String line) {
+				out.println(line);
+			}
+			
+			@Override
+			public void onData(byte[] data) {
+			}
+			
+			@Override
+			public void onBlock(long id, long length, boolean saturated) {
+			}
+			
+			@Override
+			public void onInfo(ServerInfo info) {
+			}
+			
+			@Override
+			public void onComplete() {
+				FrameWriter.release(out);
+			}
+			
+			@Override
+			public void onFailure(String reason) {
+				out.println("Replica "+next.getAddress()+":"+next.getPort()+" missed the write := "+reason);
+				LOG.error("FATAL: Could not pass a write on to replica "+next+" := "+reason);
+				FrameWriter.release(out);
+			}
+		});
+	}
+	
+	/**
+	 * Appends data to the last block, saturating every block that fills up and
+	 * going on in a new one. The caller holds the lock on blocks.
+	 * @return the block the data ended in, or null if it could not be written
+	 */
+	private Block writeData(String path, ArrayList<Block> blocks, byte[] data, PrintWriter out) {
+		Block block = blocks.get(blocks.size()-1);
+		int offset = 0;
+		try {
+			do {
+				if(block.isSaturated()) {
+					block = allocateBlock(path, blocks);
+				}
+				
+				File rawFile = getBlockFile(block);
+				long size = rawFile.length();
+				int length = (int) Math.min(BLOCK_SIZE-size, data.length-offset);
+				if(length > 0) {
+					FileOutputStream fos = new FileOutputStream(rawFile, true);
+					try {
+						fos.write(data, offset, length);
+					} finally {
+						fos.close();
+					}
+					offset += length;
+					METRICS.counter("bytes.written").add(length);
+					METRICS.histogram("block.bytes.written").record(length);
+				}
+				
+				if(size+length >= BLOCK_SIZE) {
+					saturate(path, block);
+				}
+			} while(offset < data.length);
+		} catch (IOException e) {
+			out.println("Issue writing into block file "+block+".");
+			LOG.error("FATAL: Issue writing into block file "+block+".",e);
+			return null;
+		}
+		return block;
+	}
+	
+	/* DROPS EVERY BLOCK OF THE FILE AND STARTS IT OVER WITH ONE EMPTY BLOCK. THE CALLER HOLDS THE LOCK ON blocks. */
+	private void truncate(String path, ArrayList<Block> blocks) throws IOException {
+		for(Block old : blocks) {
+			getBlockFile(old).delete();
+		}
+		if(!blocks.isEmpty()) {
+			BLOCKLOG.logRemove(path, blocks.size());
+		}
+		blocks.clear();
+		allocateBlock(path, blocks);
+	}
+	
+	/* A NEW, EMPTY BLOCK AT THE END OF THE FILE */
+	private Block allocateBlock(String path, ArrayList<Block> blocks) throws IOException {
+		Block block = new Block();
+		getBlockFile(block).createNewFile();
+		blocks.add(block);
+		BLOCKLOG.logAddBlock(path, block);
+		return block;
+	}
+	
+	/* A FULL BLOCK NEVER CHANGES AGAIN -- MOVE IT OUT OF THE WORKING DIRECTORY! */
+	private void saturate(String path, Block block) throws IOException {
+		File working = getBlockFile(block);
+		File finalized = new File(FINALDIR+block.getFileName());
+		if(!working.renameTo(finalized)) {
+			throw new IOException("Could not move "+working.getAbsolutePath()+" to "+finalized.getAbsolutePath());
+		}
+		block.setSaturated(true);
+		BLOCKLOG.logSaturate(path, block);
+		LOG.info("SUCCESS: Block "+block+" of "+path+" is saturated and finalized.");
+	}
+	
+	/**
+	 * Saturated blocks are in FINALDIR, the others in WORKDIR.
+	 */
+	private File getBlockFile(Block block) {
+		if(block.isSaturated()) {
+			return new File(FINALDIR+block.getFileName());
+		}
+		File working = new File(WORKDIR+block.getFileName());
+		if(!working.exists()) {
+			//moved just before a crash, before the block log heard about it
+			File finalized = new File(FINALDIR+block.getFileName());
+			if(finalized.exists()) {
+				block.setSaturated(true);
+				return finalized;
+			}
+		}
+		return working;
+	}
+
+	/**
+	 * Generates an automatic data server using port 7500 and data path "./data".
+	 */
+	public static void main(String[] args) {
+		try {
+			String address = args.length > 0 ? args[0] : null;
+			if(args.length > 1) 
+				new DataServer(address, 7500, "./data/", Long.parseLong(args[1]));
+			else
+				new DataServer(address, 7500, "./data/");
+		} catch(ConnectException ex) {
+			System.out.println("FATAL: Could not connect socket. No MetaServer to connect to.");
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void readJournal() {
+		File journal = new File(JOURNAL_PATH);
+		try {
+			FileInputStream fis = new FileInputStream(journal);
+			ObjectInputStream obj = new ObjectInputStream(fis);
+			CACHE = (ConcurrentHashMap<String, ArrayList<Block>>) obj.readObject();
+			obj.close();
+			fis.close();
+		} catch (IOException e) {
+			LOG.error("FATAL: We could not read the journal.",e);
+			System.exit(1);
+		} catch (ClassNotFoundException e) {
+			LOG.error("FATAL: We could not decode the journal.",e);
+			System.exit(1);
+		}
+		
+		LOG.info("SUCCESS: Read in the journal! It has "+CACHE.size()+" entries in it.");
+		if(DEBUG) {
+			System.out.println(CACHE);
+		}
+	}
+	
+	private void openBlockLog() {
+		try {
+			BLOCKLOG.open();
+		} catch (IOException e) {
+			LOG.error("FATAL: We could not read the block log.",e);
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Every change is already in the block log; this folds the log into a
+	 * fresh block image so the next start does not have to replay it.
+	 * @param out may be null when nobody is waiting for an answer
+	 */
+	public void saveJournal(PrintWriter out) {
+		File image = new File(BLOCKIMAGE_PATH);
+		Runnable timer = METRICS.timer("journal.save");
+		try {
+			BLOCKLOG.compact();
+		} catch (IOException e) {
+			if(out != null) {
+				out.println("FATAL: Could not write the block image.");
+			}
+			LOG.error("FATAL: Could not write the block image.",e);
+			System.exit(1);
+		}
+		timer.run();
+		if(out != null) {
+			out.println("The block image was written to disk @"+image.getAbsolutePath());
+		}
+		LOG.info("SUCCESS: The block image was written to disk @"+image.getAbsolutePath());
+	}
+	
+	public MetricsRegistry getMetrics() {
+		return METRICS;
+	}
+	
+	/** @return the pool that runs the requests of every connection */
+	public TaskExecutor getWorkers() {
+		return SERVER.getWorkers();
+	}
+	
+	private void getSystemInfo() {
+	    CORES = Runtime.getRuntime().availableProcessors();
+	    CURR_MEMORY = Runtime.getRuntime().freeMemory();
+	    MAX_MEMORY = Runtime.getRuntime().maxMemory();
+	    JVM_MEMORY = Runtime.getRuntime().totalMemory();
+	    //the disk the blocks go to
+		FREE_SPACE = new File(FINALDIR).getFreeSpace();
+		IN_FLIGHT = SERVER == null ? 0 : SERVER.getWorkers().getInFlight();
+
+		//update the DataServerInfo with the new stats
+		INFO.setCores(CORES);
+		INFO.setCurrMemory(CURR_MEMORY);
+		INFO.setFreeSpace(FREE_SPACE);
+		INFO.setJVMMemory(JVM_MEMORY);
+		INFO.setMaxMemory(MAX_MEMORY);
+		INFO.setInFlight(IN_FLIGHT);
+	}
+	
+	public void updateSystemInfo() {
+		getSystemInfo();
+		LOG.info("System information updated.");
+	}
+	
+	public String getAddress() {
+		return IP_ADDRESS;
+	}
+	
+	public String getRemoteAddress() {
+		return REMOTE_ADDRESS;
+	}
+
+	public int getPort() {
+		return DATA_PORT;
+	}
+
+	public Date getStartTime() {
+		return START_TIME;
+	}
+	
+	public long getID() {
+		return ID;
+	}
+	
+	public ServerInfo getInfo() {
+		return INFO;
+	}
+
+	/**
+	 * Only sends the first READ_SIZE bytes of the file asked to read.
+	 * @param path
+	 * @param out
+	 */
+	public void readHeadFile(String path, FrameWriter out) {
+		readRange(path, out, 0, READ_SIZE);
+	}
+	
+	/**
+	 * Only sends the last READ_SIZE bytes of the file asked to read.
+	 * @param path
+	 * @param out
+	 */
+	public void readTailFile(String path, FrameWriter out) {
+		readRange(path, out, -READ_SIZE, READ_SIZE);
+	}
+	
+	/**
+	 * Sends the whole file, every block of it.
+	 * @param path
+	 * @param out
+	 */
+	public void readFile(String path, FrameWriter out) {
+		readRange(path, out, 0, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Sends a BLOCK frame for every block of the file, in file order.
+	 * @param path
+	 * @param out
+	 */
+	public void listBlocks(String path, FrameWriter out) {
+		ArrayList<Block> blocks = CACHE.get(path);
+		
+		if(blocks == null || blocks.size() == 0) {
+			out.println("There are no blocks available for "+path+" (File does not exist?).");
+			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
+			return;
+		}
+		
+		synchronized(blocks) {
+			for(Block block : blocks) {
+				out.sendFrame(FrameEncoder.get().begin(Opcode.BLOCK, out.getRequestId()).putLong(block.getID())
+						.putLong(getBlockFile(block).length()).putByte((byte) (block.isSaturated() ? 1 : 0)).finish());
+			}
+		}
+	}
+	
+	/* SENDS length BYTES FROM start (COUNTED FROM THE END IF NEGATIVE) AS DATA FRAMES,
+	 * STRAIGHT FROM THE BLOCK FILES TO THE SOCKET -- THEY NEVER TOUCH THE HEAP!
+	 */
+	private void readRange(String path, FrameWriter out, long start, long length) {
+		ArrayList<Block> blocks = CACHE.get(path);
+	
+		if(blocks == null || blocks.size() == 0) {
+			out.println("There are no blocks available for "+path+" (File does not exist?).");
+			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
+			return;
+		}
+		
+		//fix the size of every block first (later appends are not part of this read), then open only the blocks in range
+		FileChannel[] channels;
+		long[] sizes;
+		long fileSize = 0;
+		long end;
+		synchronized(blocks) {
+			channels = new FileChannel[blocks.size()];
+			sizes = new long[channels.length];
+			for(int i = 0; i < channels.length; i++) {
+				sizes[i] = getBlockFile(blocks.get(i)).length();
+				fileSize += sizes[i];
+			}
+			if(start < 0) {
+				start = Math.max(0, fileSize+start);
+			}
+			end = Math.min(fileSize, start+Math.min(length, fileSize));
+			
+			long blockStart = 0;
+			try {
+				for(int i = 0; i < channels.length && blockStart < end; i++) {
+					if(blockStart+sizes[i] > start) {
+						channels[i] = new FileInputStream(getBlockFile(blocks.get(i))).getChannel();
+					}
+					blockStart += sizes[i];
+				}
+			} catch (IOException e) {
+				closeAll(channels);
+				out.println("We could not read the Block file.");
+				LOG.error("FATAL: We could not read the Block file.",e);
+				return;
+			}
+		}
+		
+		long blockStart = 0;
+		for(int i = 0; i < channels.length; i++) {
+			long blockEnd = blockStart+sizes[i];
+			if(channels[i] != null) {
+				long from = Math.max(start, blockStart)-blockStart;
+				long to = Math.min(end, blockEnd)-blockStart;
+				//the connection closes the channel once it is sent
+				out.sendFile(channels[i], from, to-from);
+				METRICS.counter("bytes.read").add(to-from);
+				METRICS.histogram("block.bytes.read").record(to-from);
+			}
+			blockStart = blockEnd;
+		}
+		LOG.info("SUCCESS: Sent "+(end-start)+" bytes of "+path+".");
+	}
+	
+	private static void closeAll(FileChannel[] channels) {
+		for(int i = 0; i < channels.length; i++) {
+			if(channels[i] != null) {
+				try {
+					channels[i].close();
+				} catch (IOException e) {
+					LOG.error("Could not close block file.",e);
+				}
+			}
+		}
+	}
+
+	public void removeFile(String path, PrintWriter out) {
+		ArrayList<Block> blocks = CACHE.get(path);
+		
+		if(blocks == null || blocks.size() == 0) {
+			out.println("There are no blocks available for "+path+" (File does not exist?).");
+			LOG.error("FATAL: There are no blocks available for "+path+" (File does not exist?).");
+			return;
+		}
+		
+		//DELETE THE BLOCKS
+		CACHE.remove(path);
+		synchronized(blocks) {
+			for(Block block : blocks) {
+				getBlockFile(block).delete();
+			}
+		}
+		
+		try {
+			BLOCKLOG.logRemove(path, blocks.size());
+		} catch (IOException e) {
+			out.println("FATAL: Could not write to the block log.");
+			LOG.error("FATAL: Could not write to the block log.",e);
+			System.exit(1);
+		}
+		
+		report(path, false);
+		out.println("The file "+path+" was successfully deleted.");
+		LOG.info("SUCCESS: The file "+path+" was successfully deleted.");
+	}
+	
+	/**
+	 * Makes this DataServer a new replica of a file by reading the whole of
+	 * it from one that holds it; whatever was here under the path before is
+	 * replaced. Each source is tried in turn until one copy goes through.
+	 * The reply ends with an INFO of this DataServer only if it did.
+	 * @param sources DataServers holding the file, in the order to try them
+	 */
+	public void replicateFile(String path, ServerInfo[] sources, FrameWriter out) {
+		if(sources.length == 0) {
+			out.println("There is no DataServer to copy "+path+" from.");
+			LOG.error("FATAL: There is no DataServer to copy "+path+" from.");
+			return;
+		}
+		
+		ArrayList<Block> blocks = new ArrayList<Block>(3);
+		ArrayList<Block> existing = CACHE.putIfAbsent(path, blocks);
+		if(existing != null) {
+			blocks = existing;
+		}
+		
+		out.hold();
+		copyFrom(path, blocks, sources, 0, out);
+	}
+	
+	/* READS THE FILE FROM sources[index] INTO blocks, GOING ON TO THE NEXT SOURCE IF IT FAILS */
+	private void copyFrom(final String path, final ArrayList<Block> blocks, final ServerInfo[] sources, final int index, final FrameWriter out) {
+		if(index == sources.length) {
+			discard(path, blocks);
+			out.println("Could not copy "+path+" from any of "+sources.length+" DataServers.");
+			LOG.error("FATAL: Could not copy "+path+" from any of "+sources.length+" DataServers.");
+			out.release();
+			return;
+		}
+		
+		final ServerInfo source = sources[index];
+		synchronized(blocks) {
+			try {
+				truncate(path, blocks);
+			} catch (IOException e) {
+				out.println("FATAL: Could not write to the block log.");
+				LOG.error("FATAL: Could not write to the block log.",e);
+				System.exit(1);
+			}
+		}
+		
+		PIPELINE.send(source, Opcode.READ, path, null, new DataServerPool.Listener() {
+			private long COPIED = 0;
+			private String PROBLEM = null;
+			
+			@Override
+			public void onLine(String line) {
+				//a read only answers with lines when it cannot send the file
+				PROBLEM = line;
+			}
+			
+			@Override
+			public void onData(byte[] data) {
+				if(PROBLEM != null) {
+					return;
+				}
+				synchronized(blocks) {
+					if(writeData(path, blocks, data, out) == null) {
+						PROBLEM = "Could not write the copy.";
+					}
+				}
+				COPIED += data.length;
+			}
+			
+			@Override
+			public void onBlock(long id, long length, boolean saturated) {
+			}
+			
+			@Override
+			public void onInfo(ServerInfo info) {
+			}
+			
+			@Override
+			public void onComplete() {
+				if(PROBLEM != null) {
+					onFailure(PROBLEM);
+					return;
+				}
+				report(path, true);
+				out.println("Copied "+COPIED+" bytes of "+path+" from "+source.getAddress()+":"+source.getPort()+".");
+				LOG.info("SUCCESS: Copied "+COPIED+" bytes of "+path+" from "+source+".");
+				out.sendFrame(FrameEncoder.get().begin(Opcode.INFO, out.getRequestId()).putServerInfo(getInfo()).finish());
+				out.release();
+			}
+			
+			@Override
+			public void onFailure(String reason) {
+				LOG.error("FATAL: Could not copy "+path+" from "+source+" := "+reason);
+				copyFrom(path, blocks, sources, index+1, out);
+			}
+		});
+	}
+	
+	/* FORGETS A FILE THIS DATASERVER NEVER GOT A GOOD COPY OF */
+	private void discard(String path, ArrayList<Block> blocks) {
+		CACHE.remove(path, blocks);
+		synchronized(blocks) {
+			for(Block block : blocks) {
+				getBlockFile(block).delete();
+			}
+			try {
+				BLOCKLOG.logRemove(path, blocks.size());
+			} catch (IOException e) {
+				LOG.error("FATAL: Could not write to the block log.",e);
+				System.exit(1);
+			}
+			blocks.clear();
+		}
+	}
+}
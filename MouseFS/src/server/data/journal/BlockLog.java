@@ -0,0 +1,276 @@
+package server.data.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.data.util.Block;
+
+/**
+ * Persists the DataServer block map as a compacted image plus an append-only
+ * log of the changes made since. Every change costs one small record no
+ * matter how many blocks the DataServer holds; once the log has grown past
+ * the live map it is folded into a new image and truncated.
+ * 
+ * Log record: [byte op][UTF path][long block id] (REMOVE drops every block of the path)
+ * Image: [int MAGIC][int paths] then per path [UTF path][int blocks] then per block [long id][boolean saturated]
+ */
+public class BlockLog {
+	private final Log LOG = LogFactory.getLog(BlockLog.class);
+	public static enum OPS {ADD_BLOCK, REMOVE, SATURATE};
+	
+	private static final int MAGIC = 0x4D464442; //"MFDB"
+	private static final long COMPACT_MIN_RECORDS = 10000L;
+	
+	private final File LOG_FILE;
+	private final File IMAGE_FILE;
+	private final ConcurrentHashMap<String, ArrayList<Block>> CACHE;
+	private RandomAccessFile RAF = null;
+	private FileChannel CHANNEL = null;
+	private long RECORDS = 0;
+	private long LIVE_BLOCKS = 0;
+	
+	private final ByteArrayOutputStream RECORD = new ByteArrayOutputStream(256);
+	private final DataOutputStream RECORD_OUT = new DataOutputStream(RECORD);
+	
+	public BlockLog(String logPath, String imagePath, ConcurrentHashMap<String, ArrayList<Block>> cache) {
+		this.LOG_FILE = new File(logPath);
+		this.IMAGE_FILE = new File(imagePath);
+		this.CACHE = cache;
+	}
+	
+	public boolean exists() {
+		return LOG_FILE.exists() || IMAGE_FILE.exists();
+	}
+	
+	/**
+	 * Reads the image and replays the log into the cache, then opens the log
+	 * for appending. A torn last record is cut off.
+	 */
+	public synchronized void open() throws IOException {
+		if(IMAGE_FILE.exists()) {
+			readImage();
+		}
+		
+		long validLength = 0;
+		if(LOG_FILE.exists()) {
+			validLength = replay();
+		}
+		
+		RAF = new RandomAccessFile(LOG_FILE, "rw");
+		CHANNEL = RAF.getChannel();
+		if(CHANNEL.size() > validLength) {
+			LOG.error("FATAL: Truncating "+(CHANNEL.size()-validLength)+" bytes of torn records from "+LOG_FILE.getAbsolutePath()+".");
+			CHANNEL.truncate(validLength);
+		}
+		CHANNEL.position(validLength);
+		
+		LIVE_BLOCKS = 0;
+		for(ArrayList<Block> blocks : CACHE.values()) {
+			LIVE_BLOCKS += blocks.size();
+		}
+		LOG.info("SUCCESS: Block map has "+CACHE.size()+" files and "+LIVE_BLOCKS+" blocks.");
+	}
+	
+	public synchronized void logAddBlock(String path, Block block) throws IOException {
+		append(OPS.ADD_BLOCK, path, block.getID());
+		LIVE_BLOCKS++;
+	}
+	
+	/**
+	 * Records that a block is full and has moved to the finalized directory.
+	 */
+	public synchronized void logSaturate(String path, Block block) throws IOException {
+		append(OPS.SATURATE, path, block.getID());
+	}
+	
+	public synchronized void logRemove(String path, int blocks) throws IOException {
+		append(OPS.REMOVE, path, 0L);
+		LIVE_BLOCKS -= blocks;
+	}
+	
+	private void append(OPS op, String path, long blockId) throws IOException {
+		RECORD.reset();
+		RECORD_OUT.writeByte(op.ordinal());
+		RECORD_OUT.writeUTF(path);
+		RECORD_OUT.writeLong(blockId);
+		
+		ByteBuffer buffer = ByteBuffer.wrap(RECORD.toByteArray());
+		while(buffer.hasRemaining()) {
+			CHANNEL.write(buffer);
+		}
+		RECORDS++;
+		
+		if(RECORDS >= COMPACT_MIN_RECORDS && RECORDS > 2*LIVE_BLOCKS) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Writes the whole block map as the new image and truncates the log.
+	 */
+	public synchronized void compact() throws IOException {
+		File tmp = new File(IMAGE_FILE.getPath()+".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp, false);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64*1024));
+		long blockCount = 0;
+		try {
+			//copy first, the map keeps changing underneath us
+			ArrayList<Map.Entry<String, ArrayList<Block>>> entries = new ArrayList<Map.Entry<String, ArrayList<Block>>>(CACHE.entrySet());
+			out.writeInt(MAGIC);
+			out.writeInt(entries.size());
+			for(Map.Entry<String, ArrayList<Block>> entry : entries) {
+				ArrayList<Block> blocks;
+				synchronized(entry.getValue()) {
+					blocks = new ArrayList<Block>(entry.getValue());
+				}
+				out.writeUTF(entry.getKey());
+				out.writeInt(blocks.size());
+				for(Block block : blocks) {
+					out.writeLong(block.getID());
+					out.writeBoolean(block.isSaturated());
+				}
+				blockCount += blocks.size();
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		
+		if(IMAGE_FILE.exists() && !IMAGE_FILE.delete()) {
+			throw new IOException("Could not replace the block image @"+IMAGE_FILE.getAbsolutePath());
+		}
+		if(!tmp.renameTo(IMAGE_FILE)) {
+			throw new IOException("Could not rename the block image to "+IMAGE_FILE.getAbsolutePath());
+		}
+		
+		CHANNEL.truncate(0);
+		CHANNEL.position(0);
+		RECORDS = 0;
+		LIVE_BLOCKS = blockCount;
+		LOG.info("SUCCESS: Compacted the block log into "+IMAGE_FILE.getAbsolutePath()+" ("+blockCount+" blocks).");
+	}
+	
+	private void readImage() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(IMAGE_FILE), 64*1024));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("Not a block image: "+IMAGE_FILE.getAbsolutePath());
+			}
+			int paths = in.readInt();
+			for(int i = 0; i < paths; i++) {
+				String path = in.readUTF();
+				int count = in.readInt();
+				ArrayList<Block> blocks = new ArrayList<Block>(Math.max(3, count));
+				for(int j = 0; j < count; j++) {
+					Block block = new Block(in.readLong());
+					block.setSaturated(in.readBoolean());
+					blocks.add(block);
+				}
+				CACHE.put(path, blocks);
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Records are idempotent, so a record that already made it into the image
+	 * (the log is truncated right after compacting) is harmless to apply again.
+	 * @return the length of the whole records in the log
+	 */
+	private long replay() throws IOException {
+		long validLength = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(LOG_FILE), 64*1024));
+		try {
+			while(true) {
+				int op;
+				try {
+					op = in.readUnsignedByte();
+				} catch (EOFException e) {
+					break;
+				}
+				String path = in.readUTF();
+				long blockId = in.readLong();
+				apply(OPS.values()[op], path, blockId);
+				
+				RECORDS++;
+				validLength += 1+2+utfLength(path)+8;
+			}
+		} catch (EOFException e) {
+			LOG.error("FATAL: The block log ends in a torn record; ignoring it.");
+		} finally {
+			in.close();
+		}
+		return validLength;
+	}
+	
+	private void apply(OPS op, String path, long blockId) {
+		switch(op) {
+		case ADD_BLOCK:
+			ArrayList<Block> blocks = CACHE.get(path);
+			if(blocks == null) {
+				blocks = new ArrayList<Block>(3);
+				CACHE.put(path, blocks);
+			}
+			for(Block block : blocks) {
+				if(block.getID() == blockId) {
+					return;
+				}
+			}
+			blocks.add(new Block(blockId));
+			break;
+		case REMOVE:
+			CACHE.remove(path);
+			break;
+		case SATURATE:
+			ArrayList<Block> saturated = CACHE.get(path);
+			if(saturated == null) {
+				return;
+			}
+			for(Block block : saturated) {
+				if(block.getID() == blockId) {
+					block.setSaturated(true);
+				}
+			}
+			break;
+		}
+	}
+	
+	private static int utfLength(String string) {
+		int length = 0;
+		for(int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if(c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if(c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+	
+	public synchronized void close() throws IOException {
+		CHANNEL.force(false);
+		RAF.close();
+	}
+}
@@ -0,0 +1,117 @@
+package server.meta;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import server.info.ServerInfo;
+
+/**
+ * Which DataServers hold which files, as the DataServers themselves report
+ * it. None of it is saved: every DataServer sends a full report when it
+ * connects, so the map fills up again as they come back after a restart.
+ *
+ * Block ids are local to each replica (every DataServer splits its copy of
+ * a file into blocks of its own), so the map is kept per file.
+ */
+public class BlockMap {
+	//path to the "address:port" of every DataServer holding it
+	private final ConcurrentHashMap<String, Set<String>> HOLDERS = new ConcurrentHashMap<String, Set<String>>();
+	//"address:port" to every path it holds
+	private final ConcurrentHashMap<String, Set<String>> FILES = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * A full report may come in several parts; only its first forgets what
+	 * the DataServer reported before, the others add to it like changes do.
+	 * @param full if the report starts listing everything the DataServer holds, rather than what changed
+	 * @param changes path to true if the DataServer holds it now, false if it dropped it
+	 */
+	public synchronized void report(ServerInfo dataServer, boolean full, Map<String, Boolean> changes) {
+		if(full) {
+			removeDataServer(dataServer);
+		}
+		for(Map.Entry<String, Boolean> change : changes.entrySet()) {
+			if(change.getValue()) {
+				add(dataServer, change.getKey());
+			} else {
+				remove(dataServer, change.getKey());
+			}
+		}
+	}
+
+	public synchronized void add(ServerInfo dataServer, String path) {
+		String key = DataServerMonitor.key(dataServer);
+		Set<String> holders = HOLDERS.get(path);
+		if(holders == null) {
+			holders = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			HOLDERS.put(path, holders);
+		}
+		holders.add(key);
+
+		Set<String> files = FILES.get(key);
+		if(files == null) {
+			files = new HashSet<String>();
+			FILES.put(key, files);
+		}
+		files.add(path);
+	}
+
+	public synchronized void remove(ServerInfo dataServer, String path) {
+		String key = DataServerMonitor.key(dataServer);
+		Set<String> holders = HOLDERS.get(path);
+		if(holders != null) {
+			holders.remove(key);
+			if(holders.isEmpty()) {
+				HOLDERS.remove(path);
+			}
+		}
+		Set<String> files = FILES.get(key);
+		if(files != null) {
+			files.remove(path);
+		}
+	}
+
+	/**
+	 * Forgets everything a DataServer reported, e.g. once it is dead.
+	 * @return the paths it held
+	 */
+	public synchronized Set<String> removeDataServer(ServerInfo dataServer) {
+		String key = DataServerMonitor.key(dataServer);
+		Set<String> files = FILES.remove(key);
+		if(files == null) {
+			return Collections.emptySet();
+		}
+		for(String path : files) {
+			Set<String> holders = HOLDERS.get(path);
+			if(holders != null) {
+				holders.remove(key);
+				if(holders.isEmpty()) {
+					HOLDERS.remove(path);
+				}
+			}
+		}
+		return files;
+	}
+
+	/** @return the "address:port" of every DataServer that reported holding path */
+	public Set<String> getHolders(String path) {
+		Set<String> holders = HOLDERS.get(path);
+		if(holders == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(holders);
+	}
+
+	/** @return files dataServer reported holding */
+	public synchronized int getFileCount(ServerInfo dataServer) {
+		Set<String> files = FILES.get(DataServerMonitor.key(dataServer));
+		return files == null ? 0 : files.size();
+	}
+
+	/** @return files at least one DataServer reported holding */
+	public int size() {
+		return HOLDERS.size();
+	}
+}
@@ -0,0 +1,118 @@
+package server.meta;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import server.info.ServerInfo;
+
+/**
+ * Keeps track of when each DataServer last sent a heartbeat.
+ *
+ * A DataServer is LIVE while its beats arrive, STALE once it has missed
+ * STALE_BEATS of them in a row and DEAD after DEAD_BEATS. Only LIVE
+ * DataServers are handed out for reads, writes and new files; a STALE one
+ * comes back as soon as it beats again, a DEAD one is dropped until it does.
+ *
+ * Every method takes the time to judge by, so the MetaServer passes the
+ * clock and tests can pass whatever they like.
+ */
+public class DataServerMonitor {
+	public static enum STATES {LIVE, STALE, DEAD};
+
+	public static final int STALE_BEATS = 2;
+	public static final int DEAD_BEATS = 10;
+
+	private final long STALE_AFTER;
+	private final long DEAD_AFTER;
+	//"address:port" to the time of the last heartbeat
+	private final ConcurrentHashMap<String, Long> LAST_HEARD = new ConcurrentHashMap<String, Long>();
+	//what the last check said, so only changes are reported
+	private final ConcurrentHashMap<String, STATES> LAST_STATE = new ConcurrentHashMap<String, STATES>();
+
+	/**
+	 * @param interval ms between two heartbeats of a DataServer
+	 */
+	public DataServerMonitor(long interval) {
+		this.STALE_AFTER = STALE_BEATS * interval;
+		this.DEAD_AFTER = DEAD_BEATS * interval;
+	}
+
+	//how DataServers are told apart everywhere in the MetaServer
+	static String key(ServerInfo dataServer) {
+		return dataServer.getAddress()+":"+dataServer.getPort();
+	}
+
+	/**
+	 * Records a heartbeat (or a new connection, which counts as one).
+	 * @return true if the DataServer was not LIVE before
+	 */
+	public boolean heartbeat(ServerInfo dataServer, long now) {
+		String key = key(dataServer);
+		Long last = LAST_HEARD.put(key, now);
+		LAST_STATE.put(key, STATES.LIVE);
+		return last == null || now - last > STALE_AFTER;
+	}
+
+	/** Marks a DataServer DEAD right away, e.g. when its connection closes. */
+	public void remove(ServerInfo dataServer) {
+		LAST_HEARD.remove(key(dataServer));
+		LAST_STATE.remove(key(dataServer));
+	}
+
+	public STATES getState(ServerInfo dataServer, long now) {
+		return getState(LAST_HEARD.get(key(dataServer)), now);
+	}
+
+	private STATES getState(Long last, long now) {
+		if(last == null || now - last > DEAD_AFTER) {
+			return STATES.DEAD;
+		}
+		if(now - last > STALE_AFTER) {
+			return STATES.STALE;
+		}
+		return STATES.LIVE;
+	}
+
+	public boolean isLive(ServerInfo dataServer, long now) {
+		return getState(dataServer, now) == STATES.LIVE;
+	}
+
+	/**
+	 * @return the LIVE ones of dataServers, in the same order
+	 */
+	public ServerInfo[] filterLive(ServerInfo[] dataServers, long now) {
+		List<ServerInfo> live = new ArrayList<ServerInfo>(dataServers.length);
+		for(ServerInfo dataServer : dataServers) {
+			if(isLive(dataServer, now)) {
+				live.add(dataServer);
+			}
+		}
+		return live.toArray(new ServerInfo[live.size()]);
+	}
+
+	/**
+	 * Re-judges every DataServer heard from so far and forgets the DEAD ones.
+	 * @return "address:port" to the new state of each DataServer whose state changed
+	 */
+	public Map<String, STATES> check(long now) {
+		Map<String, STATES> changed = new HashMap<String, STATES>();
+		for(Map.Entry<String, Long> entry : LAST_HEARD.entrySet()) {
+			String key = entry.getKey();
+			STATES state = getState(entry.getValue(), now);
+			if(state != LAST_STATE.get(key)) {
+				changed.put(key, state);
+			}
+			if(state == STATES.DEAD) {
+				//a beat racing in between is just a DataServer coming back
+				LAST_HEARD.remove(key, entry.getValue());
+				LAST_STATE.remove(key);
+			} else {
+				LAST_STATE.put(key, state);
+			}
+		}
+		return changed;
+	}
+}
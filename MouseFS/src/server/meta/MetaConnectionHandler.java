@@ -1,151 +1,186 @@
-package server.meta;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Date;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import server.info.DataServerInfo;
-import server.info.ServerInfo;
-
-
-public class MetaConnectionHandler implements Runnable {
-	private MetaServer METASERVER = null;
-	private Socket SOCKET = null;
-	private boolean SHUTDOWN = false;
-
-	private final Log LOG = LogFactory.getLog(MetaConnectionHandler.class);
-	
-	public MetaConnectionHandler(Socket socket, MetaServer metaServer) {
-		SOCKET = socket;
-		METASERVER = metaServer;
-	}
-
-	public void handleConnection() {
-		Thread t = new Thread(this);
-		t.start();
-		LOG.info("SUCCESS: On "+(new Date().toString())+", a MetaServer connection has been made.");
-	}
-
-	//THIS HANDLES ONE STATEMENT -- AND ONLY ONE STATEMENT!
-	@Override
-	public void run() {
-		ObjectInputStream first = null;
-		BufferedReader br = null;
-		PrintWriter out = null;
-		try {
-			first = new ObjectInputStream(SOCKET.getInputStream());
-			br = new BufferedReader(new InputStreamReader(SOCKET.getInputStream()));
-			out = new PrintWriter(new OutputStreamWriter(SOCKET.getOutputStream()), true);
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not get input stream from Socket.");
-		}
-		String inputLine = null;
-		ServerInfo serverInfo = null;
-		
-		try {
-			serverInfo = (ServerInfo) first.readObject();
-		} catch (ClassNotFoundException | IOException e) {
-			LOG.error("FATAL: Could not read the ServerInfo object.",e);
-		}
-		
-		/* LOOP #1 -- PARSING CLI COMMANDS */
-		/* LOOP #1 -- PARSING CLI COMMANDS */
-		/* LOOP #1 -- PARSING CLI COMMANDS */
-		
-		if(serverInfo.getType() == ServerInfo.TYPES.CLI) {
-			LOG.info("SUCCESS: Received CLI connection.");
-			METASERVER.addCLI(serverInfo);
-			try {
-				while(!SHUTDOWN) {
-					while(br.ready()) {
-						inputLine = br.readLine();
-						if(inputLine.equals("save")) {
-							METASERVER.saveJournal(out);
-						} else if(inputLine.startsWith("mkdirs")) {
-							METASERVER.mkdirs(inputLine.substring(6).trim(), out);
-						} else if(inputLine.startsWith("mkdir")) {
-							METASERVER.mkdir(inputLine.substring(5).trim(), out);
-						} else if(inputLine.startsWith("rmdir")) {
-							METASERVER.rmdir(inputLine.substring(5).trim(), out);
-						} else if(inputLine.startsWith("create")) {
-							METASERVER.createFile(inputLine.substring(6).trim(), out);
-						} else if(inputLine.startsWith("write")) {
-							METASERVER.writeIntoFile(inputLine.substring(5).trim(), out);
-						} else if(inputLine.startsWith("append")) {
-							METASERVER.appendIntoFile(inputLine.substring(6).trim(), out);
-						} else if(inputLine.startsWith("head")) {
-							METASERVER.readFile(inputLine.substring(4).trim(), out, DataWriter.ACTIONS.HEAD);
-						} else if(inputLine.startsWith("tail")) {
-							METASERVER.readFile(inputLine.substring(4).trim(), out, DataWriter.ACTIONS.TAIL);
-						} else if(inputLine.startsWith("list")) {
-							METASERVER.list(inputLine.substring(4).trim(), out);
-						} else if(inputLine.startsWith("sysinfo")) {
-							METASERVER.printSystemInfo(out);
-						} else if(inputLine.equals("format")) {
-							METASERVER.format(out);
-						} else if(inputLine.equals("help")) {
-							METASERVER.sendHelp(out);
-						} else if(inputLine.equals("logout")) {
-							SHUTDOWN = true;
-							METASERVER.logout();
-							stop();
-							break;
-						} else if(inputLine.equals("shutdown")) {
-							SHUTDOWN = true;
-							METASERVER.handleShutdown(out);
-							stop();
-							break;
-						} else {
-							out.println("Received unknown command := "+inputLine+".");
-							LOG.error("Received unknown command := "+inputLine+".");
-						}
-					}
-				}
-			} catch (IOException e) {
-				LOG.error("FATAL: Could not read from the input stream. (CLI disconnect?)",e);
-				stop();
-			}
-			
-		/* LOOP #2 -- PARSING DATASERVER COMMANDS */
-		/* LOOP #2 -- PARSING DATASERVER COMMANDS */
-		/* LOOP #2 -- PARSING DATASERVER COMMANDS */
-		
-		} else if(serverInfo.getType() == ServerInfo.TYPES.DATA) {
-			LOG.info("SUCCESS: Received DataServer connection.");
-			METASERVER.addDataServer((DataServerInfo) serverInfo);
-			try {
-				while(!SHUTDOWN) {
-					while(br.ready()) {
-						inputLine = br.readLine();
-						if(inputLine.startsWith("heartbeat")) {
-							out.println("Heartbeat was received.");
-							LOG.info("SUCCESS: Received heartbeat from "+inputLine.substring(9).trim()+".");;
-						} else {
-							out.println("Received unknown command := "+inputLine+".");
-							LOG.error("Received unknown command := "+inputLine+".");
-						}
-					}
-				}
-			} catch (IOException e) {
-				LOG.error("FATAL: Could not read from the input stream. (DataServer disconnect?)",e);
-				stop();
-			}
-		} else {
-			LOG.error("FATAL: Could not tell what was connecting to MetaServer. Closing connection.");
-			stop();
-		}
-	}
-	
-	public void stop() {
-		LOG.info("SUCCESS: On "+(new Date().toString())+", a MetaServer connection has been closed.");
-	}
-}
-
+package server.meta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.Frame;
+import server.net.FrameWriter;
+import server.net.Opcode;
+
+
+public class MetaConnectionHandler implements ConnectionHandler {
+	private MetaServer METASERVER = null;
+	private Connection CONNECTION = null;
+	private ServerInfo SERVERINFO = null;
+	private boolean SHUTDOWN = false;
+
+	private final Log LOG = LogFactory.getLog(MetaConnectionHandler.class);
+	
+	public MetaConnectionHandler(Connection connection, MetaServer metaServer) {
+		CONNECTION = connection;
+		METASERVER = metaServer;
+	}
+
+	@Override
+	public void connected() {
+		LOG.info("SUCCESS: On "+(new Date().toString())+", a MetaServer connection has been made.");
+	}
+	
+	@Override
+	public Object decode(ByteBuffer in) throws IOException {
+		return Frame.decode(in);
+	}
+
+	//THIS HANDLES ONE REQUEST -- AND ONLY ONE REQUEST!
+	@Override
+	public void handle(Object object) {
+		if(SHUTDOWN) {
+			return;
+		}
+		
+		Frame frame = (Frame) object;
+		try {
+			if(SERVERINFO == null) {
+				handleHello(frame);
+			} else if(SERVERINFO.getType() == ServerInfo.TYPES.CLI) {
+				handleCLICommand(frame);
+			} else {
+				handleDataServerCommand(frame);
+			}
+		} catch (IOException e) {
+			LOG.error("FATAL: Received a malformed "+frame+". Closing connection.",e);
+			stop();
+		}
+	}
+	
+	/* THE FIRST FRAME SAYS WHO IS CONNECTING! */
+	private void handleHello(Frame frame) throws IOException {
+		if(frame.getOpcode() != Opcode.HELLO) {
+			LOG.error("FATAL: Expected HELLO but received "+frame+". Closing connection.");
+			stop();
+			return;
+		}
+		SERVERINFO = frame.readServerInfo();
+		
+		if(SERVERINFO.getType() == ServerInfo.TYPES.CLI) {
+			LOG.info("SUCCESS: Received CLI connection.");
+			METASERVER.addCLI(SERVERINFO);
+		} else if(SERVERINFO.getType() == ServerInfo.TYPES.DATA) {
+			LOG.info("SUCCESS: Received DataServer connection.");
+			METASERVER.addDataServer((DataServerInfo) SERVERINFO);
+		} else {
+			LOG.error("FATAL: Could not tell what was connecting to MetaServer. Closing connection.");
+			stop();
+		}
+	}
+	
+	/* DISPATCHING CLI COMMANDS -- THE REPLY ENDS ONCE EVERYTHING WORKING ON IT IS DONE! */
+	private void handleCLICommand(Frame frame) throws IOException {
+		FrameWriter out = new FrameWriter(CONNECTION, frame.getRequestId());
+		out.whenEnded(METASERVER.getMetrics().timer("op."+frame.getOpcode().toString().toLowerCase()));
+		try {
+			switch(frame.getOpcode()) {
+			case SAVE: METASERVER.saveJournal(out); break;
+			case MKDIRS: METASERVER.mkdirs(frame.readString(), out); break;
+			case MKDIR: METASERVER.mkdir(frame.readString(), out); break;
+			case RMDIR: METASERVER.rmdir(frame.readString(), out); break;
+			case CREATE:
+				String path = frame.readString();
+				METASERVER.createFile(path, frame.hasRemaining() ? frame.readInt() : 0, out);
+				break;
+			case WRITE: METASERVER.writeIntoFile(frame.readString(), frame.readBytes(), out); break;
+			case APPEND: METASERVER.appendIntoFile(frame.readString(), frame.readBytes(), out); break;
+			case HEAD: METASERVER.readFile(frame.readString(), out, DataWriter.ACTIONS.HEAD); break;
+			case TAIL: METASERVER.readFile(frame.readString(), out, DataWriter.ACTIONS.TAIL); break;
+			case READ: METASERVER.readFile(frame.readString(), out, DataWriter.ACTIONS.READ); break;
+			case LOCATE: METASERVER.locateFile(frame.readString(), frame.readByte() != 0, out); break;
+			case LIST:
+				//older CLIs send the path alone
+				String listed = frame.readString();
+				boolean recursive = frame.hasRemaining() && frame.readByte() != 0;
+				int page = frame.hasRemaining() ? frame.readInt() : 0;
+				METASERVER.list(listed, recursive, page, frame.hasRemaining() ? frame.readString() : "", out);
+				break;
+			case SYSINFO: METASERVER.printSystemInfo(out); break;
+			case METRICS: METASERVER.printMetrics(out); break;
+			case FORMAT: METASERVER.format(out); break;
+			case HELP: METASERVER.sendHelp(out); break;
+			case LOGOUT:
+				SHUTDOWN = true;
+				METASERVER.logout();
+				break;
+			case SHUTDOWN:
+				//keep the connection so the DataServers' answers still reach the CLI
+				METASERVER.handleShutdown(out);
+				break;
+			default:
+				out.println("Received unknown command := "+frame.getOpcode()+".");
+				LOG.error("Received unknown command := "+frame.getOpcode()+".");
+			}
+		} finally {
+			out.release();
+		}
+		
+		if(frame.getOpcode() == Opcode.LOGOUT) {
+			stop();
+		}
+	}
+	
+	/* DISPATCHING DATASERVER COMMANDS */
+	private void handleDataServerCommand(Frame frame) throws IOException {
+		long start = System.nanoTime();
+		if(frame.getOpcode() == Opcode.HEARTBEAT) {
+			ServerInfo info = frame.readServerInfo();
+			if(!(info instanceof DataServerInfo)) {
+				throw new IOException("Received a heartbeat from "+info+", which is not a DataServer.");
+			}
+			//heartbeats go unanswered; the DataServer just sends the next one
+			METASERVER.heartbeat((DataServerInfo) info);
+			METASERVER.getMetrics().histogram("op.heartbeat").recordSince(start);
+			return;
+		}
+		if(frame.getOpcode() == Opcode.REPORT) {
+			byte flags = frame.readByte();
+			int count = frame.readInt();
+			Map<String, Boolean> changes = new LinkedHashMap<String, Boolean>(Math.max(16, count*2));
+			for(int i = 0; i < count; i++) {
+				changes.put(frame.readString(), frame.readByte() != 0);
+			}
+			METASERVER.blockReport((DataServerInfo) SERVERINFO, (flags & Opcode.REPORT_FIRST) != 0, (flags & Opcode.REPORT_LAST) != 0, changes);
+			METASERVER.getMetrics().histogram("op.report").recordSince(start);
+			return;
+		}
+		
+		FrameWriter out = new FrameWriter(CONNECTION, frame.getRequestId());
+		out.println("Received unknown command := "+frame.getOpcode()+".");
+		LOG.error("Received unknown command := "+frame.getOpcode()+".");
+		out.release();
+	}
+	
+	@Override
+	public void disconnected() {
+		if(SERVERINFO != null && SERVERINFO.getType() == ServerInfo.TYPES.DATA) {
+			METASERVER.removeDataServer((DataServerInfo) SERVERINFO);
+		}
+		if(!SHUTDOWN) {
+			LOG.info("SUCCESS: On "+(new Date().toString())+", a MetaServer connection has been closed.");
+		}
+	}
+	
+	/* CLOSES ONCE EVERY QUEUED REPLY HAS BEEN SENT */
+	public void stop() {
+		SHUTDOWN = true;
+		CONNECTION.close();
+		LOG.info("SUCCESS: On "+(new Date().toString())+", a MetaServer connection has been closed.");
+	}
+}
@@ -1,714 +1,1326 @@
-package server.meta;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import server.info.DataServerInfo;
-import server.info.ServerInfo;
-import server.meta.util.Metadata;
-import server.meta.util.Metapath;
-
-
-public class MetaServer {
-	private final Log LOG = LogFactory.getLog(MetaServer.class);
-	private final boolean DEBUG = true;
-	
-	//Has to be a concurrent Map?
-	private ConcurrentHashMap<String, ArrayList<Metadata>> CACHE = null;
-	private ArrayList<DataServerInfo> DATASERVERS = new ArrayList<DataServerInfo>(10);
-	private ServerInfo CLI = null;
-	
-	private final String OWNER = System.getProperty("user.name");
-	private final Date START_TIME = new Date();
-	private String JOURNAL_PATH;
-	private String IDDIR;
-	private String META_PATH;
-	private int META_PORT = 0;
-	private ServerInfo INFO = null;
-	private String IP_ADDRESS = null;
-	private ServerSocket SERVER = null;
-	private long ID = 0;
-	
-	//System information fields
-	private int CORES;
-	private long CURR_MEMORY;
-	private long MAX_MEMORY;
-	private long JVM_MEMORY;
-	private long FREE_SPACE;
-	private int UNIQUE_CONNECTS;
-	
-	/**
-	 * Should be a nameNode style server that keeps all Metadata in DRAM.
-	 * Journal values are written to a file on disk once the server is shutting down.
-	 */
-	public static void main(String[] args) {
-		new MetaServer(7400, "./meta/");
-	}
-	
-	public MetaServer(int port, String data_path) {
-		if(!data_path.endsWith("/")) {
-			LOG.error("FATAL: Data path does not end with a '/'.");
-			System.exit(1);
-		}
-		
-		this.META_PORT = port;
-		this.JOURNAL_PATH = data_path+"meta_journal.ser";
-		this.IDDIR = data_path+"meta_server.id";
-		this.META_PATH = data_path;
-		start();
-	}
-
-	private void start() {
-		createWorkingDirectory();
-		generateOrLoadID();
-		
-		//get IP address
-		try {
-			IP_ADDRESS = InetAddress.getLocalHost().getHostAddress();
-		} catch (UnknownHostException e) {
-			LOG.error("FATAL: Could not detect IP address:",e);
-			System.exit(1);
-		}
-		
-		//try to read cache (or get new)
-		File journal = new File(JOURNAL_PATH);
-		if(journal.exists()) {
-			readJournal();
-			LOG.info("SUCCESS: Cache has been read.");
-		}
-		else {
-			CACHE = new ConcurrentHashMap<String, ArrayList<Metadata>>(5000);
-			LOG.info("SUCCESS: Cache was newly initialized.");
-		}
-		
-		initMetaServerInfo();
-		
-		
-		//connect server socket
-		try {
-			SERVER = new ServerSocket(META_PORT);
-		} catch (IOException e) {
-			LOG.error("FATAL: Could not connect ServerSocket.",e);
-			System.exit(1);
-		}
-		
-		//accept the socket
-		LOG.info("SUCCESS: On "+getStartTime()+", "+getInfo()+" is active.");
-		handleConnections();
-	}
-
-	private void initMetaServerInfo() {
-		getSystemInfo(false);
-		INFO = new ServerInfo(getAddress(), getPort(), getID(), ServerInfo.TYPES.META);
-	}
-	
-	private void handleConnections() {
-		LOG.info("Waiting for incoming connections...");
-		
-		while (true) {
-			Socket socket = null; //this socket is a connecting local dataserver
-			try {
-				socket = SERVER.accept(); //blocking call here until connection occurs
-			} catch (IOException e) {
-				LOG.error("FATAL: Could not accept the socket connection. (Shutting down?)",e);
-				return;
-			}
-			MetaConnectionHandler handler = new MetaConnectionHandler(socket, this);
-			handler.handleConnection();
-		}
-	}
-	
-	private void createWorkingDirectory() {
-		File workdir = new File(META_PATH);
-		if(!workdir.exists()) {
-			//make parent directory and file
-			workdir.mkdirs();
-		}
-	}
-	
-	private void generateOrLoadID() {
-		File id = new File(IDDIR);
-		if(!id.exists()) {
-			ID = new Random().nextLong();
-			try {
-				id.createNewFile();
-				BufferedWriter bw = new BufferedWriter(new FileWriter(id));
-				bw.write(Long.toString(ID));
-				bw.close();
-				LOG.info("Could not find ID file. New server ID generated @"+id.getAbsolutePath()+".");
-			} catch (IOException e) {
-				LOG.error("FATAL: Could not create ID file: "+id.getAbsolutePath(), e);
-				System.exit(1);
-			}
-			return;
-		}
-		
-		BufferedReader br = null;
-		try {
-			br = new BufferedReader(new FileReader(id));
-			ID = Long.parseLong(br.readLine());
-		} catch (NumberFormatException | IOException e) {
-			LOG.error("Could not open ID file for reading.", e);
-			System.exit(1);
-		}
-	}
-	
-	public void updateDataServer(DataServerInfo dataServerUpdate) {
-		for(DataServerInfo dataServerInfo : DATASERVERS) {
-			if(dataServerInfo.equals(dataServerUpdate)) {
-				int index = DATASERVERS.indexOf(dataServerInfo);
-				DATASERVERS.set(index, dataServerUpdate);
-				LOG.info("Updated DataServerInfo: "+dataServerUpdate);
-			}
-		}
-	}
-	
-	public void addDataServer(DataServerInfo serverInfo) {
-		DATASERVERS.add(serverInfo);
-		LOG.info("Added new DataServer := "+serverInfo);
-	}
-	
-	public void addCLI(ServerInfo serverInfo) {
-		if(CLI == null) {
-			CLI = serverInfo;
-			LOG.info("Added new CLI := "+serverInfo);
-		} else {
-			LOG.error("FATAL: Another CLI tried to connect := "+serverInfo);
-		}
-	}
-	
-	public void format(PrintWriter out) {
-		File journal = new File(JOURNAL_PATH);
-		if(journal.exists()) {
-			journal.delete();
-		}
-		CACHE.clear();
-		out.println("The MetaServer has been formatted.");
-		LOG.info("SUCCESS: The MetaServer has been formatted.");
-	}
-	
-	public void saveJournal(PrintWriter out) {
-		File journal = new File(JOURNAL_PATH);
-		
-		if(!journal.exists()) {
-			try {
-				journal.createNewFile();
-			} catch (IOException e) {
-				out.println("FATAL: Could not create the journal file.");
-				LOG.error("FATAL: Could not create the journal file.",e);
-			}
-		}
-		
-		try {
-			FileOutputStream fos = new FileOutputStream(journal, false);
-			ObjectOutputStream outstream = new ObjectOutputStream(fos);
-			outstream.writeObject(CACHE);
-			outstream.flush();
-			outstream.close();
-			fos.close();
-		} catch (IOException e) {
-			out.println("FATAL: Could not write to the journal.");
-			LOG.error("FATAL: Could not write to the journal.",e);
-			System.exit(1);
-		}
-		out.println("The journal was written to disk @"+journal.getAbsolutePath());
-		LOG.info("SUCCESS: The journal was written to disk @"+journal.getAbsolutePath());
-	}
-	
-	/** 
-	 * Will create the directories if they do not already exist in the CACHE.
-	 * @param path
-	 * @param out 
-	 */
-	public void mkdirs(String path, PrintWriter out) {
-		if(path.endsWith("/") || path.startsWith("/")) {
-			out.println("Do not end or start a file path with the '/' character.");
-			LOG.error("Do not end or start a file path with the '/' character.");
-			return;
-		}
-		
-		Metapath p = new Metapath(path);
-		
-		if(CACHE.containsKey(path)) {
-			out.println("Could not create directory "+path+" because it already exists.");
-			LOG.error("Could not create directory "+path+" because it already exists.");
-			return;
-		}
-		
-
-		/* DIRECTORYS ARE ONLY STORED AS KEYS IN THE JOURNAL!! */
-		/* DIRECTORYS ARE ONLY STORED AS KEYS IN THE JOURNAL!! */
-		/* THIS LOOP ONLY MAKES THE PARENT DIRECTORYS!! */
-		
-		while(p.getParent() != null) { 
-			p = p.getParent();
-			String parent = p.toString();
-			if(CACHE.containsKey(parent)) {
-				break;
-			} else {
-				ArrayList<Metadata> array = new ArrayList<Metadata>(10);
-				CACHE.put(parent, array);
-				LOG.info("SUCCESS: New directory "+parent+" was created.");
-			}
-		}
-		
-		ArrayList<Metadata> array = new ArrayList<Metadata>(10);
-		CACHE.put(path, array);
-		out.println("New directory "+path+" was created.");
-		LOG.info("SUCCESS: New directory "+path+" was created.");
-	}
-	
-	/**
-	 * This is a recursive removal of directory path.
-	 * @param path
-	 * @param out 
-	 */
-	public void rmdir(String path, PrintWriter out) {
-		if(path.endsWith("/") || path.startsWith("/")) {
-			out.println("Do not end or start a file path with the '/' character.");
-			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
-			return;
-		}
-		
-		for(String key : CACHE.keySet()) {
-			if(key.startsWith(path)) {
-				ArrayList<Metadata> metadata = CACHE.remove(key);
-				for(Metadata meta : metadata) {
-					Socket dataServerSocket = null;
-					try {
-						dataServerSocket = new Socket(meta.getDataServer()[0].getAddress(), meta.getDataServer()[0].getPort());
-					} catch (IOException e) {
-						LOG.info("FATAL: Could not create Socket for communicating with DataServer.");
-					}
-					DataWriter dw = new DataWriter(dataServerSocket, key+"/"+meta.getFilename(), null, DataWriter.ACTIONS.REMOVE, out, null);
-					dw.handleAction();
-				}
-				out.println("Removed "+key+".");
-			}
-		}
-		
-		LOG.info("SUCCESS: Directory (and children files) "+path+" was deleted.");
-	}
-	
-	public void list(String path, PrintWriter out) {
-		if(CACHE.size() == 0) {
-			out.println("There are no root directories. Make a new directory.");
-			return;
-		}
-		
-		if(path.endsWith("/") || path.startsWith("/")) {
-			out.println("Do not end or start a file path with the '/' character.");
-			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
-			return;
-		}
-
-		for(String key : CACHE.keySet()) {
-			if(key.startsWith(path)) {
-				out.println(key+" : "+CACHE.get(key));
-			}
-		}
-	}
-	
-	public void mkdir(String path, PrintWriter out) {
-		if(path.endsWith("/") || path.startsWith("/")) {
-			out.println("Do not end or start a file path with the '/' character.");
-			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
-			return;
-		}
-		
-		Metapath p = new Metapath(path);
-		
-		if(CACHE.containsKey(path)) {
-			out.println("Could not create directory "+path+" because it already exists.");
-			LOG.error("FATAL: Could not create directory "+path+" because it already exists.");
-			return;
-		}
-		
-		if(p.getParent() != null) { 
-			String parent = p.getParent().toString();
-			if(!CACHE.containsKey(parent)) {
-				out.println("Could not create directory because a parent does not exist.");
-				LOG.error("FATAL: Could not create directory because a parent does not exist.");
-				return;
-			}
-		}
-		
-		/* DIRECTORYS ARE ONLY STORED AS KEYS IN THE JOURNAL!! */
-		/* DIRECTORYS ARE ONLY STORED AS KEYS IN THE JOURNAL!! */
-		/* DIRECTORYS ARE ONLY STORED AS KEYS IN THE JOURNAL!! */
-		
-		ArrayList<Metadata> array = new ArrayList<Metadata>(10);
-		CACHE.put(path, array);
-		out.println("New directory "+path+" was created.");
-		LOG.info("SUCCESS: New directory "+path+" was created.");
-	}
-	
-	public void createFile(String path, PrintWriter out) {
-		if(path.endsWith("/") || path.startsWith("/")) {
-			out.println("Do not end or start a file path with the '/' character.");
-			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
-			return;
-		}
-		
-		Metapath p = new Metapath(path);
-		
-		if(p.getParent() != null) {
-			String parent = p.getParent().toString();
-			if(!CACHE.containsKey(parent)) {
-				out.println("Could not create directory because a parent does not exist.");
-				LOG.error("FATAL: Could not create directory because a parent does not exist.");
-				return;
-			}
-		}
-		
-		Date now = new Date();
-		ArrayList<Metadata> files = CACHE.get(p.getParent().toString());
-
-		ServerInfo[] dataServer = pickDataServers(path);
-
-		//save creation information into Metadata
-		files.add(new Metadata(p.getEnd().toString(), now.toString(), now.toString(), "RW", getOwner(), dataServer));
-		
-		out.println("New file "+path+" was created in MetaServer.");
-		LOG.info("SUCCESS: New file "+path+" was created in MetaServer.");
-		
-		for(ServerInfo serverInfo : dataServer) {
-			Socket dataServerSocket = null;
-			
-			try {
-				dataServerSocket = new Socket(serverInfo.getAddress(), serverInfo.getPort());
-			} catch (IOException e) {
-				LOG.info("FATAL: Could not create Socket for communicating with DataServer.");
-			}
-			
-			//spawn action thread
-			DataWriter dw = new DataWriter(dataServerSocket, path, null, DataWriter.ACTIONS.CREATE, out, null);
-			dw.handleAction();
-		}
-	}
-	
-	public void writeIntoFile(String input, PrintWriter out) {
-		String[] parsed = input.split(" ",2);
-		
-		if(parsed.length != 2) {
-			out.println("Please put a space between the filepath and the data you wish to write.");
-			LOG.error("FATAL: Recieved input was not splittable into a filepath and data.");
-			return;
-		}
-		
-		String path = parsed[0];
-		String data = parsed[1];
-		
-		Metapath p = new Metapath(path);
-		Metapath end = p.getEnd();
-		String parent = p.getParent().toString();
-		
-		if(CACHE.containsKey(parent)) {
-			ArrayList<Metadata> metadata = CACHE.get(parent);
-			if(!metadata.contains(end)) {
-				out.println("File does not exist in the MetaServer.");
-				LOG.error("FATAL: File does not exist in the MetaServer.");
-				return;
-			}
-		}
-		
-		if(DATASERVERS.size() < 1) {
-			out.println("No DataServers are connected for writing.");
-			LOG.error("FATAL: No DataServers are connected for writing.");
-			return;
-		}
-
-		ServerInfo[] dataServer = fetchDataServers(path);
-
-		for(ServerInfo serverInfo : dataServer) {
-			Socket dataServerSocket = null;
-			
-			try {
-				dataServerSocket = new Socket(serverInfo.getAddress(), serverInfo.getPort());
-			} catch (IOException e) {
-				LOG.info("FATAL: Could not create Socket for communicating with DataServer.");
-			}
-			
-			//spawn action thread
-			DataWriter dw = new DataWriter(dataServerSocket, path, data, DataWriter.ACTIONS.WRITE, out, null);
-			dw.handleAction();
-		}
-	}
-
-	public void appendIntoFile(String input, PrintWriter out) {
-		String[] parsed = input.split(" ",2);
-		
-		if(parsed.length != 2) {
-			out.println("Please put a space between the filepath and the data you wish to append.");
-			LOG.error("FATAL: Recieved input was not splittable into a filepath and data.");
-			return;
-		}
-		
-		String path = parsed[0];
-		String data = parsed[1];
-		
-		Metapath p = new Metapath(path);
-		Metapath end = p.getEnd();
-		Metapath parent = p.getParent();
-		
-		if(CACHE.containsKey(parent)) {
-			ArrayList<Metadata> metadata = CACHE.get(parent.toString());
-			if(!metadata.contains(end)) {
-				out.println("File does not exist in the MetaServer.");
-				LOG.error("FATAL: File does not exist in the MetaServer.");
-				return;
-			}
-		}
-		
-		if(DATASERVERS.size() < 1) {
-			out.println("No DataServers are connected for writing.");
-			LOG.error("FATAL: No DataServers are connected for writing.");
-			return;
-		}
-
-		ServerInfo[] dataServer = fetchDataServers(path);
-		for(ServerInfo serverInfo : dataServer) {
-			Socket dataServerSocket = null;
-			
-			try {
-				dataServerSocket = new Socket(serverInfo.getAddress(), serverInfo.getPort());
-			} catch (IOException e) {
-				LOG.info("FATAL: Could not create Socket for communicating with DataServer.");
-			}
-			
-			//spawn action thread
-			DataWriter dw = new DataWriter(dataServerSocket, path, data, DataWriter.ACTIONS.APPEND, out, null);
-			dw.handleAction();
-		}
-	}
-
-	private ServerInfo[] fetchDataServers(String path) {
-		Metapath p = new Metapath(path);
-		Metapath parent = p.getParent();
-
-		for(Metadata metadata : CACHE.get(parent.toString())) {
-			if(metadata.equals(p.getEnd())) {
-				return metadata.getDataServer();
-			}
-		}
-		return null;
-	}
-
-	//TODO: fix this so it gets up to REPLICATION amount of servers.
-	private ServerInfo[] pickDataServers(String path) {
-		ServerInfo[] retval = new ServerInfo[1];
-		int randomIndex = Math.abs(new Random().nextInt() % DATASERVERS.size());
-		retval[0] = DATASERVERS.get(randomIndex);
-		return retval;
-	}
-	
-	public void readFile(String path, PrintWriter out, DataWriter.ACTIONS readType) {
-		if(DATASERVERS.size() < 1) {
-			out.println("No DataServers are connected for reading.");
-			LOG.error("FATAL: No DataServers are connected for reading.");
-			return;
-		}
-		
-		Metapath p = new Metapath(path);
-		Metapath end = p.getEnd();
-		Metapath parent = p.getParent();
-		
-		if(CACHE.get(parent.toString()) != null) {
-			ArrayList<Metadata> metadata = CACHE.get(parent.toString());
-			if(!metadata.contains(end)) {
-				out.println("File does not exist in the MetaServer.");
-				LOG.error("FATAL: File does not exist in the MetaServer.");
-				return;
-			}
-		}
-		
-		//In the case of reading we can just read from the first server
-		ServerInfo[] dataServers = fetchDataServers(path);
-		Socket dataServerSocket = null;
-		for (ServerInfo dataServer : dataServers) {
-			try {
-				dataServerSocket = new Socket(dataServer.getAddress(), dataServer.getPort());
-			} catch (IOException e) {
-				out.println("Issue connecting to DataServer socket.");
-				LOG.error("FATAL: Issue connecting to DataServer socket.",e);
-			}
-		}
-		
-		//spawn action thread
-		DataWriter dw = new DataWriter(dataServerSocket, path, null, readType, out, null);
-		dw.handleAction();
-	}
-	
-	@SuppressWarnings("unchecked")
-	private void readJournal() {
-		File journal = new File(JOURNAL_PATH);
-		try {
-			FileInputStream fis = new FileInputStream(journal);
-			ObjectInputStream obj = new ObjectInputStream(fis);
-			CACHE = (ConcurrentHashMap<String, ArrayList<Metadata>>) obj.readObject();
-			obj.close();
-			fis.close();
-		} catch (IOException e) {
-			LOG.error("FATAL: We could not read the journal.",e);
-			System.exit(1);
-		} catch (ClassNotFoundException e) {
-			LOG.error("FATAL: We could not decode the journal.",e);
-			System.exit(1);
-		}
-		
-		LOG.info("SUCCESS: Read in the journal! It has "+CACHE.size()+" entries in it.");
-		if(DEBUG) {
-			System.out.println(CACHE);
-		}
-	}
-	
-	//TODO: fix; currently only adds up MetaServers. Needs to be adding up DataServers.
-	private void getSystemInfo(boolean all) {
-		CORES = 0;
-		CURR_MEMORY = 0;
-		MAX_MEMORY = 0;
-		JVM_MEMORY = 0;
-		FREE_SPACE = 0;
-		UNIQUE_CONNECTS = 0;
-		
-		if(all) {
-			ArrayList<String> addresses = new ArrayList<String>();
-			for(DataServerInfo dataServerInfo : DATASERVERS) {
-				String dataServerAddress = dataServerInfo.getAddress();
-				if(!addresses.contains(dataServerAddress)) {
-					CORES += dataServerInfo.getCores();
-					CURR_MEMORY += dataServerInfo.getCurrMemory();
-					MAX_MEMORY += dataServerInfo.getMaxMemory();
-					JVM_MEMORY += dataServerInfo.getJVMMemory();
-					FREE_SPACE += dataServerInfo.getFreeSpace();
-					UNIQUE_CONNECTS += 1;
-					addresses.add(dataServerAddress);
-				}
-			}
-		}
-	}
-	
-	private void UpdateAllDataServerInfo(PrintWriter out) {
-		for(DataServerInfo serverInfo : DATASERVERS) {
-			Socket dataServerSocket = null;
-			
-			try {
-				dataServerSocket = new Socket(serverInfo.getAddress(), serverInfo.getPort());
-			} catch (IOException e) {
-				LOG.info("FATAL: Could not create Socket for communicating with DataServer.");
-			}
-			
-			//spawn action thread
-			DataWriter dw = new DataWriter(dataServerSocket, null, null, DataWriter.ACTIONS.INFO, out, this);
-			dw.handleAction();
-		}
-	}
-
-	public void printSystemInfo(PrintWriter out) {
-		UpdateAllDataServerInfo(out);
-		getSystemInfo(true);
-
-		out.println("Current connected system count: "+ (UNIQUE_CONNECTS));
-		out.println("Current available cores: "+ CORES);
-		out.println("Current available memory (MB): "+ (CURR_MEMORY / (1024*1024)));
-		out.println("Current maximum memory (MB): "+ (MAX_MEMORY / (1024*1024)));
-		out.println("Current JVM memory (MB): "+ (JVM_MEMORY / (1024*1024)));
-		out.println("Current free disk space (MB): "+ (FREE_SPACE / (1024*1024)));
-	}
-
-	public Date getStartTime() {
-		return START_TIME;
-	}
-
-	public String getAddress() {
-		return IP_ADDRESS;
-	}
-
-	public int getPort() {
-		return META_PORT;
-	}
-
-	public String getOwner() {
-		return OWNER;
-	}
-	
-	public long getID() {
-		return ID;
-	}
-	
-	public ServerInfo getInfo() {
-		return INFO;
-	}
-
-	public void sendHelp(PrintWriter out) {
-		out.println("The available commands are:");
-		out.println("list\tlists all the directories and files");
-		out.println("save\tsave the current namespace to disk");
-		out.println("mkdirs\tmake an entire new directory structure");
-		out.println("mkdir\tmake a single new directory");
-		out.println("rmdir\trecursively remove a directory and files");
-		out.println("create\tcreate a new file");
-		out.println("write\twrite into a file (overwrites)");
-		out.println("append\tappend into a file");
-		out.println("head\tread the first Megabyte of a file");
-		out.println("tail\tread the last Megabyte of a file");
-		out.println("sysinfo\tget cluser information");
-		out.println("format\tclear the namespace and journal");
-		out.println("logout\tlogoff from command line interface");
-		out.println("shutdown\tfull cluser shutdown");
-	}
-
-	public void handleShutdown(PrintWriter out) {
-		saveJournal(out);
-
-		for(ServerInfo dataServer : DATASERVERS) {
-			Socket dataServerSocket = null;
-			try {
-				dataServerSocket = new Socket(dataServer.getAddress(), dataServer.getPort());
-			} catch (IOException e) {
-				LOG.info("FATAL: Could not create Socket for communicating with DataServer.");
-			}
-			
-			//spawn action thread for shutting down DataServers
-			DataWriter dw = new DataWriter(dataServerSocket, null, null, DataWriter.ACTIONS.SHUTDOWN, out, null);
-			dw.handleAction();
-		}
-
-		LOG.info("SUCCESS: Shutting down MetaServer in 1 minute...");
-
-		try {
-			Thread.sleep(60000);
-		} catch (InterruptedException e) {
-			LOG.error("FATAL: Could not sleep for 60 seconds.", e);
-		}
-
-		LOG.info("METASERVER SHUTDOWN!");
-		System.exit(1);
-	}
-
-	public void logout() {
-		CLI = null;	
-		LOG.info("SUCCESS: Connected CLI has successfully logged out.");
-	}
-}
-
+package server.meta;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.journal.Checkpointer;
+import server.meta.journal.EditLog;
+import server.meta.journal.EditLogLoader;
+import server.meta.journal.FSImage;
+import server.meta.namespace.DirectoryWalk;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.placement.BlockPlacementPolicy;
+import server.meta.placement.RandomPlacementPolicy;
+import server.meta.placement.WeightedPlacementPolicy;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+import server.metrics.MetricsRegistry;
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.ConnectionHandlerFactory;
+import server.net.DataServerPool;
+import server.net.FrameEncoder;
+import server.net.FrameWriter;
+import server.net.Opcode;
+import server.net.ScatterGather;
+import server.net.SelectorServer;
+import server.net.TaskExecutor;
+
+
+public class MetaServer {
+	private final Log LOG = LogFactory.getLog(MetaServer.class);
+	private final boolean DEBUG = true;
+	
+	private Namespace NAMESPACE = null;
+	//read by every request thread, changed only when a DataServer joins, reports in or dies
+	private final List<DataServerInfo> DATASERVERS = new CopyOnWriteArrayList<DataServerInfo>();
+	//requests only go to DataServers whose heartbeats are still coming in
+	private final DataServerMonitor MONITOR = new DataServerMonitor(DataServerInfo.HEARTBEAT_INTERVAL);
+	//where the DataServers say the files are, and the files short of replicas
+	private final BlockMap BLOCKMAP = new BlockMap();
+	private final ReplicationQueue UNDER_REPLICATED = new ReplicationQueue();
+	private static final long REPLICATION_PERIOD = 1000L;
+	//how long a request to every DataServer waits for the slowest of them
+	private static final long CLUSTER_TIMEOUT = 3000L;
+	private ServerInfo CLI = null;
+	
+	private final String OWNER = System.getProperty("user.name");
+	private final Date START_TIME = new Date();
+	private String JOURNAL_PATH;
+	private String IMAGE_PATH;
+	private String EDITS_PREFIX;
+	private EditLog EDITLOG = null;
+	private Checkpointer CHECKPOINTER = null;
+	private static final long CHECKPOINT_PERIOD = 60*60*1000L;
+	private static final long CHECKPOINT_TXNS = 100000L;
+	private long IMAGE_TXID = 0;
+	private String IDDIR;
+	private String META_PATH;
+	private int META_PORT = 0;
+	private ServerInfo INFO = null;
+	private String IP_ADDRESS = null;
+	private SelectorServer SERVER = null;
+	private static final int SELECTORS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int WORKERS = 64;
+	private static final int DATAWRITER_THREADS = 16;
+	private static final int CHANNELS_PER_DATASERVER = 2;
+	private static final int TASK_QUEUE = 10000;
+	//replicas of a file created without asking for a number
+	private static final int REPLICATION = 3;
+	//entries in one page of a listing, unless the CLI asks for a size of its own up to LIST_PAGE_MAX
+	private static final int LIST_PAGE = 1000;
+	private static final int LIST_PAGE_MAX = 10000;
+	private final BlockPlacementPolicy PLACEMENT = newPlacementPolicy();
+	private TaskExecutor HANDLERS = null;
+	private DataServerPool DATASERVER_POOL = null;
+	//latencies of every command, in microseconds, plus whatever else is worth counting
+	private final MetricsRegistry METRICS = new MetricsRegistry();
+	private long ID = 0;
+	
+	//System information fields
+	private int CORES;
+	private long CURR_MEMORY;
+	private long MAX_MEMORY;
+	private long JVM_MEMORY;
+	private long FREE_SPACE;
+	private int UNIQUE_CONNECTS;
+	
+	/**
+	 * Should be a nameNode style server that keeps all Metadata in DRAM.
+	 * Journal values are written to a file on disk once the server is shutting down.
+	 */
+	public static void main(String[] args) {
+		new MetaServer(7400, "./meta/");
+	}
+	
+	public MetaServer(int port, String data_path) {
+		if(!data_path.endsWith("/")) {
+			LOG.error("FATAL: Data path does not end with a '/'.");
+			System.exit(1);
+		}
+		
+		this.META_PORT = port;
+		this.JOURNAL_PATH = data_path+"meta_journal.ser";
+		this.IMAGE_PATH = data_path+"meta_image.img";
+		this.EDITS_PREFIX = data_path+"meta_edits_";
+		this.IDDIR = data_path+"meta_server.id";
+		this.META_PATH = data_path;
+		start();
+	}
+
+	private void start() {
+		createWorkingDirectory();
+		generateOrLoadID();
+		
+		//get IP address
+		try {
+			IP_ADDRESS = InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			LOG.error("FATAL: Could not detect IP address:",e);
+			System.exit(1);
+		}
+		
+		//try to read cache (or get new)
+		File image = new File(IMAGE_PATH);
+		File journal = new File(JOURNAL_PATH);
+		if(image.exists()) {
+			readImage();
+			LOG.info("SUCCESS: Cache has been read.");
+		} else if(journal.exists()) {
+			readJournal();
+			LOG.info("SUCCESS: Cache has been read.");
+		}
+		else {
+			//without an image, only a log that was never purged still holds every edit
+			ArrayList<File> segments = EditLog.getSegments(EDITS_PREFIX);
+			boolean lost = segments.isEmpty() ? new File(IMAGE_PATH+".tmp").exists() : EditLog.getFirstTxid(segments.get(0)) != 1;
+			if(lost) {
+				LOG.error("FATAL: Found edits or a half written image but no image @"+image.getAbsolutePath()+". Not starting from an empty namespace.");
+				System.exit(1);
+			}
+			NAMESPACE = new INodeTree();
+			LOG.info("SUCCESS: Cache was newly initialized.");
+		}
+		
+		//replay every mutation made since the image was last written
+		EditLogLoader loader = new EditLogLoader(EDITS_PREFIX);
+		EDITLOG = new EditLog(EDITS_PREFIX);
+		try {
+			loader.load(NAMESPACE, IMAGE_TXID);
+			EDITLOG.open(loader.getValidLength(), loader.getLastTxid());
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not replay the edit log.",e);
+			System.exit(1);
+		}
+		
+		//the checkpointer merges edits into the image it starts from, so there has to be one
+		CHECKPOINTER = new Checkpointer(EDITLOG, EDITS_PREFIX, image, IMAGE_TXID, CHECKPOINT_PERIOD, CHECKPOINT_TXNS, METRICS.histogram("journal.checkpoint"));
+		if(!image.exists()) {
+			try {
+				CHECKPOINTER.saveNamespace(NAMESPACE);
+				journal.delete();
+			} catch (IOException e) {
+				LOG.error("FATAL: Could not write the initial image.",e);
+				System.exit(1);
+			}
+		}
+		CHECKPOINTER.start();
+		
+		initMetaServerInfo();
+		
+		
+		//accept connections on the event loops
+		LOG.info("SUCCESS: On "+getStartTime()+", "+getInfo()+" is active.");
+		handleConnections();
+		monitorDataServers();
+		replicateBlocks();
+	}
+
+	private void initMetaServerInfo() {
+		getSystemInfo(false);
+		INFO = new ServerInfo(getAddress(), getPort(), getID(), ServerInfo.TYPES.META);
+	}
+	
+	/* Idle connections sit in a selector; only complete command lines reach a worker thread. */
+	private void handleConnections() {
+		HANDLERS = new TaskExecutor("MetaServer-worker", WORKERS, TASK_QUEUE);
+		
+		final MetaServer metaServer = this;
+		ConnectionHandlerFactory factory = new ConnectionHandlerFactory() {
+			@Override
+			public ConnectionHandler newHandler(Connection connection) {
+				return new MetaConnectionHandler(connection, metaServer);
+			}
+		};
+		
+		try {
+			DATASERVER_POOL = new DataServerPool("MetaServer-datapool", new TaskExecutor("MetaServer-datawriter", DATAWRITER_THREADS, TASK_QUEUE), CHANNELS_PER_DATASERVER);
+			DATASERVER_POOL.setLiveness(new DataServerPool.Liveness() {
+				@Override
+				public boolean isLive(ServerInfo dataServer) {
+					return MONITOR.isLive(dataServer, System.currentTimeMillis());
+				}
+			});
+			SERVER = new SelectorServer("MetaServer", SELECTORS, HANDLERS, factory);
+			SERVER.bind(META_PORT);
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not connect ServerSocket.",e);
+			System.exit(1);
+		}
+		METRICS.gauge("connections", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return SERVER.getConnectionCount();
+			}
+		});
+		METRICS.gauge("inflight", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return HANDLERS.getInFlight();
+			}
+		});
+		METRICS.gauge("datapool.connections", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return DATASERVER_POOL.getConnectionCount();
+			}
+		});
+		METRICS.gauge("datapool.inflight", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return DATASERVER_POOL.getInFlight();
+			}
+		});
+		LOG.info("Waiting for incoming connections...");
+	}
+	
+	private void createWorkingDirectory() {
+		File workdir = new File(META_PATH);
+		if(!workdir.exists()) {
+			//make parent directory and file
+			workdir.mkdirs();
+		}
+	}
+	
+	private void generateOrLoadID() {
+		File id = new File(IDDIR);
+		if(!id.exists()) {
+			ID = new Random().nextLong();
+			try {
+				id.createNewFile();
+				BufferedWriter bw = new BufferedWriter(new FileWriter(id));
+				bw.write(Long.toString(ID));
+				bw.close();
+				LOG.info("Could not find ID file. New server ID generated @"+id.getAbsolutePath()+".");
+			} catch (IOException e) {
+				LOG.error("FATAL: Could not create ID file: "+id.getAbsolutePath(), e);
+				System.exit(1);
+			}
+			return;
+		}
+		
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(id));
+			ID = Long.parseLong(br.readLine());
+		} catch (NumberFormatException | IOException e) {
+			LOG.error("Could not open ID file for reading.", e);
+			System.exit(1);
+		}
+	}
+	
+	public void updateDataServer(DataServerInfo dataServerUpdate) {
+		for(DataServerInfo dataServerInfo : DATASERVERS) {
+			if(dataServerInfo.equals(dataServerUpdate)) {
+				int index = DATASERVERS.indexOf(dataServerInfo);
+				DATASERVERS.set(index, dataServerUpdate);
+				LOG.info("Updated DataServerInfo: "+dataServerUpdate);
+			}
+		}
+	}
+	
+	public void addDataServer(DataServerInfo serverInfo) {
+		MONITOR.heartbeat(serverInfo, System.currentTimeMillis());
+		DATASERVERS.remove(serverInfo);
+		DATASERVERS.add(serverInfo);
+		LOG.info("Added new DataServer := "+serverInfo);
+	}
+	
+	/**
+	 * Takes the stats a DataServer pushed with its heartbeat. One that had
+	 * gone STALE is used again; one that was declared DEAD is added back.
+	 */
+	public void heartbeat(DataServerInfo serverInfo) {
+		boolean returned = MONITOR.heartbeat(serverInfo, System.currentTimeMillis());
+		int index = DATASERVERS.indexOf(serverInfo);
+		if(index < 0) {
+			DATASERVERS.add(serverInfo);
+		} else {
+			DATASERVERS.set(index, serverInfo);
+		}
+		if(returned) {
+			LOG.info("SUCCESS: DataServer "+serverInfo+" is sending heartbeats again.");
+		}
+	}
+	
+	/* THE CONNECTION TO IT CLOSED -- DEAD WITHOUT WAITING FOR MISSED BEATS! */
+	public void removeDataServer(DataServerInfo serverInfo) {
+		MONITOR.remove(serverInfo);
+		if(DATASERVERS.remove(serverInfo)) {
+			LOG.error("FATAL: Lost the connection to DataServer "+serverInfo+". It is no longer used.");
+		}
+		recoverDataServer(serverInfo);
+	}
+	
+	/**
+	 * Takes a DataServer's account of the files it holds, one REPORT at a time.
+	 * @param first if it starts a full report, which lists every file rather than the ones gained or dropped since the last report
+	 * @param last if it ends a full report
+	 */
+	public void blockReport(DataServerInfo serverInfo, boolean first, boolean last, Map<String, Boolean> changes) {
+		BLOCKMAP.report(serverInfo, first, changes);
+		if(last) {
+			LOG.info("SUCCESS: DataServer "+serverInfo+" reported holding "+BLOCKMAP.getFileCount(serverInfo)+" files.");
+		}
+	}
+	
+	/* QUEUES EVERY FILE A DEAD DATASERVER HELD FOR NEW COPIES ON THE OTHERS */
+	private void recoverDataServer(ServerInfo serverInfo) {
+		int queued = 0;
+		for(String path : BLOCKMAP.removeDataServer(serverInfo)) {
+			if(checkReplication(path)) {
+				queued++;
+			}
+		}
+		if(queued > 0) {
+			LOG.info("DataServer "+serverInfo+" held "+queued+" files that are now short of replicas. Copying them elsewhere.");
+		}
+	}
+	
+	/* MARKS DATASERVERS STALE OR DEAD ONCE THEIR HEARTBEATS STOP COMING IN */
+	private void monitorDataServers() {
+		Thread monitor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true) {
+					try {
+						Thread.sleep(DataServerInfo.HEARTBEAT_INTERVAL);
+					} catch (InterruptedException e) {
+						return;
+					}
+					Map<String, DataServerMonitor.STATES> changed = MONITOR.check(System.currentTimeMillis());
+					for(Map.Entry<String, DataServerMonitor.STATES> entry : changed.entrySet()) {
+						switch(entry.getValue()) {
+						case STALE:
+							LOG.error("DataServer "+entry.getKey()+" missed "+DataServerMonitor.STALE_BEATS+" heartbeats. No requests go to it until it beats again.");
+							break;
+						case DEAD:
+							for(DataServerInfo dataServer : DATASERVERS) {
+								if(dataServer.toString().equals(entry.getKey())) {
+									DATASERVERS.remove(dataServer);
+									recoverDataServer(dataServer);
+								}
+							}
+							LOG.error("FATAL: DataServer "+entry.getKey()+" missed "+DataServerMonitor.DEAD_BEATS+" heartbeats and is considered dead.");
+							break;
+						case LIVE:
+							break;
+						}
+					}
+				}
+			}
+		}, "MetaServer-heartbeat");
+		monitor.setDaemon(true);
+		monitor.start();
+	}
+	
+	/* COPIES FILES SHORT OF REPLICAS, MOST URGENT FIRST, EVERY REPLICATION_PERIOD */
+	private void replicateBlocks() {
+		Thread replicator = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				//every DataServer still alive has reported by the time the others count as dead
+				long scanAt = System.currentTimeMillis() + DataServerMonitor.DEAD_BEATS*DataServerInfo.HEARTBEAT_INTERVAL;
+				boolean scanned = false;
+				while(true) {
+					try {
+						Thread.sleep(REPLICATION_PERIOD);
+					} catch (InterruptedException e) {
+						return;
+					}
+					if(!scanned && System.currentTimeMillis() > scanAt) {
+						scanReplication();
+						scanned = true;
+					}
+					scheduleReplication();
+				}
+			}
+		}, "MetaServer-replication");
+		replicator.setDaemon(true);
+		replicator.start();
+	}
+	
+	/* AFTER A RESTART -- FINDS THE FILES WHOSE DATASERVERS NEVER CAME BACK */
+	private void scanReplication() {
+		int queued = 0;
+		ArrayDeque<INodeDirectory> stack = new ArrayDeque<INodeDirectory>();
+		stack.push(NAMESPACE.getRoot());
+		while(!stack.isEmpty()) {
+			INodeDirectory dir = stack.pop();
+			for(Metadata metadata : dir.getFiles()) {
+				if(checkReplication(dir.getFullPath()+"/"+metadata.getFilename())) {
+					queued++;
+				}
+			}
+			for(INodeDirectory child : dir.getChildren()) {
+				stack.push(child);
+			}
+		}
+		LOG.info("SUCCESS: Checked the replicas of every file. "+queued+" are short of replicas.");
+	}
+	
+	/**
+	 * Queues path if fewer live DataServers report holding it than it was created with.
+	 * @return true if it was queued
+	 */
+	private boolean checkReplication(String path) {
+		Metadata metadata = getFile(new Metapath(path));
+		if(metadata == null) {
+			return false;
+		}
+		return UNDER_REPLICATED.add(path, getLiveHolders(path).length, metadata.getDataServer().length);
+	}
+	
+	/* STARTS AS MANY COPIES AS THE THROTTLE ALLOWS; THE REST WAIT FOR THE NEXT ROUND */
+	private void scheduleReplication() {
+		List<String> waiting = new ArrayList<String>();
+		String path;
+		while((path = UNDER_REPLICATED.poll()) != null) {
+			Metadata metadata = getFile(new Metapath(path));
+			if(metadata == null) {
+				//removed since it was queued
+				continue;
+			}
+			ServerInfo[] holders = getLiveHolders(path);
+			int needed = metadata.getDataServer().length - holders.length - UNDER_REPLICATED.getCopying(path);
+			if(needed <= 0) {
+				continue;
+			}
+			if(holders.length == 0) {
+				LOG.error("FATAL: No live DataServer holds "+path+". It cannot be copied until one comes back.");
+				continue;
+			}
+			
+			//never onto a DataServer that has it or was given it
+			List<String> taken = new ArrayList<String>(BLOCKMAP.getHolders(path));
+			for(ServerInfo placed : metadata.getDataServer()) {
+				taken.add(DataServerMonitor.key(placed));
+			}
+			List<DataServerInfo> candidates = new ArrayList<DataServerInfo>();
+			for(DataServerInfo dataServer : getLiveDataServers()) {
+				if(!taken.contains(DataServerMonitor.key(dataServer)) && !UNDER_REPLICATED.isBusy(dataServer)) {
+					candidates.add(dataServer);
+				}
+			}
+			
+			int started = 0;
+			for(ServerInfo target : PLACEMENT.chooseTargets(path, needed, candidates)) {
+				//spread the reads over every holder
+				Collections.rotate(Arrays.asList(holders), 1);
+				ServerInfo source = UNDER_REPLICATED.start(path, holders, target);
+				if(source != null) {
+					copyFile(path, source, holders, target);
+					started++;
+				}
+			}
+			if(started < needed) {
+				waiting.add(path);
+			}
+		}
+		for(String wait : waiting) {
+			checkReplication(wait);
+		}
+	}
+	
+	/* ASKS target TO READ path FROM source (OR ANOTHER HOLDER IF THAT FAILS) */
+	private void copyFile(final String path, final ServerInfo source, ServerInfo[] holders, final ServerInfo target) {
+		ServerInfo[] sources = new ServerInfo[holders.length];
+		sources[0] = source;
+		int next = 1;
+		for(ServerInfo holder : holders) {
+			if(holder != source) {
+				sources[next++] = holder;
+			}
+		}
+		
+		LOG.info("Copying "+path+" from "+source+" to "+target+".");
+		DATASERVER_POOL.send(target, Opcode.REPLICATE, path, null, sources, new DataServerPool.Listener() {
+			private boolean COPIED = false;
+			
+			@Override
+			public void onLine(String line) {
+				LOG.info(line);
+			}
+			
+			@Override
+			public void onData(byte[] data) {
+			}
+			
+			@Override
+			public void onBlock(long id, long length, boolean saturated) {
+			}
+			
+			@Override
+			public void onInfo(ServerInfo info) {
+				//only sent once the whole file is there
+				BLOCKMAP.add(target, path);
+				COPIED = true;
+			}
+			
+			@Override
+			public void onComplete() {
+				UNDER_REPLICATED.finish(path, source, target);
+				if(COPIED) {
+					LOG.info("SUCCESS: "+target+" is a new replica of "+path+".");
+				} else {
+					LOG.error("FATAL: Could not copy "+path+" to "+target+".");
+				}
+				checkReplication(path);
+			}
+			
+			@Override
+			public void onFailure(String reason) {
+				UNDER_REPLICATED.finish(path, source, target);
+				LOG.error("FATAL: Could not copy "+path+" to "+target+" := "+reason);
+				checkReplication(path);
+			}
+		});
+	}
+	
+	/* THE LIVE DATASERVERS THAT REPORTED HOLDING path */
+	private ServerInfo[] getLiveHolders(String path) {
+		Set<String> holders = BLOCKMAP.getHolders(path);
+		List<ServerInfo> live = new ArrayList<ServerInfo>(holders.size());
+		for(DataServerInfo dataServer : getLiveDataServers()) {
+			if(holders.contains(DataServerMonitor.key(dataServer))) {
+				live.add(dataServer);
+			}
+		}
+		return live.toArray(new ServerInfo[live.size()]);
+	}
+	
+	/* THE DATASERVERS REQUESTS CAN GO TO RIGHT NOW */
+	private List<DataServerInfo> getLiveDataServers() {
+		long now = System.currentTimeMillis();
+		List<DataServerInfo> live = new ArrayList<DataServerInfo>(DATASERVERS.size());
+		for(DataServerInfo dataServer : DATASERVERS) {
+			if(MONITOR.isLive(dataServer, now)) {
+				live.add(dataServer);
+			}
+		}
+		return live;
+	}
+	
+	public void addCLI(ServerInfo serverInfo) {
+		if(CLI == null) {
+			CLI = serverInfo;
+			LOG.info("Added new CLI := "+serverInfo);
+		} else {
+			LOG.error("FATAL: Another CLI tried to connect := "+serverInfo);
+		}
+	}
+	
+	public void format(PrintWriter out) {
+		Lock lock = NAMESPACE.getLock().writeLock();
+		lock.lock();
+		try {
+			CHECKPOINTER.format(NAMESPACE);
+		} catch (IOException e) {
+			out.println("FATAL: Could not clear the image and edit log.");
+			LOG.error("FATAL: Could not clear the image and edit log.",e);
+			System.exit(1);
+		} finally {
+			lock.unlock();
+		}
+		out.println("The MetaServer has been formatted.");
+		LOG.info("SUCCESS: The MetaServer has been formatted.");
+	}
+	
+	/**
+	 * Every mutation is already durable in the edit log; saving only asks the
+	 * checkpointer to fold the log into a new image without making the CLI wait.
+	 */
+	public void saveJournal(PrintWriter out) {
+		CHECKPOINTER.requestCheckpoint();
+		out.println("A checkpoint of the namespace was started @"+new File(IMAGE_PATH).getAbsolutePath());
+		LOG.info("SUCCESS: A checkpoint of the namespace was requested.");
+	}
+	
+	/**
+	 * Runs a checkpoint on the calling thread, e.g. right before shutting down.
+	 */
+	private void checkpoint(PrintWriter out) {
+		File image = new File(IMAGE_PATH);
+		try {
+			long txid = CHECKPOINTER.doCheckpoint();
+			out.println("The image (up to txid "+txid+") was written to disk @"+image.getAbsolutePath());
+			LOG.info("SUCCESS: The image (up to txid "+txid+") was written to disk @"+image.getAbsolutePath());
+		} catch (IOException e) {
+			out.println("FATAL: Could not write the image.");
+			LOG.error("FATAL: Could not write the image.",e);
+		}
+	}
+	
+	/** 
+	 * Will create the directories if they do not already exist in the NAMESPACE.
+	 * @param path
+	 * @param out 
+	 */
+	public void mkdirs(String path, PrintWriter out) {
+		if(path.endsWith("/") || path.startsWith("/")) {
+			out.println("Do not end or start a file path with the '/' character.");
+			LOG.error("Do not end or start a file path with the '/' character.");
+			return;
+		}
+		
+		List<INodeDirectory> created;
+		long txid = 0;
+		Lock lock = NAMESPACE.getLock().writeLock();
+		lock.lock();
+		try {
+			created = NAMESPACE.mkdirs(new Metapath(path));
+			if(!created.isEmpty()) {
+				txid = EDITLOG.logMkdirs(path);
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if(created.isEmpty()) {
+			out.println("Could not create directory "+path+" because it already exists.");
+			LOG.error("Could not create directory "+path+" because it already exists.");
+			return;
+		}
+		
+		EDITLOG.logSync(txid);
+		
+		for(INodeDirectory dir : created) {
+			LOG.info("SUCCESS: New directory "+dir.getFullPath()+" was created.");
+		}
+		out.println("New directory "+path+" was created.");
+	}
+	
+	/**
+	 * This is a recursive removal of directory path.
+	 * @param path
+	 * @param out 
+	 */
+	public void rmdir(String path, final PrintWriter out) {
+		if(path.endsWith("/") || path.startsWith("/")) {
+			out.println("Do not end or start a file path with the '/' character.");
+			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
+			return;
+		}
+		
+		INodeDirectory removed;
+		long txid = 0;
+		Lock lock = NAMESPACE.getLock().writeLock();
+		lock.lock();
+		try {
+			removed = NAMESPACE.remove(new Metapath(path));
+			if(removed != null) {
+				txid = EDITLOG.logRmdir(path);
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if(removed == null) {
+			out.println("Could not remove directory "+path+" because it does not exist.");
+			LOG.error("FATAL: Could not remove directory "+path+" because it does not exist.");
+			return;
+		}
+		
+		EDITLOG.logSync(txid);
+		
+		//the subtree is already detached; walk only it to clean up the DataServers
+		ScatterGather removes = new ScatterGather(DATASERVER_POOL);
+		ArrayDeque<INodeDirectory> stack = new ArrayDeque<INodeDirectory>();
+		stack.push(removed);
+		while(!stack.isEmpty()) {
+			INodeDirectory dir = stack.pop();
+			String key = dir.getFullPath();
+			for(Metadata meta : dir.getFiles()) {
+				//every replica, not just the first
+				String file = key+"/"+meta.getFilename();
+				for(ServerInfo dataServer : fetchLiveDataServers(meta, file)) {
+					removes.add(dataServer, Opcode.REMOVE, file);
+				}
+			}
+			for(INodeDirectory child : dir.getChildren()) {
+				stack.push(child);
+			}
+			out.println("Removed "+key+".");
+		}
+		
+		FrameWriter.hold(out);
+		removes.send(CLUSTER_TIMEOUT, new ScatterGather.Callback() {
+			@Override
+			public void onGathered(ScatterGather gathered) {
+				out.println("Replicas removed from the DataServers: "+gathered.summary()+".");
+				FrameWriter.release(out);
+			}
+		});
+		LOG.info("SUCCESS: Directory (and children files) "+path+" was deleted.");
+	}
+	
+	/* EVERY LINE A DATASERVER SENT BACK, AND WHY THE OTHERS SENT NOTHING */
+	private void printGathered(ScatterGather gathered, PrintWriter out) {
+		for(ScatterGather.Reply reply : gathered.getReplies()) {
+			for(String line : reply.getLines()) {
+				out.println(line);
+			}
+			if(reply.getState() == ScatterGather.STATES.FAILED) {
+				out.println("DataServer "+reply.getDataServer()+" failed := "+reply.getFailure());
+			} else if(reply.getState() == ScatterGather.STATES.TIMED_OUT) {
+				out.println("DataServer "+reply.getDataServer()+" did not answer in "+CLUSTER_TIMEOUT+" ms.");
+			}
+		}
+	}
+	
+	/**
+	 * Streams one page of a directory's entries, or of its whole subtree
+	 * depth-first, in name order: one line per entry, relative to path, with
+	 * directories ending in '/'. A full page ends with the cursor to list
+	 * the next one from.
+	 * @param page entries at most; 0 for LIST_PAGE
+	 * @param cursor the last entry of the previous page, or "" for the first
+	 */
+	public void list(String path, boolean recursive, int page, String cursor, PrintWriter out) {
+		if(NAMESPACE.isEmpty()) {
+			out.println("There are no root directories. Make a new directory.");
+			return;
+		}
+		
+		if(path.endsWith("/") || path.startsWith("/")) {
+			out.println("Do not end or start a file path with the '/' character.");
+			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
+			return;
+		}
+		
+		if(page < 0) {
+			out.println("The page size of a listing cannot be negative.");
+			LOG.error("FATAL: The page size of a listing cannot be negative.");
+			return;
+		}
+		page = page == 0 ? LIST_PAGE : Math.min(page, LIST_PAGE_MAX);
+
+		INodeDirectory start = NAMESPACE.getDirectory(new Metapath(path));
+		if(start == null) {
+			out.println("Directory "+path+" does not exist.");
+			return;
+		}
+		
+		DirectoryWalk walk;
+		try {
+			walk = new DirectoryWalk(start, cursor, recursive);
+		} catch (IllegalArgumentException e) {
+			out.println(e.getMessage());
+			return;
+		}
+		
+		//no lock: entries come straight off the directories and go out as they are found
+		String last = null;
+		int listed = 0;
+		while(listed < page && walk.hasNext()) {
+			last = walk.next();
+			out.println(last);
+			listed++;
+		}
+		
+		if(walk.hasNext()) {
+			out.println("-- "+listed+" entries shown; the next page starts after cursor := "+last);
+		} else if(listed == 0 && cursor.length() == 0) {
+			out.println("Directory "+(path.length() == 0 ? "/" : path)+" is empty.");
+		}
+	}
+	
+	public void mkdir(String path, PrintWriter out) {
+		if(path.endsWith("/") || path.startsWith("/")) {
+			out.println("Do not end or start a file path with the '/' character.");
+			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
+			return;
+		}
+		
+		Metapath p = new Metapath(path);
+		long txid;
+		Lock lock = NAMESPACE.getLock().writeLock();
+		lock.lock();
+		try {
+			if(NAMESPACE.getDirectory(p) != null) {
+				out.println("Could not create directory "+path+" because it already exists.");
+				LOG.error("FATAL: Could not create directory "+path+" because it already exists.");
+				return;
+			}
+			
+			if(NAMESPACE.mkdir(p) == null) {
+				out.println("Could not create directory because a parent does not exist.");
+				LOG.error("FATAL: Could not create directory because a parent does not exist.");
+				return;
+			}
+			txid = EDITLOG.logMkdir(path);
+		} finally {
+			lock.unlock();
+		}
+		
+		EDITLOG.logSync(txid);
+		
+		out.println("New directory "+path+" was created.");
+		LOG.info("SUCCESS: New directory "+path+" was created.");
+	}
+	
+	/**
+	 * @param replication DataServers to keep the file on; 0 for the default REPLICATION
+	 */
+	public void createFile(String path, int replication, PrintWriter out) {
+		if(path.endsWith("/") || path.startsWith("/")) {
+			out.println("Do not end or start a file path with the '/' character.");
+			LOG.error("FATAL: Do not end or start a file path with the '/' character.");
+			return;
+		}
+		
+		Metapath p = new Metapath(path);
+		ServerInfo[] dataServer;
+		long txid;
+		//shared: only new directories and removals have to wait
+		Lock lock = NAMESPACE.getLock().readLock();
+		lock.lock();
+		try {
+			INodeDirectory parent = null;
+			
+			if(p.getParent() != null) {
+				parent = NAMESPACE.getDirectory(p.getParent());
+			}
+			
+			if(parent == null) {
+				out.println("Could not create file because a parent does not exist.");
+				LOG.error("FATAL: Could not create file because a parent does not exist.");
+				return;
+			}
+			
+			if(parent.getFile(p.getEnd().toString()) != null) {
+				out.println("Could not create file "+path+" because it already exists.");
+				LOG.error("FATAL: Could not create file "+path+" because it already exists.");
+				return;
+			}
+			
+			if(getLiveDataServers().size() < 1) {
+				out.println("No DataServers are connected to hold the file.");
+				LOG.error("FATAL: No DataServers are connected to hold the file.");
+				return;
+			}
+			
+			if(replication < 0) {
+				out.println("The replication of a file cannot be negative.");
+				LOG.error("FATAL: The replication of a file cannot be negative.");
+				return;
+			}
+			replication = replication == 0 ? REPLICATION : replication;
+			
+			long now = System.currentTimeMillis();
+			
+			dataServer = pickDataServers(path, replication);
+			if(dataServer.length < replication) {
+				out.println("Only "+dataServer.length+" DataServers are live; "+path+" gets "+dataServer.length+" replicas instead of "+replication+".");
+			}
+			
+			//save creation information into Metadata
+			Metadata metadata = new Metadata(p.getEnd().toString(), now, now, (short) (Metadata.READ | Metadata.WRITE), getOwner(), dataServer);
+			//another create of the same name may have got here first
+			if(!parent.addFile(metadata)) {
+				out.println("Could not create file "+path+" because it already exists.");
+				LOG.error("FATAL: Could not create file "+path+" because it already exists.");
+				return;
+			}
+			txid = EDITLOG.logCreate(path, metadata);
+		} finally {
+			lock.unlock();
+		}
+		EDITLOG.logSync(txid);
+		
+		out.println("New file "+path+" was created in MetaServer.");
+		LOG.info("SUCCESS: New file "+path+" was created in MetaServer.");
+		
+		for(ServerInfo serverInfo : dataServer) {
+			//send over a pooled connection
+			DataWriter dw = new DataWriter(serverInfo, path, null, DataWriter.ACTIONS.CREATE, out, null);
+			dw.handleAction(DATASERVER_POOL);
+		}
+	}
+	
+	public void writeIntoFile(String path, byte[] data, PrintWriter out) {
+		if(getFile(new Metapath(path)) == null) {
+			out.println("File does not exist in the MetaServer.");
+			LOG.error("FATAL: File does not exist in the MetaServer.");
+			return;
+		}
+		
+		ServerInfo[] chain = fetchLiveDataServers(path);
+		if(chain.length < 1) {
+			out.println("No DataServers holding "+path+" are live for writing.");
+			LOG.error("FATAL: No DataServers holding "+path+" are live for writing.");
+			return;
+		}
+
+		//the first replica passes it down the rest of the chain
+		DataWriter dw = new DataWriter(chain, path, data, DataWriter.ACTIONS.WRITE, out);
+		dw.handleAction(DATASERVER_POOL);
+	}
+
+	public void appendIntoFile(String path, byte[] data, PrintWriter out) {
+		if(getFile(new Metapath(path)) == null) {
+			out.println("File does not exist in the MetaServer.");
+			LOG.error("FATAL: File does not exist in the MetaServer.");
+			return;
+		}
+		
+		ServerInfo[] chain = fetchLiveDataServers(path);
+		if(chain.length < 1) {
+			out.println("No DataServers holding "+path+" are live for writing.");
+			LOG.error("FATAL: No DataServers holding "+path+" are live for writing.");
+			return;
+		}
+
+		//the first replica passes it down the rest of the chain
+		DataWriter dw = new DataWriter(chain, path, data, DataWriter.ACTIONS.APPEND, out);
+		dw.handleAction(DATASERVER_POOL);
+	}
+
+	/* THE REPLICAS OF A FILE WHOSE DATASERVERS ARE LIVE, IN CHAIN ORDER -- THEN THE COPIES MADE SINCE */
+	private ServerInfo[] fetchLiveDataServers(String path) {
+		return fetchLiveDataServers(getFile(new Metapath(path)), path);
+	}
+	
+	private ServerInfo[] fetchLiveDataServers(Metadata metadata, String path) {
+		ServerInfo[] placed = MONITOR.filterLive(metadata.getDataServer(), System.currentTimeMillis());
+		List<ServerInfo> live = new ArrayList<ServerInfo>(Arrays.asList(placed));
+		for(ServerInfo holder : getLiveHolders(path)) {
+			boolean known = false;
+			for(ServerInfo dataServer : placed) {
+				known |= DataServerMonitor.key(dataServer).equals(DataServerMonitor.key(holder));
+			}
+			if(!known) {
+				live.add(holder);
+			}
+		}
+		return live.toArray(new ServerInfo[live.size()]);
+	}
+	
+	/**
+	 * Finds the Metadata of a file by walking only the directories on its path.
+	 * @return the Metadata, or null if the file (or a parent) does not exist.
+	 */
+	private Metadata getFile(Metapath p) {
+		Metapath end = p.getEnd();
+		if(end == null) {
+			return null;
+		}
+		
+		INodeDirectory parent = NAMESPACE.getParentDirectory(p);
+		if(parent == null) {
+			return null;
+		}
+		
+		return parent.getFile(end.toString());
+	}
+
+	/* UP TO replication DISTINCT DATASERVERS, IN THE ORDER A WRITE FLOWS THROUGH THEM! */
+	private ServerInfo[] pickDataServers(String path, int replication) {
+		return PLACEMENT.chooseTargets(path, replication, getLiveDataServers());
+	}
+	
+	/* THE POLICY THE "mousefs.placement" PROPERTY NAMES, WEIGHTED BY DEFAULT */
+	private BlockPlacementPolicy newPlacementPolicy() {
+		String name = System.getProperty(BlockPlacementPolicy.PROPERTY, "weighted").trim();
+		if(name.equalsIgnoreCase("weighted")) {
+			return new WeightedPlacementPolicy();
+		}
+		if(name.equalsIgnoreCase("random")) {
+			return new RandomPlacementPolicy();
+		}
+		try {
+			return Class.forName(name).asSubclass(BlockPlacementPolicy.class).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			LOG.error("FATAL: Could not load block placement policy "+name+".",e);
+			System.exit(1);
+			return null;
+		}
+	}
+	
+	public void readFile(String path, PrintWriter out, DataWriter.ACTIONS readType) {
+		if(getFile(new Metapath(path)) == null) {
+			out.println("File does not exist in the MetaServer.");
+			LOG.error("FATAL: File does not exist in the MetaServer.");
+			return;
+		}
+		
+		ServerInfo[] dataServers = fetchLiveDataServers(path);
+		if(dataServers.length < 1) {
+			out.println("No DataServers holding "+path+" are live for reading.");
+			LOG.error("FATAL: No DataServers holding "+path+" are live for reading.");
+			return;
+		}
+		
+		//In the case of reading we can just read from the first live server
+		
+		//send over a pooled connection
+		DataWriter dw = new DataWriter(dataServers[0], path, null, readType, out, null);
+		dw.handleAction(DATASERVER_POOL);
+	}
+	
+	/**
+	 * Tells a client where a file lives: an INFO frame for every DataServer
+	 * holding it, then (withBlocks) the BLOCK frames the first of them lists.
+	 * The client moves the data itself, so file contents never pass through here.
+	 */
+	public void locateFile(String path, boolean withBlocks, PrintWriter out) {
+		if(getFile(new Metapath(path)) == null) {
+			out.println("File does not exist in the MetaServer.");
+			LOG.error("FATAL: File does not exist in the MetaServer.");
+			return;
+		}
+		
+		ServerInfo[] dataServers = fetchLiveDataServers(path);
+		if(dataServers.length < 1) {
+			out.println("No DataServers holding "+path+" are live for reading.");
+			LOG.error("FATAL: No DataServers holding "+path+" are live for reading.");
+			return;
+		}
+		
+		if(out instanceof FrameWriter) {
+			FrameWriter reply = (FrameWriter) out;
+			for(ServerInfo dataServer : dataServers) {
+				reply.sendFrame(FrameEncoder.get().begin(Opcode.INFO, reply.getRequestId()).putServerInfo(dataServer).finish());
+			}
+		} else {
+			for(ServerInfo dataServer : dataServers) {
+				out.println(dataServer.getAddress()+":"+dataServer.getPort());
+			}
+		}
+		
+		if(!withBlocks) {
+			return;
+		}
+		
+		//the block list lives on the DataServers; ask the first one
+		DataWriter dw = new DataWriter(dataServers[0], path, null, DataWriter.ACTIONS.BLOCKS, out, null);
+		dw.handleAction(DATASERVER_POOL);
+	}
+	
+	private void readImage() {
+		File image = new File(IMAGE_PATH);
+		long start = System.currentTimeMillis();
+		try {
+			FSImage fsimage = FSImage.load(image, Runtime.getRuntime().availableProcessors());
+			NAMESPACE = fsimage.getNamespace();
+			IMAGE_TXID = fsimage.getTxid();
+		} catch (IOException e) {
+			LOG.error("FATAL: We could not read the image.",e);
+			System.exit(1);
+		}
+		LOG.info("SUCCESS: Read in the image in "+(System.currentTimeMillis()-start)+" ms.");
+	}
+	
+	/**
+	 * Reads a Java-serialized journal written before the binary image existed.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readJournal() {
+		File journal = new File(JOURNAL_PATH);
+		try {
+			FileInputStream fis = new FileInputStream(journal);
+			ObjectInputStream obj = new ObjectInputStream(fis);
+			NAMESPACE = importFlatJournal((ConcurrentHashMap<String, ArrayList<Metadata>>) obj.readObject());
+			//it predates the edit log, so every edit in the log comes after it
+			IMAGE_TXID = 0;
+			obj.close();
+			fis.close();
+		} catch (IOException e) {
+			LOG.error("FATAL: We could not read the journal.",e);
+			System.exit(1);
+		} catch (ClassNotFoundException e) {
+			LOG.error("FATAL: We could not decode the journal.",e);
+			System.exit(1);
+		}
+		
+		LOG.info("SUCCESS: Read in the journal! It has "+NAMESPACE.getRoot().getChildren().size()+" root directories in it.");
+		if(DEBUG) {
+			System.out.println(NAMESPACE.getRoot().getChildren());
+		}
+	}
+	
+	/**
+	 * Journals written before the namespace became a tree hold one flat map of
+	 * full directory path to files; rebuild the tree from it.
+	 */
+	private Namespace importFlatJournal(ConcurrentHashMap<String, ArrayList<Metadata>> flat) {
+		Namespace namespace = new INodeTree();
+		for(String key : flat.keySet()) {
+			namespace.mkdirs(new Metapath(key));
+			namespace.getDirectory(new Metapath(key)).addFiles(flat.get(key));
+		}
+		LOG.info("SUCCESS: Converted a flat journal with "+flat.size()+" directories into the namespace tree.");
+		return namespace;
+	}
+	
+	//TODO: fix; currently only adds up MetaServers. Needs to be adding up DataServers.
+	private void getSystemInfo(boolean all) {
+		CORES = 0;
+		CURR_MEMORY = 0;
+		MAX_MEMORY = 0;
+		JVM_MEMORY = 0;
+		FREE_SPACE = 0;
+		UNIQUE_CONNECTS = 0;
+		
+		if(all) {
+			ArrayList<String> addresses = new ArrayList<String>();
+			for(DataServerInfo dataServerInfo : DATASERVERS) {
+				String dataServerAddress = dataServerInfo.getAddress();
+				if(!addresses.contains(dataServerAddress)) {
+					CORES += dataServerInfo.getCores();
+					CURR_MEMORY += dataServerInfo.getCurrMemory();
+					MAX_MEMORY += dataServerInfo.getMaxMemory();
+					JVM_MEMORY += dataServerInfo.getJVMMemory();
+					FREE_SPACE += dataServerInfo.getFreeSpace();
+					UNIQUE_CONNECTS += 1;
+					addresses.add(dataServerAddress);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Asks every DataServer for fresh stats at once and answers when they are
+	 * all in or CLUSTER_TIMEOUT has passed. A DataServer that did not answer
+	 * in time is counted with the stats of its last heartbeat.
+	 */
+	public void printSystemInfo(final PrintWriter out) {
+		FrameWriter.hold(out);
+		new ScatterGather(DATASERVER_POOL, DATASERVERS, Opcode.SYSINFO, null).send(CLUSTER_TIMEOUT, new ScatterGather.Callback() {
+			@Override
+			public void onGathered(ScatterGather gathered) {
+				for(ScatterGather.Reply reply : gathered.getReplies()) {
+					for(ServerInfo info : reply.getInfos()) {
+						if(info instanceof DataServerInfo) {
+							updateDataServer((DataServerInfo) info);
+						}
+					}
+				}
+				printSystemInfo(out, gathered);
+				FrameWriter.release(out);
+			}
+		});
+	}
+	
+	/* THE TOTALS ARE SHARED FIELDS -- ONE SYSINFO ADDS THEM UP AT A TIME! */
+	private synchronized void printSystemInfo(PrintWriter out, ScatterGather gathered) {
+		getSystemInfo(true);
+
+		int live = getLiveDataServers().size();
+		out.println("Current connected system count: "+ (UNIQUE_CONNECTS));
+		out.println("Current DataServers: "+live+" live, "+(DATASERVERS.size() - live)+" stale ("+gathered.summary()+")");
+		out.println("Current files short of replicas: "+UNDER_REPLICATED.size()+" (reported files: "+BLOCKMAP.size()+")");
+		out.println("Current available cores: "+ CORES);
+		out.println("Current available memory (MB): "+ (CURR_MEMORY / (1024*1024)));
+		out.println("Current maximum memory (MB): "+ (MAX_MEMORY / (1024*1024)));
+		out.println("Current JVM memory (MB): "+ (JVM_MEMORY / (1024*1024)));
+		out.println("Current free disk space (MB): "+ (FREE_SPACE / (1024*1024)));
+		out.println("Current in-flight requests: "+ HANDLERS.getInFlight()+" ("+HANDLERS.getMode().toString().toLowerCase()+" threads)");
+		out.println("Current in-flight DataServer requests: "+ DATASERVER_POOL.getInFlight()+" (over "+DATASERVER_POOL.getConnectionCount()+" connections)");
+	}
+
+	/**
+	 * Prints the MetaServer's metrics, then asks every live DataServer for
+	 * theirs at once, the same way sysinfo does.
+	 */
+	public void printMetrics(final PrintWriter out) {
+		out.println("MetaServer "+getInfo()+":");
+		METRICS.print(out);
+
+		FrameWriter.hold(out);
+		new ScatterGather(DATASERVER_POOL, getLiveDataServers(), Opcode.METRICS, null).send(CLUSTER_TIMEOUT, new ScatterGather.Callback() {
+			@Override
+			public void onGathered(ScatterGather gathered) {
+				for(ScatterGather.Reply reply : gathered.getReplies()) {
+					out.println("DataServer "+reply.getDataServer()+":");
+					for(String line : reply.getLines()) {
+						out.println(line);
+					}
+					if(reply.getState() == ScatterGather.STATES.FAILED) {
+						out.println("  failed := "+reply.getFailure());
+					} else if(reply.getState() == ScatterGather.STATES.TIMED_OUT) {
+						out.println("  did not answer in "+CLUSTER_TIMEOUT+" ms.");
+					}
+				}
+				out.println("DataServer metrics: "+gathered.summary()+".");
+				FrameWriter.release(out);
+			}
+		});
+	}
+
+	public MetricsRegistry getMetrics() {
+		return METRICS;
+	}
+
+	public Date getStartTime() {
+		return START_TIME;
+	}
+
+	public String getAddress() {
+		return IP_ADDRESS;
+	}
+
+	public int getPort() {
+		return META_PORT;
+	}
+
+	public String getOwner() {
+		return OWNER;
+	}
+	
+	public long getID() {
+		return ID;
+	}
+	
+	public ServerInfo getInfo() {
+		return INFO;
+	}
+
+	public void sendHelp(PrintWriter out) {
+		out.println("The available commands are:");
+		out.println("list\tlist a directory a page at a time: list [-r] [-n page size] [-c cursor] [path]; -r goes into subdirectories");
+		out.println("save\tsave the current namespace to disk");
+		out.println("mkdirs\tmake an entire new directory structure");
+		out.println("mkdir\tmake a single new directory");
+		out.println("rmdir\trecursively remove a directory and files");
+		out.println("create\tcreate a new file, optionally followed by its number of replicas");
+		out.println("write\twrite into a file (overwrites)");
+		out.println("append\tappend into a file");
+		out.println("head\tread the first Megabyte of a file");
+		out.println("tail\tread the last Megabyte of a file");
+		out.println("read\tread a whole file");
+		out.println("locate\tlist the DataServers and blocks of a file");
+		out.println("sysinfo\tget cluser information");
+		out.println("metrics\tlatency percentiles (in microseconds) and counters of every server");
+		out.println("format\tclear the namespace and journal");
+		out.println("logout\tlogoff from command line interface");
+		out.println("shutdown\tfull cluser shutdown");
+	}
+
+	public void handleShutdown(final PrintWriter out) {
+		checkpoint(out);
+
+		//every DataServer at once; the reply ends when the last one answered or the time is up
+		FrameWriter.hold(out);
+		new ScatterGather(DATASERVER_POOL, DATASERVERS, Opcode.SHUTDOWN, null).send(CLUSTER_TIMEOUT, new ScatterGather.Callback() {
+			@Override
+			public void onGathered(ScatterGather gathered) {
+				printGathered(gathered, out);
+				out.println("DataServers shutting down: "+gathered.summary()+".");
+				FrameWriter.release(out);
+			}
+		});
+
+		LOG.info("SUCCESS: Shutting down MetaServer in 1 minute...");
+
+		//exit from another thread so that this request can still be answered
+		Thread exit = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					LOG.error("FATAL: Could not sleep for 60 seconds.", e);
+				}
+
+				LOG.info("METASERVER SHUTDOWN!");
+				System.exit(1);
+			}
+		}, "MetaServer-shutdown");
+		exit.start();
+	}
+
+	public void logout() {
+		CLI = null;	
+		LOG.info("SUCCESS: Connected CLI has successfully logged out.");
+	}
+}
+
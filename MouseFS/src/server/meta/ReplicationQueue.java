@@ -0,0 +1,147 @@
+package server.meta;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import server.info.ServerInfo;
+
+/**
+ * Files with fewer live replicas than they should have, the ones closest to
+ * being lost first, and the copies running to repair them.
+ *
+ * Copies are throttled per DataServer: none takes part in more than
+ * MAX_STREAMS of them at once, as the source or as the target. A dead
+ * DataServer's files are held all over the cluster, so its recovery is
+ * spread over every DataServer instead of swamping a few.
+ */
+public class ReplicationQueue {
+	public static final int DEFAULT_MAX_STREAMS = 2;
+
+	private static class UnderReplicated implements Comparable<UnderReplicated> {
+		private final String PATH;
+		private final int LIVE;
+		private final int MISSING;
+		private final long SEQUENCE;
+
+		private UnderReplicated(String path, int live, int missing, long sequence) {
+			this.PATH = path;
+			this.LIVE = live;
+			this.MISSING = missing;
+			this.SEQUENCE = sequence;
+		}
+
+		//fewest live replicas first, then most missing, then oldest
+		@Override
+		public int compareTo(UnderReplicated other) {
+			if(LIVE != other.LIVE) {
+				return LIVE < other.LIVE ? -1 : 1;
+			}
+			if(MISSING != other.MISSING) {
+				return MISSING > other.MISSING ? -1 : 1;
+			}
+			return SEQUENCE < other.SEQUENCE ? -1 : SEQUENCE > other.SEQUENCE ? 1 : 0;
+		}
+	}
+
+	private final int MAX_STREAMS;
+	private final PriorityQueue<UnderReplicated> QUEUE = new PriorityQueue<UnderReplicated>();
+	private final HashMap<String, UnderReplicated> QUEUED = new HashMap<String, UnderReplicated>();
+	//"address:port" to copies it takes part in right now
+	private final HashMap<String, Integer> STREAMS = new HashMap<String, Integer>();
+	//path to copies of it running right now
+	private final HashMap<String, Integer> COPYING = new HashMap<String, Integer>();
+	private long NEXT_SEQUENCE = 0;
+
+	public ReplicationQueue() {
+		this(DEFAULT_MAX_STREAMS);
+	}
+
+	public ReplicationQueue(int maxStreams) {
+		this.MAX_STREAMS = Math.max(1, maxStreams);
+	}
+
+	/**
+	 * Queues a file, or moves it to its new place if it already is.
+	 * @return false if it has all the replicas it should
+	 */
+	public synchronized boolean add(String path, int live, int target) {
+		UnderReplicated queued = QUEUED.remove(path);
+		if(queued != null) {
+			QUEUE.remove(queued);
+		}
+		if(live >= target) {
+			return false;
+		}
+		UnderReplicated entry = new UnderReplicated(path, live, target-live, queued == null ? NEXT_SEQUENCE++ : queued.SEQUENCE);
+		QUEUE.add(entry);
+		QUEUED.put(path, entry);
+		return true;
+	}
+
+	/** @return the most urgent file, or null if none is queued */
+	public synchronized String poll() {
+		UnderReplicated entry = QUEUE.poll();
+		if(entry == null) {
+			return null;
+		}
+		QUEUED.remove(entry.PATH);
+		return entry.PATH;
+	}
+
+	/**
+	 * Reserves a stream on target and on the first of sources that has one free.
+	 * @return the source to copy from, or null if the copy has to wait
+	 */
+	public synchronized ServerInfo start(String path, ServerInfo[] sources, ServerInfo target) {
+		if(isBusy(target)) {
+			return null;
+		}
+		for(ServerInfo source : sources) {
+			if(!isBusy(source)) {
+				increment(STREAMS, DataServerMonitor.key(source), 1);
+				increment(STREAMS, DataServerMonitor.key(target), 1);
+				increment(COPYING, path, 1);
+				return source;
+			}
+		}
+		return null;
+	}
+
+	/** Frees the streams start reserved, whether the copy went through or not. */
+	public synchronized void finish(String path, ServerInfo source, ServerInfo target) {
+		increment(STREAMS, DataServerMonitor.key(source), -1);
+		increment(STREAMS, DataServerMonitor.key(target), -1);
+		increment(COPYING, path, -1);
+	}
+
+	private static void increment(HashMap<String, Integer> counts, String key, int by) {
+		Integer count = counts.get(key);
+		int updated = (count == null ? 0 : count) + by;
+		if(updated <= 0) {
+			counts.remove(key);
+		} else {
+			counts.put(key, updated);
+		}
+	}
+
+	public synchronized int getStreams(ServerInfo dataServer) {
+		Integer streams = STREAMS.get(DataServerMonitor.key(dataServer));
+		return streams == null ? 0 : streams;
+	}
+
+	/** @return true if dataServer takes part in as many copies as it may */
+	public synchronized boolean isBusy(ServerInfo dataServer) {
+		return getStreams(dataServer) >= MAX_STREAMS;
+	}
+
+	/** @return copies of path running right now */
+	public synchronized int getCopying(String path) {
+		Integer copying = COPYING.get(path);
+		return copying == null ? 0 : copying;
+	}
+
+	/** @return files waiting for a copy */
+	public synchronized int size() {
+		return QUEUE.size();
+	}
+}
@@ -0,0 +1,169 @@
+package server.meta.journal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.meta.namespace.Namespace;
+import server.metrics.Histogram;
+
+/**
+ * Merges finalized edit log segments into a new image in the background.
+ * 
+ * The live namespace is never read: the edit log is rolled (a point in time
+ * in txids), the last image is loaded into a private namespace, the finalized
+ * segments are replayed on top of it and the result becomes the new image.
+ * Requests keep mutating the live namespace and logging into the new
+ * segment the whole time; they only wait for the roll itself.
+ */
+public class Checkpointer implements Runnable {
+	private final Log LOG = LogFactory.getLog(Checkpointer.class);
+	
+	private final EditLog EDITLOG;
+	private final String EDITS_PREFIX;
+	private final File IMAGE;
+	private final long PERIOD;
+	private final long TXNS;
+	private final int THREADS = Runtime.getRuntime().availableProcessors();
+	//how long each checkpoint took
+	private final Histogram DURATIONS;
+	
+	//serializes checkpoints against each other and against format
+	private final Object CHECKPOINT_LOCK = new Object();
+	private long LAST_CHECKPOINT_TXID = 0;
+	private long LAST_CHECKPOINT_TIME = System.currentTimeMillis();
+	private boolean REQUESTED = false;
+	private boolean SHUTDOWN = false;
+	
+	/**
+	 * @param period checkpoint at least this often (ms) if there are new edits
+	 * @param txns checkpoint as soon as this many edits were logged since the last one
+	 */
+	public Checkpointer(EditLog editLog, String editsPrefix, File image, long imageTxid, long period, long txns) {
+		this(editLog, editsPrefix, image, imageTxid, period, txns, new Histogram());
+	}
+	
+	/**
+	 * @param durations where to record how long every checkpoint takes
+	 */
+	public Checkpointer(EditLog editLog, String editsPrefix, File image, long imageTxid, long period, long txns, Histogram durations) {
+		this.DURATIONS = durations;
+		this.EDITLOG = editLog;
+		this.EDITS_PREFIX = editsPrefix;
+		this.IMAGE = image;
+		this.LAST_CHECKPOINT_TXID = imageTxid;
+		this.PERIOD = period;
+		this.TXNS = txns;
+	}
+	
+	public void start() {
+		Thread t = new Thread(this, "Checkpointer");
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/** Asks the checkpointer thread to run a checkpoint now; does not wait for it. */
+	public synchronized void requestCheckpoint() {
+		REQUESTED = true;
+		notifyAll();
+	}
+	
+	public synchronized void stop() {
+		SHUTDOWN = true;
+		notifyAll();
+	}
+	
+	@Override
+	public void run() {
+		while(true) {
+			synchronized(this) {
+				try {
+					wait(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if(SHUTDOWN) {
+					return;
+				}
+				if(!REQUESTED && !isDue()) {
+					continue;
+				}
+				REQUESTED = false;
+			}
+			
+			try {
+				doCheckpoint();
+			} catch (IOException e) {
+				LOG.error("FATAL: Checkpoint failed; the edit log segments are kept.",e);
+			}
+		}
+	}
+	
+	private boolean isDue() {
+		long pending = EDITLOG.getLastTxid()-getLastCheckpointTxid();
+		if(pending <= 0) {
+			return false;
+		}
+		return pending >= TXNS || System.currentTimeMillis()-LAST_CHECKPOINT_TIME >= PERIOD;
+	}
+	
+	/**
+	 * Runs a checkpoint on the calling thread.
+	 * @return the txid the new image contains
+	 */
+	public long doCheckpoint() throws IOException {
+		synchronized(CHECKPOINT_LOCK) {
+			long start = System.currentTimeMillis();
+			long started = System.nanoTime();
+			long txid = EDITLOG.roll();
+			
+			if(txid != LAST_CHECKPOINT_TXID) {
+				FSImage base = FSImage.load(IMAGE, THREADS);
+				EditLogLoader loader = new EditLogLoader(EDITS_PREFIX);
+				loader.load(base.getNamespace(), base.getTxid(), txid);
+				FSImage.save(base.getNamespace(), txid, IMAGE);
+			}
+			
+			EDITLOG.purge(txid);
+			setLastCheckpoint(txid);
+			DURATIONS.recordSince(started);
+			LOG.info("SUCCESS: Checkpoint up to txid "+txid+" took "+(System.currentTimeMillis()-start)+" ms.");
+			return txid;
+		}
+	}
+	
+	/**
+	 * Writes namespace as the new base image, e.g. the first time the server
+	 * starts or right after it was formatted. Nothing may mutate namespace meanwhile.
+	 */
+	public void saveNamespace(Namespace namespace) throws IOException {
+		synchronized(CHECKPOINT_LOCK) {
+			long txid = EDITLOG.getLastTxid();
+			FSImage.save(namespace, txid, IMAGE);
+			EDITLOG.purge(txid);
+			setLastCheckpoint(txid);
+		}
+	}
+	
+	/**
+	 * Clears the namespace, the edit log and the image without racing a running checkpoint.
+	 */
+	public void format(Namespace namespace) throws IOException {
+		synchronized(CHECKPOINT_LOCK) {
+			namespace.clear();
+			EDITLOG.reset();
+			saveNamespace(namespace);
+		}
+	}
+	
+	private synchronized void setLastCheckpoint(long txid) {
+		LAST_CHECKPOINT_TXID = txid;
+		LAST_CHECKPOINT_TIME = System.currentTimeMillis();
+	}
+	
+	public synchronized long getLastCheckpointTxid() {
+		return LAST_CHECKPOINT_TXID;
+	}
+}
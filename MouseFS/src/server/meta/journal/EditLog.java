@@ -0,0 +1,309 @@
+package server.meta.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.ServerInfo;
+import server.meta.util.Metadata;
+
+/**
+ * Sequential log of every namespace mutation. Records are appended to an
+ * in-memory buffer under the lock (logEdit) and made durable by logSync.
+ * While one caller is syncing, everybody else keeps appending into the
+ * second buffer; the next syncer flushes all of them with a single fsync.
+ * 
+ * Record layout: [long txid][byte op][UTF path][op specific fields]
+ * A CREATE adds [long created][long modified][short permissions][UTF owner]
+ * [int count] and [UTF address][int port][long id] for every DataServer.
+ * 
+ * The log is split into segments named prefix+firstTxid+".log". Only the
+ * newest segment is written to; roll() starts a new one so the older
+ * segments can be merged into an image and purged in the background.
+ */
+public class EditLog {
+	private final Log LOG = LogFactory.getLog(EditLog.class);
+	public static enum OPS {MKDIR, MKDIRS, CREATE, RMDIR};
+	
+	private static final String SUFFIX = ".log";
+	private final String PREFIX;
+	private File FILE = null;
+	private RandomAccessFile RAF = null;
+	private FileChannel CHANNEL = null;
+	
+	//double buffer: edits go into CURRENT while READY is being flushed
+	private ByteArrayOutputStream CURRENT = new ByteArrayOutputStream(64*1024);
+	private ByteArrayOutputStream READY = new ByteArrayOutputStream(64*1024);
+	private DataOutputStream CURRENT_OUT = new DataOutputStream(CURRENT);
+	
+	private long TXID = 0;
+	private long SYNCED_TXID = 0;
+	private boolean SYNC_RUNNING = false;
+	private long SYNC_COUNT = 0;
+	
+	/**
+	 * @param prefix path prefix of the segment files, e.g. "./meta/meta_edits_"
+	 */
+	public EditLog(String prefix) {
+		this.PREFIX = prefix;
+	}
+	
+	/**
+	 * Opens the newest segment for appending after everything valid has been replayed.
+	 * @param validLength bytes of whole records the EditLogLoader found in the newest segment; anything after is a torn write
+	 * @param lastTxid last transaction id seen in the image or the log
+	 */
+	public synchronized void open(long validLength, long lastTxid) throws IOException {
+		TXID = lastTxid;
+		SYNCED_TXID = lastTxid;
+		
+		ArrayList<File> segments = getSegments(PREFIX);
+		if(segments.isEmpty()) {
+			openSegment(lastTxid+1);
+			return;
+		}
+		
+		FILE = segments.get(segments.size()-1);
+		RAF = new RandomAccessFile(FILE, "rw");
+		CHANNEL = RAF.getChannel();
+		if(CHANNEL.size() > validLength) {
+			LOG.error("FATAL: Truncating "+(CHANNEL.size()-validLength)+" bytes of torn edits from "+FILE.getAbsolutePath()+".");
+			CHANNEL.truncate(validLength);
+		}
+		CHANNEL.position(validLength);
+	}
+	
+	private void openSegment(long firstTxid) throws IOException {
+		FILE = new File(PREFIX+firstTxid+SUFFIX);
+		RAF = new RandomAccessFile(FILE, "rw");
+		CHANNEL = RAF.getChannel();
+		CHANNEL.truncate(0);
+	}
+	
+	public synchronized long logMkdir(String path) {
+		return logEdit(OPS.MKDIR, path, null);
+	}
+	
+	public synchronized long logMkdirs(String path) {
+		return logEdit(OPS.MKDIRS, path, null);
+	}
+	
+	public synchronized long logCreate(String path, Metadata metadata) {
+		return logEdit(OPS.CREATE, path, metadata);
+	}
+	
+	public synchronized long logRmdir(String path) {
+		return logEdit(OPS.RMDIR, path, null);
+	}
+	
+	private long logEdit(OPS op, String path, Metadata metadata) {
+		TXID++;
+		try {
+			CURRENT_OUT.writeLong(TXID);
+			CURRENT_OUT.writeByte(op.ordinal());
+			CURRENT_OUT.writeUTF(path);
+			if(op == OPS.CREATE) {
+				CURRENT_OUT.writeLong(metadata.getCreated());
+				CURRENT_OUT.writeLong(metadata.getModified());
+				CURRENT_OUT.writeShort(metadata.getPermissions());
+				CURRENT_OUT.writeUTF(metadata.getOwner());
+				ServerInfo[] dataServers = metadata.getDataServer();
+				CURRENT_OUT.writeInt(dataServers.length);
+				for(ServerInfo dataServer : dataServers) {
+					CURRENT_OUT.writeUTF(dataServer.getAddress());
+					CURRENT_OUT.writeInt(dataServer.getPort());
+					CURRENT_OUT.writeLong(dataServer.getID());
+				}
+			}
+		} catch (IOException e) {
+			//writing into a ByteArrayOutputStream does not fail
+			throw new IllegalStateException(e);
+		}
+		return TXID;
+	}
+	
+	/**
+	 * Blocks until the edit with the given txid is on disk. Callers that
+	 * arrive while a sync is running wait for it and are usually covered by
+	 * the next one, so concurrent mutations share one fsync.
+	 */
+	public void logSync(long txid) {
+		long syncUpTo;
+		ByteArrayOutputStream toFlush;
+		FileChannel channel;
+		
+		synchronized(this) {
+			while(txid > SYNCED_TXID && SYNC_RUNNING) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			
+			if(txid <= SYNCED_TXID) {
+				return;
+			}
+			
+			//become the syncer for everything buffered so far
+			syncUpTo = TXID;
+			toFlush = CURRENT;
+			CURRENT = READY;
+			READY = toFlush;
+			CURRENT_OUT = new DataOutputStream(CURRENT);
+			channel = CHANNEL;
+			SYNC_RUNNING = true;
+		}
+		
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(toFlush.toByteArray());
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not sync the edit log @"+FILE.getAbsolutePath()+".",e);
+			System.exit(1);
+		} finally {
+			toFlush.reset();
+			synchronized(this) {
+				SYNCED_TXID = syncUpTo;
+				SYNC_RUNNING = false;
+				SYNC_COUNT++;
+				notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Finalizes the current segment (flushing everything logged so far) and
+	 * starts a new one. Only waits for a sync that is already running.
+	 * @return the last txid of the finalized segment
+	 */
+	public synchronized long roll() throws IOException {
+		waitForSync();
+		
+		ByteBuffer buffer = ByteBuffer.wrap(CURRENT.toByteArray());
+		while(buffer.hasRemaining()) {
+			CHANNEL.write(buffer);
+		}
+		CHANNEL.force(false);
+		RAF.close();
+		CURRENT.reset();
+		CURRENT_OUT = new DataOutputStream(CURRENT);
+		SYNCED_TXID = TXID;
+		notifyAll();
+		
+		openSegment(TXID+1);
+		LOG.info("SUCCESS: Rolled the edit log at txid "+TXID+" to "+FILE.getAbsolutePath()+".");
+		return TXID;
+	}
+	
+	/**
+	 * Deletes every finalized segment that only holds edits up to txid.
+	 * The segment currently written to is never deleted.
+	 */
+	public synchronized void purge(long txid) {
+		ArrayList<File> segments = getSegments(PREFIX);
+		for(int i = 0; i < segments.size()-1; i++) {
+			long lastInSegment = getFirstTxid(segments.get(i+1))-1;
+			if(lastInSegment <= txid && !segments.get(i).equals(FILE)) {
+				segments.get(i).delete();
+			}
+		}
+	}
+	
+	/**
+	 * Drops every edit and segment; only call once the namespace has been
+	 * cleared. Transaction ids keep counting up.
+	 */
+	public synchronized void reset() throws IOException {
+		waitForSync();
+		CURRENT.reset();
+		CURRENT_OUT = new DataOutputStream(CURRENT);
+		SYNCED_TXID = TXID;
+		notifyAll();
+		RAF.close();
+		for(File segment : getSegments(PREFIX)) {
+			segment.delete();
+		}
+		openSegment(TXID+1);
+	}
+	
+	private void waitForSync() throws IOException {
+		while(SYNC_RUNNING) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the edit log to sync.");
+			}
+		}
+	}
+	
+	/**
+	 * @return every segment for prefix, oldest first
+	 */
+	public static ArrayList<File> getSegments(String prefix) {
+		File base = new File(prefix);
+		File dir = base.getAbsoluteFile().getParentFile();
+		final String name = base.getName();
+		
+		ArrayList<File> segments = new ArrayList<File>();
+		File[] files = dir.listFiles();
+		if(files == null) {
+			return segments;
+		}
+		for(File file : files) {
+			String fileName = file.getName();
+			if(fileName.startsWith(name) && fileName.endsWith(SUFFIX)
+					&& fileName.substring(name.length(), fileName.length()-SUFFIX.length()).matches("[0-9]+")) {
+				segments.add(file);
+			}
+		}
+		
+		Collections.sort(segments, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long first = getFirstTxid(a);
+				long second = getFirstTxid(b);
+				return first < second ? -1 : (first == second ? 0 : 1);
+			}
+		});
+		return segments;
+	}
+	
+	public static long getFirstTxid(File segment) {
+		String fileName = segment.getName();
+		int end = fileName.length()-SUFFIX.length();
+		int start = end;
+		while(start > 0 && Character.isDigit(fileName.charAt(start-1))) {
+			start--;
+		}
+		return Long.parseLong(fileName.substring(start, end));
+	}
+	
+	public synchronized long getLastTxid() {
+		return TXID;
+	}
+	
+	public synchronized long getSyncCount() {
+		return SYNC_COUNT;
+	}
+	
+	public void close() throws IOException {
+		logSync(getLastTxid());
+		RAF.close();
+	}
+}
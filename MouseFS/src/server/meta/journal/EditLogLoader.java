@@ -0,0 +1,183 @@
+package server.meta.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+/**
+ * Replays the segments of an EditLog on top of a namespace read from the image.
+ */
+public class EditLogLoader {
+	private final Log LOG = LogFactory.getLog(EditLogLoader.class);
+	
+	private final String PREFIX;
+	private long VALID_LENGTH = 0;
+	private long LAST_TXID = 0;
+	
+	/**
+	 * @param prefix path prefix of the segment files, see EditLog
+	 */
+	public EditLogLoader(String prefix) {
+		this.PREFIX = prefix;
+	}
+	
+	/**
+	 * Applies every edit newer than imageTxid.
+	 * @return the number of edits applied
+	 */
+	public long load(Namespace namespace, long imageTxid) throws IOException {
+		return load(namespace, imageTxid, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Applies every edit newer than imageTxid up to and including maxTxid.
+	 * Segments are read oldest first; only the newest one may end in a torn record.
+	 * @return the number of edits applied
+	 */
+	public long load(Namespace namespace, long imageTxid, long maxTxid) throws IOException {
+		LAST_TXID = imageTxid;
+		VALID_LENGTH = 0;
+		
+		long applied = 0;
+		for(File segment : EditLog.getSegments(PREFIX)) {
+			if(EditLog.getFirstTxid(segment) > maxTxid) {
+				break;
+			}
+			applied += loadSegment(segment, namespace, maxTxid);
+		}
+		return applied;
+	}
+	
+	private long loadSegment(File segment, Namespace namespace, long maxTxid) throws IOException {
+		long applied = 0;
+		VALID_LENGTH = 0;
+		CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(segment)));
+		DataInputStream in = new DataInputStream(counter);
+		try {
+			while(true) {
+				long txid;
+				try {
+					txid = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				
+				EditLog.OPS op = EditLog.OPS.values()[in.readUnsignedByte()];
+				String path = in.readUTF();
+				Metadata metadata = null;
+				if(op == EditLog.OPS.CREATE) {
+					metadata = readMetadata(in, path);
+				}
+				
+				if(txid > LAST_TXID && txid <= maxTxid) {
+					apply(namespace, op, path, metadata);
+					LAST_TXID = txid;
+					applied++;
+				}
+				VALID_LENGTH = counter.getCount();
+			}
+		} catch (EOFException e) {
+			LOG.error("FATAL: The edit log ends in a torn record after txid "+LAST_TXID+"; ignoring it.");
+		} finally {
+			in.close();
+		}
+		
+		LOG.info("SUCCESS: Replayed "+applied+" edits from "+segment.getAbsolutePath()+".");
+		return applied;
+	}
+	
+	private Metadata readMetadata(DataInputStream in, String path) throws IOException {
+		long created = in.readLong();
+		long modified = in.readLong();
+		short permissions = in.readShort();
+		String owner = in.readUTF();
+		ServerInfo[] dataServers = new ServerInfo[in.readInt()];
+		for(int i = 0; i < dataServers.length; i++) {
+			String address = in.readUTF();
+			int port = in.readInt();
+			long id = in.readLong();
+			dataServers[i] = new DataServerInfo(address, port, id, ServerInfo.TYPES.DATA);
+		}
+		Metapath end = new Metapath(path).getEnd();
+		return new Metadata(end.toString(), created, modified, permissions, owner, dataServers);
+	}
+	
+	private void apply(Namespace namespace, EditLog.OPS op, String path, Metadata metadata) {
+		Metapath p = new Metapath(path);
+		switch(op) {
+		case MKDIR: namespace.mkdir(p); break;
+		case MKDIRS: namespace.mkdirs(p); break;
+		case RMDIR: namespace.remove(p); break;
+		case CREATE:
+			INodeDirectory parent = namespace.getParentDirectory(p);
+			if(parent == null) {
+				LOG.error("FATAL: Edit log creates "+path+" in a directory that does not exist.");
+			} else {
+				parent.addFile(metadata);
+			}
+			break;
+		}
+	}
+	
+	/** @return bytes of whole records in the newest segment read by the last load */
+	public long getValidLength() {
+		return VALID_LENGTH;
+	}
+	
+	/** @return the last txid of the image or the log, whichever is newer */
+	public long getLastTxid() {
+		return LAST_TXID;
+	}
+	
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+		
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1) {
+				count++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0) {
+				count += n;
+			}
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+		
+		long getCount() {
+			return count;
+		}
+	}
+}
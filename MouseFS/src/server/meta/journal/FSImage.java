@@ -0,0 +1,342 @@
+package server.meta.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+/**
+ * Binary image of the namespace.
+ * 
+ * Layout:
+ * [int MAGIC][int VERSION][long txid]
+ * [section]...      directories in depth-first order, about SECTION_SIZE inodes each
+ * [string table]    owners, referenced by index
+ * [server table]    DataServers, referenced by index
+ * [section index]   offset, length and directory count of every section
+ * [long tables offset][long index offset][int MAGIC]
+ * 
+ * A directory record is [string path][int file count] followed by its files as
+ * [string name][long created][long modified][short permissions][int owner][int servers][int server]...
+ * Sections are independent of each other, so they are memory-mapped and decoded
+ * on all cores at once.
+ */
+public class FSImage {
+	private static final Log LOG = LogFactory.getLog(FSImage.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	public static final int MAGIC = 0x4D465349; //"MFSI"
+	public static final int VERSION = 1;
+	private static final int SECTION_SIZE = 65536;
+	private static final int FOOTER_SIZE = 8+8+4;
+	
+	private long TXID = 0;
+	private Namespace NAMESPACE = null;
+	
+	/**
+	 * Writes the namespace to file. The image is written next to it first and
+	 * renamed over it once it is complete and synced.
+	 */
+	public static void save(Namespace namespace, long txid, File file) throws IOException {
+		File tmp = new File(file.getPath()+".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp, false);
+		CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fos, 256*1024));
+		DataOutputStream out = new DataOutputStream(counter);
+		
+		HashMap<String, Integer> strings = new HashMap<String, Integer>();
+		ArrayList<String> stringTable = new ArrayList<String>();
+		HashMap<String, Integer> servers = new HashMap<String, Integer>();
+		ArrayList<ServerInfo> serverTable = new ArrayList<ServerInfo>();
+		ArrayList<long[]> sections = new ArrayList<long[]>();
+		
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(txid);
+			
+			long sectionStart = counter.getCount();
+			int sectionInodes = 0;
+			int sectionDirs = 0;
+			
+			ArrayDeque<INodeDirectory> stack = new ArrayDeque<INodeDirectory>();
+			stack.push(namespace.getRoot());
+			while(!stack.isEmpty()) {
+				INodeDirectory dir = stack.pop();
+				List<Metadata> files = dir.getFiles();
+				
+				writeString(out, dir.getFullPath());
+				out.writeInt(files.size());
+				for(Metadata metadata : files) {
+					writeString(out, metadata.getFilename());
+					out.writeLong(metadata.getCreated());
+					out.writeLong(metadata.getModified());
+					out.writeShort(metadata.getPermissions());
+					out.writeInt(intern(metadata.getOwner(), strings, stringTable));
+					ServerInfo[] dataServers = metadata.getDataServer();
+					out.writeInt(dataServers.length);
+					for(ServerInfo dataServer : dataServers) {
+						out.writeInt(intern(dataServer, servers, serverTable));
+					}
+				}
+				
+				for(INodeDirectory child : dir.getChildren()) {
+					stack.push(child);
+				}
+				
+				sectionDirs++;
+				sectionInodes += 1 + files.size();
+				if(sectionInodes >= SECTION_SIZE) {
+					sections.add(new long[] {sectionStart, counter.getCount()-sectionStart, sectionDirs});
+					sectionStart = counter.getCount();
+					sectionInodes = 0;
+					sectionDirs = 0;
+				}
+			}
+			if(sectionDirs > 0) {
+				sections.add(new long[] {sectionStart, counter.getCount()-sectionStart, sectionDirs});
+			}
+			
+			long tablesOffset = counter.getCount();
+			out.writeInt(stringTable.size());
+			for(String string : stringTable) {
+				writeString(out, string);
+			}
+			out.writeInt(serverTable.size());
+			for(ServerInfo server : serverTable) {
+				writeString(out, server.getAddress());
+				out.writeInt(server.getPort());
+				out.writeLong(server.getID());
+			}
+			
+			long indexOffset = counter.getCount();
+			out.writeInt(sections.size());
+			for(long[] section : sections) {
+				out.writeLong(section[0]);
+				out.writeLong(section[1]);
+				out.writeInt((int) section[2]);
+			}
+			
+			out.writeLong(tablesOffset);
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		
+		//in one step, so a crash leaves either the old image or the new one
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOG.info("SUCCESS: Wrote image with "+sections.size()+" sections, "+stringTable.size()+" strings and "
+				+serverTable.size()+" DataServers @"+file.getAbsolutePath());
+	}
+	
+	/**
+	 * Reads an image, decoding its sections on threads threads at once.
+	 */
+	public static FSImage load(File file, int threads) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		ExecutorService pool = null;
+		try {
+			long size = channel.size();
+			if(size < 16+FOOTER_SIZE) {
+				throw new IOException("Image @"+file.getAbsolutePath()+" is too short.");
+			}
+			
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 16);
+			if(header.getInt() != MAGIC) {
+				throw new IOException("Not an image: "+file.getAbsolutePath());
+			}
+			int version = header.getInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported image version "+version+" @"+file.getAbsolutePath());
+			}
+			
+			FSImage image = new FSImage();
+			image.TXID = header.getLong();
+			
+			ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size-FOOTER_SIZE, FOOTER_SIZE);
+			long tablesOffset = footer.getLong();
+			long indexOffset = footer.getLong();
+			if(footer.getInt() != MAGIC) {
+				throw new IOException("Image @"+file.getAbsolutePath()+" is truncated.");
+			}
+			
+			ByteBuffer tables = channel.map(FileChannel.MapMode.READ_ONLY, tablesOffset, size-FOOTER_SIZE-tablesOffset);
+			final String[] stringTable = new String[tables.getInt()];
+			for(int i = 0; i < stringTable.length; i++) {
+				stringTable[i] = readString(tables);
+			}
+			final ServerInfo[] serverTable = new ServerInfo[tables.getInt()];
+			for(int i = 0; i < serverTable.length; i++) {
+				String address = readString(tables);
+				int port = tables.getInt();
+				long id = tables.getLong();
+				serverTable[i] = new DataServerInfo(address, port, id, ServerInfo.TYPES.DATA);
+			}
+			
+			tables.position((int) (indexOffset-tablesOffset));
+			int sectionCount = tables.getInt();
+			
+			final Namespace namespace = new INodeTree();
+			pool = Executors.newFixedThreadPool(Math.max(1, threads));
+			ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>(sectionCount);
+			for(int i = 0; i < sectionCount; i++) {
+				long offset = tables.getLong();
+				long length = tables.getLong();
+				final int dirs = tables.getInt();
+				final MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				futures.add(pool.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return loadSection(section, dirs, namespace, stringTable, serverTable);
+					}
+				}));
+			}
+			
+			long files = 0;
+			for(Future<Integer> future : futures) {
+				files += future.get();
+			}
+			
+			image.NAMESPACE = namespace;
+			LOG.info("SUCCESS: Loaded image with "+sectionCount+" sections and "+files+" files @"+file.getAbsolutePath());
+			return image;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading the image.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not decode a section of the image.", e.getCause());
+		} finally {
+			if(pool != null) {
+				pool.shutdownNow();
+			}
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Every directory lives in exactly one section, so sections only share the
+	 * (concurrent) child maps of their common parents.
+	 */
+	private static int loadSection(ByteBuffer section, int dirs, Namespace namespace, String[] stringTable, ServerInfo[] serverTable) {
+		int files = 0;
+		for(int i = 0; i < dirs; i++) {
+			Metapath path = new Metapath(readString(section));
+			namespace.mkdirs(path);
+			int count = section.getInt();
+			ArrayList<Metadata> children = new ArrayList<Metadata>(count);
+			for(int j = 0; j < count; j++) {
+				String name = readString(section);
+				long created = section.getLong();
+				long modified = section.getLong();
+				short permissions = section.getShort();
+				String owner = stringTable[section.getInt()];
+				ServerInfo[] dataServers = new ServerInfo[section.getInt()];
+				for(int k = 0; k < dataServers.length; k++) {
+					dataServers[k] = serverTable[section.getInt()];
+				}
+				children.add(new Metadata(name, created, modified, permissions, owner, dataServers));
+			}
+			namespace.getDirectory(path).addFiles(children);
+			files += count;
+		}
+		return files;
+	}
+	
+	/** @return true if file starts like an image (as opposed to an older Java-serialized journal). */
+	public static boolean isImage(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.length() >= 4 && raf.readInt() == MAGIC;
+		} finally {
+			raf.close();
+		}
+	}
+	
+	public Namespace getNamespace() {
+		return NAMESPACE;
+	}
+	
+	public long getTxid() {
+		return TXID;
+	}
+	
+	private static <T> int intern(T value, HashMap<String, Integer> index, ArrayList<T> table) {
+		String key = value.toString();
+		Integer ref = index.get(key);
+		if(ref == null) {
+			ref = table.size();
+			index.put(key, ref);
+			table.add(value);
+		}
+		return ref;
+	}
+	
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+	
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		
+		long getCount() {
+			return count;
+		}
+	}
+}
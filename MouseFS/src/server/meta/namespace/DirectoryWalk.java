@@ -0,0 +1,164 @@
+package server.meta.namespace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import server.meta.util.Metadata;
+
+/**
+ * The entries of a directory in name order, or of its whole subtree
+ * depth-first with every directory right before its contents, picking up
+ * after a cursor: the last entry a previous walk returned.
+ *
+ * Entries are paths relative to the directory walked, directories ending in
+ * '/', so "logs/" is the directory logs and "logs" a file by that name; the
+ * directory comes first. Every directory being walked pulls its entries in
+ * batches of BATCH, so a walk holds one batch per level it is down, however
+ * big the directories are. Entries added or removed while walking show up,
+ * or not, depending on which side of the walk they are on.
+ */
+public class DirectoryWalk {
+	private static final int BATCH = 256;
+
+	private final boolean recursive;
+	private final ArrayDeque<Level> levels = new ArrayDeque<Level>();
+	private String next = null;
+
+	/**
+	 * @param cursor the last entry of an earlier walk of start, or null or "" to start from the beginning
+	 * @param recursive if it goes into the directories it passes
+	 */
+	public DirectoryWalk(INodeDirectory start, String cursor, boolean recursive) {
+		this.recursive = recursive;
+		if(cursor == null || cursor.length() == 0) {
+			levels.push(new Level(start, "", null, false));
+			return;
+		}
+
+		boolean isDirectory = cursor.endsWith("/");
+		String[] names = (isDirectory ? cursor.substring(0, cursor.length()-1) : cursor).split("/");
+		if(!recursive && names.length > 1) {
+			throw new IllegalArgumentException("Cursor "+cursor+" is inside a subdirectory, but the walk is not recursive.");
+		}
+
+		//every directory on the way to the cursor is halfway done
+		INodeDirectory dir = start;
+		String prefix = "";
+		for(int i = 0; i < names.length; i++) {
+			boolean last = i == names.length-1;
+			levels.push(new Level(dir, prefix, names[i], !last || isDirectory));
+			if(last || !recursive) {
+				break;
+			}
+			dir = dir.getChild(names[i]);
+			if(dir == null) {
+				//gone since; its parent carries on after it
+				return;
+			}
+			prefix += names[i]+"/";
+		}
+
+		//a directory is returned before its contents, which come next
+		if(recursive && isDirectory) {
+			INodeDirectory child = dir.getChild(names[names.length-1]);
+			if(child != null) {
+				levels.push(new Level(child, cursor, null, false));
+			}
+		}
+	}
+
+	public boolean hasNext() {
+		while(next == null && !levels.isEmpty()) {
+			Level level = levels.peek();
+			Object entry = level.next();
+			if(entry == null) {
+				levels.pop();
+			} else if(entry instanceof INodeDirectory) {
+				INodeDirectory dir = (INodeDirectory) entry;
+				next = level.prefix+dir.getName()+"/";
+				if(recursive) {
+					levels.push(new Level(dir, next, null, false));
+				}
+			} else {
+				next = level.prefix+((Metadata) entry).getFilename();
+			}
+		}
+		return next != null;
+	}
+
+	/** @return the next entry, relative to the directory walked */
+	public String next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String entry = next;
+		next = null;
+		return entry;
+	}
+
+	/* ONE DIRECTORY BEING WALKED: WHERE IT IS UP TO AND THE NEXT FEW ENTRIES */
+	private static class Level {
+		private final INodeDirectory dir;
+		private final String prefix;
+		//the last entry taken from dir: its name, and whether it was the directory or the file
+		private String name;
+		private boolean isDirectory;
+		private final List<Object> batch = new ArrayList<Object>(BATCH);
+		private int taken = 0;
+		private boolean done = false;
+
+		Level(INodeDirectory dir, String prefix, String name, boolean isDirectory) {
+			this.dir = dir;
+			this.prefix = prefix;
+			this.name = name;
+			this.isDirectory = isDirectory;
+		}
+
+		/* THE NEXT DIRECTORY OR FILE, OR null ONCE THERE IS NOTHING LEFT */
+		Object next() {
+			if(taken == batch.size()) {
+				fill();
+				if(batch.isEmpty()) {
+					return null;
+				}
+			}
+			return batch.get(taken++);
+		}
+
+		/* MERGES THE NEXT DIRECTORIES AND THE NEXT FILES BY NAME, DIRECTORIES FIRST */
+		private void fill() {
+			batch.clear();
+			taken = 0;
+			if(done) {
+				return;
+			}
+			List<INodeDirectory> dirs = dir.getChildrenAfter(name, BATCH);
+			List<Metadata> files = new ArrayList<Metadata>(BATCH);
+			//a file by the name of the directory just taken comes right after it
+			Metadata same = name != null && isDirectory ? dir.getFile(name) : null;
+			if(same != null) {
+				files.add(same);
+			}
+			files.addAll(dir.getFilesAfter(name, BATCH-files.size()));
+
+			int d = 0;
+			int f = 0;
+			while(batch.size() < BATCH && (d < dirs.size() || f < files.size())) {
+				if(f == files.size() || (d < dirs.size() && dirs.get(d).getName().compareTo(files.get(f).getFilename()) <= 0)) {
+					INodeDirectory child = dirs.get(d++);
+					batch.add(child);
+					name = child.getName();
+					isDirectory = true;
+				} else {
+					Metadata file = files.get(f++);
+					batch.add(file);
+					name = file.getFilename();
+					isDirectory = false;
+				}
+			}
+			done = batch.isEmpty();
+		}
+	}
+}
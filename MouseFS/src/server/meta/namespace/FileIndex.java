@@ -0,0 +1,407 @@
+package server.meta.namespace;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import server.info.ServerInfo;
+import server.meta.util.Metadata;
+import server.meta.util.SymbolTable;
+
+/**
+ * The files of one directory, in the order they were added, laid out as
+ * columns rather than as an object per file: the names back to back in one
+ * UTF-8 byte array, the times in long arrays, the permission bits in a short
+ * array, and the owner and the DataServers of every file as ids into tables
+ * all directories share. The Metadata of a file is only built when it is
+ * asked for.
+ *
+ * An open-addressing hash index over the names finds a file in constant
+ * time: a power of two int slots, at most three quarters full, each holding
+ * the position of a file plus one (0 is an empty slot). The hash of every
+ * name is kept next to its file, so a probe only compares names whose hashes
+ * match and a resize never hashes a name again. Files are never removed one
+ * by one, so there are no tombstones.
+ *
+ * Names sort by their UTF-8 bytes, which is String order unless names mix
+ * characters past U+FFFF with ones from U+E000 up. The order is kept as two
+ * sorted runs of positions: a long one and a short one of the latest adds.
+ * Adds only sort themselves into the short run, the next time the order is
+ * asked for; it is merged into the long one once it outgrows a share of it.
+ * So paging through a directory being written to never sorts all of it.
+ *
+ * Not thread safe; INodeDirectory locks around it.
+ */
+class FileIndex {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MIN_SLOTS = 16;
+	private static final int MIN_FILES = 4;
+	private static final byte[] NO_BYTES = new byte[0];
+	private static final short[] NO_SHORTS = new short[0];
+	private static final int[] NO_INTS = new int[0];
+	private static final long[] NO_LONGS = new long[0];
+	//the short run of the order is merged into the long one once it is bigger than this share of it
+	private static final int TAIL_SHARE = 64;
+	private static final int MIN_TAIL = 1024;
+	private static final View NO_VIEW = new View(NO_INTS, NO_INTS);
+
+	/* SHARED BY EVERY DIRECTORY */
+	private static final SymbolTable<String, String> OWNERS = new SymbolTable<String, String>();
+	//keyed by "address:port"; the latest ServerInfo of a DataServer stands for it
+	private static final SymbolTable<String, ServerInfo> DATASERVERS = new SymbolTable<String, ServerInfo>();
+	//keyed by the ids of the DataServers a file is placed on, in order
+	private static final SymbolTable<String, int[]> PLACEMENTS = new SymbolTable<String, int[]>();
+
+	private byte[] names = NO_BYTES;
+	private int namesLength = 0;
+	//where the name of every file ends in names; it starts where the one before it ends
+	private int[] nameEnds = NO_INTS;
+	private int[] hashes = NO_INTS;
+	private long[] created = NO_LONGS;
+	private long[] modified = NO_LONGS;
+	private short[] permissions = NO_SHORTS;
+	//-1 for a file without an owner or DataServers
+	private int[] owners = NO_INTS;
+	private int[] placements = NO_INTS;
+	private int size = 0;
+	private int[] slots = NO_INTS;
+	//positions of the files ordered by name, brought up to date with the adds on demand
+	private volatile View view = NO_VIEW;
+
+	int size() {
+		return size;
+	}
+
+	/** @return the file called name, or null if there is none */
+	Metadata get(String name) {
+		if(size == 0) {
+			return null;
+		}
+		byte[] key = name.getBytes(UTF8);
+		int at = slots[find(key, hash(key))];
+		return at == 0 ? null : metadata(at-1);
+	}
+
+	/** @return false, adding nothing, if a file by the same name is already here */
+	boolean add(Metadata metadata) {
+		byte[] key = metadata.getFilename().getBytes(UTF8);
+		int hash = hash(key);
+		ensureCapacity(size+1);
+		int slot = find(key, hash);
+		if(slots[slot] != 0) {
+			return false;
+		}
+		if(namesLength+key.length > names.length) {
+			names = Arrays.copyOf(names, Math.max(namesLength+key.length, names.length+(names.length >> 1)+16));
+		}
+		System.arraycopy(key, 0, names, namesLength, key.length);
+		namesLength += key.length;
+
+		nameEnds[size] = namesLength;
+		hashes[size] = hash;
+		created[size] = metadata.getCreated();
+		modified[size] = metadata.getModified();
+		permissions[size] = metadata.getPermissions();
+		owners[size] = metadata.getOwner() == null ? -1 : OWNERS.intern(metadata.getOwner(), metadata.getOwner());
+		placements[size] = placement(metadata.getDataServer());
+		size++;
+		slots[slot] = size;
+		return true;
+	}
+
+	/** Makes room for files files in all, so adding up to that many grows nothing. */
+	void ensureCapacity(int files) {
+		if(files > nameEnds.length) {
+			int length = Math.max(files, Math.max(MIN_FILES, nameEnds.length+(nameEnds.length >> 1)));
+			nameEnds = Arrays.copyOf(nameEnds, length);
+			hashes = Arrays.copyOf(hashes, length);
+			created = Arrays.copyOf(created, length);
+			modified = Arrays.copyOf(modified, length);
+			permissions = Arrays.copyOf(permissions, length);
+			owners = Arrays.copyOf(owners, length);
+			placements = Arrays.copyOf(placements, length);
+		}
+		if(files > slots.length-(slots.length >> 2)) {
+			rehash(slotsFor(files));
+		}
+	}
+
+	void clear() {
+		names = NO_BYTES;
+		namesLength = 0;
+		nameEnds = NO_INTS;
+		hashes = NO_INTS;
+		created = NO_LONGS;
+		modified = NO_LONGS;
+		permissions = NO_SHORTS;
+		owners = NO_INTS;
+		placements = NO_INTS;
+		size = 0;
+		slots = NO_INTS;
+		view = NO_VIEW;
+	}
+
+	/** @return the files, in the order they were added */
+	List<Metadata> list() {
+		List<Metadata> files = new ArrayList<Metadata>(size);
+		for(int at = 0; at < size; at++) {
+			files.add(metadata(at));
+		}
+		return files;
+	}
+
+	/** @return the files ordered by name */
+	List<Metadata> sortedList() {
+		return after(null, size);
+	}
+
+	/**
+	 * @param name null for the first files
+	 * @return at most limit files whose names come after name, ordered by name
+	 */
+	List<Metadata> after(String name, int limit) {
+		View current = view();
+		int[] main = current.main;
+		int[] tail = current.tail;
+		int m = 0;
+		int t = 0;
+		if(name != null) {
+			byte[] key = name.getBytes(UTF8);
+			m = after(main, key);
+			t = after(tail, key);
+		}
+		int count = (int) Math.min(limit, (long) (main.length-m)+(tail.length-t));
+		List<Metadata> files = new ArrayList<Metadata>(count);
+		while(files.size() < count) {
+			if(t == tail.length || (m < main.length && compare(main[m], tail[t]) < 0)) {
+				files.add(metadata(main[m++]));
+			} else {
+				files.add(metadata(tail[t++]));
+			}
+		}
+		return files;
+	}
+	
+	/* THE FIRST INDEX OF run WHOSE NAME IS GREATER THAN key */
+	private int after(int[] run, byte[] key) {
+		int low = 0;
+		int high = run.length;
+		while(low < high) {
+			int middle = (low+high) >>> 1;
+			if(compare(run[middle], key) <= 0) {
+				low = middle+1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private Metadata metadata(int at) {
+		int start = nameStart(at);
+		String name = new String(names, start, nameEnds[at]-start, UTF8);
+		String owner = owners[at] < 0 ? null : OWNERS.get(owners[at]);
+		return new Metadata(name, created[at], modified[at], permissions[at], owner, dataServers(placements[at]));
+	}
+
+	private int nameStart(int at) {
+		return at == 0 ? 0 : nameEnds[at-1];
+	}
+
+	/* THE SLOT HOLDING key, OR THE EMPTY SLOT WHERE IT WOULD GO */
+	private int find(byte[] key, int hash) {
+		int mask = slots.length-1;
+		int slot = hash & mask;
+		while(slots[slot] != 0) {
+			int at = slots[slot]-1;
+			if(hashes[at] == hash && compare(at, key) == 0) {
+				return slot;
+			}
+			slot = (slot+1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int length) {
+		int[] grown = new int[length];
+		int mask = length-1;
+		for(int at = 0; at < size; at++) {
+			int slot = hashes[at] & mask;
+			while(grown[slot] != 0) {
+				slot = (slot+1) & mask;
+			}
+			grown[slot] = at+1;
+		}
+		slots = grown;
+	}
+
+	private static int slotsFor(int files) {
+		int length = MIN_SLOTS;
+		while(length-(length >> 2) < files && length < 1 << 30) {
+			length <<= 1;
+		}
+		return length;
+	}
+
+	/* NAME at AGAINST key, UNSIGNED BYTE BY BYTE */
+	private int compare(int at, byte[] key) {
+		int start = nameStart(at);
+		int length = nameEnds[at]-start;
+		for(int i = 0; i < length && i < key.length; i++) {
+			int diff = (names[start+i] & 0xff)-(key[i] & 0xff);
+			if(diff != 0) {
+				return diff;
+			}
+		}
+		return length-key.length;
+	}
+
+	private int compare(int a, int b) {
+		int startA = nameStart(a);
+		int startB = nameStart(b);
+		int lengthA = nameEnds[a]-startA;
+		int lengthB = nameEnds[b]-startB;
+		for(int i = 0; i < lengthA && i < lengthB; i++) {
+			int diff = (names[startA+i] & 0xff)-(names[startB+i] & 0xff);
+			if(diff != 0) {
+				return diff;
+			}
+		}
+		return lengthA-lengthB;
+	}
+
+	/* THE ORDER WITH EVERY FILE IN IT. READERS SHARE THE LOCK, SO ONLY ONE OF THEM BRINGS IT UP TO DATE. */
+	private View view() {
+		View current = view;
+		if(current.size() == size) {
+			return current;
+		}
+		synchronized(this) {
+			current = view;
+			int covered = current.size();
+			if(covered < size) {
+				//files are only ever appended, so the ones not in the order yet are the last ones
+				int[] added = new int[size-covered];
+				for(int i = 0; i < added.length; i++) {
+					added[i] = covered+i;
+				}
+				sort(added, new int[added.length], 0, added.length);
+				int[] main = current.main;
+				int[] tail = merge(current.tail, added);
+				if(tail.length > Math.max(MIN_TAIL, main.length / TAIL_SHARE)) {
+					main = merge(main, tail);
+					tail = NO_INTS;
+				}
+				current = new View(main, tail);
+				view = current;
+			}
+		}
+		return current;
+	}
+	
+	private int[] merge(int[] a, int[] b) {
+		if(a.length == 0) {
+			return b;
+		}
+		int[] merged = new int[a.length+b.length];
+		int i = 0;
+		int j = 0;
+		for(int k = 0; k < merged.length; k++) {
+			if(j == b.length || (i < a.length && compare(a[i], b[j]) <= 0)) {
+				merged[k] = a[i++];
+			} else {
+				merged[k] = b[j++];
+			}
+		}
+		return merged;
+	}
+
+	/* MERGE SORT OF POSITIONS BY NAME, INSERTION SORT ONCE A RUN IS SHORT */
+	private void sort(int[] view, int[] buffer, int from, int to) {
+		if(to-from <= 16) {
+			for(int i = from+1; i < to; i++) {
+				int at = view[i];
+				int j = i;
+				while(j > from && compare(view[j-1], at) > 0) {
+					view[j] = view[j-1];
+					j--;
+				}
+				view[j] = at;
+			}
+			return;
+		}
+		int middle = (from+to) >>> 1;
+		sort(view, buffer, from, middle);
+		sort(view, buffer, middle, to);
+		if(compare(view[middle-1], view[middle]) <= 0) {
+			return;
+		}
+		System.arraycopy(view, from, buffer, from, to-from);
+		int left = from;
+		int right = middle;
+		for(int i = from; i < to; i++) {
+			if(right == to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+				view[i] = buffer[left++];
+			} else {
+				view[i] = buffer[right++];
+			}
+		}
+	}
+
+	private static int placement(ServerInfo[] dataServers) {
+		if(dataServers == null) {
+			return -1;
+		}
+		int[] ids = new int[dataServers.length];
+		StringBuilder key = new StringBuilder();
+		for(int i = 0; i < dataServers.length; i++) {
+			ServerInfo dataServer = dataServers[i];
+			String address = dataServer.getAddress()+":"+dataServer.getPort();
+			ids[i] = DATASERVERS.intern(address, dataServer);
+			//a DataServer that came back under a new id
+			if(DATASERVERS.get(ids[i]).getID() != dataServer.getID()) {
+				DATASERVERS.put(address, dataServer);
+			}
+			key.append(ids[i]).append(',');
+		}
+		return PLACEMENTS.intern(key.toString(), ids);
+	}
+
+	private static ServerInfo[] dataServers(int placement) {
+		if(placement < 0) {
+			return null;
+		}
+		int[] ids = PLACEMENTS.get(placement);
+		ServerInfo[] dataServers = new ServerInfo[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			dataServers[i] = DATASERVERS.get(ids[i]);
+		}
+		return dataServers;
+	}
+
+	/* BYTES OF NUMBERED NAMES HASH SEQUENTIALLY; SPREAD THEM SO LINEAR PROBING DOES NOT CLUSTER */
+	private static int hash(byte[] key) {
+		int h = 0;
+		for(byte b : key) {
+			h = 31*h+b;
+		}
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	/* THE FILES ORDERED BY NAME, AS TWO SORTED RUNS OF THEIR POSITIONS; NEVER CHANGED ONCE PUBLISHED */
+	private static class View {
+		private final int[] main;
+		private final int[] tail;
+		
+		View(int[] main, int[] tail) {
+			this.main = main;
+			this.tail = tail;
+		}
+		
+		int size() {
+			return main.length+tail.length;
+		}
+	}
+}
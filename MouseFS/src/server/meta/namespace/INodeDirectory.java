@@ -0,0 +1,185 @@
+package server.meta.namespace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import server.meta.util.Metadata;
+
+/**
+ * A single directory in the namespace tree. Child directories are kept in a
+ * map sorted by their name, files directly inside this directory are kept as
+ * in a FileIndex, so a file is found by name in constant time however many
+ * there are, and names are unique within a directory. The Metadata handed
+ * out are copies; the FileIndex keeps files in a compact layout of its own.
+ *
+ * Both are safe to use from many threads at once: the child map is a
+ * concurrent one and the files have a read-write lock of this directory's
+ * own, so adding a file only ever waits for threads in the same directory.
+ */
+public class INodeDirectory {
+	private final String name;
+	private INodeDirectory parent;
+	private final ConcurrentSkipListMap<String, INodeDirectory> children;
+	private final FileIndex files;
+	private final ReentrantReadWriteLock filesLock = new ReentrantReadWriteLock();
+	
+	public INodeDirectory(String name, INodeDirectory parent) {
+		this.name = name;
+		this.parent = parent;
+		this.children = new ConcurrentSkipListMap<String, INodeDirectory>();
+		this.files = new FileIndex();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public INodeDirectory getParent() {
+		return parent;
+	}
+	
+	void setParent(INodeDirectory parent) {
+		this.parent = parent;
+	}
+	
+	public boolean isRoot() {
+		return parent == null;
+	}
+	
+	public INodeDirectory getChild(String name) {
+		return children.get(name);
+	}
+	
+	INodeDirectory addChild(INodeDirectory child) {
+		return children.putIfAbsent(child.getName(), child);
+	}
+	
+	INodeDirectory removeChild(String name) {
+		return children.remove(name);
+	}
+	
+	/** @return the child directories, ordered by name */
+	public Collection<INodeDirectory> getChildren() {
+		return children.values();
+	}
+	
+	/**
+	 * @param name null for the first children
+	 * @return at most limit child directories whose names come after name, ordered by name
+	 */
+	public List<INodeDirectory> getChildrenAfter(String name, int limit) {
+		Collection<INodeDirectory> after = name == null ? children.values() : children.tailMap(name, false).values();
+		List<INodeDirectory> first = new ArrayList<INodeDirectory>(Math.min(limit, 16));
+		for(INodeDirectory child : after) {
+			if(first.size() >= limit) {
+				break;
+			}
+			first.add(child);
+		}
+		return first;
+	}
+	
+	/** @return a copy of the files directly inside this directory, in the order they were added */
+	public List<Metadata> getFiles() {
+		filesLock.readLock().lock();
+		try {
+			return files.list();
+		} finally {
+			filesLock.readLock().unlock();
+		}
+	}
+	
+	/** @return the file called name directly inside this directory, or null if there is none */
+	public Metadata getFile(String name) {
+		filesLock.readLock().lock();
+		try {
+			return files.get(name);
+		} finally {
+			filesLock.readLock().unlock();
+		}
+	}
+	
+	public int getFileCount() {
+		filesLock.readLock().lock();
+		try {
+			return files.size();
+		} finally {
+			filesLock.readLock().unlock();
+		}
+	}
+	
+	/** @return a copy of the files directly inside this directory, ordered by name */
+	public List<Metadata> getSortedFiles() {
+		filesLock.readLock().lock();
+		try {
+			return files.sortedList();
+		} finally {
+			filesLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @param name null for the first files
+	 * @return at most limit files directly inside this directory whose names come after name, ordered by name
+	 */
+	public List<Metadata> getFilesAfter(String name, int limit) {
+		filesLock.readLock().lock();
+		try {
+			return files.after(name, limit);
+		} finally {
+			filesLock.readLock().unlock();
+		}
+	}
+	
+	/** @return false, adding nothing, if this directory already has a file by that name */
+	public boolean addFile(Metadata metadata) {
+		filesLock.writeLock().lock();
+		try {
+			return files.add(metadata);
+		} finally {
+			filesLock.writeLock().unlock();
+		}
+	}
+	
+	/** Adds every file whose name is not taken yet; later ones by a taken name are dropped. */
+	public void addFiles(Collection<Metadata> metadata) {
+		filesLock.writeLock().lock();
+		try {
+			files.ensureCapacity(files.size()+metadata.size());
+			for(Metadata file : metadata) {
+				files.add(file);
+			}
+		} finally {
+			filesLock.writeLock().unlock();
+		}
+	}
+	
+	void clearFiles() {
+		filesLock.writeLock().lock();
+		try {
+			files.clear();
+		} finally {
+			filesLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Walks up to the root to build the full path; root itself is the empty path.
+	 */
+	public String getFullPath() {
+		if(isRoot()) {
+			return "";
+		}
+		if(parent.isRoot()) {
+			return name;
+		}
+		return parent.getFullPath()+"/"+name;
+	}
+	
+	public String toString() {
+		return getFullPath();
+	}
+}
@@ -0,0 +1,117 @@
+package server.meta.namespace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import server.meta.util.Metapath;
+
+/**
+ * Hierarchical Namespace: every directory holds a map of its children, so a
+ * lookup costs the depth of the path and a removal only unlinks one node.
+ */
+public class INodeTree implements Namespace {
+	private final INodeDirectory root;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+	
+	public INodeTree() {
+		this(new INodeDirectory("", null));
+	}
+	
+	public INodeTree(INodeDirectory root) {
+		this.root = root;
+	}
+
+	@Override
+	public INodeDirectory getRoot() {
+		return root;
+	}
+
+	@Override
+	public INodeDirectory getDirectory(Metapath path) {
+		INodeDirectory current = root;
+		for(int i = 0; i < path.getDepth(); i++) {
+			current = current.getChild(path.getName(i));
+			if(current == null) {
+				return null;
+			}
+		}
+		return current;
+	}
+	
+	@Override
+	public INodeDirectory getParentDirectory(Metapath path) {
+		Metapath parent = path.getParent();
+		if(parent == null) {
+			return root;
+		}
+		return getDirectory(parent);
+	}
+
+	@Override
+	public INodeDirectory mkdir(Metapath path) {
+		INodeDirectory parent = getParentDirectory(path);
+		if(parent == null || path.getDepth() == 0) {
+			return null;
+		}
+		
+		INodeDirectory dir = new INodeDirectory(path.getName(path.getDepth()-1), parent);
+		if(parent.addChild(dir) != null) {
+			return null;
+		}
+		return dir;
+	}
+
+	@Override
+	public List<INodeDirectory> mkdirs(Metapath path) {
+		ArrayList<INodeDirectory> created = new ArrayList<INodeDirectory>();
+		INodeDirectory current = root;
+		for(int i = 0; i < path.getDepth(); i++) {
+			String name = path.getName(i);
+			INodeDirectory child = current.getChild(name);
+			if(child == null) {
+				child = new INodeDirectory(name, current);
+				INodeDirectory existing = current.addChild(child);
+				if(existing != null) {
+					child = existing;
+				} else {
+					created.add(child);
+				}
+			}
+			current = child;
+		}
+		return created;
+	}
+
+	@Override
+	public INodeDirectory remove(Metapath path) {
+		INodeDirectory dir = getDirectory(path);
+		if(dir == null || dir.isRoot()) {
+			return null;
+		}
+		
+		if(dir.getParent().removeChild(dir.getName()) == null) {
+			return null;
+		}
+		return dir;
+	}
+
+	@Override
+	public ReadWriteLock getLock() {
+		return lock;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return root.getChildren().isEmpty() && root.getFileCount() == 0;
+	}
+
+	@Override
+	public void clear() {
+		for(INodeDirectory child : root.getChildren()) {
+			root.removeChild(child.getName());
+		}
+		root.clearFiles();
+	}
+}
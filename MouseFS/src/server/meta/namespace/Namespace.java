@@ -0,0 +1,59 @@
+package server.meta.namespace;
+
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import server.meta.util.Metapath;
+
+/**
+ * The MetaServer namespace. Every operation only touches the directories
+ * along the given path (and the subtree below it for removals), never the
+ * rest of the namespace.
+ *
+ * Lookups and reads are safe from any thread without locking. A change has
+ * to be journaled in the order it was made, though, so whoever makes one
+ * holds getLock() until its edit is logged.
+ */
+public interface Namespace {
+	
+	/** @return the root directory; it has the empty path and can not be removed. */
+	INodeDirectory getRoot();
+	
+	/** @return the directory at path, or null if it does not exist. */
+	INodeDirectory getDirectory(Metapath path);
+	
+	/** @return the directory that holds path, or null if it does not exist. */
+	INodeDirectory getParentDirectory(Metapath path);
+	
+	/**
+	 * Creates a single directory.
+	 * @return the new directory, or null if it already exists or its parent does not.
+	 */
+	INodeDirectory mkdir(Metapath path);
+	
+	/**
+	 * Creates the directory and every missing parent.
+	 * @return the newly created directories, top-most first; empty if path already existed.
+	 */
+	List<INodeDirectory> mkdirs(Metapath path);
+	
+	/**
+	 * Detaches the directory (and with it the whole subtree) from the namespace.
+	 * @return the detached directory, or null if it does not exist.
+	 */
+	INodeDirectory remove(Metapath path);
+	
+	/**
+	 * New directories and removals take the write lock, so nothing can find a
+	 * directory before its edit is logged or add to one that is being removed;
+	 * new files take the read lock, so they only wait on each other within the
+	 * same directory. The lock is fair, so a waiting writer is not starved.
+	 */
+	ReadWriteLock getLock();
+	
+	/** @return true if no directory other than the root exists. */
+	boolean isEmpty();
+	
+	/** Removes everything under the root. */
+	void clear();
+}
@@ -0,0 +1,23 @@
+package server.meta.placement;
+
+import java.util.List;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+
+/**
+ * Chooses the DataServers a new file goes to. The MetaServer uses the
+ * policy the "mousefs.placement" property names: "weighted" (the default),
+ * "random", or the class name of any other implementation with a no-argument
+ * constructor.
+ */
+public interface BlockPlacementPolicy {
+	public static final String PROPERTY = "mousefs.placement";
+
+	/**
+	 * Must be safe to call from many request threads at once.
+	 * @param dataServers the DataServers connected now, with the stats they last reported
+	 * @return up to replication distinct DataServers, in the order a write flows through them
+	 */
+	public ServerInfo[] chooseTargets(String path, int replication, List<DataServerInfo> dataServers);
+}
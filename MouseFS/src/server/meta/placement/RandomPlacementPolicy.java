@@ -0,0 +1,22 @@
+package server.meta.placement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+
+/**
+ * Picks DataServers uniformly at random, whatever their load or free space.
+ */
+public class RandomPlacementPolicy implements BlockPlacementPolicy {
+
+	@Override
+	public ServerInfo[] chooseTargets(String path, int replication, List<DataServerInfo> dataServers) {
+		List<ServerInfo> candidates = new ArrayList<ServerInfo>(dataServers);
+		Collections.shuffle(candidates);
+		int count = Math.max(0, Math.min(replication, candidates.size()));
+		return candidates.subList(0, count).toArray(new ServerInfo[count]);
+	}
+}
@@ -0,0 +1,79 @@
+package server.meta.placement;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+
+/**
+ * Picks DataServers at random, weighted by their share of the most free
+ * space any of them has and divided by the requests they have in flight.
+ * An idle, empty DataServer gets new files far more often than a busy or
+ * nearly full one, but every DataServer keeps at least MIN_WEIGHT so a burst
+ * of creates between two reports does not all land on the same one.
+ *
+ * DataServers with less than the reserved free space are only picked when
+ * there are not enough others.
+ */
+public class WeightedPlacementPolicy implements BlockPlacementPolicy {
+	public static final long DEFAULT_RESERVED_SPACE = 256L*1024*1024;
+	private static final double MIN_WEIGHT = 0.05;
+
+	private final long RESERVED_SPACE;
+	private final Random RANDOM;
+
+	public WeightedPlacementPolicy() {
+		this(DEFAULT_RESERVED_SPACE, new Random());
+	}
+
+	public WeightedPlacementPolicy(long reservedSpace, Random random) {
+		this.RESERVED_SPACE = reservedSpace;
+		this.RANDOM = random;
+	}
+
+	@Override
+	public ServerInfo[] chooseTargets(String path, int replication, List<DataServerInfo> dataServers) {
+		final DataServerInfo[] candidates = dataServers.toArray(new DataServerInfo[dataServers.size()]);
+		int count = Math.max(0, Math.min(replication, candidates.length));
+
+		long maxFree = 0;
+		for(DataServerInfo candidate : candidates) {
+			maxFree = Math.max(maxFree, candidate.getFreeSpace());
+		}
+
+		//a weighted sample without replacement: the count largest keys u^(1/weight) (Efraimidis-Spirakis)
+		final double[] keys = new double[candidates.length];
+		Integer[] order = new Integer[candidates.length];
+		for(int i = 0; i < candidates.length; i++) {
+			keys[i] = Math.pow(RANDOM.nextDouble(), 1.0 / weight(candidates[i], maxFree));
+			if(maxFree > 0 && candidates[i].getFreeSpace() < RESERVED_SPACE) {
+				//keys are at most 1, so these rank after every DataServer with room
+				keys[i] -= 1.0;
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(keys[b], keys[a]);
+			}
+		});
+
+		ServerInfo[] targets = new ServerInfo[count];
+		for(int i = 0; i < count; i++) {
+			targets[i] = candidates[order[i]];
+		}
+		return targets;
+	}
+
+	/* 1 FOR THE IDLE DATASERVER WITH THE MOST ROOM -- NEVER LESS THAN MIN_WEIGHT! */
+	static double weight(DataServerInfo dataServer, long maxFree) {
+		//no DataServer has reported its free space yet; go by load alone
+		double space = maxFree > 0 ? (double) dataServer.getFreeSpace() / maxFree : 1.0;
+		double load = 1.0 / (1 + Math.max(0, dataServer.getInFlight()));
+		return Math.max(MIN_WEIGHT, space * load);
+	}
+}
@@ -1,97 +1,150 @@
-package server.meta.util;
-
-import java.io.Serializable;
-
-import server.info.ServerInfo;
-
-/**
- * THIS CLASS REPRESENTS ONE BLOCK FOR A SPECIFIED FILENAME.
- * THIS "BLOCK" CAN EXIST IN MULTIPLE DATASERVERS THEREFORE
- * THE SERVERINFOS PER BLOCK ARE STORED
- * @author Plamen Jeliazkov
- *
- */
-public class Metadata implements Serializable {
-	/**
-	 * 
-	 */
-	public static final long serialVersionUID = 4195491722922744420L;
-	private String filename;
-	private String date_created;
-	private String date_modified;
-	private String permissions;
-	private String owner;
-	private int blockCount;
-	
-	//contains information regarding the server this file is stored on
-	private ServerInfo[] dataServer;
-	
-	public Metadata(String filename, String date_created, String date_modified, 
-			String permissions, String owner, ServerInfo[] dataServer) {
-		this.setFilename(filename);
-		this.setPermissions(permissions);
-		this.setDate_created(date_created);
-		this.setDate_modified(date_modified);
-		this.setOwner(owner);
-		this.setBlockCount(0);
-		this.setDataServer(dataServer);
-	}
-	
-	public String getFilename() {
-		return filename;
-	}
-	private void setFilename(String filename) {
-		this.filename = filename;
-	}
-	public String getDate_created() {
-		return date_created;
-	}
-	private void setDate_created(String date_created) {
-		this.date_created = date_created;
-	}
-	public String getDate_modified() {
-		return date_modified;
-	}
-	private void setDate_modified(String date_modified) {
-		this.date_modified = date_modified;
-	}
-	public String getPermissions() {
-		return permissions;
-	}
-	private void setPermissions(String permissions) {
-		this.permissions = permissions;
-	}
-	public String getOwner() {
-		return owner;
-	}
-	private void setOwner(String owner) {
-		this.owner = owner;
-	}
-	public String toString() {
-		return filename;
-	}
-
-	int getBlockCount() {
-		return blockCount;
-	}
-
-	void setBlockCount(int blockCount) {
-		this.blockCount = blockCount;
-	}
-	
-	@Override
-	public boolean equals(Object obj) {
-		if(getFilename().equals(obj.toString())) {
-			return true;
-		}
-		return false;
-	}
-
-	public ServerInfo[] getDataServer() {
-		return dataServer;
-	}
-
-	public void setDataServer(ServerInfo[] dataServer) {
-		this.dataServer = dataServer;
-	}
-}
+package server.meta.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import server.info.ServerInfo;
+
+/**
+ * THIS CLASS REPRESENTS ONE BLOCK FOR A SPECIFIED FILENAME.
+ * THIS "BLOCK" CAN EXIST IN MULTIPLE DATASERVERS THEREFORE
+ * THE SERVERINFOS PER BLOCK ARE STORED
+ *
+ * A Metadata is a value: directories keep their files in a compact layout
+ * of their own and hand out a new Metadata on every lookup.
+ * @author Plamen Jeliazkov
+ *
+ */
+public class Metadata implements Serializable {
+	/**
+	 *
+	 */
+	public static final long serialVersionUID = 4195491722922744420L;
+
+	/* PERMISSION BITS */
+	public static final short READ = 4;
+	public static final short WRITE = 2;
+	public static final short EXECUTE = 1;
+
+	//Metadata as journals written before the image serialized it: dates and permissions as text
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("filename", String.class),
+		new ObjectStreamField("date_created", String.class),
+		new ObjectStreamField("date_modified", String.class),
+		new ObjectStreamField("permissions", String.class),
+		new ObjectStreamField("owner", String.class),
+		new ObjectStreamField("blockCount", Integer.TYPE),
+		new ObjectStreamField("dataServer", ServerInfo[].class)
+	};
+	//how Date.toString() spelled the dates
+	private static final String DATE_FORMAT = "EEE MMM dd HH:mm:ss zzz yyyy";
+
+	private String filename;
+	//milliseconds since the epoch
+	private long created;
+	private long modified;
+	private short permissions;
+	private String owner;
+
+	//contains information regarding the server this file is stored on
+	private ServerInfo[] dataServer;
+
+	public Metadata(String filename, long created, long modified,
+			short permissions, String owner, ServerInfo[] dataServer) {
+		this.filename = filename;
+		this.created = created;
+		this.modified = modified;
+		this.permissions = permissions;
+		this.owner = owner;
+		this.dataServer = dataServer;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+	public long getCreated() {
+		return created;
+	}
+	public long getModified() {
+		return modified;
+	}
+	/** @return READ, WRITE and EXECUTE bits */
+	public short getPermissions() {
+		return permissions;
+	}
+	public String getOwner() {
+		return owner;
+	}
+	public String toString() {
+		return filename;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(getFilename().equals(obj.toString())) {
+			return true;
+		}
+		return false;
+	}
+
+	public ServerInfo[] getDataServer() {
+		return dataServer;
+	}
+
+	/** @return the bits of "R", "W" and "X" in permissions, which is how they used to be written */
+	public static short parsePermissions(String permissions) {
+		short bits = 0;
+		for(int i = 0; i < permissions.length(); i++) {
+			switch(permissions.charAt(i)) {
+			case 'R': bits |= READ; break;
+			case 'W': bits |= WRITE; break;
+			case 'X': bits |= EXECUTE; break;
+			default:
+				throw new IllegalArgumentException("Unknown permission '"+permissions.charAt(i)+"' in "+permissions+".");
+			}
+		}
+		return bits;
+	}
+
+	public static String formatPermissions(short permissions) {
+		return ((permissions & READ) != 0 ? "R" : "")+((permissions & WRITE) != 0 ? "W" : "")+((permissions & EXECUTE) != 0 ? "X" : "");
+	}
+
+	/** @return a date the way Date.toString() wrote it, in milliseconds since the epoch, or 0 if it is not one */
+	public static long parseDate(String date) {
+		try {
+			return new SimpleDateFormat(DATE_FORMAT, Locale.US).parse(date).getTime();
+		} catch (ParseException e) {
+			return 0;
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		filename = (String) fields.get("filename", null);
+		created = parseDate((String) fields.get("date_created", ""));
+		modified = parseDate((String) fields.get("date_modified", ""));
+		permissions = parsePermissions((String) fields.get("permissions", ""));
+		owner = (String) fields.get("owner", null);
+		dataServer = (ServerInfo[]) fields.get("dataServer", null);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("filename", filename);
+		fields.put("date_created", new SimpleDateFormat(DATE_FORMAT, Locale.US).format(new Date(created)));
+		fields.put("date_modified", new SimpleDateFormat(DATE_FORMAT, Locale.US).format(new Date(modified)));
+		fields.put("permissions", formatPermissions(permissions));
+		fields.put("owner", owner);
+		fields.put("blockCount", 0);
+		fields.put("dataServer", dataServer);
+		out.writeFields();
+	}
+}
@@ -1,50 +1,162 @@
-package server.meta.util;
-
-public class Metapath {
-	private String path;
-	
-	public Metapath(String path) {
-		this.path = path;
-	}
-	
-	public Metapath getParent() {
-		String[] nodes = path.split("/");
-		
-		if(nodes.length <= 1) {
-			return null;
-		}
-		
-		String parentPath = "";
-		for(int i = 0; i < nodes.length-1; i++) {
-			if(i == nodes.length-2) {
-				parentPath += nodes[i];
-			} else {
-				parentPath += nodes[i] + "/";
-			}
-		}
-		
-		return new Metapath(parentPath);
-	}
-	
-	public Metapath getEnd() {
-		String[] nodes = path.split("/");
-		
-		if(nodes.length <= 1) {
-			return null;
-		}
-		
-		return new Metapath(nodes[nodes.length-1]);
-	}
-	
-	public String toString() {
-		return path;
-	}
-	
-	@Override
-	public boolean equals(Object obj) {
-		if(path.equals(obj.toString())) {
-			return true;
-		}
-		return false;
-	}
-}
+package server.meta.util;
+
+/**
+ * A '/' separated path, split into its directory and file names once, when
+ * it is created. Parents and ends are views over the same string and the
+ * same name offsets, so taking them costs O(1) and never copies the path;
+ * only toString() and getName() cut a String out of it.
+ *
+ * Names are what String.split("/") would return: "a//b" has an empty name
+ * in the middle, and "" and "/" have none.
+ */
+public class Metapath {
+	private static final int[] NO_SLASHES = new int[0];
+
+	private final String path;
+	//where the '/' after every name but the last one of the whole path is
+	private final int[] slashes;
+	//this view is names [first, last) of path
+	private final int first;
+	private final int last;
+	private String string = null;
+
+	public Metapath(String path) {
+		this.path = path;
+		int count = 0;
+		for(int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i+1)) {
+			count++;
+		}
+		int[] slashes = count == 0 ? NO_SLASHES : new int[count];
+		count = 0;
+		for(int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i+1)) {
+			slashes[count++] = i;
+		}
+		this.slashes = slashes;
+		this.first = 0;
+
+		//like split, trailing empty names do not count
+		int last = slashes.length+1;
+		while(last > 0 && start(last-1) == end(last-1)) {
+			last--;
+		}
+		this.last = last;
+		//printed the way it was given, trailing '/' and all
+		this.string = path;
+	}
+
+	private Metapath(String path, int[] slashes, int first, int last) {
+		this.path = path;
+		this.slashes = slashes;
+		this.first = first;
+		this.last = last;
+	}
+
+	/* WHERE NAME i OF THE WHOLE PATH STARTS AND ENDS */
+	private int start(int i) {
+		return i == 0 ? 0 : slashes[i-1]+1;
+	}
+
+	private int end(int i) {
+		return i == slashes.length ? path.length() : slashes[i];
+	}
+
+	/** @return everything but the last name, or null if there is at most one */
+	public Metapath getParent() {
+		if(getDepth() <= 1) {
+			return null;
+		}
+		return new Metapath(path, slashes, first, last-1);
+	}
+
+	/** @return the last name alone, or null if there is at most one */
+	public Metapath getEnd() {
+		if(getDepth() <= 1) {
+			return null;
+		}
+		return new Metapath(path, slashes, last-1, last);
+	}
+
+	/** @return how many names this path has */
+	public int getDepth() {
+		return last-first;
+	}
+
+	/** @return name i of this path, top-most first */
+	public String getName(int i) {
+		if(i < 0 || i >= getDepth()) {
+			throw new IndexOutOfBoundsException("Name "+i+" of "+getDepth()+" in "+this);
+		}
+		return path.substring(start(first+i), end(first+i));
+	}
+
+	/**
+	 * @return the directory and file names along this path, top-most first.
+	 */
+	public String[] getNames() {
+		String[] names = new String[getDepth()];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = getName(i);
+		}
+		return names;
+	}
+
+	/**
+	 * Compares whole names only: "a/b" starts with "a" but not with "a/b/c"
+	 * or "a/bc" with "a/b".
+	 * @return true if the first names of this path are the names of prefix
+	 */
+	public boolean startsWith(Metapath prefix) {
+		if(prefix.getDepth() > getDepth()) {
+			return false;
+		}
+		for(int i = 0; i < prefix.getDepth(); i++) {
+			if(!nameEquals(i, prefix, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean nameEquals(int i, Metapath other, int j) {
+		int start = start(first+i);
+		int length = end(first+i)-start;
+		int otherStart = other.start(other.first+j);
+		return length == other.end(other.first+j)-otherStart && path.regionMatches(start, other.path, otherStart, length);
+	}
+
+	/* THE CHARACTERS OF THIS VIEW IN path */
+	private int from() {
+		return getDepth() == 0 ? 0 : start(first);
+	}
+
+	private int to() {
+		return getDepth() == 0 ? 0 : end(last-1);
+	}
+
+	public String toString() {
+		if(string == null) {
+			string = path.substring(from(), to());
+		}
+		return string;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj == this) {
+			return true;
+		}
+		if(obj == null) {
+			return false;
+		}
+		String other = obj instanceof String ? (String) obj : obj.toString();
+		if(string != null) {
+			return string.equals(other);
+		}
+		return other.length() == to()-from() && path.regionMatches(from(), other, 0, other.length());
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+}
@@ -0,0 +1,65 @@
+package server.meta.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values that many files share -- owners, DataServers, the sets of
+ * DataServers a file is placed on -- stored once each and referred to by a
+ * small int. Ids are handed out in order and never reused, so a table is as
+ * big as the number of different values, not the number of files.
+ *
+ * Safe to use from many threads at once; looking up a key that already has
+ * an id takes no lock.
+ */
+public class SymbolTable<K, V> {
+	private final ConcurrentHashMap<K, Integer> IDS = new ConcurrentHashMap<K, Integer>();
+	private volatile AtomicReferenceArray<V> VALUES = new AtomicReferenceArray<V>(16);
+	private int SIZE = 0;
+
+	/** @return the id of key, giving it one that stands for value if it has none yet */
+	public int intern(K key, V value) {
+		Integer id = IDS.get(key);
+		if(id != null) {
+			return id;
+		}
+		return add(key, value, false);
+	}
+
+	/** Like intern, but the id of key stands for value from now on, even if key had one already. */
+	public int put(K key, V value) {
+		Integer id = IDS.get(key);
+		if(id != null && VALUES.get(id) == value) {
+			return id;
+		}
+		return add(key, value, true);
+	}
+
+	public V get(int id) {
+		return VALUES.get(id);
+	}
+
+	public synchronized int size() {
+		return SIZE;
+	}
+
+	private synchronized int add(K key, V value, boolean replace) {
+		Integer id = IDS.get(key);
+		if(id != null) {
+			if(replace) {
+				VALUES.set(id, value);
+			}
+			return id;
+		}
+		if(SIZE == VALUES.length()) {
+			AtomicReferenceArray<V> grown = new AtomicReferenceArray<V>(SIZE*2);
+			for(int i = 0; i < SIZE; i++) {
+				grown.set(i, VALUES.get(i));
+			}
+			VALUES = grown;
+		}
+		VALUES.set(SIZE, value);
+		IDS.put(key, SIZE);
+		return SIZE++;
+	}
+}
@@ -0,0 +1,34 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count many threads add to at once. Every thread adds into one of
+ * STRIPES slots picked by its id, each on a cache line of its own, so
+ * threads on different cores rarely touch the same slot; get() adds the
+ * slots up.
+ */
+public class Counter {
+	private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()*2-1))*2;
+	//8 longs = 64 bytes between two slots
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray SLOTS = new AtomicLongArray(STRIPES*PADDING);
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long value) {
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES-1));
+		SLOTS.addAndGet(stripe*PADDING, value);
+	}
+
+	public long get() {
+		long sum = 0;
+		for(int stripe = 0; stripe < STRIPES; stripe++) {
+			sum += SLOTS.get(stripe*PADDING);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,100 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values (latencies in microseconds, sizes in bytes) into log-linear
+ * buckets the way an HDR histogram does: every power of two is split into
+ * SUB_BUCKETS/2 equal buckets, so a percentile is never off by more than
+ * about 3% of its value, whatever its magnitude. Recording is one atomic
+ * add and never takes a lock or allocates.
+ */
+public class Histogram {
+	//values below SUB_BUCKETS get a bucket each
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+	private final AtomicLongArray COUNTS = new AtomicLongArray(BUCKETS);
+	private final Counter COUNT = new Counter();
+	private final Counter SUM = new Counter();
+	private final AtomicLong MAX = new AtomicLong(0);
+
+	/** @param value negative values count as 0 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		COUNTS.incrementAndGet(bucket(value));
+		COUNT.increment();
+		SUM.add(value);
+		long max = MAX.get();
+		while(value > max && !MAX.compareAndSet(max, value)) {
+			max = MAX.get();
+		}
+	}
+
+	/** Records the microseconds since start, a System.nanoTime(). */
+	public void recordSince(long start) {
+		record((System.nanoTime() - start) / 1000);
+	}
+
+	static int bucket(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		//keep the top SUB_BUCKET_BITS bits; the first one is always set
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		int mantissa = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + (mantissa - HALF);
+	}
+
+	/* THE LARGEST VALUE THAT LANDS IN bucket */
+	static long highestValue(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+		long mantissa = (bucket - SUB_BUCKETS) % HALF + HALF;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	public long getCount() {
+		return COUNT.get();
+	}
+
+	public long getMax() {
+		return MAX.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) SUM.get() / count;
+	}
+
+	/**
+	 * @param percentile e.g. 99.9
+	 * @return the value percentile percent of the recorded values are at or below, or 0 if there are none
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] = COUNTS.get(i);
+			total += counts[i];
+		}
+		if(total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
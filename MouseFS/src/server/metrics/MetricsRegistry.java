@@ -0,0 +1,89 @@
+package server.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The counters, histograms and gauges of one server, by name. Looking one
+ * up never takes a lock once it exists, so callers can look them up on
+ * every request instead of keeping references around.
+ *
+ * Names are dotted, lowest level last: "op.create", "bytes.written".
+ * Latencies are in microseconds.
+ */
+public class MetricsRegistry {
+	public interface Gauge {
+		long get();
+	}
+
+	private final ConcurrentHashMap<String, Counter> COUNTERS = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentHashMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, Gauge> GAUGES = new ConcurrentHashMap<String, Gauge>();
+
+	public Counter counter(String name) {
+		Counter counter = COUNTERS.get(name);
+		if(counter == null) {
+			Counter created = new Counter();
+			counter = COUNTERS.putIfAbsent(name, created);
+			if(counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = HISTOGRAMS.get(name);
+		if(histogram == null) {
+			Histogram created = new Histogram();
+			histogram = HISTOGRAMS.putIfAbsent(name, created);
+			if(histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return something to run when the operation that starts now is done; it records how long it took into histogram name
+	 */
+	public Runnable timer(String name) {
+		final Histogram histogram = histogram(name);
+		final long start = System.nanoTime();
+		return new Runnable() {
+			@Override
+			public void run() {
+				histogram.recordSince(start);
+			}
+		};
+	}
+
+	/** A value read only when the metrics are printed, e.g. a connection count. */
+	public void gauge(String name, Gauge gauge) {
+		GAUGES.put(name, gauge);
+	}
+
+	/**
+	 * One line per metric, sorted by name: counters and gauges with their
+	 * value, histograms with their count, percentiles and max.
+	 */
+	public void print(PrintWriter out) {
+		Map<String, String> lines = new TreeMap<String, String>();
+		for(Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+			lines.put(counter.getKey(), Long.toString(counter.getValue().get()));
+		}
+		for(Map.Entry<String, Gauge> gauge : GAUGES.entrySet()) {
+			lines.put(gauge.getKey(), Long.toString(gauge.getValue().get()));
+		}
+		for(Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+			Histogram histogram = entry.getValue();
+			lines.put(entry.getKey(), "count="+histogram.getCount()+" p50="+histogram.getPercentile(50)+" p99="+histogram.getPercentile(99)
+					+" p999="+histogram.getPercentile(99.9)+" max="+histogram.getMax());
+		}
+		for(Map.Entry<String, String> line : lines.entrySet()) {
+			out.println("  "+line.getKey()+"\t"+line.getValue());
+		}
+	}
+}
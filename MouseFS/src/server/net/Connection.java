@@ -0,0 +1,293 @@
+package server.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A non-blocking socket registered with an EventLoop. Reads are decoded into
+ * frames on the loop and handed to the worker pool; writes (buffers, or file
+ * regions sent with transferTo) are queued from any thread and flushed by the
+ * loop whenever the socket can take them.
+ */
+public class Connection {
+	private final Log LOG = LogFactory.getLog(Connection.class);
+	
+	//stop reading from a peer that is this many frames ahead of the workers
+	private static final int MAX_PENDING_FRAMES = 64;
+	private static final int READ_BUFFER_SIZE = 16*1024;
+	//queued behind the last frame so the handler hears about the close in order
+	private static final Object DISCONNECTED = new Object();
+	
+	private final SocketChannel CHANNEL;
+	private final SelectorServer SERVER;
+	private final EventLoop LOOP;
+	private final Executor WORKERS;
+	private ConnectionHandler HANDLER = null;
+	private SelectionKey KEY = null;
+	
+	private ByteBuffer READ_BUFFER = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	//ByteBuffers and FileRegions, in the order they go out
+	private final ConcurrentLinkedQueue<Object> WRITES = new ConcurrentLinkedQueue<Object>();
+	//held while queueing, so a header and the region it announces go out with nothing in between
+	private final Object SEND_LOCK = new Object();
+	private final ConcurrentLinkedQueue<Object> FRAMES = new ConcurrentLinkedQueue<Object>();
+	private final AtomicInteger PENDING = new AtomicInteger(0);
+	private final AtomicBoolean SCHEDULED = new AtomicBoolean(false);
+	private final AtomicBoolean CLOSED = new AtomicBoolean(false);
+	private volatile boolean CLOSING = false;
+	private boolean READ_PAUSED = false;
+	
+	private final Runnable DRAIN = new Runnable() {
+		@Override
+		public void run() {
+			drainFrames();
+		}
+	};
+	
+	private final Runnable FLUSH = new Runnable() {
+		@Override
+		public void run() {
+			onWritable();
+		}
+	};
+	
+	Connection(SocketChannel channel, SelectorServer server, EventLoop loop, Executor workers) {
+		this.CHANNEL = channel;
+		this.SERVER = server;
+		this.LOOP = loop;
+		this.WORKERS = workers;
+	}
+	
+	/** Registers with the loop; must run on the loop. */
+	void register(ConnectionHandler handler) throws ClosedChannelException {
+		HANDLER = handler;
+		KEY = CHANNEL.register(LOOP.getSelector(), SelectionKey.OP_READ, this);
+		HANDLER.connected();
+	}
+	
+	public SocketAddress getRemoteAddress() {
+		return CHANNEL.socket().getRemoteSocketAddress();
+	}
+	
+	public boolean isOpen() {
+		return !CLOSED.get();
+	}
+	
+	/**
+	 * Queues data to be written; never blocks. Safe to call from any thread.
+	 */
+	public void send(byte[] data) {
+		send(ByteBuffer.wrap(data));
+	}
+	
+	public void send(ByteBuffer data) {
+		if(CLOSED.get()) {
+			return;
+		}
+		synchronized(SEND_LOCK) {
+			WRITES.add(data);
+		}
+		LOOP.execute(FLUSH);
+	}
+	
+	/**
+	 * Queues a file range to be written straight from the file to the socket.
+	 */
+	public void send(FileRegion region) {
+		send(null, region);
+	}
+	
+	/**
+	 * Queues header with the file range it announces (e.g. a DATA frame and
+	 * its bytes) right behind it; nothing sent from other threads can come
+	 * between the two.
+	 * @param header may be null
+	 */
+	public void send(ByteBuffer header, FileRegion region) {
+		synchronized(SEND_LOCK) {
+			if(header != null) {
+				WRITES.add(header);
+			}
+			WRITES.add(region);
+		}
+		if(CLOSED.get()) {
+			//closeNow() may have cleared the queue already; make sure it is released once
+			if(WRITES.remove(region)) {
+				region.release();
+			}
+			return;
+		}
+		LOOP.execute(FLUSH);
+	}
+	
+	/**
+	 * Closes the connection once everything queued so far has been written.
+	 */
+	public void close() {
+		CLOSING = true;
+		LOOP.execute(FLUSH);
+	}
+	
+	void onReadable() {
+		int read;
+		try {
+			if(!READ_BUFFER.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(READ_BUFFER.capacity()*2);
+				READ_BUFFER.flip();
+				bigger.put(READ_BUFFER);
+				READ_BUFFER = bigger;
+			}
+			read = CHANNEL.read(READ_BUFFER);
+		} catch (IOException e) {
+			LOG.info("Connection to "+getRemoteAddress()+" failed: "+e.getMessage());
+			closeNow();
+			return;
+		}
+		
+		if(read == -1) {
+			closeNow();
+			return;
+		}
+		
+		READ_BUFFER.flip();
+		try {
+			Object frame;
+			while(READ_BUFFER.hasRemaining() && (frame = HANDLER.decode(READ_BUFFER)) != null) {
+				FRAMES.add(frame);
+				PENDING.incrementAndGet();
+			}
+		} catch (IOException e) {
+			LOG.error("FATAL: Could not decode a frame from "+getRemoteAddress()+".",e);
+			READ_BUFFER.clear();
+			closeNow();
+			return;
+		}
+		READ_BUFFER.compact();
+		
+		if(PENDING.get() >= MAX_PENDING_FRAMES) {
+			READ_PAUSED = true;
+			KEY.interestOps(KEY.interestOps() & ~SelectionKey.OP_READ);
+		}
+		schedule();
+	}
+	
+	void onWritable() {
+		if(CLOSED.get()) {
+			return;
+		}
+		try {
+			Object write;
+			while((write = WRITES.peek()) != null) {
+				boolean done;
+				if(write instanceof FileRegion) {
+					FileRegion region = (FileRegion) write;
+					region.transferTo(CHANNEL);
+					done = !region.hasRemaining();
+					if(done) {
+						region.release();
+					}
+				} else {
+					ByteBuffer buffer = (ByteBuffer) write;
+					CHANNEL.write(buffer);
+					done = !buffer.hasRemaining();
+				}
+				if(!done) {
+					//socket is full; wait until the selector says it drained
+					KEY.interestOps(KEY.interestOps() | SelectionKey.OP_WRITE);
+					return;
+				}
+				WRITES.poll();
+			}
+		} catch (IOException e) {
+			LOG.info("Connection to "+getRemoteAddress()+" failed: "+e.getMessage());
+			closeNow();
+			return;
+		}
+		
+		KEY.interestOps(KEY.interestOps() & ~SelectionKey.OP_WRITE);
+		if(CLOSING) {
+			closeNow();
+		}
+	}
+	
+	private void schedule() {
+		if(!FRAMES.isEmpty() && SCHEDULED.compareAndSet(false, true)) {
+			try {
+				WORKERS.execute(DRAIN);
+			} catch (RejectedExecutionException e) {
+				SCHEDULED.set(false);
+				FRAMES.clear();
+				LOG.error("FATAL: Worker pool rejected frames from "+getRemoteAddress()+"; closing it.");
+				closeNow();
+			}
+		}
+	}
+	
+	/** Runs on a worker; only one drain per connection runs at a time. */
+	private void drainFrames() {
+		Object frame;
+		while((frame = FRAMES.poll()) != null) {
+			try {
+				if(frame == DISCONNECTED) {
+					HANDLER.disconnected();
+				} else {
+					HANDLER.handle(frame);
+				}
+			} catch (RuntimeException e) {
+				LOG.error("FATAL: Handler failed on a frame from "+getRemoteAddress()+".",e);
+			}
+			PENDING.decrementAndGet();
+		}
+		SCHEDULED.set(false);
+		
+		LOOP.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(READ_PAUSED && KEY.isValid() && PENDING.get() < MAX_PENDING_FRAMES) {
+					READ_PAUSED = false;
+					KEY.interestOps(KEY.interestOps() | SelectionKey.OP_READ);
+				}
+				//frames may have arrived between the last poll and clearing the flag
+				schedule();
+			}
+		});
+	}
+	
+	private void closeNow() {
+		if(!CLOSED.compareAndSet(false, true)) {
+			return;
+		}
+		if(KEY != null) {
+			KEY.cancel();
+		}
+		try {
+			CHANNEL.close();
+		} catch (IOException e) {
+			LOG.error("Could not close the connection to "+getRemoteAddress()+".",e);
+		}
+		Object write;
+		while((write = WRITES.poll()) != null) {
+			if(write instanceof FileRegion) {
+				((FileRegion) write).release();
+			}
+		}
+		SERVER.connectionClosed();
+		
+		if(HANDLER != null) {
+			FRAMES.add(DISCONNECTED);
+			schedule();
+		}
+	}
+}
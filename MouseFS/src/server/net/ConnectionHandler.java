@@ -0,0 +1,35 @@
+package server.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The protocol spoken on one Connection. The SelectorServer creates one
+ * handler per connection through a ConnectionHandlerFactory.
+ */
+public interface ConnectionHandler {
+	
+	/**
+	 * Called on the event loop right after the connection was registered.
+	 */
+	void connected();
+	
+	/**
+	 * Called on the event loop whenever bytes arrived; must not block.
+	 * @param in the bytes read so far, positioned at the first unconsumed byte
+	 * @return one complete frame (consuming its bytes), or null if in does not hold one yet
+	 */
+	Object decode(ByteBuffer in) throws IOException;
+	
+	/**
+	 * Called on a worker thread for every decoded frame. Frames of one
+	 * connection are handled one at a time and in the order they arrived;
+	 * a handler may pass them on to run side by side.
+	 */
+	void handle(Object frame);
+	
+	/**
+	 * Called once after the connection was closed by either side.
+	 */
+	void disconnected();
+}
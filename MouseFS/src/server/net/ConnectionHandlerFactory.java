@@ -0,0 +1,5 @@
+package server.net;
+
+public interface ConnectionHandlerFactory {
+	ConnectionHandler newHandler(Connection connection);
+}
@@ -0,0 +1,158 @@
+package server.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import server.info.ServerInfo;
+
+/**
+ * One pooled connection to a DataServer. Requests carry an id and replies
+ * are matched back to their Listener by it, so any number of requests can
+ * be outstanding at once.
+ * 
+ * The channel exists before its connection does: requests sent while the
+ * connect is still running wait here and go out once it is up.
+ */
+class DataServerChannel implements ConnectionHandler, SelectorServer.ConnectListener {
+	private final Log LOG = LogFactory.getLog(DataServerChannel.class);
+	
+	private final ServerInfo DATASERVER;
+	private Connection CONNECTION = null;
+	//requests sent before the connection was up; null once it is
+	private ArrayList<ByteBuffer> WAITING = new ArrayList<ByteBuffer>();
+	private final ConcurrentHashMap<Long, DataServerPool.Listener> PENDING = new ConcurrentHashMap<Long, DataServerPool.Listener>();
+	private volatile boolean OPEN = true;
+	private boolean HELLO_RECEIVED = false;
+	
+	DataServerChannel(ServerInfo dataServer) {
+		this.DATASERVER = dataServer;
+	}
+	
+	void send(long id, ByteBuffer request, DataServerPool.Listener listener) {
+		PENDING.put(id, listener);
+		if(!OPEN) {
+			//lost the race with disconnected(); nobody else will answer it
+			if(PENDING.remove(id) != null) {
+				listener.onFailure("Lost the connection to DataServer "+DATASERVER+".");
+			}
+			return;
+		}
+		synchronized(this) {
+			if(WAITING != null) {
+				WAITING.add(request);
+				return;
+			}
+		}
+		CONNECTION.send(request);
+	}
+	
+	/** @return false once the connection failed or closed; true while it is still being made */
+	synchronized boolean isOpen() {
+		return OPEN && (CONNECTION == null || CONNECTION.isOpen());
+	}
+	
+	@Override
+	public synchronized ConnectionHandler newHandler(Connection connection) {
+		CONNECTION = connection;
+		return this;
+	}
+	
+	@Override
+	public void connectFailed(IOException e) {
+		LOG.error("FATAL: Could not connect to DataServer "+DATASERVER+": "+e.getMessage());
+		fail("Issue connecting to DataServer "+DATASERVER+".");
+	}
+	
+	int getInFlight() {
+		return PENDING.size();
+	}
+
+	/* ON THE LOOP, ONCE THE CONNECTION CAN TAKE WRITES -- SEND WHAT PILED UP MEANWHILE! */
+	@Override
+	public void connected() {
+		ArrayList<ByteBuffer> waiting;
+		synchronized(this) {
+			waiting = WAITING;
+			WAITING = null;
+		}
+		for(ByteBuffer request : waiting) {
+			CONNECTION.send(request);
+		}
+		LOG.info("SUCCESS: Opened a pooled connection to DataServer "+DATASERVER+".");
+	}
+
+	@Override
+	public Object decode(ByteBuffer in) throws IOException {
+		return Frame.decode(in);
+	}
+
+	/* THE DATASERVER INTRODUCES ITSELF WITH HELLO -- EVERY FRAME AFTER IS PART OF A REPLY! */
+	@Override
+	public void handle(Object object) {
+		Frame frame = (Frame) object;
+		try {
+			if(!HELLO_RECEIVED) {
+				HELLO_RECEIVED = true;
+				if(frame.getOpcode() != Opcode.HELLO || frame.readServerInfo().getType() != ServerInfo.TYPES.DATA) {
+					LOG.error("FATAL: Did not connect to a DataServer!");
+					CONNECTION.close();
+				}
+				return;
+			}
+			
+			if(frame.getOpcode() == Opcode.END) {
+				DataServerPool.Listener listener = PENDING.remove(frame.getRequestId());
+				if(listener != null) {
+					listener.onComplete();
+				}
+				return;
+			}
+			
+			DataServerPool.Listener listener = PENDING.get(frame.getRequestId());
+			if(listener == null) {
+				LOG.error("FATAL: Received "+frame+" for no outstanding request.");
+			} else if(frame.getOpcode() == Opcode.LINE || frame.getOpcode() == Opcode.ERROR) {
+				listener.onLine(frame.readString());
+			} else if(frame.getOpcode() == Opcode.DATA) {
+				listener.onData(frame.readBytes());
+			} else if(frame.getOpcode() == Opcode.BLOCK) {
+				listener.onBlock(frame.readLong(), frame.readLong(), frame.readByte() != 0);
+			} else if(frame.getOpcode() == Opcode.INFO) {
+				listener.onInfo(frame.readServerInfo());
+			} else {
+				LOG.error("FATAL: Received unexpected "+frame+" from DataServer.");
+			}
+		} catch (IOException e) {
+			LOG.error("FATAL: Received a malformed "+frame+" from DataServer. Closing connection.",e);
+			CONNECTION.close();
+		}
+	}
+
+	@Override
+	public void disconnected() {
+		fail("Lost the connection to DataServer "+DATASERVER+".");
+		LOG.info("SUCCESS: Closed a pooled connection to DataServer "+DATASERVER+".");
+	}
+	
+	private void fail(String reason) {
+		OPEN = false;
+		synchronized(this) {
+			if(WAITING != null) {
+				WAITING.clear();
+			}
+		}
+		Iterator<Long> ids = PENDING.keySet().iterator();
+		while(ids.hasNext()) {
+			DataServerPool.Listener listener = PENDING.remove(ids.next());
+			if(listener != null) {
+				listener.onFailure(reason);
+			}
+		}
+	}
+}
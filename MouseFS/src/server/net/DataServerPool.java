@@ -0,0 +1,167 @@
+package server.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import server.info.ServerInfo;
+
+/**
+ * Keeps a few long-lived connections open to every DataServer and
+ * multiplexes requests over them, so a file operation costs one frame on
+ * an open connection instead of a TCP connect and a handshake.
+ * 
+ * Replies are delivered to a Listener on the pool's executor; nothing
+ * waits on a socket, not even for a connect. A lost connection fails its
+ * outstanding requests and is reopened by the next request to that
+ * DataServer.
+ */
+public class DataServerPool {
+	//ms a new connection may take before the requests waiting on it fail
+	public static final long CONNECT_TIMEOUT = 5000;
+	
+	public interface Listener {
+		/** Called for every line of the reply, in order. */
+		void onLine(String line);
+		/** Called for every chunk of data of the reply (HEAD, TAIL and READ), in order. */
+		void onData(byte[] data);
+		/** Called for every block the reply lists (the answer to BLOCKS), in file order. */
+		void onBlock(long id, long length, boolean saturated);
+		/** Called when the reply carries a ServerInfo (the answer to SYSINFO). */
+		void onInfo(ServerInfo info);
+		/** Called once the whole reply has arrived. */
+		void onComplete();
+		/** Called instead of onComplete if the request could not be answered. */
+		void onFailure(String reason);
+	}
+	
+	/** Tells the pool which DataServers are worth a connection. */
+	public interface Liveness {
+		boolean isLive(ServerInfo dataServer);
+	}
+	
+	private final SelectorServer ENGINE;
+	private final int CHANNELS_PER_SERVER;
+	private final ConcurrentHashMap<String, DataServerChannel[]> CHANNELS = new ConcurrentHashMap<String, DataServerChannel[]>();
+	private final AtomicLong NEXT_ID = new AtomicLong(0);
+	private final AtomicInteger NEXT_CHANNEL = new AtomicInteger(0);
+	private volatile Liveness LIVENESS = null;
+	
+	/**
+	 * @param name names the pool's threads
+	 * @param executor runs the listeners
+	 * @param channelsPerServer connections kept open to each DataServer
+	 */
+	public DataServerPool(String name, TaskExecutor executor, int channelsPerServer) throws IOException {
+		this.CHANNELS_PER_SERVER = Math.max(1, channelsPerServer);
+		this.ENGINE = new SelectorServer(name, 1, executor, null);
+		this.ENGINE.start();
+	}
+	
+	/**
+	 * Fails requests to DataServers that liveness does not report as live
+	 * right away, instead of connecting to them.
+	 */
+	public void setLiveness(Liveness liveness) {
+		this.LIVENESS = liveness;
+	}
+	
+	/**
+	 * Sends one request to a DataServer; the reply goes to listener.
+	 * @param path may be null for requests without one
+	 * @param data may be null for requests without data
+	 */
+	public void send(ServerInfo dataServer, Opcode opcode, String path, byte[] data, Listener listener) {
+		send(dataServer, opcode, path, data, null, listener);
+	}
+	
+	/**
+	 * Sends a WRITE or APPEND that dataServer passes on down chain.
+	 * @param chain the DataServers after dataServer, in order; may be null
+	 */
+	public void send(ServerInfo dataServer, Opcode opcode, String path, byte[] data, ServerInfo[] chain, Listener listener) {
+		Liveness liveness = LIVENESS;
+		if(liveness != null && !liveness.isLive(dataServer)) {
+			listener.onFailure("DataServer "+dataServer+" is not live.");
+			return;
+		}
+		DataServerChannel channel = getChannel(dataServer);
+		
+		long id = NEXT_ID.incrementAndGet();
+		FrameEncoder encoder = FrameEncoder.get().begin(opcode, id);
+		if(path != null) {
+			encoder.putString(path);
+		}
+		if(data != null) {
+			encoder.putBytes(data);
+		}
+		if(chain != null) {
+			encoder.putChain(chain);
+		}
+		channel.send(id, encoder.finish(), listener);
+	}
+	
+	private DataServerChannel getChannel(final ServerInfo dataServer) {
+		String key = dataServer.getAddress()+":"+dataServer.getPort();
+		DataServerChannel[] channels = CHANNELS.get(key);
+		if(channels == null) {
+			DataServerChannel[] created = new DataServerChannel[CHANNELS_PER_SERVER];
+			channels = CHANNELS.putIfAbsent(key, created);
+			if(channels == null) {
+				channels = created;
+			}
+		}
+		
+		int slot = Math.abs(NEXT_CHANNEL.getAndIncrement() % channels.length);
+		final DataServerChannel channel;
+		synchronized(channels) {
+			DataServerChannel open = channels[slot];
+			if(open != null && open.isOpen()) {
+				return open;
+			}
+			//requests queue on the new channel until the connect below is done
+			channel = new DataServerChannel(dataServer);
+			channels[slot] = channel;
+		}
+		//resolving the address may block too, so not even that happens on the caller
+		Runnable connect = new Runnable() {
+			@Override
+			public void run() {
+				ENGINE.connect(new InetSocketAddress(dataServer.getAddress(), dataServer.getPort()), CONNECT_TIMEOUT, channel);
+			}
+		};
+		try {
+			ENGINE.getWorkers().execute(connect);
+		} catch (RejectedExecutionException e) {
+			connect.run();
+		}
+		return channel;
+	}
+	
+	/** @return requests sent but not yet answered, over all connections */
+	public int getInFlight() {
+		int inFlight = 0;
+		for(DataServerChannel[] channels : CHANNELS.values()) {
+			synchronized(channels) {
+				for(DataServerChannel channel : channels) {
+					if(channel != null) {
+						inFlight += channel.getInFlight();
+					}
+				}
+			}
+		}
+		return inFlight;
+	}
+	
+	/** @return connections currently open to DataServers */
+	public int getConnectionCount() {
+		return ENGINE.getConnectionCount();
+	}
+	
+	public void shutdown() {
+		ENGINE.shutdown();
+	}
+}
@@ -0,0 +1,145 @@
+package server.net;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * One selector thread. Owns the SelectionKeys of its connections: interest
+ * changes from other threads are passed in as tasks so the selector is only
+ * ever touched from this thread.
+ */
+class EventLoop implements Runnable {
+	private final Log LOG = LogFactory.getLog(EventLoop.class);
+	
+	private final Selector SELECTOR;
+	private final ConcurrentLinkedQueue<Runnable> TASKS = new ConcurrentLinkedQueue<Runnable>();
+	//tasks waiting for their time, soonest first; only touched from this thread
+	private final PriorityQueue<Timer> TIMERS = new PriorityQueue<Timer>();
+	private final SelectorServer SERVER;
+	private Thread THREAD = null;
+	private volatile boolean SHUTDOWN = false;
+	
+	private static class Timer implements Comparable<Timer> {
+		private final long AT;
+		private final Runnable TASK;
+		
+		Timer(long at, Runnable task) {
+			this.AT = at;
+			this.TASK = task;
+		}
+		
+		@Override
+		public int compareTo(Timer other) {
+			return AT < other.AT ? -1 : (AT == other.AT ? 0 : 1);
+		}
+	}
+	
+	EventLoop(SelectorServer server) throws IOException {
+		this.SERVER = server;
+		this.SELECTOR = Selector.open();
+	}
+	
+	Selector getSelector() {
+		return SELECTOR;
+	}
+	
+	boolean inEventLoop() {
+		return Thread.currentThread() == THREAD;
+	}
+	
+	/** Runs task on this loop, right away if already on it. */
+	void execute(Runnable task) {
+		if(inEventLoop()) {
+			task.run();
+			return;
+		}
+		TASKS.add(task);
+		SELECTOR.wakeup();
+	}
+	
+	/** Runs task on this loop once delay ms have passed. */
+	void schedule(final Runnable task, long delay) {
+		final long at = System.currentTimeMillis()+delay;
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				TIMERS.add(new Timer(at, task));
+			}
+		});
+	}
+	
+	void shutdown() {
+		SHUTDOWN = true;
+		SELECTOR.wakeup();
+	}
+	
+	@Override
+	public void run() {
+		THREAD = Thread.currentThread();
+		while(!SHUTDOWN) {
+			try {
+				Timer next = TIMERS.peek();
+				long wait = next == null ? 0 : next.AT-System.currentTimeMillis();
+				if(next == null) {
+					SELECTOR.select();
+				} else if(wait > 0) {
+					SELECTOR.select(wait);
+				} else {
+					SELECTOR.selectNow();
+				}
+			} catch (IOException e) {
+				LOG.error("FATAL: Selector failed.",e);
+				return;
+			}
+			
+			Runnable task;
+			while((task = TASKS.poll()) != null) {
+				task.run();
+			}
+			long now = System.currentTimeMillis();
+			while(!TIMERS.isEmpty() && TIMERS.peek().AT <= now) {
+				TIMERS.poll().TASK.run();
+			}
+			
+			Iterator<SelectionKey> keys = SELECTOR.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) {
+					continue;
+				}
+				
+				if(key.isAcceptable()) {
+					SERVER.accept();
+					continue;
+				}
+				if(key.isConnectable()) {
+					//an outgoing connect in progress carries its own completion
+					((Runnable) key.attachment()).run();
+					continue;
+				}
+				
+				Connection connection = (Connection) key.attachment();
+				if(key.isReadable()) {
+					connection.onReadable();
+				}
+				if(key.isValid() && key.isWritable()) {
+					connection.onWritable();
+				}
+			}
+		}
+		
+		try {
+			SELECTOR.close();
+		} catch (IOException e) {
+			LOG.error("Could not close the selector.",e);
+		}
+	}
+}
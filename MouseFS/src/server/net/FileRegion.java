@@ -0,0 +1,58 @@
+package server.net;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A range of a file queued on a Connection. The loop hands it to the socket
+ * with FileChannel.transferTo, so the bytes go from the page cache to the
+ * socket without ever being copied onto the Java heap.
+ */
+public class FileRegion {
+	private static final Log LOG = LogFactory.getLog(FileRegion.class);
+
+	private final FileChannel FILE;
+	private long POSITION;
+	private final long END;
+	private final boolean CLOSE_WHEN_DONE;
+
+	/**
+	 * @param closeWhenDone close file once this region is sent (or dropped); the last region of a file owns it
+	 */
+	public FileRegion(FileChannel file, long position, long count, boolean closeWhenDone) {
+		this.FILE = file;
+		this.POSITION = position;
+		this.END = position+count;
+		this.CLOSE_WHEN_DONE = closeWhenDone;
+	}
+
+	boolean hasRemaining() {
+		return POSITION < END;
+	}
+
+	/** Sends as much as target takes right now. */
+	long transferTo(WritableByteChannel target) throws IOException {
+		long sent = FILE.transferTo(POSITION, END-POSITION, target);
+		if(sent == 0 && POSITION >= FILE.size()) {
+			//the frame header already promised these bytes; the peer cannot recover
+			throw new IOException("File shrank while it was being sent.");
+		}
+		POSITION += sent;
+		return sent;
+	}
+
+	void release() {
+		if(!CLOSE_WHEN_DONE) {
+			return;
+		}
+		try {
+			FILE.close();
+		} catch (IOException e) {
+			LOG.error("Could not close a file region.",e);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package server.net;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+
+/**
+ * One decoded message. On the wire a frame is
+ * <pre>
+ * [int length][byte version][byte opcode][long request id][payload]
+ * </pre>
+ * where length counts every byte after itself. Payload fields are ints and
+ * longs (big-endian), strings as [int length][UTF-8 bytes], and byte arrays
+ * as [int length][bytes], so a string or data may hold anything, newlines
+ * included.
+ * 
+ * Fields are read back in the order they were written (see Opcode).
+ */
+public final class Frame {
+	public static final byte VERSION = 1;
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	//version, opcode and request id
+	static final int HEADER_SIZE = 1+1+8;
+	public static final int MAX_LENGTH = 64*1024*1024;
+	
+	private final Opcode OPCODE;
+	private final long REQUEST_ID;
+	private final byte[] PAYLOAD;
+	private int POSITION = 0;
+	
+	Frame(Opcode opcode, long requestId, byte[] payload) {
+		this.OPCODE = opcode;
+		this.REQUEST_ID = requestId;
+		this.PAYLOAD = payload;
+	}
+	
+	/**
+	 * Decodes the next frame of in, which is left positioned after it.
+	 * @return the frame, or null if in does not hold all of it yet
+	 * @throws IOException if the bytes are not a frame of this protocol version
+	 */
+	public static Frame decode(ByteBuffer in) throws IOException {
+		if(in.remaining() < 4) {
+			return null;
+		}
+		int length = in.getInt(in.position());
+		checkLength(length);
+		if(in.remaining() < 4+length) {
+			return null;
+		}
+		
+		in.getInt();
+		checkVersion(in.get());
+		Opcode opcode = checkOpcode(in.get());
+		long requestId = in.getLong();
+		byte[] payload = new byte[length-HEADER_SIZE];
+		in.get(payload);
+		return new Frame(opcode, requestId, payload);
+	}
+	
+	/**
+	 * Reads one frame from a blocking stream.
+	 * @return the frame, or null if the stream ended before one started
+	 */
+	public static Frame read(DataInputStream in) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		checkLength(length);
+		checkVersion(in.readByte());
+		Opcode opcode = checkOpcode(in.readByte());
+		long requestId = in.readLong();
+		byte[] payload = new byte[length-HEADER_SIZE];
+		in.readFully(payload);
+		return new Frame(opcode, requestId, payload);
+	}
+	
+	private static void checkLength(int length) throws IOException {
+		if(length < HEADER_SIZE || length > MAX_LENGTH) {
+			throw new IOException("Received a frame of "+length+" bytes; not a frame of this protocol?");
+		}
+	}
+	
+	private static void checkVersion(byte version) throws IOException {
+		if(version != VERSION) {
+			throw new IOException("Received protocol version "+version+" but only version "+VERSION+" is spoken.");
+		}
+	}
+	
+	private static Opcode checkOpcode(byte code) throws IOException {
+		Opcode opcode = Opcode.fromCode(code);
+		if(opcode == null) {
+			throw new IOException("Received unknown opcode "+code+".");
+		}
+		return opcode;
+	}
+	
+	public Opcode getOpcode() {
+		return OPCODE;
+	}
+	
+	public long getRequestId() {
+		return REQUEST_ID;
+	}
+	
+	public boolean hasRemaining() {
+		return POSITION < PAYLOAD.length;
+	}
+	
+	public byte readByte() throws IOException {
+		require(1);
+		return PAYLOAD[POSITION++];
+	}
+	
+	public int readInt() throws IOException {
+		require(4);
+		int value = ((PAYLOAD[POSITION] & 0xFF) << 24) | ((PAYLOAD[POSITION+1] & 0xFF) << 16)
+				| ((PAYLOAD[POSITION+2] & 0xFF) << 8) | (PAYLOAD[POSITION+3] & 0xFF);
+		POSITION += 4;
+		return value;
+	}
+	
+	public long readLong() throws IOException {
+		long high = readInt() & 0xFFFFFFFFL;
+		long low = readInt() & 0xFFFFFFFFL;
+		return (high << 32) | low;
+	}
+	
+	public String readString() throws IOException {
+		int length = readLength();
+		String value = new String(PAYLOAD, POSITION, length, UTF8);
+		POSITION += length;
+		return value;
+	}
+	
+	public byte[] readBytes() throws IOException {
+		int length = readLength();
+		byte[] value = new byte[length];
+		System.arraycopy(PAYLOAD, POSITION, value, 0, length);
+		POSITION += length;
+		return value;
+	}
+	
+	/** @see FrameEncoder#putServerInfo(ServerInfo) */
+	public ServerInfo readServerInfo() throws IOException {
+		byte type = readByte();
+		if(type < 0 || type >= ServerInfo.TYPES.values().length) {
+			throw new IOException("Received unknown server type "+type+".");
+		}
+		ServerInfo.TYPES serverType = ServerInfo.TYPES.values()[type];
+		String address = readString();
+		int port = readInt();
+		long id = readLong();
+		if(serverType != ServerInfo.TYPES.DATA) {
+			return new ServerInfo(address, port, id, serverType);
+		}
+		
+		DataServerInfo info = new DataServerInfo(address, port, id, serverType);
+		info.setCores(readInt());
+		info.setCurrMemory(readLong());
+		info.setMaxMemory(readLong());
+		info.setJVMMemory(readLong());
+		info.setFreeSpace(readLong());
+		info.setInFlight(readInt());
+		return info;
+	}
+	
+	/**
+	 * @see FrameEncoder#putChain(ServerInfo[])
+	 * @return the chain, empty if the frame has none
+	 */
+	public ServerInfo[] readChain() throws IOException {
+		if(!hasRemaining()) {
+			return new ServerInfo[0];
+		}
+		int length = readInt();
+		if(length < 0 || length > PAYLOAD.length-POSITION) {
+			throw new IOException("Received a chain of "+length+" DataServers.");
+		}
+		ServerInfo[] chain = new ServerInfo[length];
+		for(int i = 0; i < length; i++) {
+			chain[i] = readServerInfo();
+		}
+		return chain;
+	}
+	
+	private int readLength() throws IOException {
+		int length = readInt();
+		if(length < 0) {
+			throw new IOException("Received a field of negative length.");
+		}
+		require(length);
+		return length;
+	}
+	
+	private void require(int bytes) throws IOException {
+		if(PAYLOAD.length-POSITION < bytes) {
+			throw new IOException("A "+OPCODE+" frame ended early.");
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return OPCODE+"#"+REQUEST_ID+" ("+PAYLOAD.length+" bytes)";
+	}
+}
@@ -0,0 +1,196 @@
+package server.net;
+
+import java.nio.ByteBuffer;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+
+/**
+ * Builds frames in a reusable scratch buffer and hands out one exactly sized
+ * buffer per frame. Strings are encoded to UTF-8 straight into the scratch
+ * buffer, so a frame costs a single allocation.
+ * 
+ * A frame that outgrows the scratch buffer moves to a buffer of its own,
+ * sized to what it needs, which finish() hands out without a copy. The
+ * scratch buffer itself never grows, so a thread that once sent a large
+ * frame does not keep its memory.
+ * 
+ * An encoder is not thread-safe; get() hands every thread its own.
+ */
+public final class FrameEncoder {
+	private static final ThreadLocal<FrameEncoder> ENCODERS = new ThreadLocal<FrameEncoder>() {
+		@Override
+		protected FrameEncoder initialValue() {
+			return new FrameEncoder();
+		}
+	};
+	
+	private static final int SCRATCH_SIZE = 4096;
+	
+	private final ByteBuffer SMALL = ByteBuffer.allocate(SCRATCH_SIZE);
+	//SMALL, or the buffer of its own a large frame moved to
+	private ByteBuffer SCRATCH = SMALL;
+	
+	/** @return the calling thread's encoder */
+	public static FrameEncoder get() {
+		return ENCODERS.get();
+	}
+	
+	/** @return a frame without payload */
+	public static ByteBuffer encode(Opcode opcode, long requestId) {
+		return get().begin(opcode, requestId).finish();
+	}
+	
+	/** @return a frame holding one string */
+	public static ByteBuffer encode(Opcode opcode, long requestId, String value) {
+		return get().begin(opcode, requestId).putString(value).finish();
+	}
+	
+	/**
+	 * @return everything of a DATA frame but its bytes, which must be sent
+	 * right after it (e.g. as a FileRegion)
+	 */
+	public static ByteBuffer encodeDataHeader(long requestId, int length) {
+		ByteBuffer header = ByteBuffer.allocate(4+Frame.HEADER_SIZE+4);
+		header.putInt(Frame.HEADER_SIZE+4+length);
+		header.put(Frame.VERSION);
+		header.put(Opcode.DATA.getCode());
+		header.putLong(requestId);
+		header.putInt(length);
+		header.flip();
+		return header;
+	}
+	
+	/** Starts a new frame, dropping anything not finished. */
+	public FrameEncoder begin(Opcode opcode, long requestId) {
+		SCRATCH = SMALL;
+		SCRATCH.clear();
+		SCRATCH.putInt(0);
+		SCRATCH.put(Frame.VERSION);
+		SCRATCH.put(opcode.getCode());
+		SCRATCH.putLong(requestId);
+		return this;
+	}
+	
+	public FrameEncoder putByte(byte value) {
+		ensure(1);
+		SCRATCH.put(value);
+		return this;
+	}
+	
+	public FrameEncoder putInt(int value) {
+		ensure(4);
+		SCRATCH.putInt(value);
+		return this;
+	}
+	
+	public FrameEncoder putLong(long value) {
+		ensure(8);
+		SCRATCH.putLong(value);
+		return this;
+	}
+	
+	public FrameEncoder putBytes(byte[] value) {
+		return putBytes(value, 0, value.length);
+	}
+	
+	public FrameEncoder putBytes(byte[] value, int offset, int length) {
+		ensure(4+length);
+		SCRATCH.putInt(length);
+		SCRATCH.put(value, offset, length);
+		return this;
+	}
+	
+	public FrameEncoder putString(String value) {
+		//a char never takes more than 3 bytes (surrogate pairs take 4 for 2 chars)
+		ensure(4+3*value.length());
+		int lengthAt = SCRATCH.position();
+		SCRATCH.putInt(0);
+		int start = SCRATCH.position();
+		
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c < 0x80) {
+				SCRATCH.put((byte) c);
+			} else if(c < 0x800) {
+				SCRATCH.put((byte) (0xC0 | (c >> 6)));
+				SCRATCH.put((byte) (0x80 | (c & 0x3F)));
+			} else if(Character.isHighSurrogate(c) && i+1 < value.length() && Character.isLowSurrogate(value.charAt(i+1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				SCRATCH.put((byte) (0xF0 | (codePoint >> 18)));
+				SCRATCH.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				SCRATCH.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				SCRATCH.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if(Character.isSurrogate(c)) {
+				//unpaired surrogate, same replacement String.getBytes uses
+				SCRATCH.put((byte) '?');
+			} else {
+				SCRATCH.put((byte) (0xE0 | (c >> 12)));
+				SCRATCH.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				SCRATCH.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		SCRATCH.putInt(lengthAt, SCRATCH.position()-start);
+		return this;
+	}
+	
+	/**
+	 * Writes who a server is; a DataServerInfo carries its system information too.
+	 */
+	public FrameEncoder putServerInfo(ServerInfo info) {
+		putByte((byte) info.getType().ordinal());
+		putString(info.getAddress() == null ? "" : info.getAddress());
+		putInt(info.getPort());
+		putLong(info.getID());
+		if(info.getType() == ServerInfo.TYPES.DATA) {
+			DataServerInfo dataInfo = (DataServerInfo) info;
+			putInt(dataInfo.getCores());
+			putLong(dataInfo.getCurrMemory());
+			putLong(dataInfo.getMaxMemory());
+			putLong(dataInfo.getJVMMemory());
+			putLong(dataInfo.getFreeSpace());
+			putInt(dataInfo.getInFlight());
+		}
+		return this;
+	}
+	
+	/**
+	 * Writes the DataServers a WRITE or APPEND is passed on to, in order.
+	 */
+	public FrameEncoder putChain(ServerInfo[] chain) {
+		putInt(chain.length);
+		for(ServerInfo info : chain) {
+			putServerInfo(info);
+		}
+		return this;
+	}
+	
+	/** @return the finished frame, ready to be sent */
+	public ByteBuffer finish() {
+		SCRATCH.putInt(0, SCRATCH.position()-4);
+		SCRATCH.flip();
+		ByteBuffer frame;
+		if(SCRATCH != SMALL) {
+			//already a buffer of its own
+			frame = SCRATCH;
+			SCRATCH = SMALL;
+		} else {
+			frame = ByteBuffer.allocate(SCRATCH.remaining());
+			frame.put(SCRATCH);
+			frame.flip();
+		}
+		SCRATCH.clear();
+		return frame;
+	}
+	
+	private void ensure(int bytes) {
+		if(SCRATCH.remaining() >= bytes) {
+			return;
+		}
+		//room for what comes next too (e.g. the chain after a WRITE's bytes), without doubling
+		ByteBuffer grown = ByteBuffer.allocate(SCRATCH.position()+bytes+SCRATCH_SIZE);
+		SCRATCH.flip();
+		grown.put(SCRATCH);
+		SCRATCH = grown;
+	}
+}
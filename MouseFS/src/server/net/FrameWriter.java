@@ -0,0 +1,151 @@
+package server.net;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The reply to one request: every println becomes a LINE frame, and an END
+ * frame follows once the reply is released.
+ * 
+ * Work that answers later (e.g. a DataWriter waiting on a DataServer) holds
+ * the reply, and the END frame waits until every holder has released it.
+ * The handler that created the reply owns the first hold.
+ * 
+ * Raw bytes go out as DATA frames, in order with the lines around them.
+ * Replies share their connection with other requests, so every frame is
+ * queued whole: lines from other threads fall between frames, never inside one.
+ */
+public class FrameWriter extends PrintWriter {
+	//bytes per DATA frame when sending a file, so a reader never buffers a whole block
+	public static final int DATA_CHUNK = 1024*1024;
+	
+	private final Connection CONNECTION;
+	private final long REQUEST_ID;
+	private final AtomicInteger HOLDS = new AtomicInteger(1);
+	private volatile Runnable ON_END = null;
+	
+	public FrameWriter(Connection connection, long requestId) {
+		super(new LineFrames(connection, requestId), true);
+		this.CONNECTION = connection;
+		this.REQUEST_ID = requestId;
+	}
+	
+	public void hold() {
+		HOLDS.incrementAndGet();
+	}
+	
+	/** Ends the reply when this was the last hold. */
+	public void release() {
+		if(HOLDS.decrementAndGet() == 0) {
+			flush();
+			CONNECTION.send(FrameEncoder.encode(Opcode.END, REQUEST_ID));
+			Runnable onEnd = ON_END;
+			if(onEnd != null) {
+				onEnd.run();
+			}
+		}
+	}
+	
+	/** Runs onEnd right after the END frame is sent, e.g. to time the whole request. */
+	public void whenEnded(Runnable onEnd) {
+		ON_END = onEnd;
+	}
+	
+	/** Holds out if it is a reply; other writers need no holding. */
+	public static void hold(PrintWriter out) {
+		if(out instanceof FrameWriter) {
+			((FrameWriter) out).hold();
+		}
+	}
+	
+	public static void release(PrintWriter out) {
+		if(out instanceof FrameWriter) {
+			((FrameWriter) out).release();
+		}
+	}
+	
+	/** Sends data as one DATA frame. */
+	public void sendData(byte[] data) {
+		sendFrame(FrameEncoder.get().begin(Opcode.DATA, REQUEST_ID).putBytes(data).finish());
+	}
+	
+	/**
+	 * Sends a frame built for getRequestId(), in order with the lines before it.
+	 */
+	public void sendFrame(ByteBuffer frame) {
+		flush();
+		CONNECTION.send(frame);
+	}
+	
+	/**
+	 * Sends count bytes of file from position as DATA frames, straight from
+	 * the file to the socket. Takes over file and closes it once sent.
+	 */
+	public void sendFile(FileChannel file, long position, long count) {
+		flush();
+		if(count <= 0) {
+			new FileRegion(file, position, 0, true).release();
+			return;
+		}
+		long end = position+count;
+		while(position < end) {
+			int length = (int) Math.min(DATA_CHUNK, end-position);
+			CONNECTION.send(FrameEncoder.encodeDataHeader(REQUEST_ID, length), new FileRegion(file, position, length, position+length == end));
+			position += length;
+		}
+	}
+	
+	/** Sends data as DATA if out is a reply; other writers get it as text. */
+	public static void sendData(PrintWriter out, byte[] data) {
+		if(out instanceof FrameWriter) {
+			((FrameWriter) out).sendData(data);
+		} else {
+			out.println(new String(data, Frame.UTF8));
+		}
+	}
+	
+	public long getRequestId() {
+		return REQUEST_ID;
+	}
+	
+	//collects one println and sends it as one LINE frame, without its line separator
+	private static class LineFrames extends Writer {
+		private final Connection CONNECTION;
+		private final long REQUEST_ID;
+		private final StringBuilder BUFFER = new StringBuilder(256);
+		
+		LineFrames(Connection connection, long requestId) {
+			this.CONNECTION = connection;
+			this.REQUEST_ID = requestId;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			BUFFER.append(cbuf, off, len);
+		}
+		
+		@Override
+		public void flush() {
+			int end = BUFFER.length();
+			if(end == 0) {
+				return;
+			}
+			if(BUFFER.charAt(end-1) == '\n') {
+				end--;
+				if(end > 0 && BUFFER.charAt(end-1) == '\r') {
+					end--;
+				}
+			}
+			CONNECTION.send(FrameEncoder.encode(Opcode.LINE, REQUEST_ID, BUFFER.substring(0, end)));
+			BUFFER.setLength(0);
+		}
+		
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+}
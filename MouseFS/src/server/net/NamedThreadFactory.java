@@ -0,0 +1,20 @@
+package server.net;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class NamedThreadFactory implements ThreadFactory {
+	private final String PREFIX;
+	private final AtomicInteger COUNT = new AtomicInteger(0);
+	
+	NamedThreadFactory(String prefix) {
+		this.PREFIX = prefix;
+	}
+	
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, PREFIX+"-"+COUNT.getAndIncrement());
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -0,0 +1,99 @@
+package server.net;
+
+/**
+ * Every message of the wire protocol. Requests are named after the CLI
+ * commands and DataWriter.ACTIONS they carry; the code is what goes on the
+ * wire, so existing codes must never change.
+ * 
+ * Payloads, in order (see Frame for how each field is encoded):
+ * <pre>
+ * HELLO                         ServerInfo of the sender
+ * MKDIR, MKDIRS, RMDIR, LIST,
+ * HEAD, TAIL, READ,
+ * REMOVE, BLOCKS                path
+ * CREATE                        path, replication (CLI -> MetaServer only; 0 or left out for the default)
+ * WRITE, APPEND                 path, data, chain (DataServers to pass it on to; may be left out)
+ * LOCATE                        path, with blocks (byte 0 or 1)
+ * REPLICATE                     path, chain (DataServers holding it, in the order to copy from)
+ * HEARTBEAT                     DataServerInfo of the sender (DataServer -> MetaServer; never answered)
+ * REPORT                        flags (byte, REPORT_FIRST | REPORT_LAST), count, then count times: path, held (byte 0 or 1)
+ * LINE, ERROR                   text
+ * DATA                          data (HEAD, TAIL and READ reply with these)
+ * INFO                          ServerInfo (a DataServerInfo from a DataServer)
+ * BLOCK                         block id, length, saturated (byte 0 or 1)
+ * everything else               nothing
+ * </pre>
+ * 
+ * LOCATE is answered with an INFO for every DataServer holding the file,
+ * then, if asked for, a BLOCK for every block of it in file order; BLOCKS
+ * with the BLOCKs alone. REPLICATE is answered with an INFO of the new
+ * replica once the whole file is copied; without it the copy failed.
+ * 
+ * A DataServer sends a full REPORT of the files it holds right after its
+ * HELLO, then REPORTs of only the files it gained or dropped since. REPORTs
+ * are never answered. A full report is split over as many REPORTs as keep
+ * every frame well below Frame.MAX_LENGTH: the first has REPORT_FIRST set,
+ * the last REPORT_LAST, and the ones in between neither, like a report of
+ * changes.
+ */
+public enum Opcode {
+	//sent first by a CLI or DataServer connecting to the MetaServer, and by a DataServer on every connection it accepts
+	HELLO(1),
+	//CLI -> MetaServer
+	SAVE(10), MKDIR(11), MKDIRS(12), RMDIR(13), LIST(14), FORMAT(15), HELP(16), LOGOUT(17), LOCATE(18), METRICS(19),
+	//CLI -> MetaServer (METRICS also MetaServer -> DataServer), and MetaServer -> DataServer; the data ones also CLI -> DataServer once located
+	CREATE(20), WRITE(21), APPEND(22), HEAD(23), TAIL(24), SYSINFO(25), SHUTDOWN(26), READ(27),
+	//MetaServer -> DataServer (BLOCKS also CLI -> DataServer)
+	REMOVE(30), BLOCKS(31), REPLICATE(32),
+	//DataServer -> MetaServer
+	HEARTBEAT(40), REPORT(41),
+	//replies, carrying the request id of what they answer; END closes every reply
+	LINE(50), DATA(51), INFO(52), END(53), ERROR(54), BLOCK(55);
+	
+	/* FLAGS OF A REPORT */
+	//starts a full report; whatever the DataServer reported before is forgotten
+	public static final byte REPORT_FIRST = 1;
+	//ends a full report
+	public static final byte REPORT_LAST = 2;
+	
+	private final byte CODE;
+	private static final Opcode[] BY_CODE = new Opcode[128];
+	static {
+		for(Opcode opcode : values()) {
+			BY_CODE[opcode.CODE] = opcode;
+		}
+	}
+	
+	private Opcode(int code) {
+		this.CODE = (byte) code;
+	}
+	
+	public byte getCode() {
+		return CODE;
+	}
+	
+	/** @return the opcode sent as code, or null if there is none */
+	public static Opcode fromCode(byte code) {
+		if(code < 0) {
+			return null;
+		}
+		return BY_CODE[code];
+	}
+	
+	/**
+	 * Matches a whole CLI command word, so "mkdirs" can never be taken for "mkdir".
+	 * @return the opcode a CLI may send for command, or null if it is not a command
+	 */
+	public static Opcode forCommand(String command) {
+		Opcode opcode;
+		try {
+			opcode = valueOf(command.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if(opcode.CODE < SAVE.CODE || opcode.CODE > READ.CODE) {
+			return null;
+		}
+		return opcode;
+	}
+}
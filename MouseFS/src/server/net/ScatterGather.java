@@ -0,0 +1,244 @@
+package server.net;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import server.info.ServerInfo;
+
+/**
+ * Sends requests to many DataServers at once over a DataServerPool and
+ * gathers their replies, for anything that involves the whole cluster
+ * (sysinfo, shutdown, removing every replica of a directory's files).
+ *
+ * All requests go out together, so the whole call takes as long as the
+ * slowest DataServer rather than the sum of them, and never longer than the
+ * deadline: what came back by then is handed over as it is, the requests
+ * still unanswered count as timed out and anything they send later is
+ * dropped. Nothing waits on a thread in the meantime, and send() itself
+ * only queues the requests: connecting to a DataServer happens on the
+ * pool's threads, so an unreachable one cannot hold up the others or the
+ * caller.
+ */
+public class ScatterGather {
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ScatterGather-deadline"));
+
+	public static enum STATES {PENDING, ANSWERED, FAILED, TIMED_OUT};
+
+	public interface Callback {
+		/** Called exactly once, when every request is answered or the deadline passed. */
+		void onGathered(ScatterGather gathered);
+	}
+
+	/** What one DataServer sent back for one request. */
+	public class Reply implements DataServerPool.Listener {
+		private final ServerInfo DATASERVER;
+		private final Opcode OPCODE;
+		private final String PATH;
+		private final List<String> LINES = new ArrayList<String>();
+		private final List<ServerInfo> INFOS = new ArrayList<ServerInfo>();
+		private STATES STATE = STATES.PENDING;
+		private String FAILURE = null;
+
+		private Reply(ServerInfo dataServer, Opcode opcode, String path) {
+			this.DATASERVER = dataServer;
+			this.OPCODE = opcode;
+			this.PATH = path;
+		}
+
+		public ServerInfo getDataServer() {
+			return DATASERVER;
+		}
+
+		public String getPath() {
+			return PATH;
+		}
+
+		public List<String> getLines() {
+			synchronized(ScatterGather.this) {
+				return new ArrayList<String>(LINES);
+			}
+		}
+
+		public List<ServerInfo> getInfos() {
+			synchronized(ScatterGather.this) {
+				return new ArrayList<ServerInfo>(INFOS);
+			}
+		}
+
+		public STATES getState() {
+			synchronized(ScatterGather.this) {
+				return STATE;
+			}
+		}
+
+		/** @return why the request failed, or null if it did not */
+		public String getFailure() {
+			synchronized(ScatterGather.this) {
+				return FAILURE;
+			}
+		}
+
+		@Override
+		public void onLine(String line) {
+			synchronized(ScatterGather.this) {
+				if(STATE == STATES.PENDING) {
+					LINES.add(line);
+				}
+			}
+		}
+
+		@Override
+		public void onData(byte[] data) {
+		}
+
+		@Override
+		public void onBlock(long id, long length, boolean saturated) {
+		}
+
+		@Override
+		public void onInfo(ServerInfo info) {
+			synchronized(ScatterGather.this) {
+				if(STATE == STATES.PENDING) {
+					INFOS.add(info);
+				}
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			answered(this, STATES.ANSWERED, null);
+		}
+
+		@Override
+		public void onFailure(String reason) {
+			answered(this, STATES.FAILED, reason);
+		}
+	}
+
+	private final DataServerPool POOL;
+	private final List<Reply> REPLIES = new ArrayList<Reply>();
+	private Callback CALLBACK = null;
+	private int OUTSTANDING = 0;
+	private boolean SENT = false;
+	private boolean GATHERED = false;
+
+	public ScatterGather(DataServerPool pool) {
+		this.POOL = pool;
+	}
+
+	/** Sends the same request to every one of dataServers. */
+	public ScatterGather(DataServerPool pool, Collection<? extends ServerInfo> dataServers, Opcode opcode, String path) {
+		this(pool);
+		for(ServerInfo dataServer : dataServers) {
+			add(dataServer, opcode, path);
+		}
+	}
+
+	/**
+	 * Adds a request to send; a DataServer may get any number of them.
+	 * @param path may be null for requests without one
+	 */
+	public synchronized ScatterGather add(ServerInfo dataServer, Opcode opcode, String path) {
+		if(SENT) {
+			throw new IllegalStateException("The requests were already sent.");
+		}
+		REPLIES.add(new Reply(dataServer, opcode, path));
+		return this;
+	}
+
+	/**
+	 * Sends every request at once; callback hears about them when the last
+	 * reply is in or timeout ms have passed, whichever comes first.
+	 */
+	public void send(long timeout, Callback callback) {
+		List<Reply> replies;
+		synchronized(this) {
+			if(SENT) {
+				throw new IllegalStateException("The requests were already sent.");
+			}
+			SENT = true;
+			CALLBACK = callback;
+			OUTSTANDING = REPLIES.size();
+			replies = new ArrayList<Reply>(REPLIES);
+		}
+		if(replies.isEmpty()) {
+			gather();
+			return;
+		}
+
+		DEADLINES.schedule(new Runnable() {
+			@Override
+			public void run() {
+				gather();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		for(Reply reply : replies) {
+			POOL.send(reply.DATASERVER, reply.OPCODE, reply.PATH, null, reply);
+		}
+	}
+
+	private void answered(Reply reply, STATES state, String failure) {
+		boolean last;
+		synchronized(this) {
+			if(reply.STATE != STATES.PENDING) {
+				//too late; the caller has moved on
+				return;
+			}
+			reply.STATE = state;
+			reply.FAILURE = failure;
+			last = --OUTSTANDING == 0;
+		}
+		if(last) {
+			gather();
+		}
+	}
+
+	/* ONCE -- EITHER EVERYTHING IS IN OR THE DEADLINE PASSED! */
+	private void gather() {
+		synchronized(this) {
+			if(GATHERED) {
+				return;
+			}
+			GATHERED = true;
+			for(Reply reply : REPLIES) {
+				if(reply.STATE == STATES.PENDING) {
+					reply.STATE = STATES.TIMED_OUT;
+				}
+			}
+		}
+		CALLBACK.onGathered(this);
+	}
+
+	/** @return every request's reply, in the order they were added */
+	public List<Reply> getReplies() {
+		return Collections.unmodifiableList(REPLIES);
+	}
+
+	/** @return how many replies ended in state */
+	public synchronized int count(STATES state) {
+		int count = 0;
+		for(Reply reply : REPLIES) {
+			if(reply.STATE == state) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/** @return e.g. "3 of 4 answered, 1 timed out" */
+	public String summary() {
+		String summary = count(STATES.ANSWERED)+" of "+getReplies().size()+" answered";
+		if(count(STATES.FAILED) > 0) {
+			summary += ", "+count(STATES.FAILED)+" failed";
+		}
+		if(count(STATES.TIMED_OUT) > 0) {
+			summary += ", "+count(STATES.TIMED_OUT)+" timed out";
+		}
+		return summary;
+	}
+}
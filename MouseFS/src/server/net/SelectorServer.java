@@ -0,0 +1,303 @@
+package server.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Serves many connections from a few selector threads. Idle connections
+ * cost no thread and no CPU; decoded frames go to a bounded worker pool.
+ * 
+ * The first EventLoop also accepts; accepted channels are spread over all
+ * loops round-robin.
+ */
+public class SelectorServer {
+	private final Log LOG = LogFactory.getLog(SelectorServer.class);
+	
+	private static final int WORKER_QUEUE = 10000;
+	
+	private final String NAME;
+	private final ConnectionHandlerFactory FACTORY;
+	private final EventLoop[] LOOPS;
+	private final TaskExecutor WORKERS;
+	private final AtomicInteger NEXT_LOOP = new AtomicInteger(0);
+	private final AtomicInteger CONNECTIONS = new AtomicInteger(0);
+	private ServerSocketChannel SERVER = null;
+	
+	/**
+	 * Makes the handler of an outgoing connection once it is up, or hears
+	 * that it never came up.
+	 */
+	public interface ConnectListener extends ConnectionHandlerFactory {
+		/** Called on a worker instead of newHandler if the connect failed or timed out. */
+		void connectFailed(IOException e);
+	}
+	
+	/**
+	 * @param loops number of selector threads
+	 * @param workers maximum number of platform threads running handlers
+	 */
+	public SelectorServer(String name, int loops, int workers, ConnectionHandlerFactory factory) throws IOException {
+		this(name, loops, new TaskExecutor(name+"-worker", workers, WORKER_QUEUE), factory);
+	}
+	
+	/**
+	 * @param loops number of selector threads
+	 * @param workers runs the handlers; a full executor closes the connection that overflowed it
+	 * @param factory makes handlers for accepted channels; may be null for a server that only
+	 *        registers channels with their own factory
+	 */
+	public SelectorServer(String name, int loops, TaskExecutor workers, ConnectionHandlerFactory factory) throws IOException {
+		this.NAME = name;
+		this.FACTORY = factory;
+		this.LOOPS = new EventLoop[Math.max(1, loops)];
+		for(int i = 0; i < LOOPS.length; i++) {
+			LOOPS[i] = new EventLoop(this);
+		}
+		this.WORKERS = workers;
+	}
+	
+	/**
+	 * Binds the listening socket and starts the event loops in the background.
+	 */
+	public void bind(int port) throws IOException {
+		SERVER = ServerSocketChannel.open();
+		SERVER.socket().setReuseAddress(true);
+		SERVER.socket().bind(new InetSocketAddress(port), 1024);
+		SERVER.configureBlocking(false);
+		
+		final EventLoop acceptor = LOOPS[0];
+		acceptor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SERVER.register(acceptor.getSelector(), SelectionKey.OP_ACCEPT);
+				} catch (ClosedChannelException e) {
+					LOG.error("FATAL: Could not register the server socket.",e);
+				}
+			}
+		});
+		start();
+	}
+	
+	/**
+	 * Starts the event loops without listening, e.g. for outgoing connections only.
+	 * The loop threads are not daemons so a server keeps running on them alone.
+	 */
+	public void start() {
+		for(int i = 0; i < LOOPS.length; i++) {
+			Thread t = new Thread(LOOPS[i], NAME+"-selector-"+i);
+			t.start();
+		}
+	}
+	
+	/**
+	 * Hands an already connected channel (e.g. one this server opened itself)
+	 * to the event loops.
+	 */
+	public void register(SocketChannel channel) throws IOException {
+		register(channel, FACTORY);
+	}
+	
+	/**
+	 * Hands a connected channel to the event loops with its own kind of handler,
+	 * e.g. for client connections kept open by a server.
+	 */
+	public void register(SocketChannel channel, ConnectionHandlerFactory factory) throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		register(channel, factory, nextLoop());
+	}
+	
+	private void register(SocketChannel channel, ConnectionHandlerFactory factory, final EventLoop loop) {
+		final Connection connection = new Connection(channel, this, loop, WORKERS);
+		final ConnectionHandler handler = factory.newHandler(connection);
+		CONNECTIONS.incrementAndGet();
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connection.register(handler);
+				} catch (ClosedChannelException e) {
+					LOG.error("FATAL: Connection closed before it could be registered.",e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Connects to address without blocking the caller. The connect finishes on
+	 * an event loop, which then registers the channel with listener's handler.
+	 * @param timeout ms to wait for the connect before giving up on it
+	 */
+	public void connect(InetSocketAddress address, long timeout, final ConnectListener listener) {
+		if(address.isUnresolved()) {
+			failed(listener, new UnknownHostException(address.getHostString()));
+			return;
+		}
+		SocketChannel opened = null;
+		boolean connected;
+		try {
+			opened = SocketChannel.open();
+			opened.configureBlocking(false);
+			opened.socket().setTcpNoDelay(true);
+			connected = opened.connect(address);
+		} catch (IOException e) {
+			close(opened);
+			failed(listener, e);
+			return;
+		}
+		
+		final SocketChannel channel = opened;
+		final EventLoop loop = nextLoop();
+		if(connected) {
+			register(channel, listener, loop);
+			return;
+		}
+		final PendingConnect pending = new PendingConnect(channel, listener, loop);
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					pending.KEY = channel.register(loop.getSelector(), SelectionKey.OP_CONNECT, pending);
+				} catch (ClosedChannelException e) {
+					pending.fail(e);
+				}
+			}
+		});
+		final String target = address.toString();
+		loop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				pending.fail(new SocketTimeoutException("Connect to "+target+" timed out."));
+			}
+		}, timeout);
+	}
+	
+	/* AN OUTGOING CONNECT; ONLY TOUCHED FROM ITS LOOP, WHICH RUNS IT ONCE THE CHANNEL IS CONNECTABLE! */
+	private class PendingConnect implements Runnable {
+		private final SocketChannel CHANNEL;
+		private final ConnectListener LISTENER;
+		private final EventLoop LOOP;
+		private SelectionKey KEY = null;
+		private boolean DONE = false;
+		
+		PendingConnect(SocketChannel channel, ConnectListener listener, EventLoop loop) {
+			this.CHANNEL = channel;
+			this.LISTENER = listener;
+			this.LOOP = loop;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				if(DONE || !CHANNEL.finishConnect()) {
+					return;
+				}
+			} catch (IOException e) {
+				fail(e);
+				return;
+			}
+			DONE = true;
+			//the Connection takes the key over when it registers for reads
+			KEY.interestOps(0);
+			register(CHANNEL, LISTENER, LOOP);
+		}
+		
+		void fail(IOException e) {
+			if(DONE) {
+				return;
+			}
+			DONE = true;
+			close(CHANNEL);
+			failed(LISTENER, e);
+		}
+	}
+	
+	private void failed(final ConnectListener listener, final IOException e) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				listener.connectFailed(e);
+			}
+		};
+		try {
+			WORKERS.execute(task);
+		} catch (RejectedExecutionException rejected) {
+			task.run();
+		}
+	}
+	
+	private void close(SocketChannel channel) {
+		if(channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.error("Could not close an unfinished connection.",e);
+		}
+	}
+	
+	/** Called by the accepting loop whenever the server socket is ready. */
+	void accept() {
+		while(true) {
+			SocketChannel channel;
+			try {
+				channel = SERVER.accept();
+			} catch (IOException e) {
+				LOG.error("FATAL: Could not accept the socket connection. (Shutting down?)",e);
+				return;
+			}
+			if(channel == null) {
+				return;
+			}
+			try {
+				register(channel);
+			} catch (IOException e) {
+				LOG.error("FATAL: Could not register an accepted connection.",e);
+			}
+		}
+	}
+	
+	private EventLoop nextLoop() {
+		return LOOPS[Math.abs(NEXT_LOOP.getAndIncrement() % LOOPS.length)];
+	}
+	
+	/** @return number of connections currently open */
+	public int getConnectionCount() {
+		return CONNECTIONS.get();
+	}
+	
+	public TaskExecutor getWorkers() {
+		return WORKERS;
+	}
+	
+	void connectionClosed() {
+		CONNECTIONS.decrementAndGet();
+	}
+	
+	public void shutdown() {
+		for(EventLoop loop : LOOPS) {
+			loop.shutdown();
+		}
+		WORKERS.shutdown();
+		try {
+			if(SERVER != null) {
+				SERVER.close();
+			}
+		} catch (IOException e) {
+			LOG.error("Could not close the server socket.",e);
+		}
+	}
+}
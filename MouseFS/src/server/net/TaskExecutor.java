@@ -0,0 +1,161 @@
+package server.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs per-request work, either on one virtual thread per task or on a
+ * bounded pool of platform threads, and counts what is in flight.
+ * 
+ * Virtual threads are used when the JVM has them (Java 21+) unless the
+ * "mousefs.executor" system property says "platform". The platform pool
+ * rejects work once its queue is full; callers decide whether to run the
+ * task themselves or drop it.
+ */
+public class TaskExecutor implements Executor {
+	private static final Log LOG = LogFactory.getLog(TaskExecutor.class);
+	
+	public static enum MODES {VIRTUAL, PLATFORM};
+	public static final String MODE_PROPERTY = "mousefs.executor";
+	
+	private final String NAME;
+	private final MODES MODE;
+	private final ExecutorService DELEGATE;
+	
+	private final AtomicInteger IN_FLIGHT = new AtomicInteger(0);
+	private final AtomicInteger PEAK_IN_FLIGHT = new AtomicInteger(0);
+	private final AtomicLong COMPLETED = new AtomicLong(0);
+	private final AtomicLong REJECTED = new AtomicLong(0);
+	
+	/**
+	 * @param threads size of the platform pool (unused for virtual threads)
+	 * @param queue tasks the platform pool holds before it rejects
+	 */
+	public TaskExecutor(String name, int threads, int queue) {
+		this(name, getConfiguredMode(), threads, queue);
+	}
+	
+	public TaskExecutor(String name, MODES mode, int threads, int queue) {
+		this.NAME = name;
+		ExecutorService virtual = (mode == MODES.VIRTUAL) ? newVirtualExecutor() : null;
+		if(virtual != null) {
+			this.MODE = MODES.VIRTUAL;
+			this.DELEGATE = virtual;
+		} else {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(queue), new NamedThreadFactory(name));
+			pool.allowCoreThreadTimeOut(true);
+			this.MODE = MODES.PLATFORM;
+			this.DELEGATE = pool;
+		}
+		LOG.info("SUCCESS: "+NAME+" runs tasks on "+MODE.toString().toLowerCase()+" threads.");
+	}
+	
+	/** @return the mode asked for by the "mousefs.executor" property, VIRTUAL by default */
+	public static MODES getConfiguredMode() {
+		String mode = System.getProperty(MODE_PROPERTY);
+		if(mode != null && mode.trim().equalsIgnoreCase("platform")) {
+			return MODES.PLATFORM;
+		}
+		return MODES.VIRTUAL;
+	}
+	
+	/** @return true if this JVM can run virtual threads */
+	public static boolean isVirtualSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	//looked up reflectively so the code still builds and runs on older JVMs
+	private static ExecutorService newVirtualExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			LOG.info("Virtual threads are not available; falling back to a platform thread pool.");
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.error("Could not create a virtual thread executor; falling back to a platform thread pool.",e);
+		}
+		return null;
+	}
+	
+	/**
+	 * @throws RejectedExecutionException if the platform pool is full or the executor is shut down
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		int inFlight = IN_FLIGHT.incrementAndGet();
+		int peak = PEAK_IN_FLIGHT.get();
+		while(inFlight > peak && !PEAK_IN_FLIGHT.compareAndSet(peak, inFlight)) {
+			peak = PEAK_IN_FLIGHT.get();
+		}
+		
+		try {
+			DELEGATE.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						IN_FLIGHT.decrementAndGet();
+						COMPLETED.incrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			IN_FLIGHT.decrementAndGet();
+			REJECTED.incrementAndGet();
+			throw e;
+		}
+	}
+	
+	public String getName() {
+		return NAME;
+	}
+	
+	public MODES getMode() {
+		return MODE;
+	}
+	
+	/** @return tasks submitted but not yet finished, queued ones included */
+	public int getInFlight() {
+		return IN_FLIGHT.get();
+	}
+	
+	public int getPeakInFlight() {
+		return PEAK_IN_FLIGHT.get();
+	}
+	
+	public long getCompleted() {
+		return COMPLETED.get();
+	}
+	
+	public long getRejected() {
+		return REJECTED.get();
+	}
+	
+	public void shutdown() {
+		DELEGATE.shutdown();
+	}
+	
+	@Override
+	public String toString() {
+		return NAME+" ("+MODE.toString().toLowerCase()+"): in-flight="+getInFlight()+", peak="+getPeakInFlight()+
+				", completed="+getCompleted()+", rejected="+getRejected();
+	}
+}
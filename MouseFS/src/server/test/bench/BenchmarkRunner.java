@@ -0,0 +1,152 @@
+package server.test.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs benchmark cases the way JMH does, in a single fork: a number of
+ * warm-up rounds, then measured rounds that each call the case over and
+ * over for ROUND_MILLIS. Every case is reported in ns/op and written, as
+ * JSON in the layout JMH uses (benchmark, mode, params, primaryMetric), to
+ * the file named by the bench.json system property or to
+ * [suite].json, so the results of two commits can be diffed with the same
+ * tools.
+ */
+public class BenchmarkRunner {
+	private static final long ROUND_MILLIS = Long.getLong("bench.round.millis", 500L);
+	private static final int WARMUP_ROUNDS = Integer.getInteger("bench.warmups", 3);
+	private static final int ROUNDS = Integer.getInteger("bench.rounds", 5);
+	//the servers log every request; keep a reference so the level sticks
+	private static final Logger QUIET = Logger.getLogger("server");
+
+	/** One thing to measure. */
+	public static abstract class Case {
+		/** Called before every run(), outside of the timing. */
+		public void setUp() throws IOException {
+		}
+
+		/** @return how many operations this call did */
+		public abstract int run() throws IOException;
+	}
+
+	private final String SUITE;
+	private final Map<String, String> PARAMS = new LinkedHashMap<String, String>();
+	private final List<String> RESULTS = new ArrayList<String>();
+
+	//stops the JIT from dropping work whose result is never used
+	public static long SINK = 0;
+
+	public BenchmarkRunner(Class<?> suite) {
+		this.SUITE = suite.getName();
+		QUIET.setLevel(Level.WARNING);
+	}
+
+	/** Sets a parameter reported with every case measured from now on. */
+	public BenchmarkRunner param(String name, Object value) {
+		PARAMS.put(name, String.valueOf(value));
+		return this;
+	}
+
+	public void measure(String name, Case work) throws IOException {
+		for(int round = 0; round < WARMUP_ROUNDS; round++) {
+			round(work);
+		}
+		double[] scores = new double[ROUNDS];
+		for(int round = 0; round < ROUNDS; round++) {
+			scores[round] = round(work);
+		}
+		report(name, scores, "ns/op");
+	}
+
+	/** Reports what a suite measured on its own, one score per round, in unit. */
+	public void report(String name, double[] scores, String unit) {
+		double sum = 0;
+		for(double score : scores) {
+			sum += score;
+		}
+		double mean = sum / scores.length;
+		double squares = 0;
+		for(double score : scores) {
+			squares += (score - mean) * (score - mean);
+		}
+		double deviation = scores.length > 1 ? Math.sqrt(squares / (scores.length - 1)) : 0;
+
+		System.out.println(String.format("%-24s %-28s %14.1f %s  +- %.1f", name, PARAMS.toString(), mean, unit, deviation));
+		RESULTS.add(toJson(name, mean, deviation, scores, unit));
+	}
+
+	/* ONE ROUND -- RETURNS THE AVERAGE NANOSECONDS PER OPERATION! */
+	private double round(Case work) throws IOException {
+		long deadline = System.nanoTime() + ROUND_MILLIS * 1000000L;
+		long elapsed = 0;
+		long ops = 0;
+		do {
+			work.setUp();
+			long start = System.nanoTime();
+			ops += work.run();
+			elapsed += System.nanoTime() - start;
+		} while(System.nanoTime() < deadline);
+		return (double) elapsed / Math.max(1, ops);
+	}
+
+	private String toJson(String name, double mean, double deviation, double[] scores, String unit) {
+		StringBuilder json = new StringBuilder();
+		json.append("  {\n");
+		json.append("    \"benchmark\" : \"").append(SUITE).append('.').append(name).append("\",\n");
+		json.append("    \"mode\" : \"avgt\",\n");
+		json.append("    \"threads\" : 1,\n");
+		json.append("    \"forks\" : 0,\n");
+		json.append("    \"warmupIterations\" : ").append(WARMUP_ROUNDS).append(",\n");
+		json.append("    \"warmupTime\" : \"").append(ROUND_MILLIS).append(" ms\",\n");
+		json.append("    \"measurementIterations\" : ").append(ROUNDS).append(",\n");
+		json.append("    \"measurementTime\" : \"").append(ROUND_MILLIS).append(" ms\",\n");
+		json.append("    \"params\" : {");
+		String separator = "";
+		for(Map.Entry<String, String> param : PARAMS.entrySet()) {
+			json.append(separator).append("\n      \"").append(param.getKey()).append("\" : \"").append(param.getValue()).append('"');
+			separator = ",";
+		}
+		json.append(PARAMS.isEmpty() ? "},\n" : "\n    },\n");
+		json.append("    \"primaryMetric\" : {\n");
+		json.append("      \"score\" : ").append(mean).append(",\n");
+		//the standard deviation of the rounds, not JMH's confidence interval
+		json.append("      \"scoreError\" : ").append(deviation).append(",\n");
+		json.append("      \"scoreUnit\" : \"").append(unit).append("\",\n");
+		json.append("      \"rawData\" : [ [ ");
+		for(int i = 0; i < scores.length; i++) {
+			json.append(i == 0 ? "" : ", ").append(scores[i]);
+		}
+		json.append(" ] ]\n");
+		json.append("    }\n");
+		json.append("  }");
+		return json.toString();
+	}
+
+	/** Writes every case measured so far as a JSON array. */
+	public File writeResults() throws IOException {
+		String simpleName = SUITE.substring(SUITE.lastIndexOf('.')+1);
+		File file = new File(System.getProperty("bench.json", simpleName+".json"));
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			out.println("[");
+			for(int i = 0; i < RESULTS.size(); i++) {
+				out.print(RESULTS.get(i));
+				out.println(i < RESULTS.size()-1 ? "," : "");
+			}
+			out.println("]");
+		} finally {
+			out.close();
+		}
+		System.out.println("Results written to "+file.getAbsolutePath()+" (checksum "+SINK+").");
+		return file;
+	}
+}
@@ -0,0 +1,182 @@
+package server.test.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.ConnectionHandlerFactory;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.FrameWriter;
+import server.net.Opcode;
+import server.net.SelectorServer;
+
+/**
+ * Serves one block file over loopback, as DATA frames, and times reading it
+ * back: once copied through the heap the way the old head/tail did, once
+ * with FileChannel.transferTo. The warm-up rounds also leave the file in
+ * the page cache, so the reported round measures the copies, not the disk.
+ * Usage: BlockReadBenchmark [megabytes] [rounds]
+ */
+public class BlockReadBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		File block = File.createTempFile("bench_block", ".blk");
+		writeBlock(block, megabytes);
+
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		SelectorServer server = new SelectorServer("bench", 1, 2, new ConnectionHandlerFactory() {
+			@Override
+			public ConnectionHandler newHandler(Connection connection) {
+				return new BlockHandler(connection);
+			}
+		});
+		server.bind(port);
+
+		SocketChannel client = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+		ByteBuffer scratch = ByteBuffer.allocateDirect(FrameWriter.DATA_CHUNK+64);
+		long bytes = block.length();
+		long id = 0;
+
+		//the last round is the one reported; the ones before warm up the JIT
+		for(int round = 1; round <= rounds; round++) {
+			boolean report = round == rounds;
+			for(Opcode mode : new Opcode[] {Opcode.HEAD, Opcode.READ}) {
+				long start = System.nanoTime();
+				client.write(FrameEncoder.encode(mode, ++id, block.getPath()));
+				long received = drain(client, scratch);
+				long elapsed = System.nanoTime()-start;
+				if(received != bytes) {
+					throw new IOException("Received "+received+" of "+bytes+" bytes.");
+				}
+				if(report) {
+					System.out.println(String.format("%-12s %8.2f GB/s %8d ms", mode == Opcode.HEAD ? "heap copy" : "transferTo",
+							(double) bytes / elapsed, elapsed/1000000));
+				}
+			}
+		}
+
+		client.close();
+		server.shutdown();
+		block.delete();
+	}
+
+	private static void writeBlock(File block, int megabytes) throws IOException {
+		byte[] chunk = new byte[1024*1024];
+		new Random(42).nextBytes(chunk);
+		FileOutputStream fos = new FileOutputStream(block);
+		try {
+			for(int i = 0; i < megabytes; i++) {
+				fos.write(chunk);
+			}
+		} finally {
+			fos.close();
+		}
+	}
+
+	/* READS DATA FRAMES UNTIL END AND THROWS THEM AWAY! */
+	private static long drain(SocketChannel client, ByteBuffer scratch) throws IOException {
+		long received = 0;
+		ByteBuffer header = ByteBuffer.allocate(4+10);
+		while(true) {
+			header.clear();
+			readFully(client, header);
+			int length = header.getInt(0);
+			Opcode opcode = Opcode.fromCode(header.get(5));
+			int left = length-10;
+			if(opcode == Opcode.END) {
+				return received;
+			}
+			if(opcode == Opcode.DATA) {
+				//the byte array length in front of the data
+				left -= 4;
+				received += left;
+				scratch.clear();
+				scratch.limit(4);
+				readFully(client, scratch);
+			}
+			while(left > 0) {
+				scratch.clear();
+				scratch.limit(Math.min(left, scratch.capacity()));
+				left -= readFully(client, scratch);
+			}
+		}
+	}
+
+	private static int readFully(SocketChannel client, ByteBuffer buffer) throws IOException {
+		int total = 0;
+		while(buffer.hasRemaining()) {
+			int read = client.read(buffer);
+			if(read < 0) {
+				throw new IOException("Server hung up.");
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	//HEAD copies the file through a byte[] per chunk, READ sends it with transferTo
+	private static class BlockHandler implements ConnectionHandler {
+		private final Connection connection;
+
+		BlockHandler(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public void connected() {
+		}
+
+		@Override
+		public Object decode(ByteBuffer in) throws IOException {
+			return Frame.decode(in);
+		}
+
+		@Override
+		public void handle(Object object) {
+			Frame frame = (Frame) object;
+			FrameWriter out = new FrameWriter(connection, frame.getRequestId());
+			try {
+				String path = frame.readString();
+				if(frame.getOpcode() == Opcode.READ) {
+					FileChannel file = new FileInputStream(path).getChannel();
+					out.sendFile(file, 0, file.size());
+				} else {
+					InputStream in = new FileInputStream(path);
+					try {
+						byte[] chunk = new byte[FrameWriter.DATA_CHUNK];
+						int read;
+						while((read = in.read(chunk)) > 0) {
+							byte[] data = new byte[read];
+							System.arraycopy(chunk, 0, data, 0, read);
+							out.sendData(data);
+						}
+					} finally {
+						in.close();
+					}
+				}
+			} catch (IOException e) {
+				out.println("Could not read the block: "+e.getMessage());
+			}
+			out.release();
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+}
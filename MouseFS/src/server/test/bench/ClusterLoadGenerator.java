@@ -0,0 +1,401 @@
+package server.test.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import server.info.ServerInfo;
+import server.metrics.Counter;
+import server.metrics.Histogram;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.Opcode;
+import server.test.util.MiniLocalClusterDemo;
+
+/**
+ * Drives a cluster with a mix of commands from many clients at once and
+ * reports ops/s and latency percentiles per command. Every client talks to
+ * the cluster the way the CLI does (file contents go straight to the
+ * DataServers the MetaServer located) and works in a directory of its own,
+ * so its commands are always valid.
+ *
+ * Without -Dmeta.host it starts a MiniLocalClusterDemo with the given
+ * number of DataServers in this JVM; with it, it loads the cluster that
+ * MetaServer runs.
+ * Usage: ClusterLoadGenerator [clients] [seconds] [dataservers] [mix] [bytes per write]
+ * where mix is e.g. "create=20,write=20,head=60"; commands left out are not sent.
+ */
+public class ClusterLoadGenerator {
+	private static enum OPS {MKDIR, CREATE, WRITE, APPEND, HEAD, TAIL, LIST, RMDIR};
+	private static final String DEFAULT_MIX = "mkdir=5,create=15,write=15,append=20,head=15,tail=15,list=10,rmdir=5";
+	private static final int META_PORT = MiniLocalClusterDemo.META_PORT;
+	//how long to wait for the DataServers to show up as live
+	private static final long STARTUP_TIMEOUT = 30000L;
+
+	private static final Histogram[] LATENCIES = new Histogram[OPS.values().length];
+	private static final Counter[] FAILURES = new Counter[OPS.values().length];
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int dataServers = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int[] mix = parseMix(args.length > 3 ? args[3] : DEFAULT_MIX);
+		int bytes = args.length > 4 ? Integer.parseInt(args[4]) : 4096;
+		String host = System.getProperty("meta.host");
+		for(int i = 0; i < LATENCIES.length; i++) {
+			LATENCIES[i] = new Histogram();
+			FAILURES[i] = new Counter();
+		}
+
+		boolean local = host == null;
+		if(local) {
+			File dir = File.createTempFile("load_cluster", "");
+			dir.delete();
+			dir.mkdirs();
+			MiniLocalClusterDemo.start(dataServers, dir.getPath()+"/");
+			host = InetAddress.getLocalHost().getHostAddress();
+			System.out.println("Started a MetaServer and "+dataServers+" DataServers @"+dir.getAbsolutePath());
+		}
+		waitForDataServers(host, local ? dataServers : 1);
+
+		final String metaHost = host;
+		final long deadline = System.currentTimeMillis()+seconds*1000L;
+		final CountDownLatch ready = new CountDownLatch(clients);
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] threads = new Thread[clients];
+		for(int i = 0; i < clients; i++) {
+			final LoadClient client = new LoadClient(i, mix, bytes);
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						client.connect(metaHost);
+					} catch (IOException e) {
+						System.err.println("Client could not connect: "+e);
+						ready.countDown();
+						return;
+					}
+					ready.countDown();
+					try {
+						go.await();
+						client.run(deadline);
+					} catch (IOException | InterruptedException e) {
+						System.err.println("Client stopped: "+e);
+					} finally {
+						client.close();
+					}
+				}
+			}, "load-client-"+i);
+			threads[i].start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		report(clients, (System.nanoTime()-start) / 1e9);
+
+		if(local) {
+			//the in-process servers have no way to stop short of exiting
+			System.exit(0);
+		}
+	}
+
+	private static int[] parseMix(String mix) {
+		int[] weights = new int[OPS.values().length];
+		for(String entry : mix.split(",")) {
+			String[] nameAndWeight = entry.trim().split("=");
+			weights[OPS.valueOf(nameAndWeight[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(nameAndWeight[1].trim());
+		}
+		return weights;
+	}
+
+	private static void report(int clients, double seconds) {
+		System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s %8s", "command", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "failed"));
+		long total = 0;
+		long failed = 0;
+		for(OPS op : OPS.values()) {
+			Histogram latency = LATENCIES[op.ordinal()];
+			if(latency.getCount() == 0) {
+				continue;
+			}
+			System.out.println(String.format("%-8s %10d %10.1f %10d %10d %10d %10d %8d", op.toString().toLowerCase(), latency.getCount(),
+					latency.getCount() / seconds, latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9),
+					latency.getMax(), FAILURES[op.ordinal()].get()));
+			total += latency.getCount();
+			failed += FAILURES[op.ordinal()].get();
+		}
+		System.out.println(String.format("%d clients, %.1f s: %.1f ops/s (%d failed)", clients, seconds, total / seconds, failed));
+	}
+
+	/* ASKS FOR SYSINFO UNTIL THE METASERVER COUNTS ENOUGH LIVE DATASERVERS! */
+	private static void waitForDataServers(String host, int expected) throws IOException, InterruptedException {
+		LoadClient probe = new LoadClient(-1, new int[OPS.values().length], 0);
+		probe.connect(host);
+		long deadline = System.currentTimeMillis()+STARTUP_TIMEOUT;
+		try {
+			while(true) {
+				for(String line : probe.request(Opcode.SYSINFO, null)) {
+					if(line.startsWith("Current DataServers: ")) {
+						int live = Integer.parseInt(line.substring("Current DataServers: ".length()).split(" ")[0]);
+						if(live >= expected) {
+							return;
+						}
+					}
+				}
+				if(System.currentTimeMillis() > deadline) {
+					throw new IOException("Fewer than "+expected+" DataServers came up within "+STARTUP_TIMEOUT+" ms.");
+				}
+				Thread.sleep(200);
+			}
+		} finally {
+			probe.close();
+		}
+	}
+
+	/** One client: a MetaServer connection, its DataServer connections and the directory it works in. */
+	private static class LoadClient {
+		private final String BASE;
+		private final int[] MIX;
+		private final int MIX_TOTAL;
+		private final byte[] DATA;
+		private final Random RANDOM;
+		private final List<String> DIRS = new ArrayList<String>();
+		private final List<String> FILES = new ArrayList<String>();
+		//one connection per DataServer, like the CLI keeps
+		private final Map<String, Link> LINKS = new HashMap<String, Link>();
+		private Link META = null;
+		private long REQUEST_ID = 0;
+		private int NAMES = 0;
+
+		LoadClient(int id, int[] mix, int bytes) {
+			this.BASE = "load/c"+id+"-"+Long.toHexString(System.nanoTime());
+			this.MIX = mix;
+			int total = 0;
+			for(int weight : mix) {
+				total += weight;
+			}
+			this.MIX_TOTAL = total;
+			this.DATA = new byte[bytes];
+			this.RANDOM = new Random(id);
+			RANDOM.nextBytes(DATA);
+		}
+
+		void connect(String host) throws IOException {
+			META = new Link(new Socket(host, META_PORT));
+			META.send(FrameEncoder.get().begin(Opcode.HELLO, 0)
+					.putServerInfo(new ServerInfo(InetAddress.getLocalHost().getHostAddress(), META_PORT, 0L, ServerInfo.TYPES.CLI)).finish());
+		}
+
+		void run(long deadline) throws IOException {
+			request(Opcode.MKDIRS, BASE);
+			while(System.currentTimeMillis() < deadline) {
+				OPS op = pick();
+				long start = System.nanoTime();
+				boolean ok = execute(op);
+				LATENCIES[op.ordinal()].recordSince(start);
+				if(!ok) {
+					FAILURES[op.ordinal()].increment();
+				}
+			}
+			request(Opcode.RMDIR, BASE);
+		}
+
+		/* A WEIGHTED PICK, BENT TOWARDS WHATEVER MAKES IT POSSIBLE (NO FILE TO WRITE YET? CREATE ONE) */
+		private OPS pick() {
+			int roll = RANDOM.nextInt(MIX_TOTAL);
+			OPS op = OPS.values()[0];
+			for(OPS candidate : OPS.values()) {
+				roll -= MIX[candidate.ordinal()];
+				if(roll < 0) {
+					op = candidate;
+					break;
+				}
+			}
+			if(op != OPS.MKDIR && op != OPS.LIST && op != OPS.CREATE && op != OPS.RMDIR && FILES.isEmpty()) {
+				op = OPS.CREATE;
+			}
+			if((op == OPS.CREATE || op == OPS.RMDIR) && DIRS.isEmpty()) {
+				op = OPS.MKDIR;
+			}
+			return op;
+		}
+
+		private boolean execute(OPS op) throws IOException {
+			switch(op) {
+			case MKDIR:
+				String dir = BASE+"/d"+(NAMES++);
+				DIRS.add(dir);
+				return request(Opcode.MKDIR, dir) != null;
+			case CREATE:
+				String file = random(DIRS)+"/f"+(NAMES++);
+				FILES.add(file);
+				return request(Opcode.CREATE, file) != null;
+			case LIST:
+				return request(Opcode.LIST, BASE) != null;
+			case RMDIR:
+				String removed = DIRS.remove(RANDOM.nextInt(DIRS.size()));
+				for(Iterator<String> files = FILES.iterator(); files.hasNext();) {
+					if(files.next().startsWith(removed+"/")) {
+						files.remove();
+					}
+				}
+				return request(Opcode.RMDIR, removed) != null;
+			case WRITE: return data(Opcode.WRITE, random(FILES));
+			case APPEND: return data(Opcode.APPEND, random(FILES));
+			case HEAD: return data(Opcode.HEAD, random(FILES));
+			default: return data(Opcode.TAIL, random(FILES));
+			}
+		}
+
+		private String random(List<String> paths) {
+			return paths.get(RANDOM.nextInt(paths.size()));
+		}
+
+		/* LOCATE, THEN THE FIRST DATASERVER THAT ANSWERS -- A WRITE PASSES DOWN THE REST OF THE CHAIN */
+		private boolean data(Opcode opcode, String path) throws IOException {
+			long locateId = ++REQUEST_ID;
+			META.send(FrameEncoder.get().begin(Opcode.LOCATE, locateId).putString(path).putByte((byte) 0).finish());
+			List<ServerInfo> locations = new ArrayList<ServerInfo>();
+			if(META.read(locateId, null, locations) != null) {
+				return false;
+			}
+
+			for(int i = 0; i < locations.size(); i++) {
+				ServerInfo location = locations.get(i);
+				String key = location.getAddress()+":"+location.getPort();
+				try {
+					Link link = LINKS.get(key);
+					if(link == null) {
+						link = new Link(new Socket(location.getAddress(), location.getPort()));
+						link.hello();
+						LINKS.put(key, link);
+					}
+					long id = ++REQUEST_ID;
+					FrameEncoder request = FrameEncoder.get().begin(opcode, id).putString(path);
+					if(opcode == Opcode.WRITE || opcode == Opcode.APPEND) {
+						List<ServerInfo> chain = locations.subList(i+1, locations.size());
+						request.putBytes(DATA).putChain(chain.toArray(new ServerInfo[chain.size()]));
+					}
+					link.send(request.finish());
+					return link.read(id, null, null) == null;
+				} catch (IOException e) {
+					Link link = LINKS.remove(key);
+					if(link != null) {
+						link.close();
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Sends a request to the MetaServer and waits for its reply.
+		 * @param path may be null for requests without one
+		 * @return the lines of the reply, or null if it had an ERROR in it
+		 */
+		List<String> request(Opcode opcode, String path) throws IOException {
+			long id = ++REQUEST_ID;
+			FrameEncoder request = FrameEncoder.get().begin(opcode, id);
+			if(path != null) {
+				request.putString(path);
+			}
+			META.send(request.finish());
+			List<String> lines = new ArrayList<String>();
+			return META.read(id, lines, null) == null ? lines : null;
+		}
+
+		void close() {
+			if(META != null) {
+				META.close();
+			}
+			for(Link link : LINKS.values()) {
+				link.close();
+			}
+		}
+	}
+
+	/** A blocking connection to one server. */
+	private static class Link {
+		private final Socket SOCKET;
+		private final DataOutputStream OUT;
+		private final DataInputStream IN;
+
+		Link(Socket socket) throws IOException {
+			this.SOCKET = socket;
+			this.OUT = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.IN = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		}
+
+		void hello() throws IOException {
+			Frame hello = Frame.read(IN);
+			if(hello == null || hello.getOpcode() != Opcode.HELLO) {
+				throw new IOException("Did not connect to a DataServer!");
+			}
+		}
+
+		void send(ByteBuffer frame) throws IOException {
+			OUT.write(frame.array(), frame.arrayOffset()+frame.position(), frame.remaining());
+			OUT.flush();
+		}
+
+		/**
+		 * Reads the reply to request id up to its END.
+		 * @param lines gets the LINEs, if not null
+		 * @param infos gets the INFOs, if not null
+		 * @return the first ERROR of the reply, or null if there was none
+		 */
+		String read(long id, List<String> lines, List<ServerInfo> infos) throws IOException {
+			String error = null;
+			Frame reply;
+			while((reply = Frame.read(IN)) != null) {
+				if(reply.getRequestId() != id) {
+					continue;
+				}
+				switch(reply.getOpcode()) {
+				case END: return error;
+				case LINE:
+					if(lines != null) {
+						lines.add(reply.readString());
+					}
+					break;
+				case INFO:
+					if(infos != null) {
+						infos.add(reply.readServerInfo());
+					}
+					break;
+				case ERROR:
+					if(error == null) {
+						error = reply.readString();
+					}
+					break;
+				default:
+					break;
+				}
+			}
+			throw new IOException("The server closed the connection.");
+		}
+
+		void close() {
+			try {
+				SOCKET.close();
+			} catch (IOException e) {
+				//nothing left to do with it
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package server.test.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import server.data.DataServer;
+import server.info.ServerInfo;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.Opcode;
+
+/**
+ * Starts a real DataServer in this JVM and times appends and head/tail
+ * reads against it over loopback, framed the way the CLI sends them. A
+ * stand-in MetaServer on port 7400 accepts the DataServer's connection and
+ * throws its heartbeats away, so nothing else runs in the background.
+ * Usage: DataServerBenchmark [bytes,bytes,...] (the append sizes)
+ */
+public class DataServerBenchmark {
+	private static final int META_PORT = 7400;
+	//head and tail read this much of a file this big
+	private static final int FILE_MEGABYTES = 8;
+	//an append file is started over once it gets this big, outside the timing
+	private static final long MAX_APPENDED = 64L*1024*1024;
+
+	private static DataOutputStream OUT;
+	private static DataInputStream IN;
+	private static long REQUEST_ID = 0;
+
+	public static void main(String[] args) throws IOException {
+		String[] sizes = (args.length > 0 ? args[0] : "128,4096,65536").split(",");
+
+		BenchmarkRunner runner = new BenchmarkRunner(DataServerBenchmark.class);
+		startMetaServerStandIn();
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		File dataDir = File.createTempFile("bench_data", "");
+		dataDir.delete();
+		new DataServer(null, port, dataDir.getPath()+"/");
+
+		Socket socket = new Socket(InetAddress.getLocalHost().getHostAddress(), port);
+		OUT = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		IN = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		Frame hello = Frame.read(IN);
+		if(hello == null || hello.getOpcode() != Opcode.HELLO) {
+			throw new IOException("Did not connect to a DataServer!");
+		}
+
+		for(String size : sizes) {
+			final byte[] data = new byte[Integer.parseInt(size.trim())];
+			new Random(42).nextBytes(data);
+			runner.param("bytes", data.length);
+			request(FrameEncoder.get().begin(Opcode.CREATE, ++REQUEST_ID).putString("bench/append/"+data.length).finish());
+			runner.measure("append", new BenchmarkRunner.Case() {
+				private long appended = 0;
+
+				@Override
+				public void setUp() throws IOException {
+					if(appended >= MAX_APPENDED) {
+						request(FrameEncoder.get().begin(Opcode.REMOVE, ++REQUEST_ID).putString("bench/append/"+data.length).finish());
+						request(FrameEncoder.get().begin(Opcode.CREATE, ++REQUEST_ID).putString("bench/append/"+data.length).finish());
+						appended = 0;
+					}
+				}
+
+				@Override
+				public int run() throws IOException {
+					request(FrameEncoder.get().begin(Opcode.APPEND, ++REQUEST_ID).putString("bench/append/"+data.length)
+							.putBytes(data).putChain(new ServerInfo[0]).finish());
+					appended += data.length;
+					return 1;
+				}
+			});
+		}
+
+		byte[] megabyte = new byte[1024*1024];
+		new Random(42).nextBytes(megabyte);
+		request(FrameEncoder.get().begin(Opcode.CREATE, ++REQUEST_ID).putString("bench/read").finish());
+		for(int i = 0; i < FILE_MEGABYTES; i++) {
+			request(FrameEncoder.get().begin(Opcode.APPEND, ++REQUEST_ID).putString("bench/read")
+					.putBytes(megabyte).putChain(new ServerInfo[0]).finish());
+		}
+		runner.param("bytes", megabyte.length);
+		for(final Opcode read : new Opcode[] {Opcode.HEAD, Opcode.TAIL}) {
+			runner.measure(read.toString().toLowerCase(), new BenchmarkRunner.Case() {
+				@Override
+				public int run() throws IOException {
+					BenchmarkRunner.SINK += request(FrameEncoder.encode(read, ++REQUEST_ID, "bench/read"));
+					return 1;
+				}
+			});
+		}
+
+		runner.writeResults();
+		socket.close();
+		delete(dataDir);
+		System.exit(0);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/* SENDS ONE REQUEST AND READS ITS REPLY UP TO END -- RETURNS THE BYTES OF DATA IN IT! */
+	private static long request(ByteBuffer frame) throws IOException {
+		OUT.write(frame.array(), frame.arrayOffset()+frame.position(), frame.remaining());
+		OUT.flush();
+		long received = 0;
+		Frame reply;
+		while((reply = Frame.read(IN)) != null) {
+			if(reply.getOpcode() == Opcode.END) {
+				return received;
+			}
+			if(reply.getOpcode() == Opcode.DATA) {
+				received += reply.readBytes().length;
+			}
+		}
+		throw new IOException("The DataServer closed the connection.");
+	}
+
+	private static void startMetaServerStandIn() throws IOException {
+		final ServerSocket meta = new ServerSocket(META_PORT);
+		Thread accept = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						final Socket dataServer = meta.accept();
+						Thread drain = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								byte[] buffer = new byte[8192];
+								try {
+									InputStream in = dataServer.getInputStream();
+									while(in.read(buffer) >= 0) {
+										//heartbeats and block reports
+									}
+								} catch (IOException e) {
+									//the benchmark is over
+								}
+							}
+						}, "MetaServer-standin");
+						drain.setDaemon(true);
+						drain.start();
+					}
+				} catch (IOException e) {
+					//the benchmark is over
+				}
+			}
+		}, "MetaServer-standin");
+		accept.setDaemon(true);
+		accept.start();
+	}
+}
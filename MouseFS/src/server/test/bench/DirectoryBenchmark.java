@@ -0,0 +1,119 @@
+package server.test.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import server.meta.namespace.INodeDirectory;
+import server.meta.util.Metadata;
+
+/**
+ * One directory at a few sizes: finding a file by name through the
+ * directory's hash index against the linear scan it replaced, adding every
+ * file to an empty directory, the first sorted listing after a change, and
+ * the next page of a listing after a change.
+ * Ten million files need a heap of about 3 GB (-Xmx3g).
+ * Usage: DirectoryBenchmark [files,files,...]
+ */
+public class DirectoryBenchmark {
+	//lookups per call, so the clock is read far less often than a file is found
+	private static final int BATCH = 1000;
+	//files a listing pulls from a directory at a time, as DirectoryWalk does
+	private static final int PAGE = 256;
+
+	public static void main(String[] args) throws IOException {
+		String[] sizes = (args.length > 0 ? args[0] : "10000,1000000,10000000").split(",");
+		BenchmarkRunner runner = new BenchmarkRunner(DirectoryBenchmark.class);
+
+		for(String size : sizes) {
+			final int files = Integer.parseInt(size.trim());
+			runner.param("files", files);
+
+			final List<Metadata> all = new ArrayList<Metadata>(files);
+			final INodeDirectory dir = new INodeDirectory("bench", null);
+			for(int i = 0; i < files; i++) {
+				Metadata metadata = new Metadata("part-"+i, 1L, 2L, (short) (Metadata.READ | Metadata.WRITE), "mouse", null);
+				all.add(metadata);
+				dir.addFile(metadata);
+			}
+			final String[] names = new String[BATCH];
+			for(int i = 0; i < BATCH; i++) {
+				//spread over the whole directory, one in ten missing
+				names[i] = "part-"+((long) i * 7919 % files)+(i % 10 == 0 ? "x" : "");
+			}
+
+			runner.measure("index.getFile", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(String name : names) {
+						Metadata found = dir.getFile(name);
+						BenchmarkRunner.SINK += found == null ? 0 : 1;
+					}
+					return BATCH;
+				}
+			});
+			runner.measure("scan.getFile", new BenchmarkRunner.Case() {
+				private int next = 0;
+
+				@Override
+				public int run() {
+					//what MetaServer.getFile did: walk the list until a name matches
+					String name = names[next++ % BATCH];
+					for(Metadata metadata : all) {
+						if(metadata.getFilename().equals(name)) {
+							BenchmarkRunner.SINK++;
+							break;
+						}
+					}
+					return 1;
+				}
+			});
+			runner.measure("index.addFile", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					//the same Metadata again, so only the index is new
+					INodeDirectory empty = new INodeDirectory("empty", null);
+					for(Metadata metadata : all) {
+						empty.addFile(metadata);
+					}
+					BenchmarkRunner.SINK += empty.getFileCount();
+					return files;
+				}
+			});
+			runner.measure("sorted.afterAdd", new BenchmarkRunner.Case() {
+				private int added = 0;
+
+				@Override
+				public void setUp() {
+					dir.addFile(new Metadata("added-"+(added++), 1L, 2L, (short) (Metadata.READ | Metadata.WRITE), "mouse", null));
+				}
+
+				@Override
+				public int run() {
+					BenchmarkRunner.SINK += dir.getSortedFiles().size();
+					return files;
+				}
+			});
+			runner.measure("page.afterAdd", new BenchmarkRunner.Case() {
+				private int added = 0;
+				private String cursor = null;
+
+				@Override
+				public void setUp() {
+					dir.addFile(new Metadata("paged-"+(added++), 1L, 2L, (short) (Metadata.READ | Metadata.WRITE), "mouse", null));
+				}
+
+				@Override
+				public int run() {
+					//one batch of a listing that pages on through a directory being written to
+					List<Metadata> page = dir.getFilesAfter(cursor, PAGE);
+					cursor = page.size() < PAGE ? null : page.get(page.size()-1).getFilename();
+					BenchmarkRunner.SINK += page.size();
+					return 1;
+				}
+			});
+		}
+
+		runner.writeResults();
+	}
+}
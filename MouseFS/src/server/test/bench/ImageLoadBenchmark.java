@@ -0,0 +1,69 @@
+package server.test.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.journal.FSImage;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+/**
+ * Builds a synthetic namespace, writes it as an image and times loading it back.
+ * Usage: ImageLoadBenchmark [files] [files per directory] [threads]
+ */
+public class ImageLoadBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		long files = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+		int perDir = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		File image = File.createTempFile("bench_image", ".img");
+		
+		long start = System.currentTimeMillis();
+		Namespace namespace = build(files, perDir);
+		System.out.println("Built "+files+" files in "+(System.currentTimeMillis()-start)+" ms.");
+		
+		start = System.currentTimeMillis();
+		FSImage.save(namespace, files, image);
+		System.out.println("Saved image of "+(image.length()/(1024*1024))+" MB in "+(System.currentTimeMillis()-start)+" ms.");
+		
+		//drop the source namespace so only the loaded copy is on the heap
+		namespace = null;
+		System.gc();
+		
+		start = System.currentTimeMillis();
+		FSImage loaded = FSImage.load(image, threads);
+		long elapsed = System.currentTimeMillis()-start;
+		System.out.println("Loaded image with "+threads+" threads in "+elapsed+" ms ("+(files*1000/Math.max(1, elapsed))+" files/s).");
+		System.out.println("Image txid: "+loaded.getTxid());
+		
+		image.delete();
+	}
+	
+	private static Namespace build(long files, int perDir) {
+		ServerInfo[] dataServers = new ServerInfo[3];
+		for(int i = 0; i < dataServers.length; i++) {
+			dataServers[i] = new DataServerInfo("10.0.0."+i, 7500, i, ServerInfo.TYPES.DATA);
+		}
+		long now = System.currentTimeMillis();
+		
+		Namespace namespace = new INodeTree();
+		INodeDirectory dir = null;
+		for(long i = 0; i < files; i++) {
+			if(i % perDir == 0) {
+				long d = i / perDir;
+				Metapath path = new Metapath("bench/"+(d/1000)+"/"+(d%1000));
+				namespace.mkdirs(path);
+				dir = namespace.getDirectory(path);
+			}
+			ServerInfo[] dataServer = { dataServers[(int) (i % dataServers.length)] };
+			dir.addFile(new Metadata("file_"+i, now, now, (short) (Metadata.READ | Metadata.WRITE), "mouse", dataServer));
+		}
+		return namespace;
+	}
+}
@@ -0,0 +1,120 @@
+package server.test.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+/**
+ * Heap the MetaServer spends per file: files are created the way
+ * MetaServer.createFile creates them, and the heap in use after a full
+ * collection is compared before and after. The namespace as it is now is
+ * measured against Metadata as it was, with its dates and permissions as
+ * Strings and a ServerInfo[] of its own, kept in a plain list per directory,
+ * so the old layout is not even charged for a name index.
+ * Usage: InodeMemoryBenchmark [files] [files per directory]
+ */
+public class InodeMemoryBenchmark {
+	private static final int ROUNDS = Integer.getInteger("bench.rounds", 3);
+
+	public static void main(String[] args) throws IOException {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int perDir = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int dirs = Math.max(1, files / perDir);
+		BenchmarkRunner runner = new BenchmarkRunner(InodeMemoryBenchmark.class);
+		runner.param("files", files).param("perDir", perDir);
+
+		ServerInfo[] live = new ServerInfo[5];
+		for(int i = 0; i < live.length; i++) {
+			live[i] = new DataServerInfo("10.0.0."+i, 7500, i, ServerInfo.TYPES.DATA);
+		}
+
+		double[] legacy = new double[ROUNDS];
+		double[] compact = new double[ROUNDS];
+		for(int round = 0; round < ROUNDS; round++) {
+			List<List<StringMetadata>> directories = new ArrayList<List<StringMetadata>>(dirs);
+			for(int d = 0; d < dirs; d++) {
+				directories.add(new ArrayList<StringMetadata>(10));
+			}
+			long before = usedHeap();
+			for(int i = 0; i < files; i++) {
+				Date now = new Date();
+				directories.get(i % dirs).add(new StringMetadata("file_"+i, now.toString(), now.toString(), "RW", "mouse", placement(live, i)));
+			}
+			legacy[round] = (double) (usedHeap()-before) / files;
+			BenchmarkRunner.SINK += directories.get(0).size();
+			directories = null;
+
+			Namespace namespace = new INodeTree();
+			for(int d = 0; d < dirs; d++) {
+				namespace.mkdirs(new Metapath(directory(d)));
+			}
+			before = usedHeap();
+			for(int i = 0; i < files; i++) {
+				long now = System.currentTimeMillis();
+				Metapath path = new Metapath(directory(i % dirs)+"/file_"+i);
+				namespace.getDirectory(path.getParent()).addFile(new Metadata(path.getEnd().toString(), now, now, (short) (Metadata.READ | Metadata.WRITE), "mouse", placement(live, i)));
+			}
+			compact[round] = (double) (usedHeap()-before) / files;
+			BenchmarkRunner.SINK += namespace.getDirectory(new Metapath(directory(0))).getFileCount();
+		}
+
+		runner.report("legacy", legacy, "B/file");
+		runner.report("compact", compact, "B/file");
+		System.out.println(String.format("%.1fx less heap per file.", mean(legacy) / mean(compact)));
+		runner.writeResults();
+	}
+
+	private static String directory(int d) {
+		return "bench/"+(d/100)+"/"+(d%100);
+	}
+
+	/* WHAT A PLACEMENT POLICY HANDS BACK: A NEW ARRAY OF THE LIVE ServerInfos */
+	private static ServerInfo[] placement(ServerInfo[] live, int i) {
+		return new ServerInfo[] {live[i % live.length], live[(i+1) % live.length], live[(i+2) % live.length]};
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+
+	private static double mean(double[] scores) {
+		double sum = 0;
+		for(double score : scores) {
+			sum += score;
+		}
+		return sum / scores.length;
+	}
+
+	/* METADATA AS IT WAS: TEXT DATES AND PERMISSIONS, AN ARRAY OF ServerInfo PER FILE */
+	@SuppressWarnings("unused")
+	private static class StringMetadata {
+		private final String filename;
+		private final String date_created;
+		private final String date_modified;
+		private final String permissions;
+		private final String owner;
+		private int blockCount = 0;
+		private final ServerInfo[] dataServer;
+
+		StringMetadata(String filename, String date_created, String date_modified, String permissions, String owner, ServerInfo[] dataServer) {
+			this.filename = filename;
+			this.date_created = date_created;
+			this.date_modified = date_modified;
+			this.permissions = permissions;
+			this.owner = owner;
+			this.dataServer = dataServer;
+		}
+	}
+}
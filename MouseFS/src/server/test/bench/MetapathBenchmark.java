@@ -0,0 +1,131 @@
+package server.test.bench;
+
+import java.io.IOException;
+
+import server.meta.util.Metapath;
+
+/**
+ * Compares Metapath with the split-based one it replaced, at a few path
+ * depths: taking the parent and the end of a path, and walking all the way
+ * up to the top-most directory the way a mkdirs or a permission check
+ * would.
+ * Usage: MetapathBenchmark [depth,depth,...]
+ */
+public class MetapathBenchmark {
+	//paths per call, so the clock is read far less often than a path is parsed
+	private static final int BATCH = 1000;
+
+	public static void main(String[] args) throws IOException {
+		String[] depths = (args.length > 0 ? args[0] : "2,8,32").split(",");
+		BenchmarkRunner runner = new BenchmarkRunner(MetapathBenchmark.class);
+
+		for(String depth : depths) {
+			final String path = path(Integer.parseInt(depth.trim()));
+			runner.param("depth", depth.trim());
+
+			runner.measure("split.getParent", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(int i = 0; i < BATCH; i++) {
+						BenchmarkRunner.SINK += new SplitMetapath(path).getParent().toString().length();
+					}
+					return BATCH;
+				}
+			});
+			runner.measure("offsets.getParent", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(int i = 0; i < BATCH; i++) {
+						BenchmarkRunner.SINK += new Metapath(path).getParent().getDepth();
+					}
+					return BATCH;
+				}
+			});
+
+			runner.measure("split.getEnd", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(int i = 0; i < BATCH; i++) {
+						BenchmarkRunner.SINK += new SplitMetapath(path).getEnd().toString().length();
+					}
+					return BATCH;
+				}
+			});
+			runner.measure("offsets.getEnd", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(int i = 0; i < BATCH; i++) {
+						BenchmarkRunner.SINK += new Metapath(path).getEnd().toString().length();
+					}
+					return BATCH;
+				}
+			});
+
+			runner.measure("split.ancestors", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(SplitMetapath p = new SplitMetapath(path); p != null; p = p.getParent()) {
+						BenchmarkRunner.SINK += p.toString().length();
+					}
+					return 1;
+				}
+			});
+			runner.measure("offsets.ancestors", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					for(Metapath p = new Metapath(path); p != null; p = p.getParent()) {
+						BenchmarkRunner.SINK += p.getDepth();
+					}
+					return 1;
+				}
+			});
+		}
+
+		runner.writeResults();
+	}
+
+	private static String path(int depth) {
+		StringBuilder path = new StringBuilder("user");
+		for(int i = 1; i < depth; i++) {
+			path.append("/dir").append(i);
+		}
+		return path.toString();
+	}
+
+	/* METAPATH AS IT WAS: EVERY CALL SPLITS THE WHOLE PATH AGAIN */
+	private static class SplitMetapath {
+		private final String path;
+
+		SplitMetapath(String path) {
+			this.path = path;
+		}
+
+		SplitMetapath getParent() {
+			String[] nodes = path.split("/");
+			if(nodes.length <= 1) {
+				return null;
+			}
+			String parentPath = "";
+			for(int i = 0; i < nodes.length-1; i++) {
+				if(i == nodes.length-2) {
+					parentPath += nodes[i];
+				} else {
+					parentPath += nodes[i] + "/";
+				}
+			}
+			return new SplitMetapath(parentPath);
+		}
+
+		SplitMetapath getEnd() {
+			String[] nodes = path.split("/");
+			if(nodes.length <= 1) {
+				return null;
+			}
+			return new SplitMetapath(nodes[nodes.length-1]);
+		}
+
+		public String toString() {
+			return path;
+		}
+	}
+}
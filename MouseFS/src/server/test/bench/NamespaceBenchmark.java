@@ -0,0 +1,185 @@
+package server.test.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.journal.FSImage;
+import server.meta.namespace.DirectoryWalk;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+/**
+ * Times the MetaServer's namespace hot paths at a few namespace sizes:
+ * Metapath parsing, and what mkdirs, create and list do to the namespace
+ * once the command is parsed, plus writing and loading the image the
+ * journal is checkpointed into. The edit log and the DataServers are left
+ * out, so only the in-memory work is measured.
+ * Usage: NamespaceBenchmark [files,files,...] [files per directory]
+ */
+public class NamespaceBenchmark {
+	private static final String[] PATHS = {"user/logs/2014/06/app.log", "a", "data/warehouse/sales/region=eu/day=01/part-00042"};
+	//paths parsed per call, so the clock is read far less often than a path is parsed
+	private static final int BATCH = 1000;
+
+	public static void main(String[] args) throws IOException {
+		String[] sizes = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+		final int perDir = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		BenchmarkRunner runner = new BenchmarkRunner(NamespaceBenchmark.class);
+
+		runner.measure("metapath.getParent", new BenchmarkRunner.Case() {
+			@Override
+			public int run() {
+				for(int i = 0; i < BATCH; i++) {
+					for(String path : PATHS) {
+						Metapath parent = new Metapath(path).getParent();
+						BenchmarkRunner.SINK += parent == null ? 0 : parent.toString().length();
+					}
+				}
+				return BATCH*PATHS.length;
+			}
+		});
+		runner.measure("metapath.getEnd", new BenchmarkRunner.Case() {
+			@Override
+			public int run() {
+				for(int i = 0; i < BATCH; i++) {
+					for(String path : PATHS) {
+						Metapath end = new Metapath(path).getEnd();
+						BenchmarkRunner.SINK += end == null ? 0 : end.toString().length();
+					}
+				}
+				return BATCH*PATHS.length;
+			}
+		});
+
+		final ServerInfo[] dataServers = dataServers();
+		for(String size : sizes) {
+			final int files = Integer.parseInt(size.trim());
+			final int dirs = Math.max(1, files / perDir);
+			runner.param("files", files).param("perDir", perDir);
+
+			runner.measure("mkdirs", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					Namespace namespace = new INodeTree();
+					for(int d = 0; d < dirs; d++) {
+						namespace.mkdirs(new Metapath(directory(d)));
+					}
+					BenchmarkRunner.SINK += namespace.isEmpty() ? 0 : 1;
+					return dirs;
+				}
+			});
+
+			runner.measure("create", new BenchmarkRunner.Case() {
+				private Namespace namespace;
+
+				@Override
+				public void setUp() {
+					namespace = directories(dirs);
+				}
+
+				@Override
+				public int run() {
+					long now = System.currentTimeMillis();
+					for(int i = 0; i < files; i++) {
+						//what MetaServer.createFile does with the path
+						Metapath path = new Metapath(directory(i % dirs)+"/file_"+i);
+						INodeDirectory parent = namespace.getDirectory(path.getParent());
+						parent.addFile(new Metadata(path.getEnd().toString(), now, now, (short) (Metadata.READ | Metadata.WRITE), "mouse", dataServers));
+					}
+					return files;
+				}
+			});
+
+			final Namespace full = build(files, perDir, dataServers);
+			runner.measure("list", new BenchmarkRunner.Case() {
+				@Override
+				public int run() {
+					//the walk of MetaServer.list -r over the whole tree, into nowhere
+					PrintWriter out = new PrintWriter(new NullWriter());
+					DirectoryWalk walk = new DirectoryWalk(full.getRoot(), null, true);
+					int listed = 0;
+					while(walk.hasNext()) {
+						out.println(walk.next());
+						listed++;
+					}
+					BenchmarkRunner.SINK += listed;
+					return Math.max(1, listed);
+				}
+			});
+
+			final File image = File.createTempFile("bench_image", ".img");
+			runner.measure("image.save", new BenchmarkRunner.Case() {
+				@Override
+				public int run() throws IOException {
+					FSImage.save(full, files, image);
+					BenchmarkRunner.SINK += image.length();
+					return files;
+				}
+			});
+			runner.measure("image.load", new BenchmarkRunner.Case() {
+				@Override
+				public int run() throws IOException {
+					FSImage loaded = FSImage.load(image, Runtime.getRuntime().availableProcessors());
+					BenchmarkRunner.SINK += loaded.getTxid();
+					return files;
+				}
+			});
+			image.delete();
+		}
+
+		runner.writeResults();
+	}
+
+	private static String directory(int d) {
+		return "bench/"+(d/100)+"/"+(d%100);
+	}
+
+	private static ServerInfo[] dataServers() {
+		ServerInfo[] dataServers = new ServerInfo[3];
+		for(int i = 0; i < dataServers.length; i++) {
+			dataServers[i] = new DataServerInfo("10.0.0."+i, 7500, i, ServerInfo.TYPES.DATA);
+		}
+		return dataServers;
+	}
+
+	private static Namespace directories(int dirs) {
+		Namespace namespace = new INodeTree();
+		for(int d = 0; d < dirs; d++) {
+			namespace.mkdirs(new Metapath(directory(d)));
+		}
+		return namespace;
+	}
+
+	private static Namespace build(int files, int perDir, ServerInfo[] dataServers) {
+		int dirs = Math.max(1, files / perDir);
+		Namespace namespace = directories(dirs);
+		long now = System.currentTimeMillis();
+		for(int i = 0; i < files; i++) {
+			INodeDirectory dir = namespace.getDirectory(new Metapath(directory(i % dirs)));
+			dir.addFile(new Metadata("file_"+i, now, now, (short) (Metadata.READ | Metadata.WRITE), "mouse", dataServers));
+		}
+		return namespace;
+	}
+
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] buffer, int offset, int length) {
+			BenchmarkRunner.SINK += length;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package server.test.bench;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+/**
+ * Many threads at once on one namespace, taking the namespace lock the way
+ * MetaServer does: creates into a directory per thread, creates all into the
+ * same directory, mkdirs, and lookups running next to creates. The edit log
+ * is left out, so only the namespace and its locking are measured; the score
+ * is wall time per operation over all threads, so it drops as they scale.
+ * Usage: NamespaceStressBenchmark [threads,threads,...] [operations per thread]
+ */
+public class NamespaceStressBenchmark {
+	private static final long NOW = System.currentTimeMillis();
+	private static final ServerInfo[] DATA_SERVERS = {
+		new DataServerInfo("10.0.0.1", 7500, 0, ServerInfo.TYPES.DATA),
+		new DataServerInfo("10.0.0.2", 7500, 1, ServerInfo.TYPES.DATA),
+		new DataServerInfo("10.0.0.3", 7500, 2, ServerInfo.TYPES.DATA)
+	};
+
+	/** What one thread does, op times over. */
+	private static abstract class Work {
+		abstract void run(Namespace namespace, int thread, int op);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String[] counts = (args.length > 0 ? args[0] : "1,2,4,8").split(",");
+		final int ops = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		BenchmarkRunner runner = new BenchmarkRunner(NamespaceStressBenchmark.class);
+
+		for(String count : counts) {
+			int threads = Integer.parseInt(count.trim());
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			runner.param("threads", threads).param("ops", ops);
+
+			runner.measure("create.distinct", new StressCase(pool, threads, ops, new Work() {
+				@Override
+				void run(Namespace namespace, int thread, int op) {
+					create(namespace, "stress/"+thread+"/file_"+op);
+				}
+			}));
+			runner.measure("create.shared", new StressCase(pool, threads, ops, new Work() {
+				@Override
+				void run(Namespace namespace, int thread, int op) {
+					create(namespace, "stress/0/file_"+thread+"_"+op);
+				}
+			}));
+			runner.measure("mkdir", new StressCase(pool, threads, ops, new Work() {
+				@Override
+				void run(Namespace namespace, int thread, int op) {
+					Lock lock = namespace.getLock().writeLock();
+					lock.lock();
+					try {
+						namespace.mkdirs(new Metapath("stress/"+thread+"/dir_"+op));
+					} finally {
+						lock.unlock();
+					}
+				}
+			}));
+			//every other thread looks up what the others create
+			runner.measure("create.lookup", new StressCase(pool, threads, ops, new Work() {
+				@Override
+				void run(Namespace namespace, int thread, int op) {
+					if(thread % 2 == 0) {
+						create(namespace, "stress/0/file_"+thread+"_"+op);
+						return;
+					}
+					Metapath path = new Metapath("stress/0/file_"+(thread-1)+"_"+op);
+					Metadata found = namespace.getDirectory(path.getParent()).getFile(path.getEnd().toString());
+					BenchmarkRunner.SINK += found == null ? 0 : 1;
+					if(op % 100 == 0) {
+						BenchmarkRunner.SINK += namespace.getDirectory(path.getParent()).getFiles().size();
+					}
+				}
+			}));
+			pool.shutdown();
+		}
+
+		runner.writeResults();
+	}
+
+	/* WHAT MetaServer.createFile DOES UNDER THE SHARED LOCK */
+	private static void create(Namespace namespace, String path) {
+		Metapath p = new Metapath(path);
+		Lock lock = namespace.getLock().readLock();
+		lock.lock();
+		try {
+			namespace.getDirectory(p.getParent()).addFile(new Metadata(p.getEnd().toString(), NOW, NOW, (short) (Metadata.READ | Metadata.WRITE), "mouse", DATA_SERVERS));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Starts every thread at once on a fresh namespace and waits for all of them. */
+	private static class StressCase extends BenchmarkRunner.Case {
+		private final ExecutorService pool;
+		private final int threads;
+		private final int ops;
+		private final Work work;
+		private Namespace namespace;
+
+		StressCase(ExecutorService pool, int threads, int ops, Work work) {
+			this.pool = pool;
+			this.threads = threads;
+			this.ops = ops;
+			this.work = work;
+		}
+
+		@Override
+		public void setUp() {
+			namespace = new INodeTree();
+			for(int t = 0; t < threads; t++) {
+				namespace.mkdirs(new Metapath("stress/"+t));
+			}
+		}
+
+		@Override
+		public int run() throws IOException {
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(threads);
+			final AtomicLong failed = new AtomicLong();
+			for(int t = 0; t < threads; t++) {
+				final int thread = t;
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for(int op = 0; op < ops; op++) {
+								work.run(namespace, thread, op);
+							}
+						} catch (Exception e) {
+							failed.incrementAndGet();
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			}
+			start.countDown();
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while waiting for the threads.", e);
+			}
+			if(failed.get() > 0) {
+				throw new IOException(failed.get()+" of "+threads+" threads failed.");
+			}
+			return threads*ops;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package server.test.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.Opcode;
+
+/**
+ * Compares the old text protocol (a Java-serialized ServerInfo, then
+ * readLine() and a startsWith() chain) with the binary frames, in memory so
+ * only encoding and decoding are timed.
+ * Usage: WireProtocolBenchmark [commands] [rounds]
+ */
+public class WireProtocolBenchmark {
+	private static final String[] PATHS = {"user/logs/2014/06/app.log", "user/tmp/a", "data/warehouse/part-00042"};
+	private static final String DATA = "the quick brown fox jumps over the lazy dog 0123456789";
+	
+	//stops the JIT from dropping work whose result is never used
+	private static long SINK = 0;
+	
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		int commands = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		DataServerInfo info = new DataServerInfo("10.0.0.1", 7500, 42L, ServerInfo.TYPES.DATA);
+		
+		//the last round is the one reported; the ones before warm up the JIT
+		for(int round = 1; round <= rounds; round++) {
+			boolean report = round == rounds;
+			
+			long start = System.nanoTime();
+			int textBytes = textHandshakes(info, commands/100);
+			long textHandshake = System.nanoTime()-start;
+			start = System.nanoTime();
+			int frameBytes = frameHandshakes(info, commands/100);
+			long frameHandshake = System.nanoTime()-start;
+			if(report) {
+				print("handshake", "text", textHandshake, commands/100, textBytes);
+				print("handshake", "frames", frameHandshake, commands/100, frameBytes);
+			}
+			
+			start = System.nanoTime();
+			textBytes = textCommands(commands);
+			long text = System.nanoTime()-start;
+			start = System.nanoTime();
+			frameBytes = frameCommands(commands);
+			long frames = System.nanoTime()-start;
+			if(report) {
+				print("command", "text", text, commands, textBytes);
+				print("command", "frames", frames, commands, frameBytes);
+			}
+		}
+		System.out.println("(checksum "+SINK+")");
+	}
+	
+	private static void print(String what, String protocol, long nanos, int count, int bytes) {
+		System.out.println(String.format("%-10s %-7s %8.1f ns/op %7.1f bytes/op", what, protocol,
+				(double) nanos / count, (double) bytes / count));
+	}
+	
+	/* THE OLD WAY: A FRESH OBJECT STREAM PER CONNECTION */
+	private static int textHandshakes(ServerInfo info, int count) throws IOException, ClassNotFoundException {
+		int bytes = 0;
+		for(int i = 0; i < count; i++) {
+			ByteArrayOutputStream wire = new ByteArrayOutputStream(512);
+			ObjectOutputStream out = new ObjectOutputStream(wire);
+			out.writeObject(info);
+			out.flush();
+			bytes += wire.size();
+			
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(wire.toByteArray()));
+			SINK += ((ServerInfo) in.readObject()).getPort();
+		}
+		return bytes;
+	}
+	
+	private static int frameHandshakes(ServerInfo info, int count) throws IOException {
+		int bytes = 0;
+		for(int i = 0; i < count; i++) {
+			ByteBuffer wire = FrameEncoder.get().begin(Opcode.HELLO, 0).putServerInfo(info).finish();
+			bytes += wire.remaining();
+			SINK += Frame.decode(wire).readServerInfo().getPort();
+		}
+		return bytes;
+	}
+	
+	/* THE OLD WAY: ONE LINE PER COMMAND, DISPATCHED LIKE THE OLD CONNECTION HANDLERS */
+	private static int textCommands(int count) throws IOException {
+		ByteArrayOutputStream wire = new ByteArrayOutputStream(count*64);
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(wire, Frame.UTF8));
+		for(int i = 0; i < count; i++) {
+			String path = PATHS[i % PATHS.length];
+			switch(i % 4) {
+			case 0: out.println("write "+path+" "+DATA); break;
+			case 1: out.println("head "+path); break;
+			case 2: out.println("mkdirs "+path); break;
+			default: out.println("create "+path); break;
+			}
+		}
+		out.flush();
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(wire.toByteArray()), Frame.UTF8));
+		String inputLine;
+		while((inputLine = in.readLine()) != null) {
+			if(inputLine.startsWith("save")) {
+				SINK += 1;
+			} else if(inputLine.startsWith("mkdirs")) {
+				SINK += inputLine.substring(6).trim().length();
+			} else if(inputLine.startsWith("mkdir")) {
+				SINK += inputLine.substring(5).trim().length();
+			} else if(inputLine.startsWith("rmdir")) {
+				SINK += inputLine.substring(5).trim().length();
+			} else if(inputLine.startsWith("create")) {
+				SINK += inputLine.substring(6).trim().length();
+			} else if(inputLine.startsWith("write")) {
+				String[] parsed = inputLine.substring(5).trim().split(" ",2);
+				SINK += parsed[0].length()+parsed[1].length();
+			} else if(inputLine.startsWith("append")) {
+				SINK += inputLine.substring(6).trim().length();
+			} else if(inputLine.startsWith("head")) {
+				SINK += inputLine.substring(4).trim().length();
+			}
+		}
+		return wire.size();
+	}
+	
+	private static int frameCommands(int count) throws IOException {
+		byte[] data = DATA.getBytes(Frame.UTF8);
+		ByteBuffer wire = ByteBuffer.allocate(count*64);
+		FrameEncoder encoder = FrameEncoder.get();
+		for(int i = 0; i < count; i++) {
+			String path = PATHS[i % PATHS.length];
+			switch(i % 4) {
+			case 0: wire.put(encoder.begin(Opcode.WRITE, i).putString(path).putBytes(data).finish()); break;
+			case 1: wire.put(encoder.begin(Opcode.HEAD, i).putString(path).finish()); break;
+			case 2: wire.put(encoder.begin(Opcode.MKDIRS, i).putString(path).finish()); break;
+			default: wire.put(encoder.begin(Opcode.CREATE, i).putString(path).finish()); break;
+			}
+		}
+		wire.flip();
+		int bytes = wire.remaining();
+		
+		Frame frame;
+		while((frame = Frame.decode(wire)) != null) {
+			switch(frame.getOpcode()) {
+			case WRITE: SINK += frame.readString().length()+frame.readBytes().length; break;
+			case HEAD: case MKDIRS: case CREATE: SINK += frame.readString().length(); break;
+			default: SINK += 1; break;
+			}
+		}
+		return bytes;
+	}
+}
@@ -1,52 +1,120 @@
-package server.test.util;
-
-import java.net.ConnectException;
-import java.util.Random;
-
-import server.data.DataServer;
-import server.meta.MetaServer;
-
-public class MiniLocalClusterDemo {
-	private static final int DATA_NUMBER = 3;
-	
-	@SuppressWarnings("unused")
-	public static void main(String[] args) {
-		MetaServerThread mst = new MetaServerThread();
-
-		for(int i = 0; i < DATA_NUMBER; i++) {
-			DataServerThread dst = new DataServerThread();
-		}
-	}	
-}
-
-class DataServerThread implements Runnable {
-	
-	public DataServerThread () {
-		Thread t = new Thread(this);
-		t.start();
-	}
-
-	@Override
-	public void run() {
-		int port = Math.abs((new Random().nextInt() % 60000));
-		try {
-			new DataServer(null, port, "./data_"+port+"/");
-		} catch (ConnectException e) {
-			System.err.println("Failed to start DataServer.");
-		}
-	}	
-}
-
-class MetaServerThread implements Runnable {
-
-	public MetaServerThread() {
-		Thread t = new Thread(this);
-		t.start();
-	}
-
-	@Override
-	public void run() {
-		int port = 7400;
-		new MetaServer(port, "./meta_"+port+"/");
-	}	
-}
\ No newline at end of file
+package server.test.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import server.data.DataServer;
+import server.meta.MetaServer;
+
+/**
+ * A MetaServer and DATA_NUMBER DataServers in one JVM. Every server only
+ * starts once the one it connects to accepts connections, so the
+ * DataServers never race the MetaServer's bind.
+ */
+public class MiniLocalClusterDemo {
+	private static final int DATA_NUMBER = 3;
+	public static final int META_PORT = 7400;
+	//how long a server gets to start accepting connections
+	private static final long STARTUP_TIMEOUT = 30000L;
+
+	public static void main(String[] args) throws IOException {
+		start(DATA_NUMBER, "./");
+	}
+
+	/**
+	 * Starts the MetaServer, waits for it to accept connections, then does
+	 * the same for every DataServer in turn.
+	 * @param dir where the meta_ and data_ directories go; ends with a '/'
+	 * @return the ports of the DataServers
+	 */
+	public static List<Integer> start(int dataServers, String dir) throws IOException {
+		new MetaServerThread(META_PORT, dir+"meta_"+META_PORT+"/");
+		waitForPort(META_PORT);
+
+		List<Integer> ports = new ArrayList<Integer>();
+		for(int i = 0; i < dataServers; i++) {
+			int port = freePort();
+			new DataServerThread(port, dir+"data_"+port+"/");
+			waitForPort(port);
+			ports.add(port);
+		}
+		return ports;
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		try {
+			return probe.getLocalPort();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/* POLLS UNTIL SOMETHING ACCEPTS ON port -- THE SERVERS BIND FROM THEIR OWN THREADS! */
+	private static void waitForPort(int port) throws IOException {
+		String address = InetAddress.getLocalHost().getHostAddress();
+		long deadline = System.currentTimeMillis()+STARTUP_TIMEOUT;
+		while(true) {
+			Socket probe = new Socket();
+			try {
+				probe.connect(new InetSocketAddress(address, port), 1000);
+				return;
+			} catch (IOException e) {
+				if(System.currentTimeMillis() > deadline) {
+					throw new IOException("Nothing accepted connections on port "+port+" within "+STARTUP_TIMEOUT+" ms.", e);
+				}
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ie) {
+					throw new IOException("Interrupted while waiting for port "+port+".", ie);
+				}
+			} finally {
+				probe.close();
+			}
+		}
+	}
+}
+
+class DataServerThread implements Runnable {
+	private final int port;
+	private final String path;
+
+	public DataServerThread(int port, String path) {
+		this.port = port;
+		this.path = path;
+		Thread t = new Thread(this, "DataServer-"+port);
+		t.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			new DataServer(null, port, path);
+		} catch (ConnectException e) {
+			System.err.println("Failed to start DataServer.");
+		}
+	}
+}
+
+class MetaServerThread implements Runnable {
+	private final int port;
+	private final String path;
+
+	public MetaServerThread(int port, String path) {
+		this.port = port;
+		this.path = path;
+		Thread t = new Thread(this, "MetaServer-"+port);
+		t.start();
+	}
+
+	@Override
+	public void run() {
+		new MetaServer(port, path);
+	}
+}
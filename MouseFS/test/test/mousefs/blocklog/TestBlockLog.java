@@ -0,0 +1,145 @@
+package test.mousefs.blocklog;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.data.journal.BlockLog;
+import server.data.util.Block;
+
+public class TestBlockLog {
+	private File log;
+	private File image;
+	
+	@Before
+	public void setUp() throws IOException {
+		log = File.createTempFile("data_blocks", ".log");
+		log.delete();
+		image = new File(log.getPath()+".img");
+	}
+	
+	@After
+	public void tearDown() {
+		log.delete();
+		image.delete();
+	}
+	
+	private ConcurrentHashMap<String, ArrayList<Block>> reopen() throws IOException {
+		ConcurrentHashMap<String, ArrayList<Block>> cache = new ConcurrentHashMap<String, ArrayList<Block>>();
+		BlockLog blockLog = new BlockLog(log.getPath(), image.getPath(), cache);
+		blockLog.open();
+		blockLog.close();
+		return cache;
+	}
+	
+	private BlockLog create(ConcurrentHashMap<String, ArrayList<Block>> cache) throws IOException {
+		BlockLog blockLog = new BlockLog(log.getPath(), image.getPath(), cache);
+		blockLog.open();
+		return blockLog;
+	}
+	
+	private void add(ConcurrentHashMap<String, ArrayList<Block>> cache, BlockLog blockLog, String path) throws IOException {
+		Block block = new Block();
+		ArrayList<Block> blocks = new ArrayList<Block>();
+		blocks.add(block);
+		cache.put(path, blocks);
+		blockLog.logAddBlock(path, block);
+	}
+	
+	@Test
+	public void testReplay() throws IOException {
+		ConcurrentHashMap<String, ArrayList<Block>> cache = new ConcurrentHashMap<String, ArrayList<Block>>();
+		BlockLog blockLog = create(cache);
+		assertFalse(image.exists());
+		add(cache, blockLog, "a/f1");
+		add(cache, blockLog, "a/f2");
+		cache.remove("a/f1");
+		blockLog.logRemove("a/f1", 1);
+		blockLog.close();
+		
+		ConcurrentHashMap<String, ArrayList<Block>> copy = reopen();
+		assertEquals(1, copy.size());
+		assertEquals(cache.get("a/f2").get(0).getID(), copy.get("a/f2").get(0).getID());
+	}
+	
+	@Test
+	public void testCompactionKeepsLogSmall() throws IOException {
+		ConcurrentHashMap<String, ArrayList<Block>> cache = new ConcurrentHashMap<String, ArrayList<Block>>();
+		BlockLog blockLog = create(cache);
+		
+		//create and remove the same files over and over; the live map stays tiny
+		for(int i = 0; i < 30000; i++) {
+			add(cache, blockLog, "a/f"+(i%10));
+			if(i%10 == 9) {
+				for(int j = 0; j < 10; j++) {
+					cache.remove("a/f"+j);
+					blockLog.logRemove("a/f"+j, 1);
+				}
+			}
+		}
+		add(cache, blockLog, "a/last");
+		blockLog.close();
+		
+		assertTrue(image.exists());
+		assertTrue(log.length() < 10000L*30);
+		ConcurrentHashMap<String, ArrayList<Block>> copy = reopen();
+		assertEquals(1, copy.size());
+		assertEquals(cache.get("a/last").get(0).getID(), copy.get("a/last").get(0).getID());
+	}
+	
+	@Test
+	public void testTornRecord() throws IOException {
+		ConcurrentHashMap<String, ArrayList<Block>> cache = new ConcurrentHashMap<String, ArrayList<Block>>();
+		BlockLog blockLog = create(cache);
+		add(cache, blockLog, "a/f1");
+		add(cache, blockLog, "a/f2");
+		blockLog.compact();
+		add(cache, blockLog, "a/f3");
+		add(cache, blockLog, "a/f4");
+		blockLog.close();
+		
+		RandomAccessFile raf = new RandomAccessFile(log, "rw");
+		raf.setLength(raf.length()-3);
+		raf.close();
+		
+		ConcurrentHashMap<String, ArrayList<Block>> copy = reopen();
+		assertEquals(3, copy.size());
+		assertNull(copy.get("a/f4"));
+		assertNotNull(copy.get("a/f3"));
+	}
+	
+	@Test
+	public void testSaturatedBlocks() throws IOException {
+		ConcurrentHashMap<String, ArrayList<Block>> cache = new ConcurrentHashMap<String, ArrayList<Block>>();
+		BlockLog blockLog = create(cache);
+		add(cache, blockLog, "a/f1");
+		Block first = cache.get("a/f1").get(0);
+		first.setSaturated(true);
+		blockLog.logSaturate("a/f1", first);
+		Block second = new Block();
+		cache.get("a/f1").add(second);
+		blockLog.logAddBlock("a/f1", second);
+		blockLog.close();
+		
+		ArrayList<Block> copy = reopen().get("a/f1");
+		assertEquals(2, copy.size());
+		assertTrue(copy.get(0).isSaturated());
+		assertFalse(copy.get(1).isSaturated());
+		
+		//the flag survives compaction into the image too
+		blockLog = create(cache);
+		blockLog.compact();
+		blockLog.close();
+		copy = reopen().get("a/f1");
+		assertTrue(copy.get(0).isSaturated());
+		assertEquals(second.getID(), copy.get(1).getID());
+	}
+}
@@ -0,0 +1,241 @@
+package test.mousefs.data;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.data.DataServer;
+import server.info.ServerInfo;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.Opcode;
+
+public class TestDataServer {
+	//small enough that a few KB span several blocks, and not a divisor of a head or tail
+	private static final long BLOCK_SIZE = 4000;
+	//bytes a head or tail sends back
+	private static final int READ_SIZE = 1024*1024;
+	private static final String PATH = "/dir/file";
+
+	private ServerSocket metaServer;
+	private Socket meta;
+	private File dir;
+	private DataServer dataServer;
+	private Socket socket;
+	private DataInputStream in;
+	private long requestId = 0;
+
+	@Before
+	public void setUp() throws IOException {
+		//stands in for the MetaServer; DataServers always dial port 7400
+		metaServer = new ServerSocket(7400);
+		dir = File.createTempFile("dataserver", "");
+		dir.delete();
+		dir.mkdirs();
+
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		dataServer = new DataServer("127.0.0.1", port, dir.getPath()+"/", BLOCK_SIZE);
+		meta = metaServer.accept();
+
+		socket = new Socket("127.0.0.1", port);
+		in = new DataInputStream(socket.getInputStream());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		socket.close();
+		dataServer.stop();
+		meta.close();
+		metaServer.close();
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/* SENDS A REQUEST AND COLLECTS THE REPLY UP TO ITS END */
+	private List<Frame> call(Opcode opcode, byte[] data) throws IOException {
+		long id = ++requestId;
+		FrameEncoder encoder = FrameEncoder.get().begin(opcode, id).putString(PATH);
+		if(data != null) {
+			encoder.putBytes(data).putChain(new ServerInfo[0]);
+		}
+		ByteBuffer request = encoder.finish();
+		socket.getOutputStream().write(request.array(), request.position(), request.remaining());
+
+		List<Frame> reply = new ArrayList<Frame>();
+		while(true) {
+			Frame frame = Frame.read(in);
+			assertNotNull(frame);
+			if(frame.getOpcode() == Opcode.HELLO) {
+				continue;
+			}
+			assertEquals(id, frame.getRequestId());
+			if(frame.getOpcode() == Opcode.END) {
+				return reply;
+			}
+			reply.add(frame);
+		}
+	}
+
+	private byte[] read(Opcode opcode) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for(Frame frame : call(opcode, null)) {
+			assertEquals(Opcode.DATA, frame.getOpcode());
+			data.write(frame.readBytes());
+		}
+		return data.toByteArray();
+	}
+
+	/* EVERY BLOCK OF THE FILE AS {id, length, saturated} */
+	private List<long[]> blocks() throws IOException {
+		List<long[]> blocks = new ArrayList<long[]>();
+		for(Frame frame : call(Opcode.BLOCKS, null)) {
+			assertEquals(Opcode.BLOCK, frame.getOpcode());
+			blocks.add(new long[] {frame.readLong(), frame.readLong(), frame.readByte()});
+		}
+		return blocks;
+	}
+
+	private Set<String> blockFiles(String subdir) {
+		return new HashSet<String>(Arrays.asList(new File(dir, subdir).list()));
+	}
+
+	/* CHECKS THE LENGTHS OF THE BLOCKS, AND THAT EXACTLY THE SATURATED ONES ARE IN finalized/ */
+	private void assertBlocks(long... lengths) throws IOException {
+		List<long[]> blocks = blocks();
+		assertEquals(lengths.length, blocks.size());
+		Set<String> finalized = new HashSet<String>();
+		Set<String> working = new HashSet<String>();
+		for(int i = 0; i < lengths.length; i++) {
+			long[] block = blocks.get(i);
+			assertEquals(lengths[i], block[1]);
+			assertEquals(lengths[i] == BLOCK_SIZE, block[2] == 1);
+			(block[2] == 1 ? finalized : working).add("blk_"+block[0]);
+		}
+		assertEquals(finalized, blockFiles("finalized"));
+		assertEquals(working, blockFiles("tmp"));
+	}
+
+	private static byte[] random(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] both = Arrays.copyOf(a, a.length+b.length);
+		System.arraycopy(b, 0, both, a.length, b.length);
+		return both;
+	}
+
+	@Test
+	public void testBlocksRollOver() throws IOException {
+		call(Opcode.CREATE, null);
+		assertBlocks(0);
+
+		byte[] file = random((int) (2*BLOCK_SIZE+BLOCK_SIZE/2), 1);
+		call(Opcode.WRITE, file);
+		assertBlocks(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE/2);
+
+		//filling the last block exactly saturates it
+		byte[] fill = random((int) (BLOCK_SIZE/2), 2);
+		call(Opcode.APPEND, fill);
+		file = concat(file, fill);
+		assertBlocks(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE);
+
+		//so the next append starts a fresh one
+		byte[] more = random(10, 3);
+		call(Opcode.APPEND, more);
+		file = concat(file, more);
+		assertBlocks(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE, 10);
+
+		assertArrayEquals(file, read(Opcode.READ));
+	}
+
+	@Test
+	public void testHeadAndTailAcrossBlocks() throws IOException {
+		call(Opcode.CREATE, null);
+		//the head ends and the tail starts in the middle of a block
+		byte[] file = random(READ_SIZE+6000, 4);
+		call(Opcode.WRITE, file);
+		assertEquals(file.length / BLOCK_SIZE + 1, blocks().size());
+
+		assertArrayEquals(Arrays.copyOfRange(file, 0, READ_SIZE), read(Opcode.HEAD));
+		assertArrayEquals(Arrays.copyOfRange(file, file.length-READ_SIZE, file.length), read(Opcode.TAIL));
+		assertArrayEquals(file, read(Opcode.READ));
+	}
+
+	@Test
+	public void testPipelinedReads() throws IOException {
+		call(Opcode.CREATE, null);
+		byte[] file = random((int) (5*BLOCK_SIZE+7), 7);
+		call(Opcode.WRITE, file);
+
+		//send them all before reading any reply; the replies may come back interleaved
+		Map<Long, ByteArrayOutputStream> replies = new HashMap<Long, ByteArrayOutputStream>();
+		for(int i = 0; i < 50; i++) {
+			long id = ++requestId;
+			replies.put(id, new ByteArrayOutputStream());
+			ByteBuffer request = FrameEncoder.get().begin(Opcode.READ, id).putString(PATH).finish();
+			socket.getOutputStream().write(request.array(), request.position(), request.remaining());
+		}
+		int ended = 0;
+		while(ended < replies.size()) {
+			Frame frame = Frame.read(in);
+			assertNotNull(frame);
+			if(frame.getOpcode() == Opcode.HELLO) {
+				continue;
+			}
+			assertTrue(replies.containsKey(frame.getRequestId()));
+			if(frame.getOpcode() == Opcode.END) {
+				ended++;
+			} else {
+				assertEquals(Opcode.DATA, frame.getOpcode());
+				replies.get(frame.getRequestId()).write(frame.readBytes());
+			}
+		}
+		for(ByteArrayOutputStream reply : replies.values()) {
+			assertArrayEquals(file, reply.toByteArray());
+		}
+	}
+
+	@Test
+	public void testOverwriteDropsOldBlocks() throws IOException {
+		call(Opcode.CREATE, null);
+		call(Opcode.WRITE, random((int) (3*BLOCK_SIZE+1), 5));
+		assertBlocks(BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE, 1);
+
+		byte[] file = random(5, 6);
+		call(Opcode.WRITE, file);
+		assertBlocks(5);
+		assertArrayEquals(file, read(Opcode.READ));
+	}
+}
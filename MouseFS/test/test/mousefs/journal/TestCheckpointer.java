@@ -0,0 +1,91 @@
+package test.mousefs.journal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.meta.journal.Checkpointer;
+import server.meta.journal.EditLog;
+import server.meta.journal.FSImage;
+import server.meta.namespace.INodeTree;
+import server.meta.namespace.Namespace;
+import server.meta.util.Metapath;
+
+public class TestCheckpointer {
+	private File dir;
+	private String prefix;
+	private File image;
+	
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("meta", "");
+		dir.delete();
+		dir.mkdirs();
+		prefix = dir.getPath()+"/meta_edits_";
+		image = new File(dir, "meta_image.img");
+	}
+	
+	@After
+	public void tearDown() {
+		for(File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	@Test
+	public void testCheckpointDoesNotTouchLiveNamespace() throws IOException {
+		INodeTree live = new INodeTree();
+		EditLog log = new EditLog(prefix);
+		log.open(0, 0);
+		Checkpointer checkpointer = new Checkpointer(log, prefix, image, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+		checkpointer.saveNamespace(live);
+		
+		live.mkdirs(new Metapath("a/b"));
+		log.logSync(log.logMkdirs("a/b"));
+		live.mkdir(new Metapath("c"));
+		log.logSync(log.logMkdir("c"));
+		
+		assertEquals(2, checkpointer.doCheckpoint());
+		assertEquals(2, checkpointer.getLastCheckpointTxid());
+		
+		//edits after the roll land in the new segment only
+		live.mkdir(new Metapath("d"));
+		log.logSync(log.logMkdir("d"));
+		assertEquals(1, EditLog.getSegments(prefix).size());
+		
+		FSImage loaded = FSImage.load(image, 2);
+		Namespace namespace = loaded.getNamespace();
+		assertEquals(2, loaded.getTxid());
+		assertNotNull(namespace.getDirectory(new Metapath("a/b")));
+		assertNotNull(namespace.getDirectory(new Metapath("c")));
+		assertNull(namespace.getDirectory(new Metapath("d")));
+		
+		assertEquals(3, checkpointer.doCheckpoint());
+		assertNotNull(FSImage.load(image, 2).getNamespace().getDirectory(new Metapath("d")));
+		log.close();
+	}
+	
+	@Test
+	public void testFormat() throws IOException {
+		INodeTree live = new INodeTree();
+		EditLog log = new EditLog(prefix);
+		log.open(0, 0);
+		Checkpointer checkpointer = new Checkpointer(log, prefix, image, 0, Long.MAX_VALUE, Long.MAX_VALUE);
+		checkpointer.saveNamespace(live);
+		
+		live.mkdir(new Metapath("a"));
+		log.logSync(log.logMkdir("a"));
+		checkpointer.format(live);
+		
+		assertTrue(live.isEmpty());
+		assertTrue(FSImage.load(image, 1).getNamespace().isEmpty());
+		assertEquals(1, checkpointer.doCheckpoint());
+		log.close();
+	}
+}
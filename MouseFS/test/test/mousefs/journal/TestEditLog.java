@@ -0,0 +1,184 @@
+package test.mousefs.journal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.journal.EditLog;
+import server.meta.journal.EditLogLoader;
+import server.meta.namespace.INodeTree;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+public class TestEditLog {
+	private File dir;
+	private String prefix;
+	
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("meta", "");
+		dir.delete();
+		dir.mkdirs();
+		prefix = dir.getPath()+"/meta_edits_";
+	}
+	
+	@After
+	public void tearDown() {
+		for(File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	@Test
+	public void testReplay() throws IOException {
+		EditLog log = new EditLog(prefix);
+		log.open(0, 0);
+		log.logMkdirs("a/b");
+		log.logMkdir("c");
+		ServerInfo[] dataServer = { new DataServerInfo("127.0.0.1", 7500, 42L, ServerInfo.TYPES.DATA) };
+		log.logCreate("a/b/file", new Metadata("file", 1000L, 2000L, (short) (Metadata.READ | Metadata.WRITE), "me", dataServer));
+		long last = log.logRmdir("c");
+		log.logSync(last);
+		log.close();
+		
+		INodeTree tree = new INodeTree();
+		EditLogLoader loader = new EditLogLoader(prefix);
+		assertEquals(4, loader.load(tree, 0));
+		assertEquals(last, loader.getLastTxid());
+		assertEquals(EditLog.getSegments(prefix).get(0).length(), loader.getValidLength());
+		assertNull(tree.getDirectory(new Metapath("c")));
+		Metadata file = tree.getDirectory(new Metapath("a/b")).getFiles().get(0);
+		assertEquals("file", file.getFilename());
+		assertEquals("me", file.getOwner());
+		assertEquals(7500, file.getDataServer()[0].getPort());
+		assertEquals(1000L, file.getCreated());
+		assertEquals(2000L, file.getModified());
+		
+		//edits already in the image are skipped
+		tree = new INodeTree();
+		assertEquals(2, loader.load(tree, 2));
+	}
+	
+	@Test
+	public void testGroupCommit() throws Exception {
+		final EditLog log = new EditLog(prefix);
+		log.open(0, 0);
+		
+		Thread[] threads = new Thread[8];
+		for(int i = 0; i < threads.length; i++) {
+			final int id = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 100; j++) {
+						log.logSync(log.logMkdirs("t"+id+"/d"+j));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		
+		assertEquals(800, log.getLastTxid());
+		
+		//edits buffered before anybody syncs go to disk with the first sync; the other callers find them there
+		final long[] txids = new long[threads.length];
+		for(int i = 0; i < txids.length; i++) {
+			txids[i] = log.logMkdirs("batch/d"+i);
+		}
+		long syncs = log.getSyncCount();
+		for(int i = 0; i < threads.length; i++) {
+			final int id = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					log.logSync(txids[id]);
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		assertEquals(syncs+1, log.getSyncCount());
+		log.close();
+		
+		INodeTree tree = new INodeTree();
+		assertEquals(808, new EditLogLoader(prefix).load(tree, 0));
+		assertNotNull(tree.getDirectory(new Metapath("t7/d99")));
+		assertNotNull(tree.getDirectory(new Metapath("batch/d7")));
+	}
+	
+	@Test
+	public void testTornRecord() throws IOException {
+		EditLog log = new EditLog(prefix);
+		log.open(0, 0);
+		log.logSync(log.logMkdir("a"));
+		log.logSync(log.logMkdir("b"));
+		log.close();
+		
+		//cut the last record in half
+		RandomAccessFile raf = new RandomAccessFile(EditLog.getSegments(prefix).get(0), "rw");
+		raf.setLength(raf.length()-2);
+		raf.close();
+		
+		INodeTree tree = new INodeTree();
+		EditLogLoader loader = new EditLogLoader(prefix);
+		assertEquals(1, loader.load(tree, 0));
+		assertNull(tree.getDirectory(new Metapath("b")));
+		
+		//appending continues right after the last whole record
+		log = new EditLog(prefix);
+		log.open(loader.getValidLength(), loader.getLastTxid());
+		log.logSync(log.logMkdir("c"));
+		log.close();
+		
+		tree = new INodeTree();
+		assertEquals(2, new EditLogLoader(prefix).load(tree, 0));
+		assertNotNull(tree.getDirectory(new Metapath("c")));
+	}
+	
+	@Test
+	public void testRollAndPurge() throws IOException {
+		EditLog log = new EditLog(prefix);
+		log.open(0, 0);
+		log.logSync(log.logMkdir("a"));
+		log.logMkdir("b");
+		
+		//rolling flushes edits that were logged but not yet synced
+		assertEquals(2, log.roll());
+		log.logSync(log.logMkdir("c"));
+		
+		ArrayList<File> segments = EditLog.getSegments(prefix);
+		assertEquals(2, segments.size());
+		assertEquals(1, EditLog.getFirstTxid(segments.get(0)));
+		assertEquals(3, EditLog.getFirstTxid(segments.get(1)));
+		
+		INodeTree tree = new INodeTree();
+		assertEquals(2, new EditLogLoader(prefix).load(tree, 0, 2));
+		assertNull(tree.getDirectory(new Metapath("c")));
+		
+		log.purge(2);
+		assertEquals(1, EditLog.getSegments(prefix).size());
+		tree = new INodeTree();
+		assertEquals(1, new EditLogLoader(prefix).load(tree, 2));
+		assertNotNull(tree.getDirectory(new Metapath("c")));
+		
+		//the segment being written to survives any purge
+		log.purge(Long.MAX_VALUE);
+		assertEquals(1, EditLog.getSegments(prefix).size());
+		log.close();
+	}
+}
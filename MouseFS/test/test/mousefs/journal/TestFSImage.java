@@ -0,0 +1,114 @@
+package test.mousefs.journal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.journal.FSImage;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+public class TestFSImage {
+	private File image;
+	
+	@Before
+	public void setUp() throws IOException {
+		image = File.createTempFile("meta_image", ".img");
+	}
+	
+	@After
+	public void tearDown() {
+		image.delete();
+	}
+	
+	@Test
+	public void testRoundTrip() throws IOException {
+		ServerInfo[] dataServer = { new DataServerInfo("127.0.0.1", 7500, 42L, ServerInfo.TYPES.DATA) };
+		INodeTree tree = new INodeTree();
+		tree.mkdirs(new Metapath("a/b/c"));
+		tree.mkdirs(new Metapath("empty"));
+		
+		//enough files to span several sections
+		for(int i = 0; i < 200; i++) {
+			tree.mkdirs(new Metapath("big/d"+i));
+			INodeDirectory dir = tree.getDirectory(new Metapath("big/d"+i));
+			for(int j = 0; j < 1000; j++) {
+				dir.addFile(new Metadata("f"+j, 1000L+j, 2000L+j, (short) (Metadata.READ | Metadata.WRITE), "owner"+(j%3), dataServer));
+			}
+		}
+		tree.getDirectory(new Metapath("a/b")).addFile(new Metadata("\u00fcnicode", 1L, 2L, (short) (Metadata.READ | Metadata.WRITE), "me", dataServer));
+		
+		assertFalse(FSImage.isImage(image));
+		FSImage.save(tree, 1234L, image);
+		assertTrue(FSImage.isImage(image));
+		
+		FSImage loaded = FSImage.load(image, 4);
+		assertEquals(1234L, loaded.getTxid());
+		
+		INodeTree copy = (INodeTree) loaded.getNamespace();
+		assertNotNull(copy.getDirectory(new Metapath("a/b/c")));
+		assertNotNull(copy.getDirectory(new Metapath("empty")));
+		assertEquals(200, copy.getDirectory(new Metapath("big")).getChildren().size());
+		
+		Metadata file = copy.getDirectory(new Metapath("big/d199")).getFiles().get(999);
+		assertEquals("f999", file.getFilename());
+		assertEquals("owner0", file.getOwner());
+		assertEquals(1000L+999, file.getCreated());
+		assertEquals(2000L+999, file.getModified());
+		assertEquals(Metadata.READ | Metadata.WRITE, file.getPermissions());
+		assertEquals("127.0.0.1:7500", file.getDataServer()[0].toString());
+		assertEquals(42L, file.getDataServer()[0].getID());
+		
+		//DataServers are shared through the table instead of copied per file
+		Metadata other = copy.getDirectory(new Metapath("big/d0")).getFiles().get(0);
+		assertSame(file.getDataServer()[0], other.getDataServer()[0]);
+		
+		assertEquals("\u00fcnicode", copy.getDirectory(new Metapath("a/b")).getFiles().get(0).getFilename());
+	}
+	
+	@Test
+	public void testSaveReplaces() throws IOException {
+		INodeTree tree = new INodeTree();
+		tree.mkdirs(new Metapath("old"));
+		FSImage.save(tree, 1, image);
+		tree.mkdirs(new Metapath("new"));
+		FSImage.save(tree, 2, image);
+		
+		assertFalse(new File(image.getPath()+".tmp").exists());
+		FSImage loaded = FSImage.load(image, 4);
+		assertEquals(2, loaded.getTxid());
+		assertNotNull(loaded.getNamespace().getDirectory(new Metapath("new")));
+	}
+	
+	@Test
+	public void testJavaSerializedMetadata() throws IOException, ClassNotFoundException {
+		//journals from before the image hold Metadata with its dates and permissions as text
+		ServerInfo[] dataServer = { new DataServerInfo("127.0.0.1", 7500, 42L, ServerInfo.TYPES.DATA) };
+		Metadata metadata = new Metadata("f", 1400000000000L, 1400000001000L, Metadata.READ, "me", dataServer);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(metadata);
+		out.close();
+		
+		Metadata copy = (Metadata) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals("f", copy.getFilename());
+		assertEquals(1400000000000L, copy.getCreated());
+		assertEquals(1400000001000L, copy.getModified());
+		assertEquals(Metadata.READ, copy.getPermissions());
+		assertEquals("me", copy.getOwner());
+		assertEquals(7500, copy.getDataServer()[0].getPort());
+	}
+}
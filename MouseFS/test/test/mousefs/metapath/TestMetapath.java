@@ -1,33 +1,84 @@
-package test.mousefs.metapath;
-
-import static org.junit.Assert.*;
-
-import org.junit.Test;
-
-import server.meta.util.Metapath;
-
-public class TestMetapath {
-
-	@Test
-	public void test() {
-		Metapath a = new Metapath("/");
-		Metapath b = new Metapath("test");
-		Metapath c = new Metapath("test/lewis");
-		Metapath x = new Metapath("test/lewis/hard/work/porn/plamen");
-		Metapath p = new Metapath("");
-		Metapath q = p.getParent();
-		Metapath r = a.getParent();
-		Metapath s = b.getParent();
-		Metapath t = c.getParent();
-		Metapath y = x.getParent();
-		Metapath z = y.getParent();
-		
-		assertNull(q);
-		assertNull(r);
-		assertNull(s);
-		assertTrue(t.toString().equals("test"));
-		assertTrue(y.toString().equals("test/lewis/hard/work/porn"));
-		assertTrue(z.toString().equals("test/lewis/hard/work"));
-	}
-	
-}
+package test.mousefs.metapath;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import server.meta.util.Metapath;
+
+public class TestMetapath {
+
+	@Test
+	public void test() {
+		Metapath a = new Metapath("/");
+		Metapath b = new Metapath("test");
+		Metapath c = new Metapath("test/lewis");
+		Metapath x = new Metapath("test/lewis/hard/work/porn/plamen");
+		Metapath p = new Metapath("");
+		Metapath q = p.getParent();
+		Metapath r = a.getParent();
+		Metapath s = b.getParent();
+		Metapath t = c.getParent();
+		Metapath y = x.getParent();
+		Metapath z = y.getParent();
+		
+		assertNull(q);
+		assertNull(r);
+		assertNull(s);
+		assertTrue(t.toString().equals("test"));
+		assertTrue(y.toString().equals("test/lewis/hard/work/porn"));
+		assertTrue(z.toString().equals("test/lewis/hard/work"));
+	}
+	
+	@Test
+	public void testEndAndDepth() {
+		Metapath x = new Metapath("test/lewis/hard/work");
+		assertEquals(4, x.getDepth());
+		assertEquals("work", x.getEnd().toString());
+		assertEquals("hard", x.getParent().getEnd().toString());
+		assertEquals(1, x.getEnd().getDepth());
+		assertEquals("lewis", x.getName(1));
+		assertEquals(Arrays.asList("test", "lewis", "hard"), Arrays.asList(x.getParent().getNames()));
+		
+		//one name has no parent and no end of its own
+		assertNull(new Metapath("test").getEnd());
+		assertEquals(0, new Metapath("").getDepth());
+		assertEquals(0, new Metapath("/").getDepth());
+		assertEquals(0, new Metapath("").getNames().length);
+	}
+	
+	@Test
+	public void testSplitLikeNames() {
+		//the same names String.split("/") finds
+		assertEquals("a/", new Metapath("a//b").getParent().toString());
+		assertEquals("", new Metapath("/a").getParent().toString());
+		assertEquals("a", new Metapath("a/b/").getParent().toString());
+		assertEquals("a/b/", new Metapath("a/b/").toString());
+		assertEquals(2, new Metapath("a/b/").getDepth());
+	}
+	
+	@Test
+	public void testStartsWithWholeNames() {
+		Metapath path = new Metapath("a/bc/d");
+		assertTrue(path.startsWith(new Metapath("a")));
+		assertTrue(path.startsWith(new Metapath("a/bc")));
+		assertTrue(path.startsWith(path.getParent()));
+		assertTrue(path.startsWith(new Metapath("")));
+		assertFalse(path.startsWith(new Metapath("a/b")));
+		assertFalse(path.startsWith(new Metapath("a/bc/d/e")));
+		assertFalse(new Metapath("ab/y").startsWith(new Metapath("a")));
+	}
+	
+	@Test
+	public void testEquals() {
+		Metapath parent = new Metapath("x/y/z").getParent();
+		assertEquals(new Metapath("x/y"), parent);
+		assertEquals(new Metapath("x/y").hashCode(), parent.hashCode());
+		assertTrue(parent.equals("x/y"));
+		assertFalse(parent.equals("x/y/z"));
+		assertFalse(parent.equals(null));
+		assertTrue(new Metapath("x/y/z").getEnd().equals("z"));
+	}
+}
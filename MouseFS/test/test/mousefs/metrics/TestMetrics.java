@@ -0,0 +1,95 @@
+package test.mousefs.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import server.metrics.Counter;
+import server.metrics.Histogram;
+import server.metrics.MetricsRegistry;
+
+public class TestMetrics {
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentile(99));
+		for(long value = 1; value <= 100000; value++) {
+			histogram.record(value);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000, histogram.getMax());
+		assertEquals(50000.5, histogram.getMean(), 0.001);
+
+		//never more than about 3% off, whatever the magnitude
+		assertEquals(50000, histogram.getPercentile(50), 50000*0.035);
+		assertEquals(99000, histogram.getPercentile(99), 99000*0.035);
+		assertEquals(99900, histogram.getPercentile(99.9), 99900*0.035);
+		assertEquals(100000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testSmallValuesExact() {
+		Histogram histogram = new Histogram();
+		for(int i = 0; i < 10; i++) {
+			histogram.record(i);
+		}
+		//one bucket per value below 64
+		assertEquals(4, histogram.getPercentile(50));
+		assertEquals(9, histogram.getPercentile(99));
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testCounterAcrossThreads() throws InterruptedException {
+		final Counter counter = new Counter();
+		final Histogram histogram = new Histogram();
+		Thread[] threads = new Thread[8];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 10000; j++) {
+						counter.increment();
+						histogram.record(j);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(80000, counter.get());
+		assertEquals(80000, histogram.getCount());
+		assertEquals(9999, histogram.getMax());
+	}
+
+	@Test
+	public void testPrint() {
+		MetricsRegistry metrics = new MetricsRegistry();
+		metrics.counter("bytes.written").add(42);
+		metrics.histogram("op.create").record(100);
+		metrics.gauge("connections", new MetricsRegistry.Gauge() {
+			@Override
+			public long get() {
+				return 3;
+			}
+		});
+		assertSame(metrics.counter("bytes.written"), metrics.counter("bytes.written"));
+
+		StringWriter printed = new StringWriter();
+		PrintWriter out = new PrintWriter(printed);
+		metrics.print(out);
+		out.flush();
+		String[] lines = printed.toString().split("\r?\n");
+		assertEquals(3, lines.length);
+		assertEquals("  bytes.written\t42", lines[0]);
+		assertEquals("  connections\t3", lines[1]);
+		assertTrue(lines[2].startsWith("  op.create\tcount=1 p50=100"));
+	}
+}
@@ -0,0 +1,108 @@
+package test.mousefs.namespace;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.meta.namespace.DirectoryWalk;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+public class TestDirectoryWalk {
+
+	private static INodeTree tree() {
+		INodeTree tree = new INodeTree();
+		tree.mkdirs(new Metapath("d/b/y"));
+		tree.mkdirs(new Metapath("d/a"));
+		tree.mkdirs(new Metapath("d/c"));
+		file(tree, "d/c");
+		file(tree, "d/b/x");
+		file(tree, "d/b/y/z");
+		file(tree, "d/e");
+		return tree;
+	}
+
+	private static void file(INodeTree tree, String path) {
+		Metapath p = new Metapath(path);
+		tree.getDirectory(p.getParent()).addFile(new Metadata(p.getEnd().toString(), 1L, 2L, (short) (Metadata.READ | Metadata.WRITE), "me", null));
+	}
+
+	/* EVERYTHING FROM cursor ON, page ENTRIES AT A TIME, EVERY PAGE A NEW WALK */
+	private static List<String> pages(INodeDirectory start, boolean recursive, int page) {
+		List<String> all = new ArrayList<String>();
+		String cursor = null;
+		while(true) {
+			DirectoryWalk walk = new DirectoryWalk(start, cursor, recursive);
+			int listed = 0;
+			while(listed < page && walk.hasNext()) {
+				cursor = walk.next();
+				all.add(cursor);
+				listed++;
+			}
+			if(!walk.hasNext()) {
+				return all;
+			}
+		}
+	}
+
+	@Test
+	public void testNameOrder() {
+		INodeDirectory d = tree().getDirectory(new Metapath("d"));
+		//the directory c comes right before the file c
+		assertEquals(Arrays.asList("a/", "b/", "c/", "c", "e"), pages(d, false, 100));
+		assertEquals(Arrays.asList("a/", "b/", "b/x", "b/y/", "b/y/z", "c/", "c", "e"), pages(d, true, 100));
+	}
+
+	@Test
+	public void testPagesAddUp() {
+		INodeDirectory d = tree().getDirectory(new Metapath("d"));
+		List<String> whole = pages(d, true, 100);
+		for(int page = 1; page <= whole.size(); page++) {
+			assertEquals(whole, pages(d, true, page));
+		}
+		assertEquals(pages(d, false, 100), pages(d, false, 1));
+	}
+
+	@Test
+	public void testBigDirectory() {
+		INodeTree tree = new INodeTree();
+		tree.mkdirs(new Metapath("big"));
+		for(int i = 0; i < 1000; i++) {
+			file(tree, "big/f"+(1000+i));
+			if(i % 10 == 0) {
+				tree.mkdirs(new Metapath("big/d"+(1000+i)));
+			}
+		}
+		INodeDirectory big = tree.getDirectory(new Metapath("big"));
+		List<String> whole = pages(big, false, 100000);
+		assertEquals(1100, whole.size());
+		assertEquals("d1000/", whole.get(0));
+		assertEquals("f1999", whole.get(1099));
+		assertEquals(whole, pages(big, false, 37));
+	}
+
+	@Test
+	public void testCursorIntoRemovedDirectory() {
+		INodeTree tree = tree();
+		INodeDirectory d = tree.getDirectory(new Metapath("d"));
+		tree.remove(new Metapath("d/b"));
+		List<String> rest = new ArrayList<String>();
+		DirectoryWalk walk = new DirectoryWalk(d, "b/y/z", true);
+		while(walk.hasNext()) {
+			rest.add(walk.next());
+		}
+		assertEquals(Arrays.asList("c/", "c", "e"), rest);
+
+		try {
+			new DirectoryWalk(d, "b/x", false);
+			fail("A cursor inside a subdirectory only makes sense recursively.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
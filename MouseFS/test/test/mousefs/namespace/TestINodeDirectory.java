@@ -0,0 +1,141 @@
+package test.mousefs.namespace;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+public class TestINodeDirectory {
+
+	private static Metadata file(String name) {
+		return new Metadata(name, 1L, 2L, (short) (Metadata.READ | Metadata.WRITE), "owner", null);
+	}
+
+	@Test
+	public void testLookupAfterGrowing() {
+		INodeDirectory dir = new INodeDirectory("d", null);
+		for(int i = 0; i < 100000; i++) {
+			assertTrue(dir.addFile(file("file_"+i)));
+		}
+		assertEquals(100000, dir.getFileCount());
+		for(int i = 0; i < 100000; i += 997) {
+			assertEquals("file_"+i, dir.getFile("file_"+i).getFilename());
+		}
+		assertNull(dir.getFile("file_100000"));
+		assertNull(dir.getFile("file_"));
+		//still in the order they were added
+		assertEquals("file_99999", dir.getFiles().get(99999).getFilename());
+	}
+
+	@Test
+	public void testNamesAreUnique() {
+		INodeDirectory dir = new INodeDirectory("d", null);
+		assertTrue(dir.addFile(new Metadata("a", 1L, 2L, Metadata.READ, "first", null)));
+		assertFalse(dir.addFile(new Metadata("a", 1L, 2L, Metadata.READ, "second", null)));
+		assertEquals("first", dir.getFile("a").getOwner());
+
+		dir.addFiles(Arrays.asList(file("b"), file("a"), file("c")));
+		assertEquals(3, dir.getFileCount());
+		assertEquals("first", dir.getFile("a").getOwner());
+	}
+
+	@Test
+	public void testEveryFieldComesBack() {
+		INodeDirectory dir = new INodeDirectory("d", null);
+		ServerInfo[] dataServers = {
+			new DataServerInfo("10.0.0.1", 7500, 1L, ServerInfo.TYPES.DATA),
+			new DataServerInfo("10.0.0.2", 7500, 2L, ServerInfo.TYPES.DATA)
+		};
+		dir.addFile(new Metadata("\u00fcnicode", 1234567890123L, 1234567890456L, (short) (Metadata.READ | Metadata.EXECUTE), "me", dataServers));
+		dir.addFile(new Metadata("bare", 0L, 0L, (short) 0, null, null));
+
+		Metadata file = dir.getFile("\u00fcnicode");
+		assertEquals(1234567890123L, file.getCreated());
+		assertEquals(1234567890456L, file.getModified());
+		assertEquals("RX", Metadata.formatPermissions(file.getPermissions()));
+		assertEquals("me", file.getOwner());
+		assertEquals(2, file.getDataServer().length);
+		assertEquals("10.0.0.2:7500", file.getDataServer()[1].toString());
+		assertNull(dir.getFile("bare").getOwner());
+		assertNull(dir.getFile("bare").getDataServer());
+
+		//a DataServer back under a new id stands for itself in every file from then on
+		ServerInfo restarted = new DataServerInfo("10.0.0.1", 7500, 3L, ServerInfo.TYPES.DATA);
+		dir.addFile(new Metadata("later", 0L, 0L, Metadata.READ, "me", new ServerInfo[] {restarted}));
+		assertSame(restarted, dir.getFile("\u00fcnicode").getDataServer()[0]);
+	}
+
+	@Test
+	public void testSortedFiles() {
+		INodeDirectory dir = new INodeDirectory("d", null);
+		for(String name : new String[] {"m", "b", "z", "a"}) {
+			dir.addFile(file(name));
+		}
+		assertEquals(Arrays.asList("a", "b", "m", "z"), names(dir.getSortedFiles()));
+
+		//the sorted view follows later adds
+		dir.addFile(file("c"));
+		assertEquals(Arrays.asList("a", "b", "c", "m", "z"), names(dir.getSortedFiles()));
+		assertEquals(Arrays.asList("m", "b", "z", "a", "c"), names(dir.getFiles()));
+	}
+
+	@Test
+	public void testPagesFollowAdds() {
+		INodeDirectory dir = new INodeDirectory("d", null);
+		TreeSet<String> expected = new TreeSet<String>();
+		Random random = new Random(11);
+		//enough adds that the latest ones are merged into the rest a few times over
+		for(int i = 0; i < 20000; i++) {
+			String name = "f"+random.nextInt(1000000);
+			assertEquals(expected.add(name), dir.addFile(file(name)));
+			if(i % 37 == 0) {
+				String cursor = i % 74 == 0 ? null : "f"+random.nextInt(1000000);
+				List<String> page = new ArrayList<String>(cursor == null ? expected : expected.tailSet(cursor, false));
+				page = page.subList(0, Math.min(50, page.size()));
+				assertEquals(page, names(dir.getFilesAfter(cursor, 50)));
+			}
+		}
+		assertEquals(new ArrayList<String>(expected), names(dir.getSortedFiles()));
+	}
+
+	@Test
+	public void testChildrenAfter() {
+		INodeDirectory dir = new INodeDirectory("d", null);
+		INodeTree tree = new INodeTree(dir);
+		for(String name : new String[] {"m", "b", "z", "a"}) {
+			tree.mkdirs(new Metapath(name));
+		}
+		assertEquals(Arrays.asList("a", "b"), childNames(dir.getChildrenAfter(null, 2)));
+		assertEquals(Arrays.asList("m", "z"), childNames(dir.getChildrenAfter("c", 10)));
+		assertEquals(Arrays.asList("z"), childNames(dir.getChildrenAfter("m", 10)));
+		assertTrue(dir.getChildrenAfter("z", 10).isEmpty());
+	}
+
+	private static List<String> childNames(List<INodeDirectory> dirs) {
+		List<String> names = new ArrayList<String>();
+		for(INodeDirectory dir : dirs) {
+			names.add(dir.getName());
+		}
+		return names;
+	}
+
+	private static List<String> names(List<Metadata> files) {
+		List<String> names = new ArrayList<String>();
+		for(Metadata metadata : files) {
+			names.add(metadata.getFilename());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,117 @@
+package test.mousefs.namespace;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import server.meta.namespace.INodeDirectory;
+import server.meta.namespace.INodeTree;
+import server.meta.util.Metadata;
+import server.meta.util.Metapath;
+
+public class TestINodeTree {
+
+	@Test
+	public void testMkdirs() {
+		INodeTree tree = new INodeTree();
+		assertTrue(tree.isEmpty());
+		
+		List<INodeDirectory> created = tree.mkdirs(new Metapath("a/b/c"));
+		assertEquals(3, created.size());
+		assertEquals("a", created.get(0).getFullPath());
+		assertEquals("a/b/c", created.get(2).getFullPath());
+		assertFalse(tree.isEmpty());
+		
+		//only the missing tail gets created the second time around
+		created = tree.mkdirs(new Metapath("a/b/d"));
+		assertEquals(1, created.size());
+		assertTrue(tree.mkdirs(new Metapath("a/b")).isEmpty());
+	}
+	
+	@Test
+	public void testMkdir() {
+		INodeTree tree = new INodeTree();
+		assertNull(tree.mkdir(new Metapath("a/b")));
+		assertNotNull(tree.mkdir(new Metapath("a")));
+		assertNotNull(tree.mkdir(new Metapath("a/b")));
+		assertNull(tree.mkdir(new Metapath("a/b")));
+		assertEquals("a/b", tree.getDirectory(new Metapath("a/b")).getFullPath());
+		assertSame(tree.getDirectory(new Metapath("a")), tree.getParentDirectory(new Metapath("a/b")));
+		assertSame(tree.getRoot(), tree.getParentDirectory(new Metapath("a")));
+	}
+	
+	@Test
+	public void testRemoveOnlyTouchesSubtree() {
+		INodeTree tree = new INodeTree();
+		tree.mkdirs(new Metapath("a/x"));
+		tree.mkdirs(new Metapath("ab/y"));
+		
+		INodeDirectory removed = tree.remove(new Metapath("a"));
+		assertNotNull(removed);
+		assertEquals("a/x", removed.getChild("x").getFullPath());
+		assertNull(tree.getDirectory(new Metapath("a")));
+		assertNull(tree.getDirectory(new Metapath("a/x")));
+		assertNotNull(tree.getDirectory(new Metapath("ab/y")));
+		
+		assertNull(tree.remove(new Metapath("a")));
+		assertNull(tree.remove(new Metapath("")));
+	}
+	
+	@Test
+	public void testClear() {
+		INodeTree tree = new INodeTree();
+		tree.mkdirs(new Metapath("a/b"));
+		tree.mkdirs(new Metapath("c"));
+		tree.clear();
+		assertTrue(tree.isEmpty());
+		assertNull(tree.getDirectory(new Metapath("c")));
+	}
+	
+	@Test
+	public void testConcurrentCreates() throws InterruptedException {
+		final INodeTree tree = new INodeTree();
+		final int threads = 8;
+		final int files = 500;
+		tree.mkdirs(new Metapath("shared"));
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger failures = new AtomicInteger();
+		
+		for(int t = 0; t < threads; t++) {
+			final int id = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						//half the files go into a directory of this thread's own, mkdirs racing the others
+						for(int i = 0; i < files; i++) {
+							tree.mkdirs(new Metapath("own/"+id));
+							tree.getDirectory(new Metapath("own/"+id)).addFile(new Metadata("f"+i, 0L, 0L, (short) (Metadata.READ | Metadata.WRITE), "mouse", null));
+							tree.getDirectory(new Metapath("shared")).addFile(new Metadata(id+"_"+i, 0L, 0L, (short) (Metadata.READ | Metadata.WRITE), "mouse", null));
+							tree.getDirectory(new Metapath("shared")).getFiles();
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		
+		assertEquals(0, failures.get());
+		assertEquals(threads*files, tree.getDirectory(new Metapath("shared")).getFileCount());
+		assertEquals(threads, tree.getDirectory(new Metapath("own")).getChildren().size());
+		for(int t = 0; t < threads; t++) {
+			assertEquals(files, tree.getDirectory(new Metapath("own/"+t)).getFileCount());
+		}
+		assertNotNull(tree.getDirectory(new Metapath("shared")).getFile("3_7"));
+	}
+}
@@ -0,0 +1,276 @@
+package test.mousefs.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.ConnectionHandlerFactory;
+import server.net.DataServerPool;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.FrameWriter;
+import server.net.Opcode;
+import server.net.ScatterGather;
+import server.net.SelectorServer;
+import server.net.TaskExecutor;
+
+public class TestDataServerPool {
+	private SelectorServer dataServer;
+	private DataServerPool pool;
+	private ServerInfo info;
+	
+	//answers HEAD path with the path twice (HEAD hang never), SHUTDOWN by closing the connection
+	private static class FakeDataServer implements ConnectionHandler {
+		private final Connection connection;
+		private final ServerInfo info;
+		
+		FakeDataServer(Connection connection, ServerInfo info) {
+			this.connection = connection;
+			this.info = info;
+		}
+		
+		@Override
+		public void connected() {
+			connection.send(FrameEncoder.get().begin(Opcode.HELLO, 0).putServerInfo(info).finish());
+		}
+
+		@Override
+		public Object decode(ByteBuffer in) throws IOException {
+			return Frame.decode(in);
+		}
+
+		@Override
+		public void handle(Object object) {
+			Frame frame = (Frame) object;
+			if(frame.getOpcode() == Opcode.SHUTDOWN) {
+				connection.close();
+				return;
+			}
+			FrameWriter out = new FrameWriter(connection, frame.getRequestId());
+			try {
+				String path = frame.readString();
+				if(path.equals("hang")) {
+					return;
+				}
+				out.println(path);
+				out.println(path);
+			} catch (IOException e) {
+				out.println("malformed");
+			}
+			out.release();
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+	
+	private static class Reply implements DataServerPool.Listener {
+		final List<String> lines = new CopyOnWriteArrayList<String>();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile String failure = null;
+		
+		@Override
+		public void onLine(String line) {
+			lines.add(line);
+		}
+		
+		@Override
+		public void onData(byte[] data) {
+			lines.add(new String(data, Frame.UTF8));
+		}
+		
+		@Override
+		public void onBlock(long id, long length, boolean saturated) {
+			lines.add("blk_"+id);
+		}
+		
+		@Override
+		public void onInfo(ServerInfo info) {
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(String reason) {
+			failure = reason;
+			done.countDown();
+		}
+	}
+	
+	@Before
+	public void setUp() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		
+		info = new DataServerInfo("127.0.0.1", port, 1L, ServerInfo.TYPES.DATA);
+		dataServer = new SelectorServer("fake-data", 1, 4, new ConnectionHandlerFactory() {
+			@Override
+			public ConnectionHandler newHandler(Connection connection) {
+				return new FakeDataServer(connection, info);
+			}
+		});
+		dataServer.bind(port);
+		pool = new DataServerPool("test-pool", new TaskExecutor("test-pool", TaskExecutor.MODES.PLATFORM, 4, 1000), 1);
+	}
+	
+	@After
+	public void tearDown() {
+		pool.shutdown();
+		dataServer.shutdown();
+	}
+	
+	@Test
+	public void testManyRequestsOnOneConnection() throws InterruptedException {
+		List<Reply> replies = new CopyOnWriteArrayList<Reply>();
+		for(int i = 0; i < 500; i++) {
+			Reply reply = new Reply();
+			replies.add(reply);
+			pool.send(info, Opcode.HEAD, "echo "+i, null, reply);
+		}
+		
+		for(int i = 0; i < replies.size(); i++) {
+			Reply reply = replies.get(i);
+			assertTrue(reply.done.await(10, TimeUnit.SECONDS));
+			assertNull(reply.failure);
+			assertEquals(Collections.nCopies(2, "echo "+i), reply.lines);
+		}
+		assertEquals(1, pool.getConnectionCount());
+		assertEquals(0, pool.getInFlight());
+	}
+	
+	@Test
+	public void testLostConnectionFailsAndReconnects() throws InterruptedException {
+		Reply hangup = new Reply();
+		pool.send(info, Opcode.SHUTDOWN, null, null, hangup);
+		assertTrue(hangup.done.await(10, TimeUnit.SECONDS));
+		assertNotNull(hangup.failure);
+		
+		Reply reply = new Reply();
+		pool.send(info, Opcode.HEAD, "echo again", null, reply);
+		assertTrue(reply.done.await(10, TimeUnit.SECONDS));
+		assertNull(reply.failure);
+		assertEquals(2, reply.lines.size());
+	}
+	
+	@Test
+	public void testUnreachableDataServers() throws InterruptedException {
+		//nothing answers there: the connect runs on the loop, not on the caller
+		ServerInfo unroutable = new DataServerInfo("10.255.255.1", 7500, 2L, ServerInfo.TYPES.DATA);
+		Reply lost = new Reply();
+		long start = System.currentTimeMillis();
+		pool.send(unroutable, Opcode.HEAD, "echo", null, lost);
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertTrue(lost.done.await(DataServerPool.CONNECT_TIMEOUT+5000, TimeUnit.MILLISECONDS));
+		assertNotNull(lost.failure);
+		
+		//a DataServer that is not live is not even dialed
+		pool.setLiveness(new DataServerPool.Liveness() {
+			@Override
+			public boolean isLive(ServerInfo dataServer) {
+				return dataServer != info;
+			}
+		});
+		Reply skipped = new Reply();
+		pool.send(info, Opcode.HEAD, "echo", null, skipped);
+		assertTrue(skipped.done.await(1, TimeUnit.SECONDS));
+		assertNotNull(skipped.failure);
+		assertEquals(0, pool.getConnectionCount());
+	}
+	
+	@Test
+	public void testScatterGatherDeadline() throws IOException, InterruptedException {
+		ServerSocket probe = new ServerSocket(0);
+		ServerInfo nobody = new DataServerInfo("127.0.0.1", probe.getLocalPort(), 2L, ServerInfo.TYPES.DATA);
+		probe.close();
+		
+		final AtomicReference<ScatterGather> result = new AtomicReference<ScatterGather>();
+		final CountDownLatch done = new CountDownLatch(1);
+		ScatterGather.Callback callback = new ScatterGather.Callback() {
+			@Override
+			public void onGathered(ScatterGather gathered) {
+				result.set(gathered);
+				done.countDown();
+			}
+		};
+		
+		//everyone answers: done long before the deadline
+		long start = System.currentTimeMillis();
+		new ScatterGather(pool, Arrays.asList(info, info), Opcode.HEAD, "echo").send(60000, callback);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		assertEquals(2, result.get().count(ScatterGather.STATES.ANSWERED));
+		assertEquals(Arrays.asList("echo", "echo"), result.get().getReplies().get(1).getLines());
+		
+		//one hangs, one cannot be reached: the rest still comes back, on time
+		final CountDownLatch partial = new CountDownLatch(1);
+		new ScatterGather(pool).add(info, Opcode.HEAD, "a").add(info, Opcode.HEAD, "hang").add(nobody, Opcode.HEAD, "b")
+			.send(500, new ScatterGather.Callback() {
+				@Override
+				public void onGathered(ScatterGather gathered) {
+					result.set(gathered);
+					partial.countDown();
+				}
+			});
+		assertTrue(partial.await(10, TimeUnit.SECONDS));
+		ScatterGather gathered = result.get();
+		assertEquals(ScatterGather.STATES.ANSWERED, gathered.getReplies().get(0).getState());
+		assertEquals(ScatterGather.STATES.TIMED_OUT, gathered.getReplies().get(1).getState());
+		assertEquals(ScatterGather.STATES.FAILED, gathered.getReplies().get(2).getState());
+		assertEquals("1 of 3 answered, 1 failed, 1 timed out", gathered.summary());
+	}
+	
+	@Test
+	public void testScatterGatherDoesNotWaitOnSilentDataServers() throws IOException, InterruptedException {
+		//the kernel completes the connect, but nobody ever accepts or answers
+		ServerSocket silent = new ServerSocket(0);
+		ServerInfo mute = new DataServerInfo("127.0.0.1", silent.getLocalPort(), 3L, ServerInfo.TYPES.DATA);
+		ServerInfo unroutable = new DataServerInfo("10.255.255.1", 7500, 4L, ServerInfo.TYPES.DATA);
+		try {
+			final AtomicReference<ScatterGather> result = new AtomicReference<ScatterGather>();
+			final CountDownLatch done = new CountDownLatch(1);
+			ScatterGather scatter = new ScatterGather(pool).add(mute, Opcode.HEAD, "a").add(unroutable, Opcode.HEAD, "b")
+					.add(info, Opcode.HEAD, "c").add(mute, Opcode.HEAD, "d");
+			long start = System.currentTimeMillis();
+			scatter.send(500, new ScatterGather.Callback() {
+				@Override
+				public void onGathered(ScatterGather gathered) {
+					result.set(gathered);
+					done.countDown();
+				}
+			});
+			assertTrue(System.currentTimeMillis() - start < 250);
+			
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertTrue(System.currentTimeMillis() - start < 3000);
+			ScatterGather gathered = result.get();
+			assertEquals(ScatterGather.STATES.TIMED_OUT, gathered.getReplies().get(0).getState());
+			assertTrue(gathered.getReplies().get(1).getState() != ScatterGather.STATES.ANSWERED);
+			assertEquals(ScatterGather.STATES.ANSWERED, gathered.getReplies().get(2).getState());
+			assertEquals(ScatterGather.STATES.TIMED_OUT, gathered.getReplies().get(3).getState());
+		} finally {
+			silent.close();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package test.mousefs.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.Opcode;
+
+public class TestFrame {
+	
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] data = new byte[] {0, 10, 13, -1, 127, -128};
+		String path = "dir/f\u00e9\u4e2d\ud83d\ude00 with\nnewline";
+		ByteBuffer encoded = FrameEncoder.get().begin(Opcode.WRITE, 42L).putString(path).putBytes(data)
+				.putInt(-7).putLong(Long.MIN_VALUE).finish();
+		
+		Frame frame = Frame.decode(encoded);
+		assertFalse(encoded.hasRemaining());
+		assertEquals(Opcode.WRITE, frame.getOpcode());
+		assertEquals(42L, frame.getRequestId());
+		assertEquals(path, frame.readString());
+		assertArrayEquals(data, frame.readBytes());
+		assertEquals(-7, frame.readInt());
+		assertEquals(Long.MIN_VALUE, frame.readLong());
+		assertFalse(frame.hasRemaining());
+	}
+	
+	@Test
+	public void testLargeFrame() throws IOException {
+		byte[] data = new byte[1024*1024];
+		new Random(1).nextBytes(data);
+		ServerInfo[] chain = {new DataServerInfo("127.0.0.1", 7501, 2L, ServerInfo.TYPES.DATA)};
+		ByteBuffer encoded = FrameEncoder.get().begin(Opcode.WRITE, 6L).putString("a/f").putBytes(data).putChain(chain).finish();
+		
+		Frame frame = Frame.decode(encoded);
+		assertFalse(encoded.hasRemaining());
+		assertEquals("a/f", frame.readString());
+		assertArrayEquals(data, frame.readBytes());
+		assertEquals(7501, frame.readChain()[0].getPort());
+		
+		//the next frame is built in the small buffer again, not on top of the big one
+		ByteBuffer small = FrameEncoder.encode(Opcode.LINE, 7L, "small");
+		assertEquals(small.limit(), small.capacity());
+		assertEquals("small", Frame.decode(small).readString());
+	}
+	
+	@Test
+	public void testStringsMatchJavaUTF8() throws IOException {
+		String value = "a\u00ff\u0800\uffff\ud800\udc00";
+		ByteBuffer encoded = FrameEncoder.encode(Opcode.LINE, 1L, value);
+		byte[] expected = value.getBytes(Frame.UTF8);
+		//frame length, version, opcode, request id, string length
+		assertEquals(4+1+1+8+4+expected.length, encoded.remaining());
+		assertEquals(value, Frame.decode(encoded).readString());
+	}
+	
+	@Test
+	public void testPartialFrames() throws IOException {
+		ByteBuffer encoded = FrameEncoder.encode(Opcode.MKDIRS, 3L, "a/b/c");
+		ByteBuffer in = ByteBuffer.allocate(64);
+		
+		//feed one byte at a time; nothing decodes until the frame is whole
+		while(encoded.remaining() > 1) {
+			in.put(encoded.get());
+			in.flip();
+			assertNull(Frame.decode(in));
+			assertEquals(0, in.position());
+			in.compact();
+		}
+		in.put(encoded.get());
+		in.flip();
+		assertEquals("a/b/c", Frame.decode(in).readString());
+	}
+	
+	@Test
+	public void testServerInfo() throws IOException {
+		DataServerInfo info = new DataServerInfo("10.0.0.1", 7500, 99L, ServerInfo.TYPES.DATA);
+		info.setCores(8);
+		info.setFreeSpace(1L << 40);
+		ByteBuffer encoded = FrameEncoder.get().begin(Opcode.HELLO, 0).putServerInfo(info).finish();
+		
+		DataServerInfo decoded = (DataServerInfo) Frame.decode(encoded).readServerInfo();
+		assertEquals("10.0.0.1", decoded.getAddress());
+		assertEquals(7500, decoded.getPort());
+		assertEquals(99L, decoded.getID());
+		assertEquals(8, decoded.getCores());
+		assertEquals(1L << 40, decoded.getFreeSpace());
+		
+		encoded = FrameEncoder.get().begin(Opcode.HELLO, 0).putServerInfo(new ServerInfo("cli", 7400, 0L, ServerInfo.TYPES.CLI)).finish();
+		assertEquals(ServerInfo.TYPES.CLI, Frame.decode(encoded).readServerInfo().getType());
+	}
+	
+	@Test
+	public void testChain() throws IOException {
+		ServerInfo[] chain = new ServerInfo[] {
+			new DataServerInfo("10.0.0.2", 7500, 2L, ServerInfo.TYPES.DATA),
+			new DataServerInfo("10.0.0.3", 7501, 3L, ServerInfo.TYPES.DATA)};
+		ByteBuffer encoded = FrameEncoder.get().begin(Opcode.APPEND, 4L).putString("a/f").putBytes(new byte[] {1}).putChain(chain).finish();
+		Frame frame = Frame.decode(encoded);
+		frame.readString();
+		frame.readBytes();
+		ServerInfo[] decoded = frame.readChain();
+		assertEquals(2, decoded.length);
+		assertEquals("10.0.0.3", decoded[1].getAddress());
+		assertEquals(7501, decoded[1].getPort());
+		
+		//the end of a chain, and writes from older clients, carry none
+		frame = Frame.decode(FrameEncoder.get().begin(Opcode.APPEND, 5L).putString("a/f").putBytes(new byte[] {1}).finish());
+		frame.readString();
+		frame.readBytes();
+		assertEquals(0, frame.readChain().length);
+	}
+	
+	@Test
+	public void testBlockingRead() throws IOException {
+		ByteBuffer first = FrameEncoder.encode(Opcode.LINE, 1L, "one");
+		ByteBuffer second = FrameEncoder.encode(Opcode.END, 1L);
+		byte[] stream = new byte[first.remaining()+second.remaining()];
+		first.get(stream, 0, first.remaining());
+		second.get(stream, stream.length-second.remaining(), second.remaining());
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream));
+		assertEquals("one", Frame.read(in).readString());
+		assertEquals(Opcode.END, Frame.read(in).getOpcode());
+		assertNull(Frame.read(in));
+	}
+	
+	@Test(expected = IOException.class)
+	public void testRejectsOtherVersions() throws IOException {
+		ByteBuffer encoded = FrameEncoder.encode(Opcode.HELP, 1L);
+		encoded.put(4, (byte) (Frame.VERSION+1));
+		Frame.decode(encoded);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testTruncatedField() throws IOException {
+		Frame frame = Frame.decode(FrameEncoder.encode(Opcode.HEAD, 1L));
+		frame.readString();
+	}
+	
+	@Test
+	public void testCommandsMatchWholeWords() {
+		assertEquals(Opcode.MKDIR, Opcode.forCommand("mkdir"));
+		assertEquals(Opcode.MKDIRS, Opcode.forCommand("mkdirs"));
+		assertEquals(Opcode.SHUTDOWN, Opcode.forCommand("shutdown"));
+		assertNull(Opcode.forCommand("mkdirsx"));
+		//replies and server-to-server requests are not commands
+		assertNull(Opcode.forCommand("end"));
+		assertNull(Opcode.forCommand("remove"));
+		assertNull(Opcode.forCommand("hello"));
+	}
+}
@@ -0,0 +1,254 @@
+package test.mousefs.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.net.Connection;
+import server.net.ConnectionHandler;
+import server.net.ConnectionHandlerFactory;
+import server.net.Frame;
+import server.net.FrameEncoder;
+import server.net.FrameWriter;
+import server.net.Opcode;
+import server.net.SelectorServer;
+
+public class TestSelectorServer {
+	private SelectorServer server;
+	private int port;
+	
+	//pieces a TAIL sends the file in, and lines the other reply prints meanwhile
+	private static final int PIECES = 2000;
+	private static final int PIECE = 32;
+	
+	//echoes every LINE back, sends the file a READ names, LOGOUT hangs up;
+	//a TAIL sends the file piece by piece while another reply prints lines on the same connection
+	private static class EchoHandler implements ConnectionHandler {
+		private final Connection connection;
+		
+		EchoHandler(Connection connection) {
+			this.connection = connection;
+		}
+		
+		@Override
+		public void connected() {
+		}
+
+		@Override
+		public Object decode(ByteBuffer in) throws IOException {
+			return Frame.decode(in);
+		}
+
+		@Override
+		public void handle(Object object) {
+			Frame frame = (Frame) object;
+			if(frame.getOpcode() == Opcode.LOGOUT) {
+				connection.close();
+				return;
+			}
+			FrameWriter out = new FrameWriter(connection, frame.getRequestId());
+			try {
+				if(frame.getOpcode() == Opcode.READ) {
+					FileChannel file = new FileInputStream(frame.readString()).getChannel();
+					out.println("sending");
+					out.sendFile(file, 1, file.size()-1);
+				} else if(frame.getOpcode() == Opcode.TAIL) {
+					String path = frame.readString();
+					final FrameWriter other = new FrameWriter(connection, frame.getRequestId()+1);
+					Thread chatter = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							for(int i = 0; i < PIECES; i++) {
+								other.println("line "+i);
+							}
+							other.release();
+						}
+					});
+					chatter.start();
+					for(int i = 0; i < PIECES; i++) {
+						out.sendFile(new FileInputStream(path).getChannel(), i*PIECE, PIECE);
+					}
+					try {
+						chatter.join();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				} else {
+					out.println("echo "+frame.readString());
+				}
+			} catch (IOException e) {
+				out.println("malformed");
+			}
+			out.release();
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+	
+	@Before
+	public void setUp() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		port = probe.getLocalPort();
+		probe.close();
+		
+		server = new SelectorServer("test", 2, 4, new ConnectionHandlerFactory() {
+			@Override
+			public ConnectionHandler newHandler(Connection connection) {
+				return new EchoHandler(connection);
+			}
+		});
+		server.bind(port);
+	}
+	
+	@After
+	public void tearDown() {
+		server.shutdown();
+	}
+	
+	private static void send(Socket socket, ByteBuffer frame) throws IOException {
+		socket.getOutputStream().write(frame.array(), frame.position(), frame.remaining());
+	}
+	
+	//reads one LINE and the END that follows it
+	private static String readReply(DataInputStream in, long id) throws IOException {
+		Frame line = Frame.read(in);
+		assertEquals(Opcode.LINE, line.getOpcode());
+		assertEquals(id, line.getRequestId());
+		Frame end = Frame.read(in);
+		assertEquals(Opcode.END, end.getOpcode());
+		assertEquals(id, end.getRequestId());
+		return line.readString();
+	}
+	
+	@Test
+	public void testRepliesInOrder() throws IOException {
+		Socket socket = new Socket("127.0.0.1", port);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		
+		//pipeline everything before reading anything back
+		for(int i = 0; i < 100; i++) {
+			send(socket, FrameEncoder.encode(Opcode.LINE, i, "line "+i));
+		}
+		for(int i = 0; i < 100; i++) {
+			assertEquals("echo line "+i, readReply(in, i));
+		}
+		
+		send(socket, FrameEncoder.encode(Opcode.LOGOUT, 100));
+		assertNull(Frame.read(in));
+		socket.close();
+	}
+	
+	@Test
+	public void testManyIdleConnections() throws Exception {
+		List<Socket> sockets = new ArrayList<Socket>(200);
+		for(int i = 0; i < 200; i++) {
+			sockets.add(new Socket("127.0.0.1", port));
+		}
+		
+		//every connection is still served once the rest sit idle
+		for(Socket socket : sockets) {
+			send(socket, FrameEncoder.encode(Opcode.LINE, 7, "ping"));
+		}
+		for(Socket socket : sockets) {
+			assertEquals("echo ping", readReply(new DataInputStream(socket.getInputStream()), 7));
+		}
+		assertEquals(200, server.getConnectionCount());
+		
+		for(Socket socket : sockets) {
+			socket.close();
+		}
+		for(int i = 0; i < 100 && server.getConnectionCount() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, server.getConnectionCount());
+	}
+	
+	@Test
+	public void testSendFile() throws IOException {
+		File file = File.createTempFile("region", ".blk");
+		byte[] contents = new byte[3*FrameWriter.DATA_CHUNK+17];
+		new Random(42).nextBytes(contents);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(contents);
+		fos.close();
+		
+		Socket socket = new Socket("127.0.0.1", port);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		send(socket, FrameEncoder.encode(Opcode.READ, 3, file.getPath()));
+		
+		//the line comes first, then the file (minus its first byte) in chunks
+		Frame frame = Frame.read(in);
+		assertEquals(Opcode.LINE, frame.getOpcode());
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		int chunks = 0;
+		while((frame = Frame.read(in)).getOpcode() == Opcode.DATA) {
+			assertEquals(3, frame.getRequestId());
+			received.write(frame.readBytes());
+			chunks++;
+		}
+		assertEquals(Opcode.END, frame.getOpcode());
+		assertEquals(4, chunks);
+		byte[] expected = new byte[contents.length-1];
+		System.arraycopy(contents, 1, expected, 0, expected.length);
+		assertArrayEquals(expected, received.toByteArray());
+		
+		socket.close();
+		file.delete();
+	}
+	
+	@Test
+	public void testSendFileBesideLines() throws IOException {
+		File file = File.createTempFile("region", ".blk");
+		byte[] contents = new byte[PIECES*PIECE];
+		new Random(7).nextBytes(contents);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(contents);
+		fos.close();
+		
+		Socket socket = new Socket("127.0.0.1", port);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		send(socket, FrameEncoder.encode(Opcode.TAIL, 10, file.getPath()));
+		
+		//whichever way the two replies mix, every frame of both decodes whole and in order
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		int lines = 0;
+		int ends = 0;
+		while(ends < 2) {
+			Frame frame = Frame.read(in);
+			if(frame.getOpcode() == Opcode.END) {
+				ends++;
+			} else if(frame.getRequestId() == 10) {
+				assertEquals(Opcode.DATA, frame.getOpcode());
+				received.write(frame.readBytes());
+			} else {
+				assertEquals(11, frame.getRequestId());
+				assertEquals(Opcode.LINE, frame.getOpcode());
+				assertEquals("line "+lines, frame.readString());
+				lines++;
+			}
+		}
+		assertEquals(PIECES, lines);
+		assertArrayEquals(contents, received.toByteArray());
+		
+		socket.close();
+		file.delete();
+	}
+}
@@ -0,0 +1,84 @@
+package test.mousefs.net;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import server.net.TaskExecutor;
+
+public class TestTaskExecutor {
+	
+	private Runnable await(final CountDownLatch started, final CountDownLatch release) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+	
+	@Test
+	public void testCountsInFlight() throws InterruptedException {
+		TaskExecutor executor = new TaskExecutor("test", TaskExecutor.MODES.PLATFORM, 4, 16);
+		CountDownLatch started = new CountDownLatch(4);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		for(int i = 0; i < 10; i++) {
+			executor.execute(await(started, release));
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		//4 running, 6 queued
+		assertEquals(10, executor.getInFlight());
+		
+		release.countDown();
+		for(int i = 0; i < 250 && executor.getCompleted() < 10; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, executor.getInFlight());
+		assertEquals(10, executor.getPeakInFlight());
+		assertEquals(10, executor.getCompleted());
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testPlatformPoolIsBounded() throws InterruptedException {
+		TaskExecutor executor = new TaskExecutor("test", TaskExecutor.MODES.PLATFORM, 1, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		executor.execute(await(started, release));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.execute(await(new CountDownLatch(1), release));
+		try {
+			executor.execute(await(new CountDownLatch(1), release));
+			fail("A full pool should reject.");
+		} catch (RejectedExecutionException e) {
+			//expected
+		}
+		assertEquals(2, executor.getInFlight());
+		assertEquals(1, executor.getRejected());
+		release.countDown();
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testVirtualModeFallsBack() throws InterruptedException {
+		TaskExecutor executor = new TaskExecutor("test", TaskExecutor.MODES.VIRTUAL, 2, 2);
+		TaskExecutor.MODES expected = TaskExecutor.isVirtualSupported() ? TaskExecutor.MODES.VIRTUAL : TaskExecutor.MODES.PLATFORM;
+		assertEquals(expected, executor.getMode());
+		
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute(await(done, new CountDownLatch(0)));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		executor.shutdown();
+	}
+}
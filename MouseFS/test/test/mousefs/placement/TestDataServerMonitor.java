@@ -0,0 +1,72 @@
+package test.mousefs.placement;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import server.info.ServerInfo;
+import server.meta.DataServerMonitor;
+
+public class TestDataServerMonitor {
+	private static final long INTERVAL = 1000;
+
+	private static ServerInfo dataServer(int port) {
+		return new ServerInfo("10.0.0.1", port, port, ServerInfo.TYPES.DATA);
+	}
+
+	@Test
+	public void testMissedBeats() {
+		DataServerMonitor monitor = new DataServerMonitor(INTERVAL);
+		ServerInfo a = dataServer(7500);
+		ServerInfo b = dataServer(7501);
+		assertEquals(DataServerMonitor.STATES.DEAD, monitor.getState(a, 0));
+
+		assertTrue(monitor.heartbeat(a, 0));
+		assertTrue(monitor.heartbeat(b, 0));
+		assertFalse(monitor.heartbeat(b, INTERVAL));
+		assertTrue(monitor.check(INTERVAL).isEmpty());
+
+		//a stops beating; b keeps going
+		long now = 0;
+		for(int beat = 1; beat < DataServerMonitor.DEAD_BEATS; beat++) {
+			now = beat*INTERVAL + 1;
+			monitor.heartbeat(b, now);
+			Map<String, DataServerMonitor.STATES> changed = monitor.check(now);
+			if(beat == DataServerMonitor.STALE_BEATS) {
+				assertEquals(DataServerMonitor.STATES.STALE, changed.get("10.0.0.1:7500"));
+			} else {
+				assertTrue(changed.isEmpty());
+			}
+		}
+		assertEquals(DataServerMonitor.STATES.STALE, monitor.getState(a, now));
+		assertEquals(Arrays.asList(b), Arrays.asList(monitor.filterLive(new ServerInfo[] {a, b}, now)));
+
+		now += INTERVAL;
+		assertEquals(DataServerMonitor.STATES.DEAD, monitor.check(now).get("10.0.0.1:7500"));
+		assertEquals(DataServerMonitor.STATES.DEAD, monitor.getState(a, now));
+		//dead ones are only reported once
+		assertTrue(monitor.check(now + INTERVAL).isEmpty());
+
+		//and come back with their next beat
+		assertTrue(monitor.heartbeat(a, now));
+		assertTrue(monitor.isLive(a, now));
+	}
+
+	@Test
+	public void testStaleComesBack() {
+		DataServerMonitor monitor = new DataServerMonitor(INTERVAL);
+		ServerInfo a = dataServer(7500);
+		monitor.heartbeat(a, 0);
+		long now = (DataServerMonitor.STALE_BEATS+1)*INTERVAL;
+		assertFalse(monitor.isLive(a, now));
+		assertTrue(monitor.heartbeat(a, now));
+		assertTrue(monitor.isLive(a, now));
+
+		//a closed connection does not wait for missed beats
+		monitor.remove(a);
+		assertEquals(DataServerMonitor.STATES.DEAD, monitor.getState(a, now));
+	}
+}
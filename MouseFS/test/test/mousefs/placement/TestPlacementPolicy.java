@@ -0,0 +1,85 @@
+package test.mousefs.placement;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import server.info.DataServerInfo;
+import server.info.ServerInfo;
+import server.meta.placement.BlockPlacementPolicy;
+import server.meta.placement.RandomPlacementPolicy;
+import server.meta.placement.WeightedPlacementPolicy;
+
+public class TestPlacementPolicy {
+	private static final long GB = 1024L*1024*1024;
+
+	private static DataServerInfo dataServer(int port, long freeSpace, int inFlight) {
+		DataServerInfo info = new DataServerInfo("10.0.0.1", port, port, ServerInfo.TYPES.DATA);
+		info.setFreeSpace(freeSpace);
+		info.setInFlight(inFlight);
+		return info;
+	}
+
+	//how often each DataServer heads the chain over many picks
+	private static int[] firstPicks(BlockPlacementPolicy policy, List<DataServerInfo> dataServers, int rounds) {
+		int[] picks = new int[dataServers.size()];
+		for(int i = 0; i < rounds; i++) {
+			ServerInfo first = policy.chooseTargets("a/f", 1, dataServers)[0];
+			picks[dataServers.indexOf(first)]++;
+		}
+		return picks;
+	}
+
+	@Test
+	public void testDistinctTargets() {
+		List<DataServerInfo> dataServers = new ArrayList<DataServerInfo>();
+		for(int i = 0; i < 5; i++) {
+			dataServers.add(dataServer(7500+i, 100*GB, 0));
+		}
+		BlockPlacementPolicy[] policies = {new WeightedPlacementPolicy(), new RandomPlacementPolicy()};
+		for(BlockPlacementPolicy policy : policies) {
+			ServerInfo[] targets = policy.chooseTargets("a/f", 3, dataServers);
+			assertEquals(3, targets.length);
+			assertEquals(3, new HashSet<ServerInfo>(Arrays.asList(targets)).size());
+
+			//never more than there are, never a failure when there are none
+			assertEquals(5, policy.chooseTargets("a/f", 9, dataServers).length);
+			assertEquals(0, policy.chooseTargets("a/f", 3, new ArrayList<DataServerInfo>()).length);
+		}
+	}
+
+	@Test
+	public void testFavorsFreeSpaceAndIdleServers() {
+		List<DataServerInfo> dataServers = new ArrayList<DataServerInfo>();
+		dataServers.add(dataServer(7500, 100*GB, 0));
+		dataServers.add(dataServer(7501, 10*GB, 0));
+		dataServers.add(dataServer(7502, 100*GB, 20));
+		int[] picks = firstPicks(new WeightedPlacementPolicy(0, new Random(7)), dataServers, 10000);
+
+		assertTrue(picks[0] > 5*picks[1]);
+		assertTrue(picks[0] > 5*picks[2]);
+		//but nobody is starved, so a burst between reports still spreads out
+		assertTrue(picks[1] > 0);
+		assertTrue(picks[2] > 0);
+	}
+
+	@Test
+	public void testSkipsFullServers() {
+		List<DataServerInfo> dataServers = new ArrayList<DataServerInfo>();
+		dataServers.add(dataServer(7500, 100*GB, 50));
+		dataServers.add(dataServer(7501, GB/10, 0));
+		dataServers.add(dataServer(7502, 100*GB, 50));
+		WeightedPlacementPolicy policy = new WeightedPlacementPolicy(GB, new Random(7));
+
+		assertEquals(0, firstPicks(policy, dataServers, 1000)[1]);
+		//unless every other DataServer is already taken
+		ServerInfo[] targets = policy.chooseTargets("a/f", 3, dataServers);
+		assertEquals(dataServers.get(1), targets[2]);
+	}
+}
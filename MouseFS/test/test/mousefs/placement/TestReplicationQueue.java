@@ -0,0 +1,148 @@
+package test.mousefs.placement;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import server.data.DataServer;
+import server.info.ServerInfo;
+import server.meta.BlockMap;
+import server.meta.ReplicationQueue;
+import server.net.Frame;
+import server.net.Opcode;
+
+public class TestReplicationQueue {
+
+	private static ServerInfo dataServer(int port) {
+		return new ServerInfo("10.0.0.1", port, port, ServerInfo.TYPES.DATA);
+	}
+
+	@Test
+	public void testMostUrgentFirst() {
+		ReplicationQueue queue = new ReplicationQueue();
+		assertFalse(queue.add("a/full", 3, 3));
+		assertTrue(queue.add("a/two", 2, 3));
+		assertTrue(queue.add("a/one", 1, 3));
+		assertTrue(queue.add("a/one-of-two", 1, 2));
+		assertTrue(queue.add("a/one-of-five", 1, 5));
+		//queued again with a new count, not twice
+		assertTrue(queue.add("a/two", 2, 4));
+		assertEquals(4, queue.size());
+
+		assertEquals("a/one-of-five", queue.poll());
+		assertEquals("a/one", queue.poll());
+		assertEquals("a/one-of-two", queue.poll());
+		assertEquals("a/two", queue.poll());
+		assertNull(queue.poll());
+
+		//repaired before its turn
+		queue.add("a/f", 1, 3);
+		queue.add("a/f", 3, 3);
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testThrottle() {
+		ReplicationQueue queue = new ReplicationQueue(2);
+		ServerInfo a = dataServer(7500);
+		ServerInfo b = dataServer(7501);
+		ServerInfo c = dataServer(7502);
+		ServerInfo d = dataServer(7503);
+
+		assertEquals(a, queue.start("a/f", new ServerInfo[] {a, b}, c));
+		assertEquals(a, queue.start("a/g", new ServerInfo[] {a, b}, d));
+		//a is busy, so the next copy reads from b
+		assertEquals(b, queue.start("a/h", new ServerInfo[] {a, b}, c));
+		//and c takes no more
+		assertTrue(queue.isBusy(c));
+		assertNull(queue.start("a/i", new ServerInfo[] {b}, c));
+		assertNull(queue.start("a/i", new ServerInfo[] {a}, d));
+		assertEquals(1, queue.getCopying("a/f"));
+
+		queue.finish("a/f", a, c);
+		assertEquals(0, queue.getCopying("a/f"));
+		assertEquals(a, queue.start("a/i", new ServerInfo[] {a}, c));
+	}
+
+	@Test
+	public void testBlockMap() {
+		BlockMap map = new BlockMap();
+		ServerInfo a = dataServer(7500);
+		ServerInfo b = dataServer(7501);
+
+		Map<String, Boolean> report = new HashMap<String, Boolean>();
+		report.put("a/f", true);
+		report.put("a/g", true);
+		map.report(a, true, report);
+		map.add(b, "a/f");
+		assertEquals(2, map.getHolders("a/f").size());
+
+		//incremental: a dropped a/g
+		report.clear();
+		report.put("a/g", false);
+		map.report(a, false, report);
+		assertTrue(map.getHolders("a/g").isEmpty());
+
+		//a full report replaces whatever a reported before
+		report.clear();
+		report.put("a/h", true);
+		map.report(a, true, report);
+		assertFalse(map.getHolders("a/f").contains("10.0.0.1:7500"));
+		assertTrue(map.getHolders("a/h").contains("10.0.0.1:7500"));
+
+		assertEquals(1, map.removeDataServer(b).size());
+		assertTrue(map.getHolders("a/f").isEmpty());
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testChunkedFullReport() throws IOException {
+		BlockMap map = new BlockMap();
+		ServerInfo a = dataServer(7500);
+		map.add(a, "a/stale");
+
+		Map<String, Boolean> report = new LinkedHashMap<String, Boolean>();
+		for(int i = 0; i < 1000; i++) {
+			report.put("a/f"+i, true);
+		}
+		List<ByteBuffer> frames = DataServer.encodeReport(report, true, 1024);
+		assertTrue(frames.size() > 1);
+
+		//applied the way the MetaServer takes them, one REPORT at a time
+		int files = 0;
+		for(int i = 0; i < frames.size(); i++) {
+			ByteBuffer buffer = frames.get(i);
+			assertTrue(buffer.remaining() < 1024+64);
+			Frame frame = Frame.decode(buffer);
+			assertEquals(Opcode.REPORT, frame.getOpcode());
+			byte flags = frame.readByte();
+			assertEquals(i == 0, (flags & Opcode.REPORT_FIRST) != 0);
+			assertEquals(i == frames.size()-1, (flags & Opcode.REPORT_LAST) != 0);
+			Map<String, Boolean> chunk = new HashMap<String, Boolean>();
+			int count = frame.readInt();
+			for(int j = 0; j < count; j++) {
+				chunk.put(frame.readString(), frame.readByte() != 0);
+			}
+			files += count;
+			map.report(a, (flags & Opcode.REPORT_FIRST) != 0, chunk);
+		}
+		assertEquals(1000, files);
+		//only the first part forgot what came before the report
+		assertTrue(map.getHolders("a/stale").isEmpty());
+		assertEquals(1000, map.getFileCount(a));
+		assertTrue(map.getHolders("a/f0").contains("10.0.0.1:7500"));
+		assertTrue(map.getHolders("a/f999").contains("10.0.0.1:7500"));
+
+		//a DataServer holding nothing still sends one frame that clears the map
+		frames = DataServer.encodeReport(new HashMap<String, Boolean>(), true, 1024);
+		assertEquals(1, frames.size());
+		assertTrue(DataServer.encodeReport(new HashMap<String, Boolean>(), false, 1024).isEmpty());
+	}
+}